@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import com.twelvemonkeys.util.FutureTasks;
+
+import java.awt.image.ImagingOpException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Splits an image operation into bands of rows, and processes the bands concurrently, using an
+ * {@code Executor} passed by the caller.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: BandTasks.java,v 1.0 21.02.16 haraldk Exp$
+ */
+final class BandTasks {
+    /** Number of available processors */
+    static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private BandTasks() {}
+
+    /**
+     * Processes the rows {@code [first, last)} of a band.
+     */
+    interface Band {
+        void process(int first, int last);
+    }
+
+    /**
+     * Returns the number of tasks to use for processing {@code height} rows, in bands of at least {@code rows} rows.
+     *
+     * @param executor the executor, may be {@code null}.
+     * @param height the number of rows.
+     * @param rows the minimum number of rows per band, to keep task overhead low.
+     * @return the number of tasks, {@code 1} if {@code executor} is {@code null}.
+     */
+    static int tasks(final Executor executor, final int height, final int rows) {
+        if (executor == null) {
+            return 1;
+        }
+
+        int bands = (height + Math.max(1, rows) - 1) / Math.max(1, rows);
+
+        return Math.max(1, Math.min(bands, Math.max(2, PARALLELISM)));
+    }
+
+    /**
+     * Processes {@code height} rows in {@code tasks} bands of (close to) equal size, and waits for all bands to
+     * complete. If {@code tasks <= 1}, all rows are processed on the calling thread.
+     *
+     * @param executor the executor used for processing the bands, may be {@code null} if {@code tasks <= 1}.
+     * @param tasks the number of bands.
+     * @param height the number of rows.
+     * @param band the band processor.
+     * @param operation a short description of the operation, used in exception messages.
+     * @throws ImagingOpException if interrupted while waiting for the bands to complete.
+     */
+    static void invoke(final Executor executor, final int tasks, final int height, final Band band, final String operation) {
+        if (tasks <= 1) {
+            band.process(0, height);
+            return;
+        }
+
+        int rowsPerTask = (height + tasks - 1) / tasks;
+        List<Callable<Void>> bands = new ArrayList<>(tasks);
+
+        for (int y = 0; y < height; y += rowsPerTask) {
+            final int first = y;
+            final int last = Math.min(height, y + rowsPerTask);
+
+            bands.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    band.process(first, last);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            FutureTasks.invokeAll(executor, bands, operation);
+        }
+        catch (IOException e) {
+            // Bands can't throw checked exceptions, so we were interrupted
+            ImagingOpException exception = new ImagingOpException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.awt.image.Raster;
 import java.awt.image.RasterOp;
 import java.awt.image.WritableRaster;
 import java.util.Random;
+import java.util.concurrent.Executor;
 
 /**
  * This {@code BufferedImageOp/RasterOp} implements basic
@@ -32,6 +33,13 @@ import java.util.Random;
  * <P/>
  * See <A href="http://www.awprofessional.com/bookstore/product.asp?isbn=0201848406&rl=1">Computer Graphics (Foley et al.)</a>
  * for more information.
+ * <P/>
+ * Large images may be dithered using multiple threads, by setting an
+ * {@code Executor}, see {@link #setExecutor(Executor)}.
+ * <P/>
+ * Dithering is considerably faster using an {@link InverseColorMapIndexColorModel},
+ * that maps colors using a lookup table, instead of searching the palette for
+ * the nearest color for each pixel.
  *
  * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
  * @author last modified by $Author: haku $
@@ -43,8 +51,12 @@ public class DiffusionDither implements BufferedImageOp, RasterOp {
     private static final int FS_SCALE = 1 << 8;
     private static final Random RANDOM = new Random();
 
+    /** Number of rows in each stripe, when dithering concurrently */
+    static final int STRIPE_HEIGHT = 64;
+
     protected final IndexColorModel indexColorModel;
     private boolean alternateScans = true;
+    private Executor executor;
 
     /**
      * Creates a {@code DiffusionDither}, using the given
@@ -79,6 +91,30 @@ public class DiffusionDither implements BufferedImageOp, RasterOp {
         alternateScans = pUse;
     }
 
+    /**
+     * Returns the executor used for dithering stripes of the image concurrently.
+     *
+     * @return the executor, or {@code null} if the image is dithered in one piece, on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for dithering the image concurrently.
+     * <p/>
+     * When an executor is set, the image is divided into stripes of {@value #STRIPE_HEIGHT} rows,
+     * that are dithered independently, and errors are not diffused from one stripe to the next.
+     * The result is deterministic, and does not depend on the number of threads, but differs slightly from
+     * dithering the image in one piece.
+     * The default is {@code null}.
+     *
+     * @param executor the executor, or {@code null} to dither the image in one piece, on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * Creates a compatible {@code BufferedImage} to dither into.
      * Only {@code IndexColorModel} allowed.
@@ -278,15 +314,42 @@ public class DiffusionDither implements BufferedImageOp, RasterOp {
      * @return the destination raster, or a new raster, if {@code pDest} was
      * {@code null}.
      */
-    public final WritableRaster filter(final Raster pSource, WritableRaster pDest, IndexColorModel pColorModel) {
-        int width = pSource.getWidth();
-        int height = pSource.getHeight();
+    public final WritableRaster filter(final Raster pSource, WritableRaster pDest, final IndexColorModel pColorModel) {
+        final int height = pSource.getHeight();
 
         // Create destination raster if needed
         if (pDest == null) {
             pDest = createCompatibleDestRaster(pSource, pColorModel);
         }
 
+        if (executor == null) {
+            dither(pSource, pDest, pColorModel, 0, height, RANDOM);
+        }
+        else {
+            final WritableRaster dest = pDest;
+            int stripes = (height + STRIPE_HEIGHT - 1) / STRIPE_HEIGHT;
+
+            BandTasks.invoke(executor, BandTasks.tasks(executor, stripes, 1), stripes, new BandTasks.Band() {
+                @Override
+                public void process(final int first, final int last) {
+                    for (int stripe = first; stripe < last; stripe++) {
+                        // Seed from stripe index, to get the same result regardless of the number of threads
+                        dither(pSource, dest, pColorModel, stripe * STRIPE_HEIGHT, Math.min(height, (stripe + 1) * STRIPE_HEIGHT), new Random(stripe));
+                    }
+                }
+            }, "dithering image");
+        }
+
+        return pDest;
+    }
+
+    /**
+     * Dithers the rows {@code [pFirst, pLast)}, starting with random errors from {@code pRandom}.
+     */
+    private void dither(final Raster pSource, final WritableRaster pDest, final IndexColorModel pColorModel,
+                        final int pFirst, final int pLast, final Random pRandom) {
+        int width = pSource.getWidth();
+
         // Initialize Floyd-Steinberg error vectors.
         // +2 to handle the previous pixel and next pixel case minimally
         // When reference for column, add 1 to reference as this buffer is
@@ -298,9 +361,9 @@ public class DiffusionDither implements BufferedImageOp, RasterOp {
         // Random errors in [-1 .. 1] - for first row
         for (int i = 0; i < width + 2; i++) {
             // Note: This is broken for the strange cases where nextInt returns Integer.MIN_VALUE
-            currErr[i][0] = RANDOM.nextInt(FS_SCALE * 2) - FS_SCALE;
-            currErr[i][1] = RANDOM.nextInt(FS_SCALE * 2) - FS_SCALE;
-            currErr[i][2] = RANDOM.nextInt(FS_SCALE * 2) - FS_SCALE;
+            currErr[i][0] = pRandom.nextInt(FS_SCALE * 2) - FS_SCALE;
+            currErr[i][1] = pRandom.nextInt(FS_SCALE * 2) - FS_SCALE;
+            currErr[i][2] = pRandom.nextInt(FS_SCALE * 2) - FS_SCALE;
         }
 
         // Temp buffers
@@ -311,7 +374,7 @@ public class DiffusionDither implements BufferedImageOp, RasterOp {
         boolean forward = true;
 
         // Loop through image data
-        for (int y = 0; y < height; y++) {
+        for (int y = pFirst; y < pLast; y++) {
             // Clear out next error rows for colour errors
             for (int i = nextErr.length; --i >= 0;) {
                 nextErr[i][0] = 0;
@@ -454,7 +517,5 @@ public class DiffusionDither implements BufferedImageOp, RasterOp {
                 forward = !forward;
             }
         }
-
-        return pDest;
     }
 }
\ No newline at end of file
@@ -91,9 +91,8 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * This class implements an adaptive palette generator to reduce images
@@ -205,44 +204,232 @@ class IndexImage {
     protected final static int TRANSPARENCY_TRANSLUCENT = 0x030000;
 
     /**
-     * Used to track a color and the number of pixels of that colors
+     * The color histogram of an image, with the number of pixels of each color.
+     * Colors are grouped in 4096 bins, using the high four bits of each component.
+     * Within a bin, colors are ordered by their first occurrence in the image, scanning column by column.
      */
-    private static class Counter {
+    static final class Histogram {
+        /** Minimum number of sampled pixels per band, to keep task overhead low */
+        static final int BAND_SAMPLES = 64 * 1024;
 
-        /**
-         * Field val
-         */
-        public int val;
+        // Sort key bits used for the pixel position, the bin is stored above
+        private static final int POSITION_BITS = 51;
 
-        /**
-         * Field count
-         */
-        public int count = 1;
+        /** Index of the first color of each bin, the colors of bin {@code n} are {@code [start[n], start[n + 1])} */
+        final int[] start;
+        final int[] colors;
+        final int[] counts;
+
+        /** Total number of pixels sampled */
+        final int sampleCount;
+
+        private Histogram(final int[] start, final int[] colors, final int[] counts, final int sampleCount) {
+            this.start = start;
+            this.colors = colors;
+            this.counts = counts;
+            this.sampleCount = sampleCount;
+        }
 
         /**
-         * Constructor Counter
+         * Creates a histogram of the given image.
+         * The rows are counted in bands, processed concurrently if an executor is given.
+         * The result is the same, regardless of the number of bands.
          *
-         * @param val the initial value
+         * @param image the image
+         * @param step only every {@code step} pixel is sampled, {@code 1} samples all pixels.
+         * @param executor the executor used for processing bands concurrently, or {@code null} to process all
+         *                 rows on the calling thread.
+         * @return a new histogram
          */
-        public Counter(int val) {
-            this.val = val;
+        static Histogram create(final BufferedImage image, final int step, final Executor executor) {
+            final int width = image.getWidth();
+            final int height = image.getHeight();
+
+            final ColorTable table = new ColorTable(1024);
+
+            int tasks = BandTasks.tasks(executor, height, BAND_SAMPLES / Math.max(1, width / step));
+            BandTasks.invoke(executor, tasks, height, new BandTasks.Band() {
+                @Override
+                public void process(final int first, final int last) {
+                    ColorTable band = count(image, step, first, last);
+
+                    // Counts are summed, and the first position is the minimum, so the order of merging is irrelevant
+                    synchronized (table) {
+                        table.addAll(band);
+                    }
+                }
+            }, "creating color histogram");
+
+            // Sort colors by bin, then by first occurrence
+            long[] order = new long[table.size];
+            int n = 0;
+
+            for (int i = 0; i < table.keys.length; i++) {
+                int rgb = table.keys[i];
+
+                if (rgb != ColorTable.EMPTY) {
+                    order[n++] = (long) bin(rgb) << POSITION_BITS | table.first[i];
+                }
+            }
+
+            Arrays.sort(order);
+
+            int[] start = new int[(1 << 12) + 1];
+            int[] colors = new int[n];
+            int[] counts = new int[n];
+
+            for (int i = 0; i < n; i++) {
+                long position = order[i] & ((1L << POSITION_BITS) - 1);
+
+                // Look up the color at its first position, to keep the arrays small
+                int rgb = image.getRGB((int) (position / height), (int) (position % height)) & 0xFFFFFF;
+
+                colors[i] = rgb;
+                counts[i] = table.get(rgb);
+                start[bin(rgb) + 1]++;
+            }
+
+            for (int i = 1; i < start.length; i++) {
+                start[i] += start[i - 1];
+            }
+
+            return new Histogram(start, colors, counts, table.samples);
+        }
+
+        private static ColorTable count(final BufferedImage image, final int step, final int first, final int last) {
+            int width = image.getWidth();
+            long height = image.getHeight();
+
+            ColorTable table = new ColorTable(1024);
+            int[] row = step == 1 ? new int[width] : null;
+
+            for (int y = first; y < last; y++) {
+                if (row != null) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                }
+
+                // Same pixels as sampling every step pixel column by column, starting at x % step
+                for (int x = y % step; x < width; x += step) {
+                    int rgb = row != null ? row[x] : image.getRGB(x, y);
+                    table.add(rgb & 0xFFFFFF, x * height + y, 1);
+                }
+            }
+
+            return table;
         }
 
         /**
-         * Method add
-         *
-         * @param val the new value
-         * @return {@code true} if the value was added, otherwise {@code false}
+         * Gets the bin index from the high four bits of each component.
          */
-        public boolean add(int val) {
-            // See if the value matches us...
-            if (this.val != val) {
-                return false;
+        static int bin(final int rgb) {
+            return ((rgb & 0xF00000) >>> 12) | ((rgb & 0x00F000) >>> 8) | ((rgb & 0x0000F0) >>> 4);
+        }
+    }
+
+    /**
+     * Open addressing hash table of colors, with the number of pixels and first position of each color.
+     */
+    private static final class ColorTable {
+        static final int EMPTY = -1; // Not a valid RGB value
+
+        int[] keys;
+        int[] counts;
+        long[] first;
+
+        int size;
+        int samples;
+
+        ColorTable(final int capacity) {
+            keys = new int[capacity];
+            counts = new int[capacity];
+            first = new long[capacity];
+
+            Arrays.fill(keys, EMPTY);
+        }
+
+        void add(final int rgb, final long position, final int count) {
+            int mask = keys.length - 1;
+            int i = hash(rgb) & mask;
+
+            samples += count;
+
+            while (true) {
+                int key = keys[i];
+
+                if (key == rgb) {
+                    counts[i] += count;
+
+                    if (position < first[i]) {
+                        first[i] = position;
+                    }
+
+                    return;
+                }
+
+                if (key == EMPTY) {
+                    keys[i] = rgb;
+                    counts[i] = count;
+                    first[i] = position;
+
+                    if (++size * 2 > keys.length) {
+                        grow();
+                    }
+
+                    return;
+                }
+
+                i = (i + 1) & mask;
             }
+        }
+
+        void addAll(final ColorTable other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    add(other.keys[i], other.first[i], other.counts[i]);
+                }
+            }
+        }
+
+        int get(final int rgb) {
+            int mask = keys.length - 1;
+            int i = hash(rgb) & mask;
+
+            while (keys[i] != EMPTY) {
+                if (keys[i] == rgb) {
+                    return counts[i];
+                }
+
+                i = (i + 1) & mask;
+            }
+
+            return 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            long[] oldFirst = first;
+            int oldSamples = samples;
+
+            keys = new int[oldKeys.length * 2];
+            counts = new int[keys.length];
+            first = new long[keys.length];
+            size = 0;
+
+            Arrays.fill(keys, EMPTY);
 
-            count++;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    add(oldKeys[i], oldFirst[i], oldCounts[i]);
+                }
+            }
+
+            samples = oldSamples;
+        }
 
-            return true;
+        private static int hash(final int rgb) {
+            int hash = rgb * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
         }
     }
 
@@ -254,7 +441,7 @@ class IndexImage {
         int[] min = {0, 0, 0};
         int[] max = {255, 255, 255};
         boolean done = false;
-        List<Counter>[] colors = null;
+        Histogram colors = null;
         int count = 0;
         static final int RED = 0;
         static final int GRN = 1;
@@ -266,7 +453,7 @@ class IndexImage {
          * @param colors contains the 3D color histogram to be subdivided
          * @param count  the total number of pixels in the 3D histogram.
          */
-        public Cube(List<Counter>[] colors, int count) {
+        public Cube(Histogram colors, int count) {
             this.colors = colors;
             this.count = count;
         }
@@ -393,14 +580,8 @@ class IndexImage {
 
                     for (int k = minIdx[c1]; k <= maxIdx[c1]; k++) {
                         int idx = idx2 | (k << c1Sh4);
-                        List<Counter> v = colors[idx];
-
-                        if (v == null) {
-                            continue;
-                        }
-                        
-                        for (Counter c : v) {
-                            val = c.val;
+                        for (int n = colors.start[idx], end = colors.start[idx + 1]; n < end; n++) {
+                            val = colors.colors[n];
                             vals[0] = (val & 0xFF0000) >> 16;
                             vals[1] = (val & 0xFF00) >> 8;
                             vals[2] = (val & 0xFF);
@@ -408,8 +589,8 @@ class IndexImage {
                                     && ((vals[2] >= minB) && (vals[2] <= maxB))) {
 
                                 // The val lies within this cube so count it.
-                                counts[vals[splitChannel]] += c.count;
-                                tcount += c.count;
+                                counts[vals[splitChannel]] += colors.counts[n];
+                                tcount += colors.counts[n];
                             }
                         }
                     }
@@ -537,20 +718,14 @@ class IndexImage {
 
                     for (int k = minIdx[2]; k <= maxIdx[2]; k++) {
                         int idx = idx2 | k;
-                        List<Counter> v = colors[idx];
-
-                        if (v == null) {
-                            continue;
-                        }
-
-                        for (Counter c : v) {
-                            val = c.val;
+                        for (int n = colors.start[idx], end = colors.start[idx + 1]; n < end; n++) {
+                            val = colors.colors[n];
                             ired = (val & 0xFF0000) >> 16;
                             igrn = (val & 0x00FF00) >> 8;
                             iblu = (val & 0x0000FF);
                             
                             if (((ired >= minR) && (ired <= maxR)) && ((igrn >= minG) && (igrn <= maxG)) && ((iblu >= minB) && (iblu <= maxB))) {
-                                weight = (c.count / (float) this.count);
+                                weight = (colors.counts[n] / (float) this.count);
                                 red += ((float) ired) * weight;
                                 grn += ((float) igrn) * weight;
                                 blu += ((float) iblu) * weight;
@@ -602,6 +777,31 @@ class IndexImage {
      *                                  model extraction.
      */
     public static IndexColorModel getIndexColorModel(Image pImage, int pNumberOfColors, int pHints) throws ImageConversionException {
+        return getIndexColorModel(pImage, pNumberOfColors, pHints, null);
+    }
+
+    /**
+     * Gets an {@code IndexColorModel} from the given image. If the image has an
+     * {@code IndexColorModel}, this will be returned. Otherwise, an {@code IndexColorModel}
+     * is created, using an adaptive palette.
+     * <p/>
+     * If an executor is given, the color histogram of the image is built in
+     * bands, concurrently, using the given executor. The resulting color model
+     * is the same as created by {@link #getIndexColorModel(Image, int, int)}.
+     *
+     * @param pImage          the image to get {@code IndexColorModel} from
+     * @param pNumberOfColors the number of colors for the {@code IndexColorModel}
+     * @param pHints          one of {@link #COLOR_SELECTION_FAST},
+     *                        {@link #COLOR_SELECTION_QUALITY} or
+     *                        {@link #COLOR_SELECTION_DEFAULT}.
+     * @param pExecutor       the executor used to build the color histogram,
+     *                        may be {@code null}, meaning the current thread
+     * @return The {@code IndexColorModel} from the given image, or a newly created
+     *         {@code IndexColorModel} using an adaptive palette.
+     * @throws ImageConversionException if an exception occurred during color
+     *                                  model extraction.
+     */
+    public static IndexColorModel getIndexColorModel(Image pImage, int pNumberOfColors, int pHints, Executor pExecutor) throws ImageConversionException {
         IndexColorModel icm = null;
         RenderedImage image = null;
 
@@ -636,7 +836,7 @@ class IndexImage {
 
         // We now have at least a buffered image, create model from it
         if (icm == null) {
-            icm = createIndexColorModel(ImageUtil.toBuffered(image), pNumberOfColors, pHints);
+            icm = createIndexColorModel(ImageUtil.toBuffered(image), pNumberOfColors, pHints, pExecutor);
         }
         else if (!(icm instanceof InverseColorMapIndexColorModel)) {
             // If possible, use faster code
@@ -654,9 +854,10 @@ class IndexImage {
      * @param pNumberOfColors the number of colors for the {@code IndexColorModel}
      * @param pHints          use fast mode if possible (might give slightly lower
      *                        quality)
+     * @param pExecutor       the executor used to build the color histogram, or {@code null}
      * @return a new {@code IndexColorModel} created from the given image
      */
-    private static IndexColorModel createIndexColorModel(BufferedImage pImage, int pNumberOfColors, int pHints) {
+    private static IndexColorModel createIndexColorModel(BufferedImage pImage, int pNumberOfColors, int pHints, Executor pExecutor) {
         // TODO: Use ImageUtil.hasTransparentPixels(pImage, true) ||
         // -- haraldK, 20021024, experimental, try to use one transparent pixel
         boolean useTransparency = isTransparent(pHints);
@@ -669,61 +870,16 @@ class IndexImage {
         int width = pImage.getWidth();
         int height = pImage.getHeight();
 
-        // Using 4 bits from R, G & B.
-        @SuppressWarnings("unchecked")
-        List<Counter>[] colors = new List[1 << 12];// [4096]
-
         // Speedup, doesn't decrease image quality much
         int step = 1;
 
         if (isFast(pHints)) {
             step += (width * height / 16384);// 128x128px
         }
-        int sampleCount = 0;
-        int rgb;
-
-        //for (int x = 0; x < width; x++) {
-        //for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-            for (int y = x % step; y < height; y += step) {
-                // Count the number of color samples
-                sampleCount++;
 
-                // Get ARGB pixel from image
-                rgb = (pImage.getRGB(x, y) & 0xFFFFFF);
-
-                // Get index from high four bits of each component.
-                int index = (((rgb & 0xF00000) >>> 12) | ((rgb & 0x00F000) >>> 8) | ((rgb & 0x0000F0) >>> 4));
-
-                // Get the 'hash vector' for that key.
-                List<Counter> v = colors[index];
-
-                if (v == null) {
-                    // No colors in this bin yet so create vector and
-                    // add color.
-                    v = new ArrayList<Counter>();
-                    v.add(new Counter(rgb));
-                    colors[index] = v;
-                }
-                else {
-                    // Find our color in the bin or create a counter for it.
-                    Iterator i = v.iterator();
-
-                    while (true) {
-                        if (i.hasNext()) {
-                            // try adding our color to each counter...
-                            if (((Counter) i.next()).add(rgb)) {
-                                break;
-                            }
-                        }
-                        else {
-                            v.add(new Counter(rgb));
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+        // Using 4 bits from R, G & B.
+        Histogram colors = Histogram.create(pImage, step, pExecutor);
+        int sampleCount = colors.sampleCount;
 
         // All colours found, reduce to pNumberOfColors
         int numberOfCubes = 1;
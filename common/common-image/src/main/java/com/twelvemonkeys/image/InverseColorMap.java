@@ -28,6 +28,10 @@
 
 package com.twelvemonkeys.image;
 
+import com.twelvemonkeys.util.LRUHashMap;
+
+import java.util.Arrays;
+
 /**
  * Inverse Colormap to provide efficient lookup of any given input color
  * to the closest match to the given color map.
@@ -72,6 +76,14 @@ class InverseColorMap {
      */
     final static int MAXQUANTVAL = 1 << 5;
 
+    /**
+     * Maximum number of shared inverse color maps, see {@link #get(int[], int)}
+     */
+    final static int CACHE_SIZE = 16;
+
+    // Cache for the latest used color maps
+    private static final LRUHashMap<Key, InverseColorMap> cache = new LRUHashMap<>(CACHE_SIZE);
+
     byte[] rgbMapByte;
     int[] rgbMapInt;
     int numColors;
@@ -121,6 +133,39 @@ class InverseColorMap {
     }
 
 
+    /**
+     * Gets an inverse color map for the given color map, shared with other users of the same colors.
+     * <p/>
+     * Creating an inverse color map requires a pass over all the cells of the lookup table for every color,
+     * so sharing maps speeds up creating color models for the same palette, like when converting many images
+     * to a fixed palette.
+     * Only the RGB values are significant, alpha values are ignored.
+     *
+     * @param pRGBColorMap the rgb color map to get an inverse color map for.
+     * @param pTransparent the index of the transparent pixel in the map, or {@code -1}
+     * @return an inverse color map, possibly shared. The map must not be modified.
+     */
+    static InverseColorMap get(int[] pRGBColorMap, int pTransparent) {
+        Key key = new Key(pRGBColorMap, pTransparent);
+
+        synchronized (cache) {
+            InverseColorMap map = cache.get(key);
+
+            if (map != null) {
+                return map;
+            }
+        }
+
+        // Create outside the lock, it's fine if two threads create the same map
+        InverseColorMap map = new InverseColorMap(key.rgbs, pTransparent);
+
+        synchronized (cache) {
+            cache.put(key, map);
+        }
+
+        return map;
+    }
+
     /**
      * Simple inverse color table creation method.
      * @param pTemp temp array
@@ -130,6 +175,9 @@ class InverseColorMap {
         final int xsqr = 1 << (TRUNCBITS * 2); // 64 - twice the smallest step size vale of quantized colors
         final int xsqr2 = xsqr + xsqr;
 
+        // The first color initializes all cells, skipping the transparent pixel
+        final int first = transparentIndex == 0 ? 1 : 0;
+
         for (int i = 0; i < numColors; ++i) {
             if (i == transparentIndex) {
                 // Skip the transparent pixel
@@ -168,7 +216,7 @@ class InverseColorMap {
             for (r = 0, rxx = rinc; r < MAXQUANTVAL; rdist += rxx, ++r, rxx += xsqr2) {
                 for (g = 0, gdist = rdist, gxx = ginc; g < MAXQUANTVAL; gdist += gxx, ++g, gxx += xsqr2) {
                     for (b = 0, bdist = gdist, bxx = binc; b < MAXQUANTVAL; bdist += bxx, ++b, ++rgbI, bxx += xsqr2) {
-                        if (i == 0 || pTemp[rgbI] > bdist) {
+                        if (i == first || pTemp[rgbI] > bdist) {
                             pTemp[rgbI] = bdist;
                             inverseRGB[rgbI] = (byte) i;
                         }
@@ -207,5 +255,41 @@ class InverseColorMap {
                 ((pGreen << (/* 1 * */ QUANTBITS - TRUNCBITS)) & QUANTMASK_GREEN) +
                 ((pBlue >> (TRUNCBITS)) & QUANTMASK_BLUE)] & 0xFF;
     }
+
+    private static final class Key {
+        private final int[] rgbs;
+        private final int transparent;
+        private final int hash;
+
+        Key(final int[] rgbs, final int transparent) {
+            this.rgbs = new int[rgbs.length];
+            this.transparent = transparent;
+
+            for (int i = 0; i < rgbs.length; i++) {
+                this.rgbs[i] = rgbs[i] & 0xFFFFFF;
+            }
+
+            hash = 31 * Arrays.hashCode(this.rgbs) + transparent;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+
+            return hash == key.hash && transparent == key.transparent && Arrays.equals(rgbs, key.rgbs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
 
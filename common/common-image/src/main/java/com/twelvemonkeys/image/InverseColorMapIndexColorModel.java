@@ -76,7 +76,7 @@ public class InverseColorMapIndexColorModel extends IndexColorModel {
         rgbs = pRGBs;
         mapSize = rgbs.length;
 
-        inverseMap = new InverseColorMap(rgbs);
+        inverseMap = InverseColorMap.get(rgbs, pColorModel.getTransparentPixel());
         whiteIndex = getWhiteIndex();
     }
 
@@ -116,7 +116,7 @@ public class InverseColorMapIndexColorModel extends IndexColorModel {
         rgbs = getRGBs(this);
         mapSize = rgbs.length;
 
-        inverseMap = new InverseColorMap(rgbs, pTransparentIndex);
+        inverseMap = InverseColorMap.get(rgbs, pTransparentIndex);
         whiteIndex = getWhiteIndex();
     }
 
@@ -141,7 +141,7 @@ public class InverseColorMapIndexColorModel extends IndexColorModel {
         rgbs = getRGBs(this);
         mapSize = rgbs.length;
 
-        inverseMap = new InverseColorMap(rgbs, pTransparentIndex);
+        inverseMap = InverseColorMap.get(rgbs, pTransparentIndex);
         whiteIndex = getWhiteIndex();
     }
 
@@ -165,14 +165,14 @@ public class InverseColorMapIndexColorModel extends IndexColorModel {
         rgbs = getRGBs(this);
         mapSize = rgbs.length;
 
-        inverseMap = new InverseColorMap(rgbs);
+        inverseMap = InverseColorMap.get(rgbs, -1);
         whiteIndex = getWhiteIndex();
     }
 
     private int getWhiteIndex() {
         for (int i = 0; i < rgbs.length; i++) {
             int color = rgbs[i];
-            if ((color & RGB_MASK) == WHITE) {
+            if ((color & RGB_MASK) == WHITE && i != getTransparentPixel()) {
                 return i;
             }
         }
@@ -0,0 +1,687 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import java.awt.image.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Resampling kernels for images with 8 bit samples, working directly on the backing arrays of the
+ * {@code DataBuffer}s.
+ * <p/>
+ * The image is resampled in chunks of destination rows. For each chunk, the source rows needed are first
+ * resampled horizontally, into an intermediate buffer of {@code dstWidth} pixels per row, then the destination
+ * rows are resampled vertically, one destination row at the time. The chunks are sized so that the
+ * intermediate buffer is about {@value #WORK_SIZE} bytes. Source rows shared by two chunks are resampled
+ * horizontally for both chunks.
+ * The filter weights are precomputed into flat tables, see {@link Weights}.
+ * <p/>
+ * The arithmetic is the same as in the generic {@code ResampleOp.resample} method, sample by sample and in the
+ * same order, so results are identical.
+ * <p/>
+ * Optionally, the kernels may use fixed point integer arithmetic, with {@value #FIXED_POINT_BITS} bit weights and
+ * {@code int} accumulators. This is faster, but may cause small rounding differences, see
+ * {@link ResampleOp#VALUE_PRECISION_FIXED_POINT}.
+ * <p/>
+ * The destination may be split into bands of rows, processed concurrently using an {@code Executor}.
+ * As every band computes its samples exactly like the serial code, the result does not depend on the number
+ * of bands.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ResampleKernel.java,v 1.0 18.02.16 haraldk Exp$
+ */
+final class ResampleKernel {
+    /** Minimum number of destination samples per band, to keep task overhead low */
+    static final int BAND_SAMPLES = 64 * 1024;
+
+    /** Target size of the intermediate buffer, in bytes */
+    static final int WORK_SIZE = 4 * 1024 * 1024;
+
+    /** Fractional bits of fixed point weights */
+    static final int FIXED_POINT_BITS = 14;
+    private static final int FIXED_POINT_HALF = 1 << (FIXED_POINT_BITS - 1);
+
+    private final Layout source;
+    private final Layout destination;
+    private final Weights xWeights;
+    private final Weights yWeights;
+    private final boolean fixedPoint;
+
+    private final int dstWidth;
+    private final int dstHeight;
+    private final int numBands;
+
+    private ResampleKernel(final Layout source, final Layout destination, final Weights xWeights, final Weights yWeights, final boolean fixedPoint) {
+        this.source = source;
+        this.destination = destination;
+        this.xWeights = xWeights;
+        this.yWeights = yWeights;
+        this.fixedPoint = fixedPoint;
+
+        dstWidth = xWeights.dstSize;
+        dstHeight = yWeights.dstSize;
+        numBands = source.numBands;
+    }
+
+    /**
+     * Creates a kernel resampling {@code source} into {@code destination}, if supported.
+     *
+     * @param source the source image
+     * @param destination the destination image
+     * @param xWeights horizontal weights
+     * @param yWeights vertical weights
+     * @param fixedPoint {@code true} to use fixed point arithmetic
+     * @return a new kernel, or {@code null} if the image types or layouts are not supported.
+     */
+    static ResampleKernel create(final BufferedImage source, final BufferedImage destination, final Weights xWeights, final Weights yWeights,
+                                 final boolean fixedPoint) {
+        if (!isSupported(source.getType()) || source.getType() != destination.getType()) {
+            return null;
+        }
+
+        Layout src = Layout.create(source.getRaster());
+        Layout dst = Layout.create(destination.getRaster());
+
+        if (src == null || dst == null || src.numBands != dst.numBands) {
+            return null;
+        }
+
+        // The intermediate buffer must hold at least the source rows for one destination row
+        if ((long) yWeights.stride * xWeights.dstSize * src.numBands > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+
+        // Fixed point rounding errors may be amplified when the weights don't sum to one, so use double precision
+        return new ResampleKernel(src, dst, xWeights, yWeights, fixedPoint && xWeights.normalized && yWeights.normalized);
+    }
+
+    private static boolean isSupported(final int type) {
+        switch (type) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Resamples the source into the destination.
+     *
+     * @param executor the executor used for processing bands concurrently, or {@code null} to process all
+     *                 rows on the calling thread.
+     * @throws ImagingOpException if interrupted while waiting for the concurrent tasks.
+     */
+    void resample(final Executor executor) {
+        int tasks = BandTasks.tasks(executor, dstHeight, BAND_SAMPLES / (dstWidth * numBands));
+
+        BandTasks.invoke(executor, tasks, dstHeight, new BandTasks.Band() {
+            @Override
+            public void process(final int first, final int last) {
+                resampleRows(first, last);
+            }
+        }, "resampling image");
+    }
+
+    /**
+     * Resamples the destination rows {@code [first, last)}, in chunks of rows.
+     */
+    void resampleRows(final int first, final int last) {
+        final int rowLength = dstWidth * numBands;
+        byte[] work = null;
+
+        for (int y = first, end; y < last; y = end) {
+            int top = minSourceRow(y);
+            int bottom = maxSourceRow(y) + 1;
+
+            // Add destination rows to the chunk, as long as the source rows needed fit in the buffer
+            for (end = y + 1; end < last; end++) {
+                int nextTop = Math.min(top, minSourceRow(end));
+                int nextBottom = Math.max(bottom, maxSourceRow(end) + 1);
+
+                if ((long) (nextBottom - nextTop) * rowLength > WORK_SIZE) {
+                    break;
+                }
+
+                top = nextTop;
+                bottom = nextBottom;
+            }
+
+            int size = (bottom - top) * rowLength;
+
+            if (work == null || work.length < size) {
+                work = new byte[size];
+            }
+
+            horizontal(work, top, bottom);
+            vertical(work, top, y, end);
+        }
+    }
+
+    private int minSourceRow(final int y) {
+        int start = y * yWeights.stride;
+        int min = yWeights.index[start];
+
+        for (int j = 1; j < yWeights.count[y]; j++) {
+            min = Math.min(min, yWeights.index[start + j]);
+        }
+
+        return min;
+    }
+
+    private int maxSourceRow(final int y) {
+        int start = y * yWeights.stride;
+        int max = yWeights.index[start];
+
+        for (int j = 1; j < yWeights.count[y]; j++) {
+            max = Math.max(max, yWeights.index[start + j]);
+        }
+
+        return max;
+    }
+
+    /**
+     * Applies the horizontal filter to the source rows {@code [first, last)}, storing the result in {@code work},
+     * starting with row {@code first} at offset {@code 0}.
+     */
+    void horizontal(final byte[] work, final int first, final int last) {
+        if (source.ints != null) {
+            if (fixedPoint) {
+                horizontalIntsFixed(work, first, last);
+            }
+            else {
+                horizontalInts(work, first, last);
+            }
+        }
+        else {
+            if (fixedPoint) {
+                horizontalBytesFixed(work, first, last);
+            }
+            else {
+                horizontalBytes(work, first, last);
+            }
+        }
+    }
+
+    private void horizontalInts(final byte[] work, final int first, final int last) {
+        final int[] count = xWeights.count;
+        final int[] index = xWeights.index;
+        final double[] weight = xWeights.weight;
+        final int stride = xWeights.stride;
+
+        final int[] offsets = source.offsets;
+        final int[] ints = source.ints;
+
+        for (int y = first; y < last; y++) {
+            int row = source.offset + y * source.scanlineStride;
+            int w = (y - first) * dstWidth * numBands;
+
+            for (int x = 0; x < dstWidth; x++) {
+                int n = count[x];
+                int start = x * stride;
+
+                for (int b = 0; b < numBands; b++) {
+                    int shift = offsets[b];
+
+                    int pel = (ints[row + index[start]] >>> shift) & 0xff;
+                    double sum = pel * weight[start];
+                    int delta = 0;
+
+                    for (int j = 1; j < n; j++) {
+                        int pel2 = (ints[row + index[start + j]] >>> shift) & 0xff;
+                        delta |= pel2 ^ pel;
+                        sum += pel2 * weight[start + j];
+                    }
+
+                    work[w++] = (byte) clamp(delta != 0 ? ResampleOp.round(sum) : pel);
+                }
+            }
+        }
+    }
+
+    private void horizontalBytes(final byte[] work, final int first, final int last) {
+        final int[] count = xWeights.count;
+        final int[] index = xWeights.index;
+        final double[] weight = xWeights.weight;
+        final int stride = xWeights.stride;
+
+        final int pixelStride = source.pixelStride;
+        final int[] offsets = source.offsets;
+        final byte[] bytes = source.bytes;
+
+        for (int y = first; y < last; y++) {
+            int row = source.offset + y * source.scanlineStride;
+            int w = (y - first) * dstWidth * numBands;
+
+            for (int x = 0; x < dstWidth; x++) {
+                int n = count[x];
+                int start = x * stride;
+
+                for (int b = 0; b < numBands; b++) {
+                    int band = row + offsets[b];
+
+                    int pel = bytes[band + index[start] * pixelStride] & 0xff;
+                    double sum = pel * weight[start];
+                    int delta = 0;
+
+                    for (int j = 1; j < n; j++) {
+                        int pel2 = bytes[band + index[start + j] * pixelStride] & 0xff;
+                        delta |= pel2 ^ pel;
+                        sum += pel2 * weight[start + j];
+                    }
+
+                    work[w++] = (byte) clamp(delta != 0 ? ResampleOp.round(sum) : pel);
+                }
+            }
+        }
+    }
+
+    private void horizontalIntsFixed(final byte[] work, final int first, final int last) {
+        final int[] count = xWeights.count;
+        final int[] index = xWeights.index;
+        final int[] weight = xWeights.fixed;
+        final int stride = xWeights.stride;
+
+        final int[] offsets = source.offsets;
+        final int[] ints = source.ints;
+
+        for (int y = first; y < last; y++) {
+            int row = source.offset + y * source.scanlineStride;
+            int w = (y - first) * dstWidth * numBands;
+
+            for (int x = 0; x < dstWidth; x++) {
+                int n = count[x];
+                int start = x * stride;
+
+                for (int b = 0; b < numBands; b++) {
+                    int shift = offsets[b];
+
+                    int pel = (ints[row + index[start]] >>> shift) & 0xff;
+                    int sum = pel * weight[start];
+                    int delta = 0;
+
+                    for (int j = 1; j < n; j++) {
+                        int pel2 = (ints[row + index[start + j]] >>> shift) & 0xff;
+                        delta |= pel2 ^ pel;
+                        sum += pel2 * weight[start + j];
+                    }
+
+                    work[w++] = (byte) clamp(delta != 0 ? (sum + FIXED_POINT_HALF) >> FIXED_POINT_BITS : pel);
+                }
+            }
+        }
+    }
+
+    private void horizontalBytesFixed(final byte[] work, final int first, final int last) {
+        final int[] count = xWeights.count;
+        final int[] index = xWeights.index;
+        final int[] weight = xWeights.fixed;
+        final int stride = xWeights.stride;
+
+        final int pixelStride = source.pixelStride;
+        final int[] offsets = source.offsets;
+        final byte[] bytes = source.bytes;
+
+        for (int y = first; y < last; y++) {
+            int row = source.offset + y * source.scanlineStride;
+            int w = (y - first) * dstWidth * numBands;
+
+            for (int x = 0; x < dstWidth; x++) {
+                int n = count[x];
+                int start = x * stride;
+
+                for (int b = 0; b < numBands; b++) {
+                    int band = row + offsets[b];
+
+                    int pel = bytes[band + index[start] * pixelStride] & 0xff;
+                    int sum = pel * weight[start];
+                    int delta = 0;
+
+                    for (int j = 1; j < n; j++) {
+                        int pel2 = bytes[band + index[start + j] * pixelStride] & 0xff;
+                        delta |= pel2 ^ pel;
+                        sum += pel2 * weight[start + j];
+                    }
+
+                    work[w++] = (byte) clamp(delta != 0 ? (sum + FIXED_POINT_HALF) >> FIXED_POINT_BITS : pel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the vertical filter to {@code work}, holding the source rows from {@code top}, for the destination
+     * rows {@code [first, last)}.
+     */
+    void vertical(final byte[] work, final int top, final int first, final int last) {
+        if (fixedPoint) {
+            verticalFixed(work, top, first, last);
+            return;
+        }
+
+        final int[] count = yWeights.count;
+        final int[] index = yWeights.index;
+        final double[] weight = yWeights.weight;
+        final int stride = yWeights.stride;
+
+        final int rowLength = dstWidth * numBands;
+
+        // Accumulate one destination row at the time, reading the work buffer sequentially
+        final int[] pels = new int[rowLength];
+        final double[] sums = new double[rowLength];
+        final int[] deltas = new int[rowLength];
+        final int[] row = new int[rowLength];
+
+        for (int y = first; y < last; y++) {
+            int n = count[y];
+            int start = y * stride;
+
+            int w = (index[start] - top) * rowLength;
+            double weight0 = weight[start];
+
+            for (int s = 0; s < rowLength; s++) {
+                int pel = work[w + s] & 0xff;
+                pels[s] = pel;
+                sums[s] = pel * weight0;
+                deltas[s] = 0;
+            }
+
+            for (int j = 1; j < n; j++) {
+                w = (index[start + j] - top) * rowLength;
+                double weightJ = weight[start + j];
+
+                for (int s = 0; s < rowLength; s++) {
+                    int pel2 = work[w + s] & 0xff;
+                    deltas[s] |= pel2 ^ pels[s];
+                    sums[s] += pel2 * weightJ;
+                }
+            }
+
+            for (int s = 0; s < rowLength; s++) {
+                row[s] = clamp(deltas[s] != 0 ? ResampleOp.round(sums[s]) : pels[s]);
+            }
+
+            destination.setRow(y, row, dstWidth);
+        }
+    }
+
+    private void verticalFixed(final byte[] work, final int top, final int first, final int last) {
+        final int[] count = yWeights.count;
+        final int[] index = yWeights.index;
+        final int[] weight = yWeights.fixed;
+        final int stride = yWeights.stride;
+
+        final int rowLength = dstWidth * numBands;
+
+        final int[] pels = new int[rowLength];
+        final int[] sums = new int[rowLength];
+        final int[] deltas = new int[rowLength];
+        final int[] row = new int[rowLength];
+
+        for (int y = first; y < last; y++) {
+            int n = count[y];
+            int start = y * stride;
+
+            int w = (index[start] - top) * rowLength;
+            int weight0 = weight[start];
+
+            for (int s = 0; s < rowLength; s++) {
+                int pel = work[w + s] & 0xff;
+                pels[s] = pel;
+                sums[s] = pel * weight0;
+                deltas[s] = 0;
+            }
+
+            for (int j = 1; j < n; j++) {
+                w = (index[start + j] - top) * rowLength;
+                int weightJ = weight[start + j];
+
+                for (int s = 0; s < rowLength; s++) {
+                    int pel2 = work[w + s] & 0xff;
+                    deltas[s] |= pel2 ^ pels[s];
+                    sums[s] += pel2 * weightJ;
+                }
+            }
+
+            for (int s = 0; s < rowLength; s++) {
+                row[s] = clamp(deltas[s] != 0 ? (sums[s] + FIXED_POINT_HALF) >> FIXED_POINT_BITS : pels[s]);
+            }
+
+            destination.setRow(y, row, dstWidth);
+        }
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * Flat filter weight tables for one axis.
+     * The contributors for destination pixel {@code i} are stored in {@code index} and {@code weight},
+     * from {@code i * stride} to {@code i * stride + count[i]}, exclusive.
+     * The tables are never modified after creation, and may be shared between threads.
+     */
+    static final class Weights {
+        final int srcSize;
+        final int dstSize;
+        final int stride;
+
+        final int[] count;
+        final int[] index;
+        final double[] weight;
+        // Same weights in fixed point
+        final int[] fixed;
+        // All weights for a pixel sums to one (within +/- 1/1024)
+        boolean normalized = true;
+
+        private Weights(final int srcSize, final int dstSize, final int stride) {
+            this.srcSize = srcSize;
+            this.dstSize = dstSize;
+            this.stride = stride;
+
+            count = new int[dstSize];
+            index = new int[dstSize * stride];
+            weight = new double[dstSize * stride];
+            fixed = new int[dstSize * stride];
+        }
+
+        static Weights create(final ResampleOp.InterpolationFilter filter, final int srcSize, final int dstSize) {
+            double scale = (double) dstSize / (double) srcSize;
+            double support = filter.support();
+
+            ResampleOp.ContributorList[] contributors = new ResampleOp.ContributorList[dstSize];
+            int stride = 1;
+
+            for (int i = 0; i < dstSize; i++) {
+                contributors[i] = ResampleOp.calcXContrib(scale, support, srcSize, filter, i);
+                stride = Math.max(stride, contributors[i].n);
+            }
+
+            Weights weights = new Weights(srcSize, dstSize, stride);
+
+            for (int i = 0; i < dstSize; i++) {
+                ResampleOp.ContributorList list = contributors[i];
+
+                if (list.n == 0) {
+                    // No pixels within the filter support (point sampling when expanding), use the nearest pixel
+                    weights.count[i] = 1;
+                    weights.index[i * stride] = Math.min(srcSize - 1, ResampleOp.round(i / scale));
+                    weights.weight[i * stride] = 1.0;
+                    continue;
+                }
+
+                weights.count[i] = list.n;
+
+                for (int j = 0; j < list.n; j++) {
+                    weights.index[i * stride + j] = list.p[j].pixel;
+                    weights.weight[i * stride + j] = list.p[j].weight;
+                }
+            }
+
+            for (int i = 0; i < dstSize; i++) {
+                weights.toFixedPoint(i * stride, weights.count[i]);
+            }
+
+            return weights;
+        }
+
+        private void toFixedPoint(final int start, final int n) {
+            // Round each weight, but make sure the sum is rounded like the sum of the double weights,
+            // by adjusting the largest weight. Otherwise the rounding errors could add up.
+            double sum = 0;
+            int fixedSum = 0;
+            int largest = start;
+
+            for (int j = start; j < start + n; j++) {
+                fixed[j] = (int) Math.round(weight[j] * (1 << FIXED_POINT_BITS));
+
+                sum += weight[j];
+                fixedSum += fixed[j];
+
+                if (Math.abs(weight[j]) > Math.abs(weight[largest])) {
+                    largest = j;
+                }
+            }
+
+            fixed[largest] += (int) Math.round(sum * (1 << FIXED_POINT_BITS)) - fixedSum;
+
+            if (Math.abs(sum - 1.0) > 1.0 / 1024) {
+                normalized = false;
+            }
+        }
+    }
+
+    /**
+     * The backing array and sample layout of a raster.
+     * Either pixel interleaved bytes in a single bank, or packed ints with 8 bit samples.
+     */
+    private static final class Layout {
+        final int numBands;
+        final int offset;
+        final int scanlineStride;
+        final int pixelStride;
+
+        // Byte offsets for interleaved bytes, bit offsets for packed ints
+        final int[] offsets;
+
+        final byte[] bytes;
+        final int[] ints;
+        final int keepMask;
+
+        private Layout(final int numBands, final int offset, final int scanlineStride, final int pixelStride,
+                       final int[] offsets, final byte[] bytes, final int[] ints, final int keepMask) {
+            this.numBands = numBands;
+            this.offset = offset;
+            this.scanlineStride = scanlineStride;
+            this.pixelStride = pixelStride;
+            this.offsets = offsets;
+            this.bytes = bytes;
+            this.ints = ints;
+            this.keepMask = keepMask;
+        }
+
+        static Layout create(final Raster raster) {
+            SampleModel sampleModel = raster.getSampleModel();
+            DataBuffer buffer = raster.getDataBuffer();
+
+            if (buffer.getNumBanks() != 1) {
+                return null;
+            }
+
+            int tx = raster.getSampleModelTranslateX();
+            int ty = raster.getSampleModelTranslateY();
+
+            if (sampleModel instanceof PixelInterleavedSampleModel && buffer instanceof DataBufferByte) {
+                PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) sampleModel;
+
+                int scanlineStride = model.getScanlineStride();
+                int pixelStride = model.getPixelStride();
+                int offset = buffer.getOffset() - ty * scanlineStride - tx * pixelStride;
+
+                return new Layout(model.getNumBands(), offset, scanlineStride, pixelStride, model.getBandOffsets(),
+                                  ((DataBufferByte) buffer).getData(), null, 0);
+            }
+            else if (sampleModel instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt) {
+                SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) sampleModel;
+
+                int[] masks = model.getBitMasks();
+                int[] offsets = model.getBitOffsets();
+                int keepMask = ~0;
+
+                for (int b = 0; b < masks.length; b++) {
+                    if (masks[b] != 0xff << offsets[b]) {
+                        return null;
+                    }
+
+                    keepMask &= ~masks[b];
+                }
+
+                int scanlineStride = model.getScanlineStride();
+                int offset = buffer.getOffset() - ty * scanlineStride - tx;
+
+                return new Layout(model.getNumBands(), offset, scanlineStride, 1, offsets,
+                                  null, ((DataBufferInt) buffer).getData(), keepMask);
+            }
+
+            return null;
+        }
+
+        void setRow(final int y, final int[] samples, final int width) {
+            int row = offset + y * scanlineStride;
+
+            if (ints != null) {
+                for (int x = 0, s = 0; x < width; x++) {
+                    int pixel = ints[row + x] & keepMask;
+
+                    for (int b = 0; b < numBands; b++) {
+                        pixel |= samples[s++] << offsets[b];
+                    }
+
+                    ints[row + x] = pixel;
+                }
+            }
+            else {
+                for (int x = 0, s = 0; x < width; x++) {
+                    int pixel = row + x * pixelStride;
+
+                    for (int b = 0; b < numBands; b++) {
+                        bytes[pixel + offsets[b]] = (byte) samples[s++];
+                    }
+                }
+            }
+        }
+    }
+}
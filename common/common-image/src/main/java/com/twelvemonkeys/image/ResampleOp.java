@@ -57,6 +57,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.*;
+import java.util.concurrent.Executor;
 
 /**
  * Resamples (scales) a {@code BufferedImage} to a new width and height, using
@@ -106,6 +107,11 @@ import java.awt.image.*;
  * To allow debug of the native code, set the system property
  * {@code com.twelvemonkeys.image.magick.debug} to {@code true}.
  * <p/>
+ * In pure Java mode, large images may be resampled using multiple threads, by setting an
+ * {@code Executor} (like a {@code ForkJoinPool} or a fixed thread pool), see {@link #setExecutor(Executor)}.
+ * Each pass of the resampling is then split into bands of rows, processed concurrently.
+ * The result is identical to resampling on a single thread.
+ * <p/>
  * This {@code BufferedImageOp} is based on C example code found in
  * <a href="http://www.acm.org/tog/GraphicsGems/">Graphics Gems III</a>,
  * Filtered Image Rescaling, by Dale Schumacher (with additional improvments by
@@ -210,6 +216,37 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
      */
     public final static RenderingHints.Key KEY_RESAMPLE_INTERPOLATION = new Key("ResampleInterpolation");
 
+    /**
+     * RenderingHints.Key specifying the arithmetic precision used for resampling.
+     * The default is {@link #VALUE_PRECISION_DOUBLE}.
+     */
+    public final static RenderingHints.Key KEY_RESAMPLE_PRECISION = new Key("ResamplePrecision");
+
+    /**
+     * Resample using double precision floating point arithmetic (the default).
+     *
+     * @see #KEY_RESAMPLE_PRECISION
+     */
+    public final static Object VALUE_PRECISION_DOUBLE =
+            new Value(KEY_RESAMPLE_PRECISION, "Double", 0);
+    /**
+     * Resample images with 8 bit samples using fixed point integer arithmetic, with 14 bit filter weights.
+     * This is considerably faster than {@link #VALUE_PRECISION_DOUBLE}, at the cost of small rounding differences:
+     * No sample will differ more than {@code 2} from the double precision result, and most
+     * ({@code > 99%}) are identical. Areas of uniform color are always reproduced exactly.
+     * <p/>
+     * Currently applies to images of type {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB}, {@code TYPE_INT_ARGB_PRE},
+     * {@code TYPE_INT_BGR}, {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR}, {@code TYPE_4BYTE_ABGR_PRE} and
+     * {@code TYPE_BYTE_GRAY}, other images are resampled using double precision.
+     * Double precision is also used when enlarging images with filters that doesn't preserve brightness
+     * (like {@code FILTER_HAMMING}, {@code FILTER_BLACKMAN}, {@code FILTER_GAUSSIAN} or {@code FILTER_LANCZOS}),
+     * as small rounding differences could otherwise be amplified.
+     *
+     * @see #KEY_RESAMPLE_PRECISION
+     */
+    public final static Object VALUE_PRECISION_FIXED_POINT =
+            new Value(KEY_RESAMPLE_PRECISION, "Fixed point", 1);
+
     /**
      * @see #FILTER_POINT
      */
@@ -293,6 +330,10 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
 
     int filterType;
 
+    boolean fixedPoint;
+
+    private Executor executor;
+
     /**
      * RendereingHints.Key implementation, works only with Value values.
      */
@@ -328,7 +369,7 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         public Value(final RenderingHints.Key pKey, final String pName, final int pType) {
             key = pKey;
             name = pName;
-            type = validateFilterType(pType);
+            type = pKey == KEY_RESAMPLE_INTERPOLATION ? validateFilterType(pType) : pType;
         }
 
         public boolean isCompatibleKey(Key pKey) {
@@ -386,18 +427,24 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
      * </ul>
      * </li>
      * </ul>
+     * {@code KEY_RESAMPLE_PRECISION} specifies the arithmetic used, see
+     * {@link #VALUE_PRECISION_DOUBLE} and {@link #VALUE_PRECISION_FIXED_POINT}.
+     * <p/>
      * Other hints have no effect on this filter.
      *
      * @param width  width of the re-sampled image
      * @param height height of the re-sampled image
      * @param hints  rendering hints, affecting interpolation algorithm
      * @see #KEY_RESAMPLE_INTERPOLATION
+     * @see #KEY_RESAMPLE_PRECISION
      * @see RenderingHints#KEY_INTERPOLATION
      * @see RenderingHints#KEY_RENDERING
      * @see RenderingHints#KEY_COLOR_RENDERING
      */
     public ResampleOp(int width, int height, RenderingHints hints) {
         this(width, height, getFilterType(hints));
+
+        fixedPoint = isFixedPoint(hints);
     }
 
     /**
@@ -421,7 +468,7 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         this.filterType = validateFilterType(filterType);
     }
 
-    private static int validateFilterType(int pFilterType) {
+    static int validateFilterType(int pFilterType) {
         switch (pFilterType) {
             case FILTER_UNDEFINED:
             case FILTER_POINT:
@@ -445,6 +492,26 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         }
     }
 
+    /**
+     * Gets the arithmetic precision specified by the given hints.
+     *
+     * @param pHints rendering hints
+     * @return {@code true} if fixed point arithmetic is specified
+     */
+    private static boolean isFixedPoint(RenderingHints pHints) {
+        if (pHints == null || !pHints.containsKey(KEY_RESAMPLE_PRECISION)) {
+            return false;
+        }
+
+        Object value = pHints.get(KEY_RESAMPLE_PRECISION);
+        // NOTE: Workaround for a bug in RenderingHints constructor (Bug id# 5084832)
+        if (!KEY_RESAMPLE_PRECISION.isCompatibleValue(value)) {
+            throw new IllegalArgumentException(value + " incompatible with key " + KEY_RESAMPLE_PRECISION);
+        }
+
+        return value == VALUE_PRECISION_FIXED_POINT;
+    }
+
     /**
      * Gets the filter type specified by the given hints.
      *
@@ -563,7 +630,7 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         // TODO: OPTIMIZE: Don't really need to convert all types to same as input
         result = output != null && temp.getType() != BufferedImage.TYPE_CUSTOM ? /*output*/ ImageUtil.toBuffered(output, temp.getType()) : createCompatibleDestImage(temp, null);
 
-        resample(temp, result, filter);
+        resample(temp, result, ResamplePlans.get(temp.getWidth(), temp.getHeight(), result.getWidth(), result.getHeight(), filterType), fixedPoint, executor);
 
         // If output != null and needed to be converted, draw it back
         if (output != null && output != result) {
@@ -744,6 +811,29 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         return scale.filter(temp, output);
     }
 
+    /**
+     * Returns the executor used for resampling bands of the image concurrently.
+     *
+     * @return the executor, or {@code null} if images are resampled on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for resampling bands of the image concurrently.
+     * The {@code filter} method will not return until all tasks are completed.
+     * <p/>
+     * Currently, only images of the common 8 bit {@code BufferedImage} types
+     * ({@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB}, {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR},
+     * {@code TYPE_BYTE_GRAY} and similar) are resampled concurrently.
+     *
+     * @param executor the executor, or {@code null} to resample on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * Returns the current filter type constant.
      *
@@ -754,7 +844,7 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         return filterType;
     }
 
-    private static InterpolationFilter createFilter(int pFilterType) {
+    static InterpolationFilter createFilter(int pFilterType) {
         // TODO: Select correct filter based on scale up or down, if undefined!
         if (pFilterType == FILTER_UNDEFINED) {
             pFilterType = FILTER_LANCZOS;
@@ -815,7 +905,7 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         Object value;
         switch (filterType) {
             case FILTER_UNDEFINED:
-                return null;
+                return fixedPoint ? new RenderingHints(KEY_RESAMPLE_PRECISION, VALUE_PRECISION_FIXED_POINT) : null;
             case FILTER_POINT:
                 value = VALUE_INTERPOLATION_POINT;
                 break;
@@ -865,7 +955,13 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
                 throw new IllegalStateException("Unknown filter type: " + filterType);
         }
 
-        return new RenderingHints(KEY_RESAMPLE_INTERPOLATION, value);
+        RenderingHints hints = new RenderingHints(KEY_RESAMPLE_INTERPOLATION, value);
+
+        if (fixedPoint) {
+            hints.put(KEY_RESAMPLE_PRECISION, VALUE_PRECISION_FIXED_POINT);
+        }
+
+        return hints;
     }
 
     public Rectangle2D getBounds2D(BufferedImage src) {
@@ -1270,12 +1366,12 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
     /*
     *	image rescaling routine
     */
-    class Contributor {
+    static class Contributor {
         int pixel;
         double weight;
     }
 
-    class ContributorList {
+    static class ContributorList {
         int n;/* number of contributors (may be < p.length) */
         Contributor[] p;/* pointer to list of contributions */
     }
@@ -1314,7 +1410,7 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
 
         Returns -1 if error, 0 otherwise.
     */
-    private ContributorList calcXContrib(double xscale, double fwidth, int srcwidth, InterpolationFilter pFilter, int i) {
+    static ContributorList calcXContrib(double xscale, double fwidth, int srcwidth, InterpolationFilter pFilter, int i) {
         // TODO: What to do when fwidth > srcwidyj or dstwidth
 
         double width;
@@ -1431,11 +1527,27 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
 
         Resizes bitmaps while resampling them.
     */
-    private BufferedImage resample(BufferedImage pSource, BufferedImage pDest, InterpolationFilter pFilter) {
+    static BufferedImage resample(BufferedImage pSource, BufferedImage pDest, ResamplePlans.Plan pPlan, boolean pFixedPoint, Executor pExecutor) {
+        // Fast path for the common 8 bit types, working directly on the backing arrays
+        ResampleKernel kernel = ResampleKernel.create(pSource, pDest, pPlan.xWeights, pPlan.yWeights, pFixedPoint);
+
+        if (kernel != null) {
+            kernel.resample(pExecutor);
+            return pDest;
+        }
+
+        return resampleGeneric(pSource, pDest, pPlan);
+    }
+
+    /*
+        resampleGeneric()
+
+        Resizes bitmaps while resampling them, using the Raster sample methods (slow, but works for all types).
+    */
+    static BufferedImage resampleGeneric(BufferedImage pSource, BufferedImage pDest, ResamplePlans.Plan pPlan) {
         final int dstWidth = pDest.getWidth();
         final int dstHeight = pDest.getHeight();
 
-        final int srcWidth = pSource.getWidth();
         final int srcHeight = pSource.getHeight();
 
         /* create intermediate column to hold horizontal dst column zoom */
@@ -1443,114 +1555,8 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
 //        final WritableRaster work = cm.createCompatibleWritableRaster(1, srcHeight);
         final WritableRaster work = ImageUtil.createCompatibleWritableRaster(pSource, cm, 1, srcHeight);
 
-        double xscale = (double) dstWidth / (double) srcWidth;
-        double yscale = (double) dstHeight / (double) srcHeight;
-
-        ContributorList[] contribY = new ContributorList[dstHeight];
-        for (int i = 0; i < contribY.length; i++) {
-            contribY[i] = new ContributorList();
-        }
-
-        // TODO: What to do when fwidth > srcHeight or dstHeight
-        double fwidth = pFilter.support();
-        if (yscale < 1.0) {
-            double width = fwidth / yscale;
-            double fscale = 1.0 / yscale;
-
-            if (width <= .5) {
-                // Reduce to point sampling.
-                width = .5 + 1.0e-6;
-                fscale = 1.0;
-            }
-
-            for (int i = 0; i < dstHeight; i++) {
-                //contribY[i].n = 0;
-                contribY[i].p = new Contributor[(int) (width * 2.0 + 1 + 0.5)];
-
-                double center = (double) i / yscale;
-                int left = (int) Math.ceil(center - width);
-                int right = (int) Math.floor(center + width);
-
-                double density = 0.0;
-
-                for (int j = left; j <= right; j++) {
-                    double weight = center - (double) j;
-                    weight = pFilter.filter(weight / fscale) / fscale;
-                    int n;
-                    if (j < 0) {
-                        n = -j;
-                    }
-                    else if (j >= srcHeight) {
-                        n = (srcHeight - j) + srcHeight - 1;
-                    }
-                    else {
-                        n = j;
-                    }
-
-                    /**/
-                    if (n >= srcHeight) {
-                        n = n % srcHeight;
-                    }
-                    else if (n < 0) {
-                        n = srcHeight - 1;
-                    }
-                    /**/
-
-                    int k = contribY[i].n++;
-                    contribY[i].p[k] = new Contributor();
-                    contribY[i].p[k].pixel = n;
-                    contribY[i].p[k].weight = weight;
-
-                    density += weight;
-                }
-
-                if ((density != 0.0) && (density != 1.0)) {
-                    //Normalize.
-                    density = 1.0 / density;
-                    for (int k = 0; k < contribY[i].n; k++) {
-                        contribY[i].p[k].weight *= density;
-                    }
-                }
-            }
-        }
-        else {
-            for (int i = 0; i < dstHeight; ++i) {
-                //contribY[i].n = 0;
-                contribY[i].p = new Contributor[(int) (fwidth * 2 + 1 + 0.5)];
-
-                double center = (double) i / yscale;
-                double left = Math.ceil(center - fwidth);
-                double right = Math.floor(center + fwidth);
-                for (int j = (int) left; j <= right; ++j) {
-                    double weight = center - (double) j;
-                    weight = pFilter.filter(weight);
-                    int n;
-                    if (j < 0) {
-                        n = -j;
-                    }
-                    else if (j >= srcHeight) {
-                        n = (srcHeight - j) + srcHeight - 1;
-                    }
-                    else {
-                        n = j;
-                    }
-
-                    /**/
-                    if (n >= srcHeight) {
-                        n = n % srcHeight;
-                    }
-                    else if (n < 0) {
-                        n = srcHeight - 1;
-                    }
-                    /**/
-
-                    int k = contribY[i].n++;
-                    contribY[i].p[k] = new Contributor();
-                    contribY[i].p[k].pixel = n;
-                    contribY[i].p[k].weight = weight;
-                }
-            }
-        }
+        final ResampleKernel.Weights contribX = pPlan.xWeights;
+        final ResampleKernel.Weights contribY = pPlan.yWeights;
 
         final Raster raster = pSource.getRaster();
         final WritableRaster out = pDest.getRaster();
@@ -1564,22 +1570,22 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
         }
 
         for (int xx = 0; xx < dstWidth; xx++) {
-            ContributorList contribX = calcXContrib(xscale, fwidth, srcWidth, pFilter, xx);
+            final int startX = xx * contribX.stride;
+            final int n = contribX.count[xx];
+
             /* Apply horiz filter to make dst column in tmp. */
             for (int k = 0; k < srcHeight; k++) {
                 for (int channel = 0; channel < numChannels; channel++) {
 
                     double weight = 0.0;
                     boolean bPelDelta = false;
-                    // TODO: This line throws index out of bounds, if the image
-                    // is smaller than filter.support()
-                    double pel = raster.getSample(contribX.p[0].pixel, k, channel);
-                    for (int j = 0; j < contribX.n; j++) {
-                        double pel2 = j == 0 ? pel : raster.getSample(contribX.p[j].pixel, k, channel);
+                    double pel = raster.getSample(contribX.index[startX], k, channel);
+                    for (int j = 0; j < n; j++) {
+                        double pel2 = j == 0 ? pel : raster.getSample(contribX.index[startX + j], k, channel);
                         if (pel2 != pel) {
                             bPelDelta = true;
                         }
-                        weight += pel2 * contribX.p[j].weight;
+                        weight += pel2 * contribX.weight[startX + j];
                     }
                     weight = bPelDelta ? round(weight) : pel;
 
@@ -1597,20 +1603,20 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
 
             /* The temp column has been built. Now stretch it vertically into dst column. */
             for (int i = 0; i < dstHeight; i++) {
+                final int startY = i * contribY.stride;
+
                 for (int channel = 0; channel < numChannels; channel++) {
 
                     double weight = 0.0;
                     boolean bPelDelta = false;
-                    double pel = work.getSample(0, contribY[i].p[0].pixel, channel);
+                    double pel = work.getSample(0, contribY.index[startY], channel);
 
-                    for (int j = 0; j < contribY[i].n; j++) {
-                        // TODO: This line throws index out of bounds, if the image
-                        // is smaller than filter.support()
-                        double pel2 = j == 0 ? pel : work.getSample(0, contribY[i].p[j].pixel, channel);
+                    for (int j = 0; j < contribY.count[i]; j++) {
+                        double pel2 = j == 0 ? pel : work.getSample(0, contribY.index[startY + j], channel);
                         if (pel2 != pel) {
                             bPelDelta = true;
                         }
-                        weight += pel2 * contribY[i].p[j].weight;
+                        weight += pel2 * contribY.weight[startY + j];
                     }
                     weight = bPelDelta ? round(weight) : pel;
                     if (weight < 0) {
@@ -1625,5 +1631,5 @@ public class ResampleOp implements BufferedImageOp/* TODO: RasterOp */ {
             }/* next dst row */
         }/* next dst column */
         return pDest;
-    }/* resample */
+    }/* resampleGeneric */
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import com.twelvemonkeys.lang.Validate;
+import com.twelvemonkeys.util.LRUHashMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared cache of resample plans for {@link ResampleOp}.
+ * <p/>
+ * A plan holds the precomputed filter weights for resampling images of a given size, to a given size,
+ * using a given filter type.
+ * Computing the weights is costly for the more sophisticated filters (like {@code FILTER_LANCZOS} or
+ * {@code FILTER_BLACKMAN_BESSEL}), as the interpolation function is evaluated for every contributing pixel.
+ * Reusing plans for images of the same size, like a thumbnail service creating the same output sizes from
+ * camera images, skips this setup entirely.
+ * <p/>
+ * Plans are created as needed, and the most recently used plans are cached.
+ * To avoid the setup cost for the first images, plans for known sizes may be created up front,
+ * using {@link #precompute(int, int, int, int, int)}.
+ * <p/>
+ * Plans are immutable, and may be shared between threads.
+ * Note that {@code FILTER_POINT}, {@code FILTER_TRIANGLE} and {@code FILTER_QUADRATIC} use the
+ * standard {@code AffineTransformOp} for most image types, and rarely benefit from plans.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ResamplePlans.java,v 1.0 19.02.16 haraldk Exp$
+ * @see ResampleOp
+ */
+public final class ResamplePlans {
+    /** The default maximum number of plans to cache. */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    // Cache for the latest used plans
+    private static final LRUHashMap<Key, Plan> cache = new LRUHashMap<>(DEFAULT_CACHE_SIZE);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private ResamplePlans() {}
+
+    /**
+     * Creates the plan for resampling images of the given source size, to the given destination size,
+     * and adds it to the cache.
+     * Typically used at application startup, for the most commonly used sizes.
+     *
+     * @param srcWidth source image width
+     * @param srcHeight source image height
+     * @param dstWidth resampled image width
+     * @param dstHeight resampled image height
+     * @param filterType interpolation filter algorithm, see {@code ResampleOp.FILTER_*}.
+     * @throws IllegalArgumentException if any of the sizes are {@code <= 0}, or {@code filterType}
+     * is not a known filter type.
+     */
+    public static void precompute(final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight, final int filterType) {
+        Validate.isTrue(srcWidth > 0 && srcHeight > 0, "source width and height must be positive");
+        Validate.isTrue(dstWidth > 0 && dstHeight > 0, "destination width and height must be positive");
+
+        get(srcWidth, srcHeight, dstWidth, dstHeight, ResampleOp.validateFilterType(filterType));
+    }
+
+    /**
+     * Gets the plan for the given sizes and filter type, creating it if needed.
+     */
+    static Plan get(final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight, final int filterType) {
+        // Undefined means the default filter, so they share plans
+        Key key = new Key(srcWidth, srcHeight, dstWidth, dstHeight, filterType == ResampleOp.FILTER_UNDEFINED ? ResampleOp.FILTER_LANCZOS : filterType);
+
+        synchronized (cache) {
+            Plan plan = cache.get(key);
+
+            if (plan != null) {
+                hits.incrementAndGet();
+                return plan;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        // Create outside the lock, creating the same plan twice is harmless
+        Plan plan = new Plan(ResampleOp.createFilter(key.filterType), srcWidth, srcHeight, dstWidth, dstHeight);
+
+        synchronized (cache) {
+            cache.put(key, plan);
+        }
+
+        return plan;
+    }
+
+    /**
+     * Returns the maximum number of plans to cache.
+     *
+     * @return the maximum number of plans.
+     */
+    public static int getCacheSize() {
+        synchronized (cache) {
+            return cache.getMaxSize();
+        }
+    }
+
+    /**
+     * Sets the maximum number of plans to cache.
+     * If the cache holds more plans, the least recently used are removed.
+     * The default value is {@value #DEFAULT_CACHE_SIZE}.
+     *
+     * @param size the maximum number of plans, {@code 0} disables caching.
+     * @throws IllegalArgumentException if {@code size < 0}.
+     */
+    public static void setCacheSize(final int size) {
+        Validate.isTrue(size >= 0, size, "size must be >= 0: %s");
+
+        synchronized (cache) {
+            cache.setMaxSize(size);
+        }
+    }
+
+    /**
+     * Removes all cached plans.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of times a cached plan was used.
+     *
+     * @return the number of cache hits.
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times a new plan was created.
+     *
+     * @return the number of cache misses.
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The horizontal and vertical filter weights for resampling.
+     */
+    static final class Plan {
+        final ResampleKernel.Weights xWeights;
+        final ResampleKernel.Weights yWeights;
+
+        Plan(final ResampleOp.InterpolationFilter filter, final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight) {
+            xWeights = ResampleKernel.Weights.create(filter, srcWidth, dstWidth);
+            // Weights only depend on the sizes, so square images can share the tables
+            yWeights = srcHeight == srcWidth && dstHeight == dstWidth ? xWeights : ResampleKernel.Weights.create(filter, srcHeight, dstHeight);
+        }
+    }
+
+    private static final class Key {
+        private final int srcWidth;
+        private final int srcHeight;
+        private final int dstWidth;
+        private final int dstHeight;
+        private final int filterType;
+
+        Key(final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight, final int filterType) {
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            this.filterType = filterType;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+
+            return srcWidth == key.srcWidth && srcHeight == key.srcHeight
+                    && dstWidth == key.dstWidth && dstHeight == key.dstHeight
+                    && filterType == key.filterType;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = srcWidth;
+            result = 31 * result + srcHeight;
+            result = 31 * result + dstWidth;
+            result = 31 * result + dstHeight;
+            result = 31 * result + filterType;
+            return result;
+        }
+    }
+}
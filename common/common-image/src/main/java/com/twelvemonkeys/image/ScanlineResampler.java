@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import com.twelvemonkeys.lang.Validate;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resamples (scales) images one band of rows at the time, without holding the entire source image in memory.
+ * <p/>
+ * Source rows are pushed in order, top to bottom, in bands of any height, using {@link #push(Raster)}.
+ * Each source row is filtered horizontally as soon as it arrives, and each destination row is filtered vertically
+ * and written to the destination as soon as all the source rows it depends on are available.
+ * Only the horizontally filtered rows within the vertical filter window are kept in memory,
+ * so memory use is proportional to the destination width, and the filter support divided by the scale.
+ * This allows creating thumbnails of images much larger than the heap, like huge TIFF or PSD files.
+ * <p/>
+ * Example:
+ * <blockquote><pre>
+ * ImageReader reader;
+ * <p/>
+ * //...
+ * <p/>
+ * BufferedImage thumbnail = ScanlineResampler.resample(reader, 0, 300, 200, ResampleOp.FILTER_LANCZOS);
+ * </pre></blockquote>
+ * <p/>
+ * The result is the same as for {@link ResampleOp} in pure Java mode, using the same filter.
+ * Note however that {@code ResampleOp} uses the standard {@code AffineTransformOp} for {@code FILTER_POINT},
+ * {@code FILTER_TRIANGLE} and {@code FILTER_QUADRATIC}, and for very small images.
+ * <p/>
+ * Instances of this class are not thread safe, and can only be used to resample a single image.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ScanlineResampler.java,v 1.0 20.02.16 haraldk Exp$
+ * @see ResampleOp
+ */
+public final class ScanlineResampler {
+    /** Approximate number of source pixels read at the time by {@link #resample(ImageReader, int, int, int, int)} */
+    static final int BAND_PIXELS = 1024 * 1024;
+
+    /** Approximate number of source pixels read at the time, for formats where reading a region decodes all rows above it */
+    static final int SEQUENTIAL_BAND_PIXELS = 16 * 1024 * 1024;
+
+    // Formats where the image data is a single compressed stream, so that rows can't be decoded without the rows above
+    private static final List<String> SEQUENTIAL_FORMATS = Arrays.asList("jpeg", "jpg", "png", "gif");
+
+    private final int srcWidth;
+    private final int srcHeight;
+    private final WritableRaster destination;
+    private final int dstWidth;
+    private final int dstHeight;
+    private final int numBands;
+
+    private final ResampleKernel.Weights xWeights;
+    private final ResampleKernel.Weights yWeights;
+
+    // Last source row needed by each destination row (made non-decreasing)
+    private final int[] lastRow;
+
+    // Horizontally filtered source rows, indexed by source row modulo the window size
+    private final int[][] window;
+
+    private final int[] channelMax;
+    private int[] srcRow;
+
+    private final int[] pels;
+    private final double[] sums;
+    private final int[] deltas;
+
+    private int nextSrcRow;
+    private int nextDstRow;
+
+    /**
+     * Creates a {@code ScanlineResampler}.
+     *
+     * @param srcWidth width of the source image
+     * @param srcHeight height of the source image
+     * @param destination the raster to write the resampled image into. Its size is the size of the resampled image,
+     *                    and it must have the same number of bands and sample sizes as the source.
+     * @param filterType interpolation filter algorithm, see {@code ResampleOp.FILTER_*}.
+     * @throws IllegalArgumentException if {@code srcWidth} or {@code srcHeight} is {@code <= 0},
+     * {@code destination} is {@code null}, or {@code filterType} is not a known filter type.
+     */
+    public ScanlineResampler(final int srcWidth, final int srcHeight, final WritableRaster destination, final int filterType) {
+        Validate.isTrue(srcWidth > 0 && srcHeight > 0, "source width and height must be positive");
+        Validate.notNull(destination, "destination");
+
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.destination = destination;
+
+        dstWidth = destination.getWidth();
+        dstHeight = destination.getHeight();
+        numBands = destination.getNumBands();
+
+        ResamplePlans.Plan plan = ResamplePlans.get(srcWidth, srcHeight, dstWidth, dstHeight, ResampleOp.validateFilterType(filterType));
+        xWeights = plan.xWeights;
+        yWeights = plan.yWeights;
+
+        // Find the rows each destination row depends on, and from that the number of rows we need to keep
+        lastRow = new int[dstHeight];
+        int[] firstRow = new int[dstHeight];
+
+        for (int i = 0; i < dstHeight; i++) {
+            int first = Integer.MAX_VALUE;
+            int last = i > 0 ? lastRow[i - 1] : 0;
+
+            for (int j = 0; j < yWeights.count[i]; j++) {
+                int row = yWeights.index[i * yWeights.stride + j];
+                first = Math.min(first, row);
+                last = Math.max(last, row);
+            }
+
+            firstRow[i] = first;
+            lastRow[i] = last;
+        }
+
+        int windowSize = 1;
+        int first = Integer.MAX_VALUE;
+        for (int i = dstHeight - 1; i >= 0; i--) {
+            // The first row still needed by this or any later destination row
+            first = Math.min(first, firstRow[i]);
+            windowSize = Math.max(windowSize, lastRow[i] - first + 1);
+        }
+
+        window = new int[windowSize][];
+
+        channelMax = new int[numBands];
+        for (int b = 0; b < numBands; b++) {
+            channelMax[b] = (1 << destination.getSampleModel().getSampleSize(b)) - 1;
+        }
+
+        int rowLength = dstWidth * numBands;
+        pels = new int[rowLength];
+        sums = new double[rowLength];
+        deltas = new int[rowLength];
+    }
+
+    /**
+     * Pushes the next band of source rows.
+     * All rows of {@code rows} are used, starting at its {@code minY}, and must follow directly after the rows
+     * previously pushed.
+     * Any destination rows depending only on the rows pushed so far, are written to the destination before
+     * this method returns.
+     *
+     * @param rows a band of source rows, must be as wide as the source image.
+     * @throws IllegalArgumentException if {@code rows} is {@code null}, has the wrong width or number of bands,
+     * or contains more rows than remaining in the source image.
+     */
+    public void push(final Raster rows) {
+        Validate.notNull(rows, "rows");
+        Validate.isTrue(rows.getWidth() == srcWidth, rows.getWidth(), "rows must be same width as source: %s");
+        Validate.isTrue(rows.getNumBands() == numBands, rows.getNumBands(), "rows must have same number of bands as destination: %s");
+        Validate.isTrue(nextSrcRow + rows.getHeight() <= srcHeight, rows.getHeight(), "too many rows: %s");
+
+        if (srcRow == null) {
+            srcRow = new int[srcWidth * numBands];
+        }
+
+        for (int y = 0; y < rows.getHeight(); y++) {
+            srcRow = rows.getPixels(rows.getMinX(), rows.getMinY() + y, srcWidth, 1, srcRow);
+
+            int[] row = window[nextSrcRow % window.length];
+            if (row == null) {
+                row = new int[dstWidth * numBands];
+                window[nextSrcRow % window.length] = row;
+            }
+
+            horizontal(srcRow, row);
+            nextSrcRow++;
+
+            while (nextDstRow < dstHeight && lastRow[nextDstRow] < nextSrcRow) {
+                vertical(nextDstRow++);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if all source rows are pushed, and the destination is complete.
+     *
+     * @return {@code true} if the destination is complete.
+     */
+    public boolean isComplete() {
+        return nextDstRow == dstHeight;
+    }
+
+    /**
+     * Returns the number of destination rows completed so far.
+     * Rows are completed top to bottom.
+     *
+     * @return the number of rows written to the destination.
+     */
+    public int getCompletedRows() {
+        return nextDstRow;
+    }
+
+    // Same arithmetic as ResampleOp/ResampleKernel, to get identical results
+    private void horizontal(final int[] src, final int[] work) {
+        final int[] count = xWeights.count;
+        final int[] index = xWeights.index;
+        final double[] weight = xWeights.weight;
+        final int stride = xWeights.stride;
+
+        for (int x = 0, w = 0; x < dstWidth; x++) {
+            int n = count[x];
+            int start = x * stride;
+
+            for (int b = 0; b < numBands; b++) {
+                int pel = src[index[start] * numBands + b];
+                double sum = pel * weight[start];
+                int delta = 0;
+
+                for (int j = 1; j < n; j++) {
+                    int pel2 = src[index[start + j] * numBands + b];
+                    delta |= pel2 ^ pel;
+                    sum += pel2 * weight[start + j];
+                }
+
+                work[w++] = clamp(delta != 0 ? ResampleOp.round(sum) : pel, channelMax[b]);
+            }
+        }
+    }
+
+    private void vertical(final int y) {
+        final int[] index = yWeights.index;
+        final double[] weight = yWeights.weight;
+        final int rowLength = dstWidth * numBands;
+
+        int n = yWeights.count[y];
+        int start = y * yWeights.stride;
+
+        int[] work = window[index[start] % window.length];
+        double weight0 = weight[start];
+
+        for (int s = 0; s < rowLength; s++) {
+            int pel = work[s];
+            pels[s] = pel;
+            sums[s] = pel * weight0;
+            deltas[s] = 0;
+        }
+
+        for (int j = 1; j < n; j++) {
+            work = window[index[start + j] % window.length];
+            double weightJ = weight[start + j];
+
+            for (int s = 0; s < rowLength; s++) {
+                int pel2 = work[s];
+                deltas[s] |= pel2 ^ pels[s];
+                sums[s] += pel2 * weightJ;
+            }
+        }
+
+        // Reuse pels for the result
+        for (int s = 0; s < rowLength; s++) {
+            pels[s] = clamp(deltas[s] != 0 ? ResampleOp.round(sums[s]) : pels[s], channelMax[s % numBands]);
+        }
+
+        destination.setPixels(destination.getMinX(), destination.getMinY() + y, dstWidth, 1, pels);
+    }
+
+    private static int clamp(final int value, final int max) {
+        return value < 0 ? 0 : value > max ? max : value;
+    }
+
+    /**
+     * Reads and resamples an image from the given reader, one band of rows at the time.
+     * <p/>
+     * Each band is read using a source region, so the reader should support reading regions efficiently,
+     * like most TIFF and PSD files. Like {@code ResampleOp}, images using an {@code IndexColorModel} are converted to
+     * true color, unless {@code filterType} is {@code FILTER_POINT} or {@code FILTER_BOX}.
+     * <p/>
+     * Formats like JPEG, PNG and GIF store the image data as a single compressed stream, and reading a band
+     * decodes (and discards) all the rows above it. For these formats, bands of about 16 megapixels are read instead,
+     * so most images are read in a single pass. Larger images are still read in bands, to bound memory use, at the
+     * cost of decoding the top of the image once for each band.
+     *
+     * @param reader the reader, with its input set.
+     * @param imageIndex the index of the image to read.
+     * @param width width of the resampled image
+     * @param height height of the resampled image
+     * @param filterType interpolation filter algorithm, see {@code ResampleOp.FILTER_*}.
+     * @return the resampled image.
+     * @throws IOException if an I/O exception occurs during reading.
+     * @throws IllegalArgumentException if {@code reader} is {@code null}, {@code width} or {@code height} is
+     * {@code <= 0}, or {@code filterType} is not a known filter type.
+     */
+    public static BufferedImage resample(final ImageReader reader, final int imageIndex, final int width, final int height, final int filterType) throws IOException {
+        Validate.notNull(reader, "reader");
+        Validate.isTrue(width > 0 && height > 0, "width and height must be positive");
+
+        int srcWidth = reader.getWidth(imageIndex);
+        int srcHeight = reader.getHeight(imageIndex);
+
+        ImageTypeSpecifier type = reader.getRawImageType(imageIndex);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(imageIndex);
+            type = types.next();
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestinationType(type);
+
+        // Don't interpolate palette indexes, use true color instead (like ResampleOp)
+        ColorModel colorModel = type.getColorModel();
+        int convertType = filterType != ResampleOp.FILTER_POINT && filterType != ResampleOp.FILTER_BOX && colorModel instanceof IndexColorModel
+                          ? (colorModel.hasAlpha() ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR)
+                          : BufferedImage.TYPE_CUSTOM;
+
+        BufferedImage destination = convertType != BufferedImage.TYPE_CUSTOM
+                                    ? new BufferedImage(width, height, convertType)
+                                    : type.createBufferedImage(width, height);
+
+        ScanlineResampler resampler = new ScanlineResampler(srcWidth, srcHeight, destination.getRaster(), filterType);
+
+        int rows = Math.max(1, (isSequential(reader, imageIndex) ? SEQUENTIAL_BAND_PIXELS : BAND_PIXELS) / srcWidth);
+
+        for (int y = 0; y < srcHeight; y += rows) {
+            param.setSourceRegion(new Rectangle(0, y, srcWidth, Math.min(rows, srcHeight - y)));
+
+            BufferedImage band = reader.read(imageIndex, param);
+
+            if (convertType != BufferedImage.TYPE_CUSTOM) {
+                band = ImageUtil.toBuffered(band, convertType);
+            }
+
+            resampler.push(band.getRaster());
+        }
+
+        return destination;
+    }
+
+    // Returns true if reading a region requires decoding all rows above it
+    static boolean isSequential(final ImageReader reader, final int imageIndex) throws IOException {
+        if (reader.isImageTiled(imageIndex) || reader.getOriginatingProvider() == null) {
+            return false;
+        }
+
+        for (String format : reader.getOriginatingProvider().getFormatNames()) {
+            if (SEQUENTIAL_FORMATS.contains(format.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * DiffusionDitherTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: DiffusionDitherTestCase.java,v 1.0 22.02.16 haraldk Exp$
+ */
+public class DiffusionDitherTestCase {
+    private static BufferedImage createImage(final int width, final int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | (x + y) & 0xff);
+            }
+        }
+
+        return image;
+    }
+
+    private static IndexColorModel createColorModel() {
+        // Plain IndexColorModel, 3-3-2 bits RGB
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) ((i >> 5) * 255 / 7);
+            g[i] = (byte) (((i >> 2) & 7) * 255 / 7);
+            b[i] = (byte) ((i & 3) * 255 / 3);
+        }
+
+        return new IndexColorModel(8, 256, r, g, b);
+    }
+
+    private static byte[] dither(final BufferedImage image, final IndexColorModel colorModel, final ExecutorService executor) {
+        DiffusionDither dither = new DiffusionDither(colorModel);
+        dither.setExecutor(executor);
+
+        BufferedImage result = dither.filter(image, null);
+        assertSame(colorModel, result.getColorModel());
+
+        return ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    public void testExecutor() {
+        DiffusionDither dither = new DiffusionDither(createColorModel());
+        assertNull(dither.getExecutor());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            dither.setExecutor(executor);
+            assertSame(executor, dither.getExecutor());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDitherPlainIndexColorModel() {
+        BufferedImage image = createImage(100, 80);
+        IndexColorModel colorModel = createColorModel();
+
+        DiffusionDither dither = new DiffusionDither(colorModel);
+        BufferedImage result = dither.filter(image, null);
+
+        // Each pixel should be close to the original (within the palette step size, plus diffused error)
+        long sum = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int expected = image.getRGB(x, y);
+                int actual = result.getRGB(x, y);
+
+                for (int shift = 0; shift < 24; shift += 8) {
+                    sum += ((expected >> shift) & 0xff) - ((actual >> shift) & 0xff);
+                }
+            }
+        }
+
+        // Errors are diffused, so the average error is small
+        assertEquals(0, sum / (100 * 80 * 3));
+    }
+
+    @Test
+    public void testDitherTransparentIndexNotUsedForOpaque() {
+        // The transparent index has the same RGB as an opaque entry, opaque pixels must never map to it
+        for (int rgb : new int[] {0xff0000, 0xffffff}) {
+            byte[] r = {(byte) (rgb >> 16), 0, (byte) 0xff, (byte) (rgb >> 16)};
+            byte[] g = {(byte) (rgb >> 8), 0, (byte) 0xff, (byte) (rgb >> 8)};
+            byte[] b = {(byte) rgb, 0, (byte) 0xff, (byte) rgb};
+
+            IndexColorModel transparent = new IndexColorModel(2, 4, r, g, b, 0);
+            InverseColorMapIndexColorModel colorModel = new InverseColorMapIndexColorModel(transparent);
+            assertEquals(0, colorModel.getTransparentPixel());
+
+            BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, 0xff000000 | rgb);
+                }
+            }
+
+            BufferedImage result = new DiffusionDither(colorModel).filter(image, null);
+
+            for (int y = 0; y < result.getHeight(); y++) {
+                for (int x = 0; x < result.getWidth(); x++) {
+                    assertEquals(String.format("Wrong pixel at %d, %d", x, y), 0xff000000 | rgb, result.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentDeterministic() {
+        BufferedImage image = createImage(150, DiffusionDither.STRIPE_HEIGHT * 5 + 7);
+        IndexColorModel colorModel = createColorModel();
+
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ExecutorService multiple = Executors.newFixedThreadPool(4);
+
+        try {
+            byte[] expected = dither(image, colorModel, single);
+
+            assertArrayEquals(expected, dither(image, colorModel, single));
+            assertArrayEquals(expected, dither(image, colorModel, multiple));
+        }
+        finally {
+            single.shutdown();
+            multiple.shutdown();
+        }
+    }
+}
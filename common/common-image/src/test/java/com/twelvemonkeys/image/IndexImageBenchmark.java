@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing the primitive color histogram in {@link IndexImage} (serial and concurrent) with the
+ * previous histogram, using a list of {@code Counter} objects per bin.
+ * <p/>
+ * Run from the IDE, or using {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.twelvemonkeys.image.IndexImageBenchmark}.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: IndexImageBenchmark.java,v 1.0 21.02.16 haraldk Exp$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IndexImageBenchmark {
+
+    /** Image width, the height is three fourths of the width. */
+    @Param({"512", "2048"})
+    public int size;
+
+    /** Sampling step, {@code 1} (all pixels) is used for {@code COLOR_SELECTION_QUALITY}. */
+    @Param({"1", "8"})
+    public int step;
+
+    private BufferedImage image;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        image = createImage(size, size * 3 / 4);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private static BufferedImage createImage(final int width, final int height) {
+        // Gradient with lots of noise, to get many distinct colors, like a photo
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+            g.fillRect(0, 0, width, height);
+        }
+        finally {
+            g.dispose();
+        }
+
+        Random random = new Random(4711);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x10) * 0x010101);
+            }
+        }
+
+        return image;
+    }
+
+    @Benchmark
+    public IndexImage.Histogram histogram() {
+        return IndexImage.Histogram.create(image, step, null);
+    }
+
+    @Benchmark
+    public IndexImage.Histogram histogramConcurrent() {
+        return IndexImage.Histogram.create(image, step, executor);
+    }
+
+    @Benchmark
+    public List<Counter>[] histogramCounterLists() {
+        return createCounterLists(image, step);
+    }
+
+    @Benchmark
+    public IndexColorModel indexColorModel() {
+        return IndexImage.getIndexColorModel(image, 256, step == 1 ? IndexImage.COLOR_SELECTION_QUALITY : IndexImage.COLOR_SELECTION_FAST);
+    }
+
+    @Benchmark
+    public IndexColorModel indexColorModelConcurrent() {
+        return IndexImage.getIndexColorModel(image, 256, step == 1 ? IndexImage.COLOR_SELECTION_QUALITY : IndexImage.COLOR_SELECTION_FAST, executor);
+    }
+
+    // The previous histogram implementation, for reference
+    private static List<Counter>[] createCounterLists(final BufferedImage image, final int step) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        @SuppressWarnings("unchecked")
+        List<Counter>[] colors = new List[1 << 12];
+
+        for (int x = 0; x < width; x++) {
+            for (int y = x % step; y < height; y += step) {
+                int rgb = image.getRGB(x, y) & 0xFFFFFF;
+                int index = IndexImage.Histogram.bin(rgb);
+
+                List<Counter> v = colors[index];
+
+                if (v == null) {
+                    v = new ArrayList<>();
+                    colors[index] = v;
+                }
+
+                boolean found = false;
+                for (Counter counter : v) {
+                    if (counter.val == rgb) {
+                        counter.count++;
+                        found = true;
+                        break;
+                    }
+                }
+
+                if (!found) {
+                    v.add(new Counter(rgb));
+                }
+            }
+        }
+
+        return colors;
+    }
+
+    static final class Counter {
+        final int val;
+        int count = 1;
+
+        Counter(final int val) {
+            this.val = val;
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IndexImageBenchmark.class.getSimpleName()).build()).run();
+    }
+}
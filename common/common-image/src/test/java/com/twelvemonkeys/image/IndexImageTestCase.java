@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * IndexImageTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: IndexImageTestCase.java,v 1.0 21.02.16 haraldk Exp$
+ */
+public class IndexImageTestCase {
+    private static BufferedImage createImage(final int width, final int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(4711);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | random.nextInt(64));
+            }
+        }
+
+        return image;
+    }
+
+    @Test
+    public void testHistogramCounts() {
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x123456);
+        image.setRGB(3, 2, 0x123456);
+        image.setRGB(1, 1, 0xff0000);
+
+        IndexImage.Histogram histogram = IndexImage.Histogram.create(image, 1, null);
+
+        assertEquals(12, histogram.sampleCount);
+        assertEquals(3, histogram.colors.length);
+
+        for (int i = 0; i < histogram.colors.length; i++) {
+            int rgb = histogram.colors[i];
+            int bin = IndexImage.Histogram.bin(rgb);
+
+            // Each color must be in its bin
+            assertTrue(histogram.start[bin] <= i && i < histogram.start[bin + 1]);
+
+            switch (rgb) {
+                case 0x000000:
+                    assertEquals(9, histogram.counts[i]);
+                    break;
+                case 0x123456:
+                    assertEquals(2, histogram.counts[i]);
+                    break;
+                case 0xff0000:
+                    assertEquals(1, histogram.counts[i]);
+                    break;
+                default:
+                    fail(String.format("Unexpected color: #%06x", rgb));
+            }
+        }
+    }
+
+    @Test
+    public void testHistogramSampled() {
+        BufferedImage image = createImage(100, 80);
+
+        IndexImage.Histogram histogram = IndexImage.Histogram.create(image, 7, null);
+
+        int count = 0;
+        for (int c : histogram.counts) {
+            count += c;
+        }
+
+        assertEquals(histogram.sampleCount, count);
+        assertTrue(histogram.sampleCount > 100 * 80 / 7 - 100);
+        assertTrue(histogram.sampleCount < 100 * 80 / 7 + 100);
+    }
+
+    @Test
+    public void testHistogramConcurrentSameAsSerial() {
+        BufferedImage image = createImage(400, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (int step : new int[] {1, 3}) {
+                IndexImage.Histogram expected = IndexImage.Histogram.create(image, step, null);
+                IndexImage.Histogram actual = IndexImage.Histogram.create(image, step, executor);
+
+                assertEquals(expected.sampleCount, actual.sampleCount);
+                assertArrayEquals(expected.start, actual.start);
+                assertArrayEquals(expected.colors, actual.colors);
+                assertArrayEquals(expected.counts, actual.counts);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexColorModelConcurrentSameAsSerial() {
+        BufferedImage image = createImage(400, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (int hints : new int[] {IndexImage.COLOR_SELECTION_QUALITY, IndexImage.COLOR_SELECTION_FAST}) {
+                IndexColorModel expected = IndexImage.getIndexColorModel(image, 256, hints);
+                IndexColorModel actual = IndexImage.getIndexColorModel(image, 256, hints, executor);
+
+                assertEquals(expected.getMapSize(), actual.getMapSize());
+
+                for (int i = 0; i < expected.getMapSize(); i++) {
+                    assertEquals(expected.getRGB(i), actual.getRGB(i));
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexColorModelFewColors() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        int[] rgbs = {0xff0000, 0x00ff00, 0x0000ff, 0xffffff};
+
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                image.setRGB(x, y, rgbs[(x / 4 + y) % 4]);
+            }
+        }
+
+        IndexColorModel icm = IndexImage.getIndexColorModel(image, 256, IndexImage.COLOR_SELECTION_QUALITY);
+        assertEquals(4, icm.getMapSize());
+
+        for (int rgb : rgbs) {
+            boolean found = false;
+            for (int i = 0; i < icm.getMapSize(); i++) {
+                found |= (icm.getRGB(i) & 0xffffff) == rgb;
+            }
+
+            assertTrue(String.format("Missing color: #%06x", rgb), found);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * InverseColorMapTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: InverseColorMapTestCase.java,v 1.0 22.02.16 haraldk Exp$
+ */
+public class InverseColorMapTestCase {
+    private static final int[] RGBS = {0xff000000, 0xffff0000, 0xff00ff00, 0xff0000ff, 0xffffffff};
+
+    @Test
+    public void testGetNearest() {
+        InverseColorMap map = new InverseColorMap(RGBS.clone());
+
+        for (int i = 0; i < RGBS.length; i++) {
+            assertEquals(i, map.getIndexNearest(RGBS[i] & 0xffffff));
+        }
+
+        assertEquals(1, map.getIndexNearest(0xf01010));
+        assertEquals(3, map.getIndexNearest(0x1010f0));
+    }
+
+    @Test
+    public void testGetShared() {
+        InverseColorMap map = InverseColorMap.get(RGBS.clone(), -1);
+
+        assertSame(map, InverseColorMap.get(RGBS.clone(), -1));
+        assertNotSame(map, InverseColorMap.get(RGBS.clone(), 0));
+        assertNotSame(map, InverseColorMap.get(new int[] {0xff000000, 0xffff0000}, -1));
+    }
+
+    @Test
+    public void testGetSharedIgnoresAlpha() {
+        int[] rgbs = RGBS.clone();
+        rgbs[2] &= 0x00ffffff;
+
+        assertSame(InverseColorMap.get(RGBS.clone(), -1), InverseColorMap.get(rgbs, -1));
+    }
+
+    @Test
+    public void testGetSameAsNew() {
+        InverseColorMap expected = new InverseColorMap(RGBS.clone(), 2);
+        InverseColorMap actual = InverseColorMap.get(RGBS.clone(), 2);
+
+        assertArrayEquals(expected.inverseRGB, actual.inverseRGB);
+    }
+
+    @Test
+    public void testColorModelsShareMap() {
+        byte[] r = {0, (byte) 0xff, 0, 0};
+        byte[] g = {0, 0, (byte) 0xff, 0};
+        byte[] b = {0, 0, 0, (byte) 0xff};
+
+        InverseColorMapIndexColorModel first = new InverseColorMapIndexColorModel(8, 4, r, g, b);
+        InverseColorMapIndexColorModel second = new InverseColorMapIndexColorModel(8, 4, r, g, b);
+
+        assertSame(first.inverseMap, second.inverseMap);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing the direct array {@link ResampleKernel} (in double and fixed point precision) with the
+ * generic, {@code Raster} based resampling in {@link ResampleOp}, for all filter types and the image types supported
+ * by the kernel.
+ * <p/>
+ * Run from the IDE, or using {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.twelvemonkeys.image.ResampleOpBenchmark}.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ResampleOpBenchmark.java,v 1.0 18.02.16 haraldk Exp$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResampleOpBenchmark {
+
+    /** Filter type constant, see {@code ResampleOp.FILTER_*}. */
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15"})
+    public int filterType;
+
+    /** {@code BufferedImage} type constant: INT_RGB, INT_ARGB, 3BYTE_BGR, 4BYTE_ABGR and BYTE_GRAY. */
+    @Param({"1", "2", "5", "6", "10"})
+    public int imageType;
+
+    /** Source size, the image is scaled down to a fourth in both dimensions. */
+    @Param({"1024"})
+    public int size;
+
+    private BufferedImage source;
+    private BufferedImage destination;
+    private ResamplePlans.Plan plan;
+
+    @Setup
+    public void setup() {
+        source = createImage(size, size * 3 / 4, imageType);
+        destination = new BufferedImage(size / 4, size * 3 / 16, imageType);
+        plan = new ResamplePlans.Plan(ResampleOp.createFilter(filterType), source.getWidth(), source.getHeight(), destination.getWidth(), destination.getHeight());
+    }
+
+    private static BufferedImage createImage(final int width, final int height, final int type) {
+        // Gradient with some noise, to avoid the uniform color shortcuts
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.RED, width, height, new Color(0x7f00ff00, true)));
+            g.fillRect(0, 0, width, height);
+
+            Random random = new Random(4711);
+            for (int i = 0; i < 1000; i++) {
+                g.setColor(new Color(random.nextInt(), true));
+                g.fillRect(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(8), 1 + random.nextInt(8));
+            }
+        }
+        finally {
+            g.dispose();
+        }
+
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage kernel() {
+        return ResampleOp.resample(source, destination, plan, false, null);
+    }
+
+    @Benchmark
+    public BufferedImage kernelFixedPoint() {
+        return ResampleOp.resample(source, destination, plan, true, null);
+    }
+
+    @Benchmark
+    public BufferedImage generic() {
+        return ResampleOp.resampleGeneric(source, destination, plan);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ResampleOpBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -6,9 +6,12 @@ import org.junit.Test;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImagingOpException;
+import java.awt.image.Raster;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -328,6 +331,135 @@ public class ResampleOpTestCase {
         }
     }
 
+    @Test
+    public void testResampleFastPathSameAsGeneric() {
+        int[] types = {
+                BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_INT_BGR,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_BYTE_GRAY
+        };
+
+        for (int type : types) {
+            BufferedImage image = createImage(97, 61, type);
+
+            for (int filterType = ResampleOp.FILTER_BOX; filterType <= ResampleOp.FILTER_BLACKMAN_SINC; filterType++) {
+                // Both down- and upscaling
+                for (Dimension size : new Dimension[] {new Dimension(40, 23), new Dimension(131, 77)}) {
+                    ResamplePlans.Plan plan = ResamplePlans.get(image.getWidth(), image.getHeight(), size.width, size.height, filterType);
+
+                    BufferedImage expected = ResampleOp.resampleGeneric(image, new BufferedImage(size.width, size.height, type), plan);
+                    BufferedImage actual = ResampleOp.resample(image, new BufferedImage(size.width, size.height, type), plan, false, null);
+
+                    for (int y = 0; y < size.height; y++) {
+                        for (int x = 0; x < size.width; x++) {
+                            assertEquals(String.format("type: %d, filter: %d, size: %s, x: %d, y: %d", type, filterType, size, x, y),
+                                    expected.getRGB(x, y), actual.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResampleFastPathChunkedSameAsGeneric() {
+        // Source rows needed for the destination don't fit in one intermediate buffer
+        BufferedImage image = createImage(1200, 1300, BufferedImage.TYPE_INT_ARGB);
+
+        for (Dimension size : new Dimension[] {new Dimension(1100, 1000), new Dimension(1100, 1500)}) {
+            assertTrue(size.width * 4 * image.getHeight() > ResampleKernel.WORK_SIZE);
+
+            ResamplePlans.Plan plan = ResamplePlans.get(image.getWidth(), image.getHeight(), size.width, size.height, ResampleOp.FILTER_LANCZOS);
+
+            BufferedImage expected = ResampleOp.resampleGeneric(image, new BufferedImage(size.width, size.height, image.getType()), plan);
+            BufferedImage actual = ResampleOp.resample(image, new BufferedImage(size.width, size.height, image.getType()), plan, false, null);
+
+            for (int y = 0; y < size.height; y++) {
+                for (int x = 0; x < size.width; x++) {
+                    assertEquals(String.format("size: %s, x: %d, y: %d", size, x, y), expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResampleConcurrentSameAsSerial() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+                BufferedImage image = createImage(640, 480, type);
+
+                ResampleOp serial = new ResampleOp(300, 200, ResampleOp.FILTER_LANCZOS);
+                ResampleOp concurrent = new ResampleOp(300, 200, ResampleOp.FILTER_LANCZOS);
+                concurrent.setExecutor(executor);
+                assertSame(executor, concurrent.getExecutor());
+
+                BufferedImage expected = serial.filter(image, null);
+                BufferedImage actual = concurrent.filter(image, null);
+
+                for (int y = 0; y < expected.getHeight(); y++) {
+                    for (int x = 0; x < expected.getWidth(); x++) {
+                        assertEquals(String.format("type: %d, x: %d, y: %d", type, x, y), expected.getRGB(x, y), actual.getRGB(x, y));
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFixedPointHints() {
+        RenderingHints hints = new RenderingHints(ResampleOp.KEY_RESAMPLE_PRECISION, ResampleOp.VALUE_PRECISION_FIXED_POINT);
+        hints.put(ResampleOp.KEY_RESAMPLE_INTERPOLATION, ResampleOp.VALUE_INTERPOLATION_MITCHELL);
+
+        ResampleOp resampler = new ResampleOp(10, 10, hints);
+        assertEquals(ResampleOp.FILTER_MITCHELL, resampler.getFilterType());
+        assertEquals(ResampleOp.VALUE_PRECISION_FIXED_POINT, resampler.getRenderingHints().get(ResampleOp.KEY_RESAMPLE_PRECISION));
+
+        resampler = new ResampleOp(10, 10, new RenderingHints(ResampleOp.KEY_RESAMPLE_PRECISION, ResampleOp.VALUE_PRECISION_DOUBLE));
+        assertNull(resampler.getRenderingHints());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFixedPointHintsIncompatibleValue() {
+        new ResampleOp(10, 10, new RenderingHints(ResampleOp.KEY_RESAMPLE_PRECISION, ResampleOp.VALUE_INTERPOLATION_LANCZOS));
+    }
+
+    @Test
+    public void testResampleFixedPointMaxError() {
+        for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage image = createImage(333, 222, type);
+
+            for (int filterType = ResampleOp.FILTER_BOX; filterType <= ResampleOp.FILTER_BLACKMAN_SINC; filterType++) {
+                if (filterType == ResampleOp.FILTER_TRIANGLE || filterType == ResampleOp.FILTER_QUADRATIC) {
+                    continue; // Uses AffineTransformOp
+                }
+
+                ResampleOp resampler = new ResampleOp(100, 71, filterType);
+
+                RenderingHints fixedPoint = resampler.getRenderingHints();
+                fixedPoint.put(ResampleOp.KEY_RESAMPLE_PRECISION, ResampleOp.VALUE_PRECISION_FIXED_POINT);
+
+                BufferedImage expected = resampler.filter(image, null);
+                BufferedImage actual = new ResampleOp(100, 71, fixedPoint).filter(image, null);
+
+                Raster expectedRaster = expected.getRaster();
+                Raster actualRaster = actual.getRaster();
+
+                for (int y = 0; y < expected.getHeight(); y++) {
+                    for (int x = 0; x < expected.getWidth(); x++) {
+                        for (int b = 0; b < expectedRaster.getNumBands(); b++) {
+                            assertEquals(String.format("type: %d, filter: %d, x: %d, y: %d", type, filterType, x, y),
+                                    expectedRaster.getSample(x, y, b), actualRaster.getSample(x, y, b), 2);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     @Ignore("Not for general unit testing")
     @Test
     public void testTime() {
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResamplePlansTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ResamplePlansTestCase.java,v 1.0 19.02.16 haraldk Exp$
+ */
+public class ResamplePlansTestCase {
+    @After
+    public void tearDown() {
+        ResamplePlans.setCacheSize(ResamplePlans.DEFAULT_CACHE_SIZE);
+        ResamplePlans.clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecomputeZeroSource() {
+        ResamplePlans.precompute(0, 100, 10, 10, ResampleOp.FILTER_LANCZOS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecomputeNegativeDestination() {
+        ResamplePlans.precompute(100, 100, 10, -1, ResampleOp.FILTER_LANCZOS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecomputeUnknownFilter() {
+        ResamplePlans.precompute(100, 100, 10, 10, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetCacheSizeNegative() {
+        ResamplePlans.setCacheSize(-1);
+    }
+
+    @Test
+    public void testPrecomputeUsedByFilter() {
+        ResamplePlans.clear();
+        ResamplePlans.precompute(100, 80, 30, 20, ResampleOp.FILTER_MITCHELL);
+
+        long hits = ResamplePlans.getHitCount();
+        long misses = ResamplePlans.getMissCount();
+
+        BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_INT_ARGB);
+        new ResampleOp(30, 20, ResampleOp.FILTER_MITCHELL).filter(image, null);
+
+        assertEquals(hits + 1, ResamplePlans.getHitCount());
+        assertEquals(misses, ResamplePlans.getMissCount());
+    }
+
+    @Test
+    public void testGetKeyedBySizeAndFilter() {
+        ResamplePlans.clear();
+
+        ResamplePlans.Plan plan = ResamplePlans.get(100, 80, 30, 20, ResampleOp.FILTER_LANCZOS);
+
+        assertSame(plan, ResamplePlans.get(100, 80, 30, 20, ResampleOp.FILTER_LANCZOS));
+        assertSame(plan, ResamplePlans.get(100, 80, 30, 20, ResampleOp.FILTER_UNDEFINED)); // Lanczos is the default
+        assertNotSame(plan, ResamplePlans.get(100, 80, 30, 20, ResampleOp.FILTER_MITCHELL));
+        assertNotSame(plan, ResamplePlans.get(80, 100, 30, 20, ResampleOp.FILTER_LANCZOS));
+        assertNotSame(plan, ResamplePlans.get(100, 80, 20, 30, ResampleOp.FILTER_LANCZOS));
+    }
+
+    @Test
+    public void testCacheSizeZeroDisablesCaching() {
+        ResamplePlans.setCacheSize(0);
+        assertEquals(0, ResamplePlans.getCacheSize());
+
+        ResamplePlans.Plan plan = ResamplePlans.get(100, 80, 30, 20, ResampleOp.FILTER_LANCZOS);
+        assertNotSame(plan, ResamplePlans.get(100, 80, 30, 20, ResampleOp.FILTER_LANCZOS));
+    }
+
+    @Test
+    public void testSameResultWithCachedPlan() {
+        BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x * 0x020305 ^ y * 0x050302);
+            }
+        }
+
+        ResampleOp resampler = new ResampleOp(30, 20, ResampleOp.FILTER_LANCZOS);
+
+        ResamplePlans.setCacheSize(0);
+        BufferedImage expected = resampler.filter(image, null);
+
+        ResamplePlans.setCacheSize(ResamplePlans.DEFAULT_CACHE_SIZE);
+        ResamplePlans.precompute(100, 80, 30, 20, ResampleOp.FILTER_LANCZOS);
+        BufferedImage actual = resampler.filter(image, null);
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.image;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * ScanlineResamplerTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ScanlineResamplerTestCase.java,v 1.0 20.02.16 haraldk Exp$
+ */
+public class ScanlineResamplerTestCase {
+    private static final int[] FILTERS = {
+            ResampleOp.FILTER_HERMITE, ResampleOp.FILTER_HAMMING, ResampleOp.FILTER_BLACKMAN,
+            ResampleOp.FILTER_GAUSSIAN, ResampleOp.FILTER_CUBIC, ResampleOp.FILTER_MITCHELL,
+            ResampleOp.FILTER_LANCZOS, ResampleOp.FILTER_BLACKMAN_BESSEL, ResampleOp.FILTER_BLACKMAN_SINC
+    };
+
+    private static BufferedImage createImage(final int width, final int height, final int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * y) << 24 | x * 0x020305 ^ y * 0x050302);
+            }
+        }
+
+        return image;
+    }
+
+    private static void push(final ScanlineResampler resampler, final BufferedImage image, final int rows) {
+        for (int y = 0; y < image.getHeight(); y += rows) {
+            Raster band = image.getRaster().createChild(0, y, image.getWidth(), Math.min(rows, image.getHeight() - y), 0, 0, null);
+            resampler.push(band);
+        }
+    }
+
+    private static void assertSameData(final BufferedImage expected, final BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        Raster expectedRaster = expected.getRaster();
+        Raster actualRaster = actual.getRaster();
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            assertArrayEquals("Row " + y + " differs",
+                    expectedRaster.getPixels(0, y, expected.getWidth(), 1, (int[]) null),
+                    actualRaster.getPixels(0, y, actual.getWidth(), 1, (int[]) null)
+            );
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateZeroSize() {
+        new ScanlineResampler(0, 10, Raster.createBandedRaster(0, 10, 10, 3, null), ResampleOp.FILTER_LANCZOS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNullDestination() {
+        new ScanlineResampler(10, 10, null, ResampleOp.FILTER_LANCZOS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateUnknownFilter() {
+        new ScanlineResampler(10, 10, Raster.createBandedRaster(0, 10, 10, 3, null), -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPushWrongWidth() {
+        ScanlineResampler resampler = new ScanlineResampler(100, 100, Raster.createBandedRaster(0, 10, 10, 3, null), ResampleOp.FILTER_LANCZOS);
+        resampler.push(Raster.createBandedRaster(0, 99, 10, 3, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPushTooManyRows() {
+        ScanlineResampler resampler = new ScanlineResampler(100, 100, Raster.createBandedRaster(0, 10, 10, 3, null), ResampleOp.FILTER_LANCZOS);
+        resampler.push(Raster.createBandedRaster(0, 100, 60, 3, null));
+        resampler.push(Raster.createBandedRaster(0, 100, 60, 3, null));
+    }
+
+    @Test
+    public void testRowsCompletedIncrementally() {
+        BufferedImage image = createImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage result = new BufferedImage(20, 20, BufferedImage.TYPE_3BYTE_BGR);
+
+        ScanlineResampler resampler = new ScanlineResampler(200, 200, result.getRaster(), ResampleOp.FILTER_LANCZOS);
+        assertEquals(0, resampler.getCompletedRows());
+
+        resampler.push(image.getRaster().createChild(0, 0, 200, 100, 0, 0, null));
+        assertTrue(resampler.getCompletedRows() > 0);
+        assertTrue(resampler.getCompletedRows() < 20);
+        assertFalse(resampler.isComplete());
+
+        resampler.push(image.getRaster().createChild(0, 100, 200, 100, 0, 100, null));
+        assertEquals(20, resampler.getCompletedRows());
+        assertTrue(resampler.isComplete());
+    }
+
+    @Test
+    public void testSameAsResampleOp() {
+        int[] types = {
+                BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY
+        };
+        int[][] sizes = {{31, 23}, {80, 64}, {200, 150}};
+
+        for (int type : types) {
+            BufferedImage image = createImage(97, 83, type);
+
+            for (int filterType : FILTERS) {
+                for (int[] size : sizes) {
+                    BufferedImage expected = new ResampleOp(size[0], size[1], filterType).filter(image, null);
+
+                    for (int rows : new int[] {1, 7, 83}) {
+                        BufferedImage actual = new BufferedImage(size[0], size[1], type);
+                        ScanlineResampler resampler = new ScanlineResampler(97, 83, actual.getRaster(), filterType);
+                        push(resampler, image, rows);
+
+                        assertTrue(resampler.isComplete());
+                        assertSameData(expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResampleReader() throws IOException {
+        BufferedImage image = createImage(300, 200, BufferedImage.TYPE_INT_RGB);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "PNG", bytes));
+
+        ImageReader reader = ImageIO.getImageReadersByFormatName("PNG").next();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            reader.setInput(stream);
+
+            BufferedImage actual = ScanlineResampler.resample(reader, 0, 60, 40, ResampleOp.FILTER_LANCZOS);
+
+            BufferedImage decoded = ImageUtil.toBuffered(image, BufferedImage.TYPE_3BYTE_BGR);
+            BufferedImage expected = new BufferedImage(60, 40, BufferedImage.TYPE_3BYTE_BGR);
+            new ResampleOp(60, 40, ResampleOp.FILTER_LANCZOS).filter(decoded, expected);
+
+            for (int y = 0; y < 40; y++) {
+                for (int x = 0; x < 60; x++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testResampleReaderSequentialFormatReadOnce() throws IOException {
+        // 2 megapixels, more than one band, unless the format is sequential
+        BufferedImage image = createImage(2048, 1024, BufferedImage.TYPE_INT_RGB);
+
+        assertEquals(1, countReads(image, "PNG"));
+        assertEquals(2, countReads(image, "BMP"));
+    }
+
+    private static int countReads(final BufferedImage image, final String format) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, bytes));
+
+        ImageReader reader = ImageIO.getImageReadersByFormatName(format).next();
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            reader.setInput(stream);
+
+            final AtomicInteger reads = new AtomicInteger();
+            reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+                public void imageStarted(final ImageReader source, final int imageIndex) {
+                    reads.incrementAndGet();
+                }
+
+                public void sequenceStarted(final ImageReader source, final int minIndex) {}
+                public void sequenceComplete(final ImageReader source) {}
+                public void imageProgress(final ImageReader source, final float percentageDone) {}
+                public void imageComplete(final ImageReader source) {}
+                public void thumbnailStarted(final ImageReader source, final int imageIndex, final int thumbnailIndex) {}
+                public void thumbnailProgress(final ImageReader source, final float percentageDone) {}
+                public void thumbnailComplete(final ImageReader source) {}
+                public void readAborted(final ImageReader source) {}
+            });
+
+            BufferedImage actual = ScanlineResampler.resample(reader, 0, 256, 128, ResampleOp.FILTER_LANCZOS);
+            assertEquals(256, actual.getWidth());
+            assertEquals(128, actual.getHeight());
+
+            return reads.get();
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static com.twelvemonkeys.lang.Validate.notNull;
+
+/**
+ * Utility methods for running tasks concurrently, using an {@code Executor} supplied by the caller.
+ * <p/>
+ * When a task fails, the methods in this class wait for the other tasks to complete before throwing the exception,
+ * so that callers may safely reuse or release any state shared with the tasks.
+ * If the waiting thread is interrupted, the methods return immediately, and tasks may still be running.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: FutureTasks.java,v 1.0 26.02.16 haraldk Exp$
+ */
+public final class FutureTasks {
+    private FutureTasks() {}
+
+    /**
+     * Executes the given tasks, and waits for all of them to complete.
+     * If any of the tasks fails, all other tasks are still allowed to complete before the exception is thrown.
+     *
+     * @param executor the executor used for running the tasks, or {@code null} to run all tasks on the calling thread.
+     * @param tasks the tasks to run.
+     * @param operation a short description of the operation, like "decoding image", used in exception messages.
+     * @param <T> the result type of the tasks.
+     * @return the results of the tasks, in the same order as {@code tasks}.
+     * @throws IOException if any of the tasks throws an {@code IOException}, or a checked exception
+     *                     (the exception is wrapped in an {@code IOException}).
+     * @throws InterruptedIOException if interrupted while waiting for the tasks to complete.
+     * @throws RejectedExecutionException if the executor rejects any of the tasks. The tasks already accepted
+     *                                    are completed before the exception is thrown.
+     * @throws RuntimeException if any of the tasks throws a {@code RuntimeException}.
+     */
+    public static <T> List<T> invokeAll(final Executor executor, final List<? extends Callable<T>> tasks, final String operation) throws IOException {
+        notNull(tasks, "tasks");
+
+        List<FutureTask<T>> pending = new ArrayList<>(tasks.size());
+
+        try {
+            for (Callable<T> callable : tasks) {
+                FutureTask<T> task = new FutureTask<>(callable);
+
+                if (executor != null) {
+                    // Only add the task once it's accepted, as a rejected task will never complete
+                    executor.execute(task);
+                }
+                else {
+                    task.run();
+                }
+
+                pending.add(task);
+            }
+
+            List<T> results = new ArrayList<>(pending.size());
+
+            for (FutureTask<T> task : pending) {
+                results.add(get(task, operation));
+            }
+
+            return results;
+        }
+        finally {
+            // In case of exceptions, make sure no accepted tasks are still running when we return
+            awaitQuietly(pending);
+        }
+    }
+
+    /**
+     * Waits for the given task to complete, and returns its result.
+     *
+     * @param task the task.
+     * @param operation a short description of the operation, like "decoding image", used in exception messages.
+     * @param <T> the result type of the task.
+     * @return the result of the task.
+     * @throws IOException if the task throws an {@code IOException}, or a checked exception
+     *                     (the exception is wrapped in an {@code IOException}).
+     * @throws InterruptedIOException if interrupted while waiting for the task to complete.
+     *                                The interrupted status of the current thread is restored.
+     * @throws CancellationException if the task was cancelled.
+     * @throws RuntimeException if the task throws a {@code RuntimeException}.
+     */
+    public static <T> T get(final Future<T> task, final String operation) throws IOException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while " + operation);
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException("Failed " + operation + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Waits for all the given tasks to complete, ignoring any exceptions thrown by the tasks.
+     * Intended for clean up, when already failing.
+     * <p/>
+     * If interrupted while waiting, the method returns immediately, and the interrupted status of the
+     * current thread is restored.
+     *
+     * @param tasks the tasks to wait for.
+     */
+    public static void awaitQuietly(final Iterable<? extends Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException | CancellationException ignore) {
+                // Already failing, ignore
+            }
+        }
+    }
+}
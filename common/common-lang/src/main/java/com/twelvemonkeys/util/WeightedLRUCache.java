@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.util;
+
+import com.twelvemonkeys.lang.Validate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe cache with a size limit in weight (typically bytes), rather than number of entries.
+ * <p/>
+ * The cache is split into a number of segments, each with its own lock, to reduce contention.
+ * Each segment keeps its entries in LRU (least recently used) order. When the maximum weight of the cache is
+ * exceeded, the least recently used entries of all segments are evicted, so any entry up to the maximum weight
+ * may be admitted. Entries that are heavier than the maximum weight are never admitted.
+ * <p/>
+ * The weight of a value is computed once, when it is put into the cache, using the {@link Weigher} given at
+ * creation time. An optional {@link EvictionListener} is notified when entries are evicted (not when they are
+ * explicitly removed or replaced), without holding any locks.
+ * <p/>
+ * Hit, miss, eviction and rejection counts are maintained, and may be used to monitor the efficiency of the cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: WeightedLRUCache.java,v 1.0 23.02.16 haraldk Exp$
+ */
+public final class WeightedLRUCache<K, V> {
+    /**
+     * Computes the weight of values in the cache.
+     *
+     * @param <V> the value type
+     */
+    public interface Weigher<V> {
+        /**
+         * Returns the weight of the given value.
+         *
+         * @param pValue the value, never {@code null}
+         * @return the weight of the value, {@code &gt;= 0}
+         */
+        long weigh(V pValue);
+    }
+
+    /**
+     * Call-back interface, notified when entries are evicted from the cache.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    public interface EvictionListener<K, V> {
+        /**
+         * Invoked after an entry was evicted from the cache, to make room for other entries.
+         *
+         * @param pKey the key of the evicted entry
+         * @param pValue the value of the evicted entry
+         */
+        void evicted(K pKey, V pValue);
+    }
+
+    /** The default number of segments. */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long maxWeight;
+    private final Weigher<? super V> weigher;
+    private final EvictionListener<? super K, ? super V> listener;
+
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Creates a {@code WeightedLRUCache} with the default number of segments, and no eviction listener.
+     *
+     * @param pMaxWeight the maximum total weight of the cache
+     * @param pWeigher the weigher used to compute the weight of values
+     */
+    public WeightedLRUCache(final long pMaxWeight, final Weigher<? super V> pWeigher) {
+        this(pMaxWeight, DEFAULT_SEGMENTS, pWeigher, null);
+    }
+
+    /**
+     * Creates a {@code WeightedLRUCache}.
+     *
+     * @param pMaxWeight the maximum total weight of the cache
+     * @param pSegments the number of segments, must be a power of two
+     * @param pWeigher the weigher used to compute the weight of values
+     * @param pListener the eviction listener, may be {@code null}
+     *
+     * @throws IllegalArgumentException if {@code pMaxWeight} is negative, {@code pSegments} is not a
+     * positive power of two, or {@code pWeigher} is {@code null}
+     */
+    public WeightedLRUCache(final long pMaxWeight, final int pSegments, final Weigher<? super V> pWeigher,
+                            final EvictionListener<? super K, ? super V> pListener) {
+        Validate.isTrue(pMaxWeight >= 0, pMaxWeight, "Negative max weight: %d");
+        Validate.isTrue(pSegments > 0 && (pSegments & (pSegments - 1)) == 0, pSegments, "Number of segments must be a positive power of two: %d");
+
+        maxWeight = pMaxWeight;
+        weigher = Validate.notNull(pWeigher, "weigher");
+        listener = pListener;
+
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[pSegments];
+        for (int i = 0; i < pSegments; i++) {
+            segments[i] = new Segment<K, V>();
+        }
+
+        this.segments = segments;
+    }
+
+    private Segment<K, V> segmentFor(final Object pKey) {
+        // Spread the hash bits, to make sure keys that differ only in the high bits use different segments
+        int hash = pKey.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Returns the value for the given key, or {@code null} if the key is not in the cache.
+     * A successful lookup makes the entry the most recently used.
+     *
+     * @param pKey the key
+     * @return the value for the key, or {@code null}
+     */
+    public V get(final K pKey) {
+        Segment<K, V> segment = segmentFor(pKey);
+        Node<V> node;
+
+        segment.lock();
+        try {
+            node = segment.entries.get(pKey);
+
+            if (node != null) {
+                node.access = clock.incrementAndGet();
+            }
+        }
+        finally {
+            segment.unlock();
+        }
+
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * Tests if the given key is in the cache.
+     * Does not affect the LRU order, or the hit and miss counts.
+     *
+     * @param pKey the key
+     * @return {@code true} if the key is in the cache
+     */
+    public boolean containsKey(final K pKey) {
+        Segment<K, V> segment = segmentFor(pKey);
+
+        segment.lock();
+        try {
+            return segment.entries.containsKey(pKey);
+        }
+        finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Puts the value into the cache, evicting the least recently used entries if needed.
+     * If the value is heavier than the maximum weight of the cache, it is not admitted,
+     * and any previous value for the key is removed.
+     *
+     * @param pKey the key
+     * @param pValue the value
+     * @return {@code true} if the value was admitted to the cache
+     */
+    public boolean put(final K pKey, final V pValue) {
+        return put(pKey, pValue, false);
+    }
+
+    /**
+     * Puts the value into the cache, unless the key is already in the cache.
+     *
+     * @param pKey the key
+     * @param pValue the value
+     * @return {@code true} if the value was admitted to the cache
+     *
+     * @see #put(Object, Object)
+     */
+    public boolean putIfAbsent(final K pKey, final V pValue) {
+        return put(pKey, pValue, true);
+    }
+
+    private boolean put(final K pKey, final V pValue, final boolean pOnlyIfAbsent) {
+        Validate.notNull(pKey, "key");
+        Validate.notNull(pValue, "value");
+
+        long valueWeight = weigher.weigh(pValue);
+        Segment<K, V> segment = segmentFor(pKey);
+        List<Map.Entry<K, Node<V>>> evicted = null;
+
+        segment.lock();
+        try {
+            Node<V> old = segment.entries.get(pKey);
+
+            if (old != null) {
+                if (pOnlyIfAbsent) {
+                    return false;
+                }
+
+                segment.entries.remove(pKey);
+                segment.weight -= old.weight;
+                weight.addAndGet(-old.weight);
+            }
+
+            if (valueWeight > maxWeight) {
+                rejections.incrementAndGet();
+                return false;
+            }
+
+            segment.entries.put(pKey, new Node<V>(pValue, valueWeight, clock.incrementAndGet()));
+            segment.weight += valueWeight;
+            weight.addAndGet(valueWeight);
+        }
+        finally {
+            segment.unlock();
+        }
+
+        // Evict outside the segment lock, as eviction may need to lock the other segments
+        if (weight.get() > maxWeight) {
+            evicted = evict();
+        }
+
+        if (evicted != null) {
+            evictions.addAndGet(evicted.size());
+
+            if (listener != null) {
+                for (Map.Entry<K, Node<V>> entry : evicted) {
+                    listener.evicted(entry.getKey(), entry.getValue().value);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    // Evicts the least recently used entries of all segments, until the cache is within the maximum weight.
+    // The new entry is the most recently used, and is only evicted if other threads put newer entries concurrently.
+    private List<Map.Entry<K, Node<V>>> evict() {
+        List<Map.Entry<K, Node<V>>> evicted = new ArrayList<Map.Entry<K, Node<V>>>();
+
+        while (weight.get() > maxWeight) {
+            // Find the segment with the least recently used entry, only one segment is locked at any time
+            Segment<K, V> oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+
+            for (Segment<K, V> segment : segments) {
+                segment.lock();
+                try {
+                    if (!segment.entries.isEmpty()) {
+                        long access = segment.entries.values().iterator().next().access;
+
+                        if (access < oldestAccess) {
+                            oldest = segment;
+                            oldestAccess = access;
+                        }
+                    }
+                }
+                finally {
+                    segment.unlock();
+                }
+            }
+
+            if (oldest == null) {
+                break;
+            }
+
+            oldest.lock();
+            try {
+                // The eldest entry may have changed since, but is still one of the least recently used
+                Iterator<Map.Entry<K, Node<V>>> iterator = oldest.entries.entrySet().iterator();
+
+                if (weight.get() > maxWeight && iterator.hasNext()) {
+                    Map.Entry<K, Node<V>> eldest = iterator.next();
+                    iterator.remove();
+
+                    oldest.weight -= eldest.getValue().weight;
+                    weight.addAndGet(-eldest.getValue().weight);
+                    evicted.add(eldest);
+                }
+            }
+            finally {
+                oldest.unlock();
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Removes the given key from the cache.
+     *
+     * @param pKey the key
+     * @return the removed value, or {@code null} if the key was not in the cache
+     */
+    public V remove(final K pKey) {
+        Segment<K, V> segment = segmentFor(pKey);
+
+        segment.lock();
+        try {
+            Node<V> old = segment.entries.remove(pKey);
+
+            if (old == null) {
+                return null;
+            }
+
+            segment.weight -= old.weight;
+            weight.addAndGet(-old.weight);
+
+            return old.value;
+        }
+        finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     * The eviction listener is not notified, and the counters are not reset.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                segment.entries.clear();
+                weight.addAndGet(-segment.weight);
+                segment.weight = 0;
+            }
+            finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                size += segment.entries.size();
+            }
+            finally {
+                segment.unlock();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the current total weight of the entries in the cache.
+     *
+     * @return the current total weight
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Returns the maximum total weight of the entries in the cache.
+     *
+     * @return the maximum total weight
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Returns the number of lookups that found a value.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a value.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to make room for other entries.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of values that were not admitted, because they were too heavy.
+     *
+     * @return the rejection count
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size: " + size() + ", weight: " + getWeight() + "/" + maxWeight
+                + ", hits: " + getHitCount() + ", misses: " + getMissCount()
+                + ", evictions: " + getEvictionCount() + ", rejections: " + getRejectionCount() + "]";
+    }
+
+    private static final class Segment<K, V> extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        // All guarded by the segment lock
+        final LinkedHashMap<K, Node<V>> entries = new LinkedHashMap<K, Node<V>>(16, .75f, true);
+        long weight;
+    }
+
+    private static final class Node<V> {
+        final V value;
+        final long weight;
+        // Guarded by the segment lock
+        long access;
+
+        Node(final V pValue, final long pWeight, final long pAccess) {
+            value = pValue;
+            weight = pWeight;
+            access = pAccess;
+        }
+    }
+}
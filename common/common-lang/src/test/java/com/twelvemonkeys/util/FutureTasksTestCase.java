@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * FutureTasksTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: FutureTasksTestCase.java,v 1.0 26.02.16 haraldk Exp$
+ */
+public class FutureTasksTestCase {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testInvokeAllResultsInOrder() throws IOException {
+        List<Callable<Integer>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 16; i++) {
+            tasks.add(constant(i));
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            expected.add(i);
+        }
+
+        assertEquals(expected, FutureTasks.invokeAll(executor, tasks, "testing"));
+        assertEquals(expected, FutureTasks.invokeAll(null, tasks, "testing"));
+    }
+
+    @Test
+    public void testInvokeAllNullExecutorRunsOnCallingThread() throws IOException {
+        final Thread caller = Thread.currentThread();
+
+        List<Boolean> results = FutureTasks.invokeAll(null, Arrays.asList(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return Thread.currentThread() == caller;
+            }
+        }), "testing");
+
+        assertEquals(Arrays.asList(true), results);
+    }
+
+    @Test
+    public void testInvokeAllRethrowsIOException() {
+        IOException failure = new IOException("Failure");
+
+        try {
+            FutureTasks.invokeAll(executor, Arrays.asList(constant(1), throwing(failure)), "testing");
+            fail("Expected IOException");
+        }
+        catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testInvokeAllRethrowsRuntimeException() throws IOException {
+        IllegalStateException failure = new IllegalStateException("Failure");
+
+        try {
+            FutureTasks.invokeAll(executor, Arrays.asList(throwing(failure), constant(1)), "testing");
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testInvokeAllWrapsCheckedException() {
+        Exception failure = new Exception("Failure");
+
+        try {
+            FutureTasks.invokeAll(executor, Arrays.asList(throwing(failure)), "testing");
+            fail("Expected IOException");
+        }
+        catch (IOException e) {
+            assertSame(failure, e.getCause());
+            assertEquals("Failed testing: Failure", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInvokeAllWaitsForAllTasksOnFailure() throws InterruptedException {
+        final AtomicInteger completed = new AtomicInteger();
+        final CountDownLatch failed = new CountDownLatch(1);
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                failed.countDown();
+                throw new IllegalStateException("Failure");
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    failed.await();
+                    Thread.sleep(50);
+                    completed.incrementAndGet();
+                    return null;
+                }
+            });
+        }
+
+        try {
+            FutureTasks.invokeAll(executor, tasks, "testing");
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException | IOException expected) {
+            assertTrue(expected instanceof IllegalStateException);
+        }
+
+        // No task may still be running when invokeAll returns
+        assertEquals(3, completed.get());
+    }
+
+    @Test(timeout = 5000)
+    public void testInvokeAllRejected() throws IOException {
+        // Room for one running and one queued task only
+        ExecutorService bounded = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        final AtomicInteger completed = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    Thread.sleep(100);
+                    completed.incrementAndGet();
+                    return null;
+                }
+            });
+        }
+
+        try {
+            FutureTasks.invokeAll(bounded, tasks, "testing");
+            fail("Expected RejectedExecutionException");
+        }
+        catch (RejectedExecutionException expected) {
+            // The accepted tasks must be completed before the exception is thrown
+            assertEquals(2, completed.get());
+        }
+        finally {
+            bounded.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetInterrupted() throws IOException {
+        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+
+        Thread.currentThread().interrupt();
+
+        try {
+            FutureTasks.get(task, "testing");
+            fail("Expected InterruptedIOException");
+        }
+        catch (InterruptedIOException e) {
+            assertEquals("Interrupted while testing", e.getMessage());
+            assertTrue(Thread.interrupted()); // Clears the interrupted status
+        }
+    }
+
+    @Test
+    public void testAwaitQuietly() {
+        List<FutureTask<Integer>> tasks = new ArrayList<>();
+
+        tasks.add(new FutureTask<>(throwing(new IllegalStateException("Failure"))));
+        tasks.add(new FutureTask<>(constant(1)));
+
+        for (FutureTask<Integer> task : tasks) {
+            executor.execute(task);
+        }
+
+        FutureTasks.awaitQuietly(tasks);
+
+        for (FutureTask<Integer> task : tasks) {
+            assertTrue(task.isDone());
+        }
+    }
+
+    private static Callable<Integer> constant(final int value) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return value;
+            }
+        };
+    }
+
+    private static Callable<Integer> throwing(final Exception exception) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw exception;
+            }
+        };
+    }
+}
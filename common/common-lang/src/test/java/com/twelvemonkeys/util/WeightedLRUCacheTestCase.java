@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * WeightedLRUCacheTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: WeightedLRUCacheTestCase.java,v 1.0 23.02.16 haraldk Exp$
+ */
+public class WeightedLRUCacheTestCase {
+    private static final WeightedLRUCache.Weigher<byte[]> BYTE_WEIGHER = new WeightedLRUCache.Weigher<byte[]>() {
+        public long weigh(final byte[] pValue) {
+            return pValue.length;
+        }
+    };
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNegativeWeight() {
+        new WeightedLRUCache<String, byte[]>(-1, BYTE_WEIGHER);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateSegmentsNotPowerOfTwo() {
+        new WeightedLRUCache<String, byte[]>(100, 3, BYTE_WEIGHER, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNullWeigher() {
+        new WeightedLRUCache<String, byte[]>(100, null);
+    }
+
+    @Test
+    public void testPutGet() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 1, BYTE_WEIGHER, null);
+
+        byte[] foo = new byte[10];
+        assertTrue(cache.put("foo", foo));
+
+        assertSame(foo, cache.get("foo"));
+        assertNull(cache.get("bar"));
+        assertTrue(cache.containsKey("foo"));
+        assertFalse(cache.containsKey("bar"));
+
+        assertEquals(1, cache.size());
+        assertEquals(10, cache.getWeight());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testPutReplace() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 1, BYTE_WEIGHER, null);
+
+        cache.put("foo", new byte[10]);
+        byte[] foo = new byte[20];
+        assertTrue(cache.put("foo", foo));
+
+        assertSame(foo, cache.get("foo"));
+        assertEquals(1, cache.size());
+        assertEquals(20, cache.getWeight());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 1, BYTE_WEIGHER, null);
+
+        byte[] foo = new byte[10];
+        assertTrue(cache.putIfAbsent("foo", foo));
+        assertFalse(cache.putIfAbsent("foo", new byte[20]));
+
+        assertSame(foo, cache.get("foo"));
+        assertEquals(10, cache.getWeight());
+    }
+
+    @Test
+    public void testRemove() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 1, BYTE_WEIGHER, null);
+
+        byte[] foo = new byte[10];
+        cache.put("foo", foo);
+
+        assertSame(foo, cache.remove("foo"));
+        assertNull(cache.remove("foo"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testClear() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 4, BYTE_WEIGHER, null);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put("foo" + i, new byte[1]);
+        }
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        final List<String> evicted = new ArrayList<String>();
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 1, BYTE_WEIGHER, new WeightedLRUCache.EvictionListener<String, byte[]>() {
+            public void evicted(final String pKey, final byte[] pValue) {
+                evicted.add(pKey);
+            }
+        });
+
+        cache.put("foo", new byte[40]);
+        cache.put("bar", new byte[40]);
+
+        // Access foo, to make bar the least recently used
+        assertNotNull(cache.get("foo"));
+
+        cache.put("baz", new byte[40]);
+
+        assertEquals(1, evicted.size());
+        assertEquals("bar", evicted.get(0));
+        assertEquals(1, cache.getEvictionCount());
+
+        assertTrue(cache.containsKey("foo"));
+        assertFalse(cache.containsKey("bar"));
+        assertTrue(cache.containsKey("baz"));
+        assertEquals(80, cache.getWeight());
+    }
+
+    @Test
+    public void testEvictMultiple() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 1, BYTE_WEIGHER, null);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put("foo" + i, new byte[10]);
+        }
+
+        cache.put("bar", new byte[55]);
+
+        assertEquals(6, cache.getEvictionCount());
+        assertEquals(5, cache.size());
+        assertEquals(95, cache.getWeight());
+        assertTrue(cache.containsKey("bar"));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedAllSegments() {
+        final List<String> evicted = new ArrayList<String>();
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 16, BYTE_WEIGHER, new WeightedLRUCache.EvictionListener<String, byte[]>() {
+            public void evicted(final String pKey, final byte[] pValue) {
+                evicted.add(pKey);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            cache.put("foo" + i, new byte[10]);
+        }
+
+        // Access the first entries, to make the last entries the least recently used
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get("foo" + i));
+        }
+
+        // Heavier than a segment's share of the max weight, evicts from other segments
+        assertTrue(cache.put("bar", new byte[45]));
+
+        assertEquals(Arrays.asList("foo5", "foo6", "foo7", "foo8", "foo9"), evicted);
+        assertEquals(0, cache.getRejectionCount());
+        assertEquals(95, cache.getWeight());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.containsKey("foo" + i));
+        }
+        assertTrue(cache.containsKey("bar"));
+
+        // Up to the max weight is admitted
+        assertTrue(cache.put("baz", new byte[100]));
+        assertEquals(1, cache.size());
+        assertEquals(100, cache.getWeight());
+    }
+
+    @Test
+    public void testRejectTooHeavy() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(100, 2, BYTE_WEIGHER, null);
+
+        cache.put("foo", new byte[10]);
+
+        // Heavier than the cache (100)
+        assertFalse(cache.put("bar", new byte[101]));
+        assertFalse(cache.put("foo", new byte[101]));
+
+        assertFalse(cache.containsKey("bar"));
+        assertFalse(cache.containsKey("foo"));
+        assertEquals(2, cache.getRejectionCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testZeroWeight() {
+        WeightedLRUCache<String, byte[]> cache = new WeightedLRUCache<String, byte[]>(0, BYTE_WEIGHER);
+
+        assertFalse(cache.put("foo", new byte[1]));
+        assertNull(cache.get("foo"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentPutGet() throws Exception {
+        final WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache<Integer, byte[]>(1000, BYTE_WEIGHER);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+            for (int t = 0; t < 4; t++) {
+                final int offset = t;
+
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = 0; i < 10000; i++) {
+                            int key = (i * 7 + offset) % 500;
+
+                            if (cache.get(key) == null) {
+                                cache.put(key, new byte[1 + key % 20]);
+                            }
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertEquals(40000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+
+        long weight = 0;
+        for (int key = 0; key < 500; key++) {
+            byte[] value = cache.get(key);
+            if (value != null) {
+                weight += value.length;
+            }
+        }
+
+        assertEquals(weight, cache.getWeight());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.color;
+
+import com.twelvemonkeys.lang.Validate;
+import com.twelvemonkeys.util.LRUHashMap;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.ColorConvertOp;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared cache of {@code ColorConvertOp}s, keyed by source and destination ICC profile.
+ * <p />
+ * A {@code ColorConvertOp} creates its color transform the first time it is used for filtering,
+ * and keeps it for later use. Creating the transform is costly, as the CMM needs to parse the profiles and
+ * build its internal tables. Reusing operations for images with the same profiles,
+ * like many CMYK JPEGs using the same press profile, skips this setup entirely.
+ * <p />
+ * The cache only saves the cost of creating operations and their transforms. An operation is handed out to one
+ * caller at the time, using {@link #acquire(ColorSpace, ColorSpace)}, and the caller should return it using
+ * {@link #release(ColorConvertOp)} when done. Multiple operations for the same pair of profiles may be cached.
+ * <p />
+ * Note that this does <em>not</em> make it safe to convert with the same profiles from multiple threads at the same
+ * time. Some CMMs produce wrong results in this case, even when each thread uses a separate operation.
+ * <p />
+ * Like {@link ColorSpaces}, profiles are identified by their header.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ColorConvertOps.java,v 1.0 16.02.16 haraldk Exp$
+ */
+public final class ColorConvertOps {
+    /** The default maximum number of profile pairs to cache operations for. */
+    public static final int DEFAULT_CACHE_SIZE = 10;
+
+    /** Maximum number of idle operations cached per profile pair */
+    private static final int MAX_OPS_PER_KEY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    // Cache for the latest used profile pairs
+    private static final LRUHashMap<Key, Deque<ColorConvertOp>> cache = new LRUHashMap<>(DEFAULT_CACHE_SIZE);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private ColorConvertOps() {}
+
+    /**
+     * Gets a {@code ColorConvertOp} converting from {@code source} to {@code destination}.
+     * <p />
+     * If both color spaces are ICC color spaces, a cached operation is returned if available.
+     * Otherwise, a new operation is created.
+     * The returned operation is not shared with other callers, until returned by {@link #release(ColorConvertOp)}.
+     *
+     * @param source the source color space. May not be {@code null}.
+     * @param destination the destination color space. May not be {@code null}.
+     * @return a {@code ColorConvertOp}, never {@code null}.
+     * @throws IllegalArgumentException if {@code source} or {@code destination} is {@code null}.
+     */
+    public static ColorConvertOp acquire(final ColorSpace source, final ColorSpace destination) {
+        Validate.notNull(source, "source");
+        Validate.notNull(destination, "destination");
+
+        if (source instanceof ICC_ColorSpace && destination instanceof ICC_ColorSpace) {
+            return acquire(((ICC_ColorSpace) source).getProfile(), ((ICC_ColorSpace) destination).getProfile());
+        }
+
+        return new ColorConvertOp(source, destination, null);
+    }
+
+    /**
+     * Gets a {@code ColorConvertOp} converting from {@code source} to {@code destination}.
+     * <p />
+     * A cached operation is returned if available, otherwise a new operation is created.
+     * The returned operation is not shared with other callers, until returned by {@link #release(ColorConvertOp)}.
+     *
+     * @param source the source profile. May not be {@code null}.
+     * @param destination the destination profile. May not be {@code null}.
+     * @return a {@code ColorConvertOp}, never {@code null}.
+     * @throws IllegalArgumentException if {@code source} or {@code destination} is {@code null}.
+     */
+    public static ColorConvertOp acquire(final ICC_Profile source, final ICC_Profile destination) {
+        Validate.notNull(source, "source");
+        Validate.notNull(destination, "destination");
+
+        Key key = new Key(source, destination);
+
+        synchronized (cache) {
+            Deque<ColorConvertOp> ops = cache.get(key);
+
+            if (ops != null && !ops.isEmpty()) {
+                hits.incrementAndGet();
+                return ops.pop();
+            }
+        }
+
+        misses.incrementAndGet();
+
+        return new ColorConvertOp(new ICC_Profile[] {source, destination}, null);
+    }
+
+    /**
+     * Returns an operation to the cache, making it available for other callers.
+     * The caller must not use the operation after it has been released.
+     * <p />
+     * Operations not converting between exactly two ICC profiles are ignored.
+     *
+     * @param op the operation to return to the cache. May not be {@code null}.
+     * @throws IllegalArgumentException if {@code op} is {@code null}.
+     */
+    public static void release(final ColorConvertOp op) {
+        Validate.notNull(op, "op");
+
+        ICC_Profile[] profiles = op.getICC_Profiles();
+
+        if (profiles == null || profiles.length != 2) {
+            return;
+        }
+
+        Key key = new Key(profiles[0], profiles[1]);
+
+        synchronized (cache) {
+            Deque<ColorConvertOp> ops = cache.get(key);
+
+            if (ops == null) {
+                ops = new ArrayDeque<>(MAX_OPS_PER_KEY);
+                cache.put(key, ops);
+            }
+
+            if (ops.size() < MAX_OPS_PER_KEY) {
+                ops.push(op);
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of profile pairs to cache operations for.
+     *
+     * @return the maximum number of profile pairs.
+     */
+    public static int getCacheSize() {
+        synchronized (cache) {
+            return cache.getMaxSize();
+        }
+    }
+
+    /**
+     * Sets the maximum number of profile pairs to cache operations for.
+     * If the cache holds more pairs, the least recently used are removed.
+     * The default value is {@value #DEFAULT_CACHE_SIZE}.
+     *
+     * @param size the maximum number of profile pairs, {@code 0} disables caching.
+     * @throws IllegalArgumentException if {@code size < 0}.
+     */
+    public static void setCacheSize(final int size) {
+        Validate.isTrue(size >= 0, size, "size must be >= 0: %s");
+
+        synchronized (cache) {
+            cache.setMaxSize(size);
+        }
+    }
+
+    /**
+     * Removes all cached operations.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of times {@code acquire} returned a cached operation.
+     *
+     * @return the number of cache hits.
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times {@code acquire} created a new operation, for a pair of ICC profiles.
+     *
+     * @return the number of cache misses.
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    private static final class Key {
+        private final byte[] source;
+        private final byte[] destination;
+        private final int hash;
+
+        Key(final ICC_Profile source, final ICC_Profile destination) {
+            this.source = source.getData(ICC_Profile.icSigHead);
+            this.destination = destination.getData(ICC_Profile.icSigHead);
+
+            hash = 31 * Arrays.hashCode(this.source) + Arrays.hashCode(this.destination);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+
+            return hash == key.hash && Arrays.equals(source, key.source) && Arrays.equals(destination, key.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
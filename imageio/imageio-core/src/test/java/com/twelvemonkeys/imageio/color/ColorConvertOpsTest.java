@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.color;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorConvertOp;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColorConvertOpsTest
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: ColorConvertOpsTest.java,v 1.0 16.02.16 haraldk Exp$
+ */
+public class ColorConvertOpsTest {
+    private final ColorSpace sRGB = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+    private final ColorSpace linearRGB = ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB);
+    private final ColorSpace gray = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+
+    @After
+    public void tearDown() {
+        ColorConvertOps.setCacheSize(ColorConvertOps.DEFAULT_CACHE_SIZE);
+        ColorConvertOps.clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAcquireNullSource() {
+        ColorConvertOps.acquire(null, sRGB);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAcquireNullDestination() {
+        ColorConvertOps.acquire(sRGB, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseNull() {
+        ColorConvertOps.release(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetCacheSizeNegative() {
+        ColorConvertOps.setCacheSize(-1);
+    }
+
+    @Test
+    public void testAcquireReleaseReuse() {
+        ColorConvertOps.clear();
+
+        long hits = ColorConvertOps.getHitCount();
+        long misses = ColorConvertOps.getMissCount();
+
+        ColorConvertOp op = ColorConvertOps.acquire(sRGB, linearRGB);
+        assertNotNull(op);
+        assertEquals(misses + 1, ColorConvertOps.getMissCount());
+
+        // Not released yet, so we'll get a new one
+        ColorConvertOp other = ColorConvertOps.acquire(sRGB, linearRGB);
+        assertNotSame(op, other);
+        assertEquals(misses + 2, ColorConvertOps.getMissCount());
+
+        ColorConvertOps.release(op);
+
+        assertSame(op, ColorConvertOps.acquire(sRGB, linearRGB));
+        assertEquals(hits + 1, ColorConvertOps.getHitCount());
+        assertEquals(misses + 2, ColorConvertOps.getMissCount());
+    }
+
+    @Test
+    public void testAcquireKeyedByProfilePair() {
+        ColorConvertOps.clear();
+
+        ColorConvertOp op = ColorConvertOps.acquire(sRGB, linearRGB);
+        ColorConvertOps.release(op);
+
+        assertNotSame(op, ColorConvertOps.acquire(linearRGB, sRGB));
+        assertNotSame(op, ColorConvertOps.acquire(sRGB, gray));
+        assertSame(op, ColorConvertOps.acquire(sRGB, linearRGB));
+    }
+
+    @Test
+    public void testCacheSizeZeroDisablesCaching() {
+        ColorConvertOps.setCacheSize(0);
+        assertEquals(0, ColorConvertOps.getCacheSize());
+
+        ColorConvertOp op = ColorConvertOps.acquire(sRGB, linearRGB);
+        ColorConvertOps.release(op);
+
+        assertNotSame(op, ColorConvertOps.acquire(sRGB, linearRGB));
+    }
+
+    @Test
+    public void testReleaseNonICCIgnored() {
+        ColorConvertOp op = new ColorConvertOp(null);
+        ColorConvertOps.release(op); // Should just be ignored
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.jpeg;
+
+import java.util.concurrent.Executor;
+
+/**
+ * JPEGImageReadParam.
+ * <p/>
+ * In addition to the standard JPEG read parameters, allows specifying an {@code Executor} used for
+ * color converting bands of the decoded image concurrently.
+ * This applies to CMYK and YCCK JPEGs converted to RGB without an ICC profile, and to copying the decoded data
+ * into the destination.
+ * Conversions using ICC profiles are always done on the calling thread, as the CMM may produce wrong
+ * results when used from multiple threads.
+ * The default is {@code null}, meaning all conversion is done on the calling thread.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: JPEGImageReadParam.java,v 1.0 14.02.16 haraldk Exp$
+ */
+public final class JPEGImageReadParam extends javax.imageio.plugins.jpeg.JPEGImageReadParam {
+    private Executor executor;
+
+    public JPEGImageReadParam() {
+    }
+
+    /**
+     * Returns the executor used for color converting bands of the image concurrently.
+     *
+     * @return the executor, or {@code null} if bands are converted on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for color converting bands of the image concurrently.
+     * The {@code read} method will not return until all conversion tasks are completed.
+     *
+     * @param executor the executor, or {@code null} to convert on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+}
@@ -29,6 +29,7 @@
 package com.twelvemonkeys.imageio.plugins.jpeg;
 
 import com.twelvemonkeys.imageio.ImageReaderBase;
+import com.twelvemonkeys.imageio.color.ColorConvertOps;
 import com.twelvemonkeys.imageio.color.ColorSpaces;
 import com.twelvemonkeys.imageio.color.YCbCrConverter;
 import com.twelvemonkeys.imageio.metadata.CompoundDirectory;
@@ -42,6 +43,7 @@ import com.twelvemonkeys.imageio.metadata.jpeg.JPEGSegmentUtil;
 import com.twelvemonkeys.imageio.util.ImageTypeSpecifiers;
 import com.twelvemonkeys.imageio.util.ProgressListenerBase;
 import com.twelvemonkeys.lang.Validate;
+import com.twelvemonkeys.util.FutureTasks;
 import com.twelvemonkeys.xml.XMLSerializer;
 
 import javax.imageio.*;
@@ -61,6 +63,7 @@ import java.awt.image.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * A JPEG {@code ImageReader} implementation based on the JRE {@code JPEGImageReader},
@@ -108,6 +111,9 @@ public class JPEGImageReader extends ImageReaderBase {
     /** Internal constant for referring all APP segments */
     static final int ALL_APP_MARKERS = -1;
 
+    /** Number of pixels converted at the time, when color converting the raster read from the delegate */
+    private static final int CONVERSION_BAND_PIXELS = 64 * 1024;
+
     /** Segment identifiers for the JPEG segments we care about reading. */
     private static final Map<Integer, List<String>> SEGMENT_IDENTIFIERS = createSegmentIds();
 
@@ -367,12 +373,18 @@ public class JPEGImageReader extends ImageReaderBase {
         int origHeight = getHeight(imageIndex);
 
         Iterator<ImageTypeSpecifier> imageTypes = getImageTypes(imageIndex);
-        // TODO: Avoid creating destination here, if possible (as it saves time and memory)
-        // If YCbCr or RGB, we could instead create a BufferedImage around the converted raster directly.
-        // If YCCK or CMYK, we could instead create a BufferedImage around the converted raster,
-        // leaving the fourth band as alpha (or pretend it's not there, by creating a child raster).
-        BufferedImage image = getDestination(param, imageTypes, origWidth, origHeight);
-        WritableRaster destination = image.getRaster();
+
+        // If there's no explicit destination, we'll try to convert the raster from the delegate in place,
+        // and create the image around the converted raster, instead of allocating a separate destination.
+        // For large CMYK/YCCK images, this roughly halves the peak memory needed.
+        ImageTypeSpecifier inPlaceType = canConvertInPlace(param) ? imageTypes.next() : null;
+        if (inPlaceType != null && !isPixelInterleavedByte(inPlaceType.getSampleModel())) {
+            inPlaceType = null;
+            imageTypes = getImageTypes(imageIndex);
+        }
+
+        BufferedImage image = inPlaceType == null ? getDestination(param, imageTypes, origWidth, origHeight) : null;
+        ColorSpace destinationCS = image != null ? image.getColorModel().getColorSpace() : inPlaceType.getColorModel().getColorSpace();
 
         // TODO: checkReadParamBandSettings(param, );
 
@@ -395,17 +407,17 @@ public class JPEGImageReader extends ImageReaderBase {
                         intendedCS.getNumComponents(), startOfFrame.marker & 0xf, startOfFrame.componentsInFrame(), csType
                 ));
 
-                if (csType == JPEGColorSpace.CMYK && image.getColorModel().getColorSpace().getType() != ColorSpace.TYPE_CMYK) {
-                    convert = new ColorConvertOp(ColorSpaces.getColorSpace(ColorSpaces.CS_GENERIC_CMYK), image.getColorModel().getColorSpace(), null);
+                if (csType == JPEGColorSpace.CMYK && destinationCS.getType() != ColorSpace.TYPE_CMYK) {
+                    convert = ColorConvertOps.acquire(ColorSpaces.getColorSpace(ColorSpaces.CS_GENERIC_CMYK), destinationCS);
                 }
             }
             // NOTE: Avoid using CCOp if same color space, as it's more compatible that way
-            else if (intendedCS != image.getColorModel().getColorSpace()) {
+            else if (intendedCS != destinationCS) {
                 if (DEBUG) {
-                    System.err.println("Converting from " + intendedCS + " to " + (image.getColorModel().getColorSpace().isCS_sRGB() ? "sRGB" : image.getColorModel().getColorSpace()));
+                    System.err.println("Converting from " + intendedCS + " to " + (destinationCS.isCS_sRGB() ? "sRGB" : destinationCS));
                 }
 
-                convert = new ColorConvertOp(intendedCS, image.getColorModel().getColorSpace(), null);
+                convert = ColorConvertOps.acquire(intendedCS, destinationCS);
             }
             // Else, pass through with no conversion
         }
@@ -418,7 +430,7 @@ public class JPEGImageReader extends ImageReaderBase {
                                 "Colors may look incorrect."
                 );
 
-                convert = new ColorConvertOp(cmykCS, image.getColorModel().getColorSpace(), null);
+                convert = ColorConvertOps.acquire(cmykCS, destinationCS);
             }
             else {
                 // ColorConvertOp using non-ICC CS is deadly slow, fall back to fast conversion instead
@@ -455,8 +467,10 @@ public class JPEGImageReader extends ImageReaderBase {
         srcRegion.width += gridX;
         srcRegion.height += gridY;
 
+        Executor executor = param instanceof JPEGImageReadParam ? ((JPEGImageReadParam) param).getExecutor() : null;
+
         // Unfortunately, reading the image in steps, is increasingly slower
-        // for each iteration, so we'll read all at once.
+        // for each iteration, so we'll read all at once. Color conversion is done in bands, though.
         try {
             param.setSourceRegion(srcRegion);
             Raster raster = delegate.readRaster(imageIndex, param); // non-converted
@@ -476,14 +490,26 @@ public class JPEGImageReader extends ImageReaderBase {
             }
             // ...else assume the raster is already converted
 
-            WritableRaster dest = destination.createWritableChild(dstRegion.x, dstRegion.y, raster.getWidth(), raster.getHeight(), 0, 0, param.getDestinationBands());
+            BufferedImage converted = inPlaceType != null ? convertInPlace(raster, inPlaceType, convert, executor) : null;
 
-            // Apply further color conversion for explicit color space, or just copy the pixels into place
-            if (convert != null) {
-                convert.filter(raster, dest);
+            if (converted != null) {
+                image = converted;
             }
             else {
-                dest.setRect(0, 0, raster);
+                if (image == null) {
+                    // Raster layout not suitable for in place conversion, fall back to a separate destination
+                    image = inPlaceType.createBufferedImage(raster.getWidth(), raster.getHeight());
+                }
+
+                WritableRaster dest = image.getRaster().createWritableChild(dstRegion.x, dstRegion.y, raster.getWidth(), raster.getHeight(), 0, 0, param.getDestinationBands());
+
+                // Apply further color conversion for explicit color space, or just copy the pixels into place
+                convertBands(raster, dest, convert, false, executor);
+            }
+
+            // Make the (now initialized) color transform available for the next image using the same profiles
+            if (convert instanceof ColorConvertOp) {
+                ColorConvertOps.release((ColorConvertOp) convert);
             }
         }
         finally {
@@ -494,6 +520,157 @@ public class JPEGImageReader extends ImageReaderBase {
         return image;
     }
 
+    private static boolean canConvertInPlace(final ImageReadParam param) {
+        return param == null || !hasExplicitDestination(param) && param.getSourceBands() == null && param.getDestinationBands() == null;
+    }
+
+    private static boolean isPixelInterleavedByte(final SampleModel sampleModel) {
+        return sampleModel instanceof PixelInterleavedSampleModel
+                && sampleModel.getTransferType() == DataBuffer.TYPE_BYTE
+                && ((PixelInterleavedSampleModel) sampleModel).getPixelStride() == sampleModel.getNumBands();
+    }
+
+    /**
+     * Converts the pixels of {@code raster} into the layout and color space of {@code imageType},
+     * reusing the data array of {@code raster} as the backing store for the returned image.
+     * <p/>
+     * The pixels are converted a band of rows at the time, through a small buffer. As the pixels of the
+     * destination never use more bytes than the source pixels, the converted pixels are always written
+     * to areas of the array already consumed.
+     * If an executor is given, the bands are converted concurrently, each band into its own rows of the array,
+     * and then packed into the destination layout in a final pass.
+     *
+     * @param raster the raster read from the delegate, in the source color space.
+     * @param imageType the destination type, must be pixel interleaved {@code TYPE_BYTE}.
+     * @param convert the color conversion to apply, or {@code null} to just copy the pixels.
+     * @param executor the executor used for concurrent conversion, or {@code null}.
+     * @return a new image backed by the data array of {@code raster},
+     * or {@code null} if {@code raster} is not laid out in a way that allows in place conversion.
+     * @throws IOException if the conversion is interrupted.
+     */
+    static BufferedImage convertInPlace(final Raster raster, final ImageTypeSpecifier imageType, final RasterOp convert,
+                                        final Executor executor) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int numBands = imageType.getNumBands();
+
+        if (!isPixelInterleavedByte(raster.getSampleModel()) || raster.getNumBands() < numBands
+                || raster.getParent() != null || raster.getMinX() != 0 || raster.getMinY() != 0
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getNumBanks() != 1 || raster.getDataBuffer().getOffset() != 0
+                || ((PixelInterleavedSampleModel) raster.getSampleModel()).getScanlineStride() != width * raster.getNumBands()) {
+            return null;
+        }
+
+        PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) imageType.getSampleModel(width, height);
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        WritableRaster destination = Raster.createWritableRaster(sampleModel, new DataBufferByte(data, width * height * numBands), null);
+
+        // If no conversion is needed, and the layout is the same, we're done
+        if (convert != null || raster.getNumBands() != numBands
+                || !Arrays.equals(((PixelInterleavedSampleModel) raster.getSampleModel()).getBandOffsets(), sampleModel.getBandOffsets())) {
+            if (executor == null || raster.getNumBands() == numBands) {
+                // Sequential conversion packs the pixels as we go (or there's nothing to pack)
+                convertBands(raster, destination, convert, true, raster.getNumBands() == numBands ? executor : null);
+            }
+            else {
+                // Convert each band into its own rows, using the source pixel and scanline stride, then pack
+                WritableRaster converted = Raster.createWritableRaster(
+                        new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, raster.getNumBands(),
+                                width * raster.getNumBands(), sampleModel.getBandOffsets()),
+                        raster.getDataBuffer(), null
+                );
+
+                convertBands(raster, converted, convert, true, executor);
+
+                byte[] row = new byte[width * numBands];
+                for (int y = 0; y < height; y++) {
+                    converted.getDataElements(0, y, width, 1, row);
+                    destination.setDataElements(0, y, width, 1, row);
+                }
+            }
+        }
+
+        return new BufferedImage(imageType.getColorModel(), destination, imageType.getColorModel().isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Converts (or copies) the pixels of {@code source} into {@code destination}, a band of rows at the time.
+     *
+     * @param source the source raster.
+     * @param destination the destination raster, of same size as {@code source}.
+     * @param convert the color conversion to apply, or {@code null} to just copy the pixels.
+     * @param shared {@code true} if {@code source} and {@code destination} shares the same data,
+     *               in which case each band is converted through a buffer.
+     * @param executor the executor used for concurrent conversion, or {@code null}.
+     *                 Conversions using a {@code ColorConvertOp} are always done on the calling thread.
+     * @throws IOException if the conversion is interrupted.
+     */
+    static void convertBands(final Raster source, final WritableRaster destination, final RasterOp convert,
+                             final boolean shared, final Executor executor) throws IOException {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final int rows = Math.max(1, CONVERSION_BAND_PIXELS / width);
+        int bands = (height + rows - 1) / rows;
+
+        // ICC conversions are done sequentially, as the native CMM may corrupt the output when used from several threads,
+        // even with separate ColorConvertOp instances for the same profiles
+        int tasks = executor != null && isConcurrent(convert) ? Math.min(bands, Math.max(2, Runtime.getRuntime().availableProcessors())) : 1;
+
+        if (tasks <= 1) {
+            convertBands(source, destination, convert, shared, rows, 0, height);
+            return;
+        }
+
+        int bandsPerTask = (bands + tasks - 1) / tasks;
+        List<Callable<Void>> conversions = new ArrayList<>(tasks);
+
+        for (int y = 0; y < height; y += bandsPerTask * rows) {
+            final int firstRow = y;
+            final int lastRow = Math.min(height, y + bandsPerTask * rows);
+
+            conversions.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    convertBands(source, destination, convert, shared, rows, firstRow, lastRow);
+                    return null;
+                }
+            });
+        }
+
+        FutureTasks.invokeAll(executor, conversions, "converting JPEG image data");
+    }
+
+    private static void convertBands(final Raster source, final WritableRaster destination, final RasterOp convert,
+                                     final boolean shared, final int rows, final int firstRow, final int lastRow) {
+        int width = source.getWidth();
+        WritableRaster buffer = shared ? destination.createCompatibleWritableRaster(width, Math.min(rows, lastRow - firstRow)) : null;
+
+        for (int y = firstRow; y < lastRow; y += rows) {
+            int bandHeight = Math.min(rows, lastRow - y);
+            Raster band = source.createChild(0, y, width, bandHeight, 0, 0, null);
+            WritableRaster converted = buffer == null
+                                       ? destination.createWritableChild(0, y, width, bandHeight, 0, 0, null)
+                                       : bandHeight == buffer.getHeight() ? buffer : buffer.createWritableChild(0, 0, width, bandHeight, 0, 0, null);
+
+            if (convert != null) {
+                convert.filter(band, converted);
+            }
+            else {
+                converted.setRect(band);
+            }
+
+            if (buffer != null) {
+                destination.setDataElements(0, y, converted);
+            }
+        }
+    }
+
+    private static boolean isConcurrent(final RasterOp op) {
+        // Plain copying and FastCMYKToRGB are stateless, and pure Java
+        return op == null || op instanceof FastCMYKToRGB;
+    }
+
     static JPEGColorSpace getSourceCSType(JFIFSegment jfif, AdobeDCTSegment adobeDCT, final SOFSegment startOfFrame) throws IIOException {
         /*
         ADAPTED from http://download.oracle.com/javase/6/docs/api/javax/imageio/metadata/doc-files/jpeg_metadata.html:
@@ -943,7 +1120,7 @@ public class JPEGImageReader extends ImageReaderBase {
 
     @Override
     public ImageReadParam getDefaultReadParam() {
-        return delegate.getDefaultReadParam();
+        return new JPEGImageReadParam();
     }
 
     @Override
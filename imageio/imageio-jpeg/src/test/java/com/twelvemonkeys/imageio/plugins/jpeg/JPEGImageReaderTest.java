@@ -57,6 +57,8 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeNoException;
@@ -895,6 +897,102 @@ public class JPEGImageReaderTest extends ImageReaderAbstractTest<JPEGImageReader
         reader.dispose();
     }
 
+    @Test
+    public void testReadCMYKAsRGBInPlaceSameAsExplicitDestination() throws IOException {
+        // CMYK images read without explicit destination are converted in place, make sure result is the same
+        JPEGImageReader reader = createReader();
+
+        for (TestData data : getCMYKData()) {
+            reader.setInput(data.getInputStream());
+
+            BufferedImage image = reader.read(0, null);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(new BufferedImage(reader.getWidth(0), reader.getHeight(0), BufferedImage.TYPE_3BYTE_BGR));
+            BufferedImage expected = reader.read(0, param);
+
+            assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+            assertEquals(expected.getWidth(), image.getWidth());
+            assertEquals(expected.getHeight(), image.getHeight());
+
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(data + " differs at " + x + "," + y, expected.getRGB(x, y), image.getRGB(x, y));
+                }
+            }
+        }
+
+        reader.dispose();
+    }
+
+    @Test
+    public void testReadCMYKAsRGBConcurrent() throws IOException {
+        JPEGImageReader reader = createReader();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            for (TestData data : getCMYKData()) {
+                reader.setInput(data.getInputStream());
+
+                BufferedImage expected = reader.read(0, null);
+
+                JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                param.setExecutor(executor);
+                BufferedImage image = reader.read(0, param);
+
+                assertEquals(expected.getType(), image.getType());
+                assertEquals(expected.getWidth(), image.getWidth());
+                assertEquals(expected.getHeight(), image.getHeight());
+
+                for (int y = 0; y < expected.getHeight(); y++) {
+                    for (int x = 0; x < expected.getWidth(); x++) {
+                        assertEquals(data + " differs at " + x + "," + y, expected.getRGB(x, y), image.getRGB(x, y));
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadICCRGBConcurrent() throws IOException {
+        JPEGImageReader reader = createReader();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (String resource : new String[] {"/jpeg/cmm-exception-srgb.jpg", "/jpeg/exif-jpeg-thumbnail-sony-dsc-p150-inverted-colors.jpg"}) {
+                reader.setInput(ImageIO.createImageInputStream(getClassLoaderResource(resource)));
+
+                BufferedImage expected = reader.read(0, null);
+
+                JPEGImageReadParam param = (JPEGImageReadParam) reader.getDefaultReadParam();
+                param.setExecutor(executor);
+
+                // Repeat, as concurrency issues may not show up every time
+                for (int i = 0; i < 3; i++) {
+                    BufferedImage image = reader.read(0, param);
+
+                    assertEquals(expected.getType(), image.getType());
+                    assertEquals(expected.getWidth(), image.getWidth());
+                    assertEquals(expected.getHeight(), image.getHeight());
+
+                    for (int y = 0; y < expected.getHeight(); y++) {
+                        for (int x = 0; x < expected.getWidth(); x++) {
+                            assertEquals(resource + " differs at " + x + "," + y, expected.getRGB(x, y), image.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+            reader.dispose();
+        }
+    }
+
     @Test
     public void testReadNoJFIFYCbCr() throws IOException {
         // Basically the same issue as http://stackoverflow.com/questions/9340569/jpeg-image-with-wrong-colors
@@ -56,7 +56,13 @@ abstract class LZWDecoder implements Decoder {
 
     private static final int TABLE_SIZE = 1 << MAX_BITS;
 
-    private final LZWString[] table;
+    // The string table is stored as flat arrays, indexed by code. Each string is its prefix string (code)
+    // plus a suffix byte, with the first byte and length copied forward for fast access.
+    private final int[] prefixes;
+    private final byte[] suffixes;
+    private final byte[] firstChars;
+    private final int[] lengths;
+
     private int tableLength;
     int bitsPerCode;
     private int oldCode = CLEAR_CODE;
@@ -67,12 +73,23 @@ abstract class LZWDecoder implements Decoder {
     int nextData;
     int nextBits;
 
+    // Compressed data is read in chunks, rather than byte by byte from the stream
+    private final byte[] input = new byte[1024];
+    private int inputPos;
+    private int inputLength;
+
     protected LZWDecoder(int tableSize) {
-        table = new LZWString[tableSize];
+        prefixes = new int[tableSize];
+        suffixes = new byte[tableSize];
+        firstChars = new byte[tableSize];
+        lengths = new int[tableSize];
 
-        // First 258 entries of table is always fixed
+        // First 258 entries of table is always fixed (CLEAR_CODE and EOI_CODE has length 0)
         for (int i = 0; i < 256; i++) {
-            table[i] = new LZWString((byte) i);
+            prefixes[i] = -1;
+            suffixes[i] = (byte) i;
+            firstChars[i] = (byte) i;
+            lengths[i] = 1;
         }
 
         init();
@@ -108,26 +125,24 @@ abstract class LZWDecoder implements Decoder {
                     break;
                 }
 
-                if (table[code] == null) {
+                if (!isInTable(code)) {
                     throw new DecodeException(String.format("Corrupted TIFF LZW: code %d (table size: %d)", code, tableLength));
                 }
 
-                table[code].writeTo(buffer);
+                writeString(code, buffer);
             }
             else {
-                if (table[oldCode] == null) {
+                if (!isInTable(oldCode)) {
                     throw new DecodeException(String.format("Corrupted TIFF LZW: code %d (table size: %d)", oldCode, tableLength));
                 }
 
                 if (isInTable(code)) {
-                    table[code].writeTo(buffer);
-                    addStringToTable(table[oldCode].concatenate(table[code].firstChar));
+                    writeString(code, buffer);
+                    addStringToTable(oldCode, firstChars[code]);
                 }
                 else {
-                    LZWString outString = table[oldCode].concatenate(table[oldCode].firstChar);
-
-                    outString.writeTo(buffer);
-                    addStringToTable(outString);
+                    addStringToTable(oldCode, firstChars[oldCode]);
+                    writeString(tableLength - 1, buffer);
                 }
             }
 
@@ -142,12 +157,48 @@ abstract class LZWDecoder implements Decoder {
         return buffer.position();
     }
 
-    private void addStringToTable(final LZWString string) throws IOException {
-        if (tableLength > table.length) {
+    private void writeString(final int code, final ByteBuffer buffer) {
+        int length = lengths[code];
+
+        if (length == 1) {
+            buffer.put(suffixes[code]);
+            return;
+        }
+
+        // Strings are stored backwards (suffix first), so we write from the end
+        final int offset = buffer.position();
+
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int start = buffer.arrayOffset() + offset;
+
+            for (int i = start + length - 1, c = code; i >= start; i--) {
+                array[i] = suffixes[c];
+                c = prefixes[c];
+            }
+        }
+        else {
+            for (int i = offset + length - 1, c = code; i >= offset; i--) {
+                buffer.put(i, suffixes[c]);
+                c = prefixes[c];
+            }
+        }
+
+        buffer.position(offset + length);
+    }
+
+    private void addStringToTable(final int prefix, final byte suffix) throws IOException {
+        if (tableLength >= lengths.length) {
             throw new DecodeException(String.format("TIFF LZW with more than %d bits per code encountered (table overflow)", MAX_BITS));
         }
 
-        table[tableLength++] = string;
+        int length = lengths[prefix] + 1;
+
+        prefixes[tableLength] = prefix;
+        suffixes[tableLength] = suffix;
+        firstChars[tableLength] = firstChars[prefix];
+        lengths[tableLength] = length;
+        tableLength++;
 
         if (tableLength > maxCode) {
             bitsPerCode++;
@@ -161,19 +212,33 @@ abstract class LZWDecoder implements Decoder {
             maxCode = maxCode();
         }
 
-        if (string.length > maxString) {
-            maxString = string.length;
+        if (length > maxString) {
+            maxString = length;
         }
     }
 
     protected abstract int maxCode();
 
     private boolean isInTable(int code) {
-        return code < tableLength;
+        return code < tableLength && lengths[code] > 0;
     }
 
     protected abstract int getNextCode(final InputStream stream) throws IOException;
 
+    final int readByte(final InputStream stream) throws IOException {
+        if (inputPos >= inputLength) {
+            inputLength = stream.read(input, 0, input.length);
+            inputPos = 0;
+
+            if (inputLength <= 0) {
+                inputLength = 0;
+                return -1;
+            }
+        }
+
+        return input[inputPos++] & 0xff;
+    }
+
     static boolean isOldBitReversedStream(final InputStream stream) throws IOException {
         stream.mark(2);
 
@@ -209,7 +274,7 @@ abstract class LZWDecoder implements Decoder {
             }
 
             int code;
-            int read = stream.read();
+            int read = readByte(stream);
             if (read < 0) {
                 eofReached = true;
                 return EOI_CODE;
@@ -219,7 +284,7 @@ abstract class LZWDecoder implements Decoder {
             nextBits += 8;
 
             if (nextBits < bitsPerCode) {
-                read = stream.read();
+                read = readByte(stream);
                 if (read < 0) {
                     eofReached = true;
                     return EOI_CODE;
@@ -258,7 +323,7 @@ abstract class LZWDecoder implements Decoder {
             }
 
             int code;
-            int read = stream.read();
+            int read = readByte(stream);
             if (read < 0) {
                 eofReached = true;
                 return EOI_CODE;
@@ -268,7 +333,7 @@ abstract class LZWDecoder implements Decoder {
             nextBits += 8;
 
             if (nextBits < bitsPerCode) {
-                read = stream.read();
+                read = readByte(stream);
                 if (read < 0) {
                     eofReached = true;
                     return EOI_CODE;
@@ -285,124 +350,4 @@ abstract class LZWDecoder implements Decoder {
             return code;
         }
     }
-
-    static final class LZWString implements Comparable<LZWString> {
-        static final LZWString EMPTY = new LZWString((byte) 0, (byte) 0, 0, null);
-
-        final LZWString previous;
-
-        final int length;
-        final byte value;
-        final byte firstChar; // Copied forward for fast access
-
-        public LZWString(final byte code) {
-            this(code, code, 1, null);
-        }
-
-        private LZWString(final byte value, final byte firstChar, final int length, final LZWString previous) {
-            this.value = value;
-            this.firstChar = firstChar;
-            this.length = length;
-            this.previous = previous;
-        }
-
-        public final LZWString concatenate(final byte value) {
-            if (this == EMPTY) {
-                return new LZWString(value);
-            }
-
-            return new LZWString(value, this.firstChar, length + 1, this);
-        }
-
-        public final void writeTo(final ByteBuffer buffer) {
-            if (length == 0) {
-                return;
-            }
-
-            if (length == 1) {
-                buffer.put(value);
-            }
-            else {
-                LZWString e = this;
-                final int offset = buffer.position();
-
-                for (int i = length - 1; i >= 0; i--) {
-                    buffer.put(offset + i, e.value);
-                    e = e.previous;
-                }
-
-                buffer.position(offset + length);
-            }
-        }
-
-        @Override
-        public String toString() {
-            StringBuilder builder = new StringBuilder("ZLWString[");
-            int offset = builder.length();
-            LZWString e = this;
-            for (int i = length - 1; i >= 0; i--) {
-                builder.insert(offset, String.format("%2x", e.value));
-                e = e.previous;
-            }
-            builder.append("]");
-            return builder.toString();
-        }
-
-        @Override
-        public boolean equals(final Object other) {
-            if (this == other) {
-                return true;
-            }
-            if (other == null || getClass() != other.getClass()) {
-                return false;
-            }
-
-            LZWString string = (LZWString) other;
-
-            return firstChar == string.firstChar &&
-                    length == string.length &&
-                    value == string.value &&
-//                    !(previous != null ? !previous.equals(string.previous) : string.previous != null);
-                    previous == string.previous;
-        }
-
-        @Override
-        public int hashCode() {
-            int result = previous != null ? previous.hashCode() : 0;
-            result = 31 * result + length;
-            result = 31 * result + (int) value;
-            result = 31 * result + (int) firstChar;
-            return result;
-        }
-
-        @Override
-        public int compareTo(final LZWString other) {
-            if (other == this) {
-                return 0;
-            }
-
-            if (length != other.length) {
-                return other.length - length;
-            }
-
-            if (firstChar != other.firstChar) {
-                return other.firstChar - firstChar;
-            }
-
-            LZWString t = this;
-            LZWString o = other;
-
-            for (int i = length - 1; i > 0; i--) {
-                if (t.value != o.value) {
-                    return o.value - t.value;
-                }
-
-                t = t.previous;
-                o = o.previous;
-            }
-
-            return 0;
-        }
-    }
 }
-
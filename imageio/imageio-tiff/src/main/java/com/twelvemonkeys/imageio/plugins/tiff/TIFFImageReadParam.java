@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.tiff;
+
+import javax.imageio.ImageReadParam;
+import java.util.concurrent.Executor;
+
+/**
+ * TIFFImageReadParam.
+ * <p/>
+ * In addition to the standard read parameters, allows specifying an {@code Executor} used for
+ * decoding strips or tiles concurrently.
+ * If an executor is set, the compressed data for each strip/tile is read sequentially from the input stream,
+ * while decompression and conversion into the destination raster is done by the executor.
+ * The default is {@code null}, meaning all decoding is done on the calling thread.
+ * <p/>
+ * Also allows specifying the maximum number of decoded tiles (or strips) cached by the
+ * {@code RenderedImage} returned from {@link TIFFImageReader#readAsRenderedImage(int, javax.imageio.ImageReadParam)}.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: TIFFImageReadParam.java,v 1.0 12.02.16 haraldk Exp$
+ */
+public final class TIFFImageReadParam extends ImageReadParam {
+    static final int DEFAULT_TILE_CACHE_SIZE = 32;
+
+    private Executor executor;
+    private int tileCacheSize = DEFAULT_TILE_CACHE_SIZE;
+
+    public TIFFImageReadParam() {
+    }
+
+    /**
+     * Returns the executor used for decoding strips/tiles concurrently.
+     *
+     * @return the executor, or {@code null} if strips/tiles are decoded on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for decoding strips/tiles concurrently.
+     * Strips/tiles are decoded into disjoint areas of the destination, and the
+     * {@code read} method will not return until all decoding tasks are completed.
+     *
+     * @param executor the executor, or {@code null} to decode strips/tiles on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the maximum number of decoded tiles kept in memory by images returned from
+     * {@code readAsRenderedImage}.
+     *
+     * @return the maximum number of cached tiles.
+     */
+    public int getTileCacheSize() {
+        return tileCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of decoded tiles kept in memory by images returned from
+     * {@code readAsRenderedImage}. Tiles are evicted in least recently used order, and decoded again when needed.
+     * The default value is {@value #DEFAULT_TILE_CACHE_SIZE}.
+     *
+     * @param tileCacheSize the maximum number of cached tiles, must be {@code > 0}.
+     * @throws IllegalArgumentException if {@code tileCacheSize <= 0}.
+     */
+    public void setTileCacheSize(final int tileCacheSize) {
+        if (tileCacheSize <= 0) {
+            throw new IllegalArgumentException("tileCacheSize must be > 0: " + tileCacheSize);
+        }
+
+        this.tileCacheSize = tileCacheSize;
+    }
+}
@@ -52,6 +52,7 @@ import com.twelvemonkeys.io.FastByteArrayOutputStream;
 import com.twelvemonkeys.io.LittleEndianDataInputStream;
 import com.twelvemonkeys.io.enc.DecoderStream;
 import com.twelvemonkeys.io.enc.PackBitsDecoder;
+import com.twelvemonkeys.util.FutureTasks;
 
 import javax.imageio.*;
 import javax.imageio.event.IIOReadWarningListener;
@@ -73,6 +74,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -122,9 +126,8 @@ public class TIFFImageReader extends ImageReaderBase {
     //       (0: Unspecified (not alpha), 1: Associated Alpha (pre-multiplied), 2: Unassociated Alpha (non-multiplied)
 
     // TODOs ImageIO advanced functionality:
-    // TODO: Tiling support (readTile, readTileRaster)
-    // TODO: Implement readAsRenderedImage to allow tiled RenderedImage?
-    //       For some layouts, we could do reads super-fast with a memory mapped buffer.
+    // TODO: Tiling support (readTileRaster)
+    // TODO: For some layouts, we could do reads super-fast with a memory mapped buffer.
     // TODO: Implement readAsRaster directly (100% correctly)
     // http://download.java.net/media/jai-imageio/javadoc/1.1/com/sun/media/imageio/plugins/tiff/package-summary.html#ImageMetadata
 
@@ -149,9 +152,18 @@ public class TIFFImageReader extends ImageReaderBase {
     // NOTE: DO NOT MODIFY OR EXPOSE THIS ARRAY OUTSIDE PACKAGE!
     static final double[] CCIR_601_1_COEFFICIENTS = new double[] {299.0 / 1000.0, 587.0 / 1000.0, 114.0 / 1000.0};
 
+    // Larger strips/tiles are read sequentially, rather than buffered in memory and decoded concurrently
+    static final int MAX_CONCURRENT_STRIP_TILE_BYTES = 8 * 1024 * 1024;
+
     private CompoundDirectory IFDs;
     private Directory currentIFD;
 
+    // JPEG delegate and tables are kept for the life of the IFD, to avoid re-creating/parsing for each read
+    private ImageReader jpegDelegate;
+    private Directory jpegTablesIFD;
+    private Directory oldJPEGHeaderIFD;
+    private byte[] oldJPEGHeader;
+
     TIFFImageReader(final TIFFImageReaderSpi provider) {
         super(provider);
     }
@@ -160,6 +172,24 @@ public class TIFFImageReader extends ImageReaderBase {
     protected void resetMembers() {
         IFDs = null;
         currentIFD = null;
+
+        jpegTablesIFD = null;
+        oldJPEGHeaderIFD = null;
+        oldJPEGHeader = null;
+
+        if (jpegDelegate != null) {
+            jpegDelegate.reset();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+
+        if (jpegDelegate != null) {
+            jpegDelegate.dispose();
+            jpegDelegate = null;
+        }
     }
 
     private void readMetadata() throws IOException {
@@ -254,6 +284,11 @@ public class TIFFImageReader extends ImageReaderBase {
         currentIFD = IFDs.getDirectory(imageIndex);
     }
 
+    @Override
+    public ImageReadParam getDefaultReadParam() {
+        return new TIFFImageReadParam();
+    }
+
     @Override
     public int getNumImages(final boolean allowSearch) throws IOException {
         readMetadata();
@@ -799,11 +834,16 @@ public class TIFFImageReader extends ImageReaderBase {
         }
 
         int tilesAcross = (width + stripTileWidth - 1) / stripTileWidth;
-        int tilesDown = (height + stripTileHeight - 1) / stripTileHeight;
+
+        // Only the strips/tiles intersecting the source region contributes to the destination
+        int firstTileX = srcRegion.x / stripTileWidth;
+        int lastTileX = (srcRegion.x + srcRegion.width - 1) / stripTileWidth;
+        int firstTileY = srcRegion.y / stripTileHeight;
+        int lastTileY = (srcRegion.y + srcRegion.height - 1) / stripTileHeight;
+
         // TODO: If extrasamples, we might need to create a raster with more samples...
         WritableRaster rowRaster = rawType.createBufferedImage(stripTileWidth, 1).getRaster();
-        Rectangle clip = new Rectangle(srcRegion);
-        int row = 0;
+        int[] sourceBands = param != null ? param.getSourceBands() : null;
 
         switch (compression) {
             // TIFF Baseline
@@ -880,71 +920,80 @@ public class TIFFImageReader extends ImageReaderBase {
                 // Read data
                 processImageStarted(imageIndex);
 
+                Executor executor = param instanceof TIFFImageReadParam ? ((TIFFImageReadParam) param).getExecutor() : null;
+
+                if (executor != null && stripTileByteCounts != null && (lastTileX - firstTileX + 1) * (lastTileY - firstTileY + 1) > 1
+                        && canWriteStripTilesConcurrently(destRaster, srcRegion, xSub, ySub, width, stripTileWidth, firstTileX, lastTileX)
+                        && canBufferStripTiles(tilesAcross, firstTileX, lastTileX, firstTileY, lastTileY, stripTileOffsets, stripTileByteCounts)) {
+                    // Read the (compressed) data for each strip/tile sequentially, decode concurrently
+                    readStripTilesConcurrent(executor, rawType, sourceBands, srcRegion, xSub, ySub, destRaster,
+                            compression, predictor, interpretation, numBands, yCbCrSubsampling, yCbCrPos,
+                            width, height, stripTileWidth, stripTileHeight, tilesAcross,
+                            firstTileX, lastTileX, firstTileY, lastTileY,
+                            stripTileOffsets, stripTileByteCounts);
+
+                    break;
+                }
+
+                // Length of a strip/tile row in bytes, used to skip uncompressed rows outside the source region
+                DataBuffer rowBuffer = rowRaster.getDataBuffer();
+                int rowLength = rowBuffer.getSize() * DataBuffer.getDataTypeSize(rowBuffer.getDataType()) / 8;
+
                 // General uncompressed/compressed reading
-                for (int y = 0; y < tilesDown; y++) {
-                    int col = 0;
+                for (int y = firstTileY; y <= lastTileY; y++) {
+                    int row = y * stripTileHeight;
                     int rowsInTile = Math.min(stripTileHeight, height - row);
 
-                    for (int x = 0; x < tilesAcross; x++) {
+                    for (int x = firstTileX; x <= lastTileX; x++) {
+                        int col = x * stripTileWidth;
                         int colsInTile = Math.min(stripTileWidth, width - col);
                         int i = y * tilesAcross + x;
 
-                        imageInput.seek(stripTileOffsets[i]);
+                        // Read only the part of the strip/tile that lies within the region
+                        Rectangle region = computeStripTileRegion(srcRegion, xSub, ySub, col, row, colsInTile, rowsInTile);
 
-                        DataInput input;
-                        if (compression == TIFFBaseline.COMPRESSION_NONE && interpretation != TIFFExtension.PHOTOMETRIC_YCBCR) {
-                            // No need for transformation, fast forward
-                            input = imageInput;
-                        }
-                        else {
-                            InputStream adapter = stripTileByteCounts != null
-                                    ? IIOUtil.createStreamAdapter(imageInput, stripTileByteCounts[i])
-                                    : IIOUtil.createStreamAdapter(imageInput);
+                        if (!region.isEmpty()) {
+                            imageInput.seek(stripTileOffsets[i]);
 
-                            adapter = createDecompressorStream(compression, stripTileWidth, numBands, adapter);
-                            adapter = createUnpredictorStream(predictor, stripTileWidth, numBands, getBitsPerSample(), adapter, imageInput.getByteOrder());
+                            DataInput input;
+                            int startRow = 0;
 
-                            if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && rowRaster.getTransferType() == DataBuffer.TYPE_BYTE) {
-                                adapter = new YCbCrUpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile);
-                            }
-                            else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && rowRaster.getTransferType() == DataBuffer.TYPE_USHORT) {
-                                adapter = new YCbCr16UpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile, imageInput.getByteOrder());
+                            if (compression == TIFFBaseline.COMPRESSION_NONE && interpretation != TIFFExtension.PHOTOMETRIC_YCBCR) {
+                                // No need for transformation, fast forward
+                                input = imageInput;
+
+                                if (rowBuffer.getNumBanks() == 1) {
+                                    // Uncompressed chunky data, skip directly to the first row within the region
+                                    startRow = region.y;
+                                    imageInput.seek(stripTileOffsets[i] + startRow * (long) rowLength);
+                                }
                             }
-                            else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR) {
-                                // Handled in getRawImageType
-                                throw new AssertionError();
+                            else {
+                                InputStream adapter = stripTileByteCounts != null
+                                        ? IIOUtil.createStreamAdapter(imageInput, stripTileByteCounts[i])
+                                        : IIOUtil.createStreamAdapter(imageInput);
+
+                                input = createStripTileInput(adapter, compression, predictor, interpretation, rowRaster.getTransferType(),
+                                        stripTileWidth, numBands, colsInTile, yCbCrSubsampling, yCbCrPos, imageInput.getByteOrder());
                             }
 
-                            // According to the spec, short/long/etc should follow order of containing stream
-                            input = imageInput.getByteOrder() == ByteOrder.BIG_ENDIAN
-                                    ? new DataInputStream(adapter)
-                                    : new LittleEndianDataInputStream(adapter);
+                            // Read the strip/tile, up to the last row within the region
+                            readStripTileData(rowRaster, sourceBands, region, xSub, ySub, interpretation, destRaster,
+                                    (col + region.x - srcRegion.x) / xSub, (row + region.y - srcRegion.y) / ySub,
+                                    startRow, rowsInTile, input);
                         }
 
-                        // Clip the stripTile rowRaster to not exceed the srcRegion
-                        clip.width = Math.min((colsInTile + xSub - 1) / xSub, srcRegion.width);
-                        Raster clippedRow = clipRowToRect(rowRaster, clip,
-                                param != null ? param.getSourceBands() : null,
-                                param != null ? param.getSourceXSubsampling() : 1);
-
-                        // Read a full strip/tile
-                        readStripTileData(clippedRow, srcRegion, xSub, ySub, numBands, interpretation, destRaster, col, row, colsInTile, rowsInTile, input);
-
                         if (abortRequested()) {
                             break;
                         }
-
-                        col += colsInTile;
                     }
 
-                    processImageProgress(100f * row / height);
+                    processImageProgress(100f * (y - firstTileY + 1) / (lastTileY - firstTileY + 1));
 
                     if (abortRequested()) {
                         processReadAborted();
                         break;
                     }
-
-                    row += rowsInTile;
                 }
 
                 break;
@@ -952,53 +1001,64 @@ public class TIFFImageReader extends ImageReaderBase {
             case TIFFExtension.COMPRESSION_JPEG:
                 // JPEG ('new-style' JPEG)
                 // TODO: Refactor all JPEG reading out to separate JPEG support class?
-                // TODO: Cache the JPEG reader for later use? Remember to reset to avoid resource leaks
 
-                ImageReader jpegReader = createJPEGDelegate();
+                ImageReader jpegReader = getJPEGDelegate();
                 JPEGImageReadParam jpegParam = (JPEGImageReadParam) jpegReader.getDefaultReadParam();
 
-                // JPEG_TABLES should be a full JPEG 'abbreviated table specification', containing:
-                // SOI, DQT, DHT, (optional markers that we ignore)..., EOI
-                Entry tablesEntry = currentIFD.getEntryById(TIFF.TAG_JPEG_TABLES);
-                byte[] tablesValue = tablesEntry != null ? (byte[]) tablesEntry.getValue() : null;
-                if (tablesValue != null) {
-                    // Whatever values I pass the reader as the read param, it never gets the same quality as if
-                    // I just invoke jpegReader.getStreamMetadata(), so we'll do that...
-                    jpegReader.setInput(new ByteArrayImageInputStream(tablesValue));
-
-                    // This initializes the tables and other internal settings for the reader,
-                    // and is actually a feature of JPEG, see abbreviated streams:
-                    // http://docs.oracle.com/javase/6/docs/api/javax/imageio/metadata/doc-files/jpeg_metadata.html#abbrev
-                    jpegReader.getStreamMetadata();
-                }
-                else {
-                    processWarningOccurred("Missing JPEGTables for TIFF with compression: 7 (JPEG)");
-                    // ...and the JPEG reader will probably choke on missing tables...
+                // The tables are retained by the reader across setInput, so we only need to read them once per IFD
+                if (jpegTablesIFD != currentIFD) {
+                    // JPEG_TABLES should be a full JPEG 'abbreviated table specification', containing:
+                    // SOI, DQT, DHT, (optional markers that we ignore)..., EOI
+                    Entry tablesEntry = currentIFD.getEntryById(TIFF.TAG_JPEG_TABLES);
+                    byte[] tablesValue = tablesEntry != null ? (byte[]) tablesEntry.getValue() : null;
+                    if (tablesValue != null) {
+                        // Whatever values I pass the reader as the read param, it never gets the same quality as if
+                        // I just invoke jpegReader.getStreamMetadata(), so we'll do that...
+                        jpegReader.setInput(new ByteArrayImageInputStream(tablesValue));
+
+                        // This initializes the tables and other internal settings for the reader,
+                        // and is actually a feature of JPEG, see abbreviated streams:
+                        // http://docs.oracle.com/javase/6/docs/api/javax/imageio/metadata/doc-files/jpeg_metadata.html#abbrev
+                        jpegReader.getStreamMetadata();
+                    }
+                    else {
+                        processWarningOccurred("Missing JPEGTables for TIFF with compression: 7 (JPEG)");
+                        // ...and the JPEG reader will probably choke on missing tables...
+                    }
+
+                    jpegTablesIFD = currentIFD;
                 }
 
                 // Read data
                 processImageStarted(imageIndex); // Better yet, would be to delegate read progress here...
 
-                for (int y = 0; y < tilesDown; y++) {
-                    int col = 0;
+                for (int y = firstTileY; y <= lastTileY; y++) {
+                    int row = y * stripTileHeight;
                     int rowsInTile = Math.min(stripTileHeight, height - row);
 
-                    for (int x = 0; x < tilesAcross; x++) {
-                        int i = y * tilesAcross + x;
+                    for (int x = firstTileX; x <= lastTileX; x++) {
+                        int col = x * stripTileWidth;
                         int colsInTile = Math.min(stripTileWidth, width - col);
+                        int i = y * tilesAcross + x;
+
+                        // Read only the part of the tile that lies within region
+                        Rectangle region = computeStripTileRegion(srcRegion, xSub, ySub, col, row, colsInTile, rowsInTile);
 
-                        // Read only tiles that lies within region
-                        if (new Rectangle(col, row, colsInTile, rowsInTile).intersects(srcRegion)) {
+                        if (!region.isEmpty()) {
                             imageInput.seek(stripTileOffsets[i]);
 
                             int length = stripTileByteCounts != null ? (int) stripTileByteCounts[i] : Short.MAX_VALUE;
 
                             try (ImageInputStream subStream = new SubImageInputStream(imageInput, length)) {
                                 jpegReader.setInput(subStream);
-                                jpegParam.setSourceRegion(new Rectangle(0, 0, colsInTile, rowsInTile));
+                                jpegParam.setSourceRegion(region);
+                                jpegParam.setSourceSubsampling(xSub, ySub, 0, 0);
+
+                                int dstCol = (col + region.x - srcRegion.x) / xSub;
+                                int dstRow = (row + region.y - srcRegion.y) / ySub;
 
                                 if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR || interpretation == TIFFBaseline.PHOTOMETRIC_RGB) {
-                                    jpegParam.setDestinationOffset(new Point(col - srcRegion.x, row - srcRegion.y));
+                                    jpegParam.setDestinationOffset(new Point(dstRegion.x + dstCol, dstRegion.y + dstRow));
                                     jpegParam.setDestination(destination);
                                     jpegReader.read(0, jpegParam);
                                 }
@@ -1007,27 +1067,22 @@ public class TIFFImageReader extends ImageReaderBase {
                                     // We'll have to use readAsRaster and later apply color space conversion ourselves
                                     Raster raster = jpegReader.readRaster(0, jpegParam);
                                     normalizeColor(interpretation, ((DataBufferByte) raster.getDataBuffer()).getData());
-                                    destination.getRaster().setDataElements(col - srcRegion.x, row - srcRegion.y, raster);
+                                    destRaster.setDataElements(dstCol, dstRow, raster);
                                 }
                             }
-
                         }
 
                         if (abortRequested()) {
                             break;
                         }
-
-                        col += colsInTile;
                     }
 
-                    processImageProgress(100f * row / height);
+                    processImageProgress(100f * (y - firstTileY + 1) / (lastTileY - firstTileY + 1));
 
                     if (abortRequested()) {
                         processReadAborted();
                         break;
                     }
-
-                    row += rowsInTile;
                 }
 
                 break;
@@ -1049,9 +1104,12 @@ public class TIFFImageReader extends ImageReaderBase {
 
                 // May use normal tiling??
 
-                jpegReader = createJPEGDelegate();
+                jpegReader = getJPEGDelegate();
                 jpegParam = (JPEGImageReadParam) jpegReader.getDefaultReadParam();
 
+                // Tables in the JFIF streams below will replace any tables set from JPEGTables
+                jpegTablesIFD = null;
+
                 // 513/JPEGInterchangeFormat (may be absent...)
                 int jpegOffset = getValueAsIntWithDefault(TIFF.TAG_JPEG_INTERCHANGE_FORMAT, -1);
                 // 514/JPEGInterchangeFormatLength (may be absent...)
@@ -1111,8 +1169,10 @@ public class TIFFImageReader extends ImageReaderBase {
                     try (ImageInputStream stream = new SubImageInputStream(imageInput, length)) {
                         jpegReader.setInput(stream);
                         jpegParam.setSourceRegion(srcRegion);
+                        jpegParam.setSourceSubsampling(xSub, ySub, 0, 0);
 
                         if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR || interpretation == TIFFBaseline.PHOTOMETRIC_RGB) {
+                            jpegParam.setDestinationOffset(dstRegion.getLocation());
                             jpegParam.setDestination(destination);
                             jpegReader.read(0, jpegParam);
                         }
@@ -1120,7 +1180,7 @@ public class TIFFImageReader extends ImageReaderBase {
                             // Otherwise, it's likely CMYK or some other interpretation we don't need to convert.
                             // We'll have to use readAsRaster and later apply color space conversion ourselves
                             Raster raster = jpegReader.readRaster(0, jpegParam);
-                            destination.getRaster().setDataElements(0, 0, raster);
+                            destRaster.setDataElements(0, 0, raster);
                         }
                     }
 
@@ -1152,66 +1212,42 @@ public class TIFFImageReader extends ImageReaderBase {
                     // seem to contain a useful JPEGInterchangeFormat tag. Therefore, we recommend a careful attempt to read
                     // the Tables tags only as a last resort, if no table data is found in a JPEGInterchangeFormat stream.
 
-                    // TODO: If any of the q/dc/ac tables are equal (or have same offset, even if "spec" violation),
-                    // use only the first occurrence, and update selectors in SOF0 and SOS
-
-                    long[] qTablesOffsets = getValueAsLongArray(TIFF.TAG_OLD_JPEG_Q_TABLES, "JPEGQTables", true);
-                    byte[][] qTables = new byte[qTablesOffsets.length][(int) (qTablesOffsets[1] - qTablesOffsets[0])]; // TODO: Using the offsets is fragile.. Use fixed length??
-//                    byte[][] qTables = new byte[qTablesOffsets.length][64];
-//                    System.err.println("qTables: " + qTables[0].length);
-                    for (int j = 0; j < qTables.length; j++) {
-                        imageInput.seek(qTablesOffsets[j]);
-                        imageInput.readFully(qTables[j]);
-                    }
-
-                    long[] dcTablesOffsets = getValueAsLongArray(TIFF.TAG_OLD_JPEG_DC_TABLES, "JPEGDCTables", true);
-                    byte[][] dcTables = new byte[dcTablesOffsets.length][(int) (dcTablesOffsets[1] - dcTablesOffsets[0])]; // TODO: Using the offsets is fragile.. Use fixed length??
-//                    byte[][] dcTables = new byte[dcTablesOffsets.length][28];
-//                    System.err.println("dcTables: " + dcTables[0].length);
-                    for (int j = 0; j < dcTables.length; j++) {
-                        imageInput.seek(dcTablesOffsets[j]);
-                        imageInput.readFully(dcTables[j]);
-                    }
-
-                    long[] acTablesOffsets = getValueAsLongArray(TIFF.TAG_OLD_JPEG_AC_TABLES, "JPEGACTables", true);
-                    byte[][] acTables = new byte[acTablesOffsets.length][(int) (acTablesOffsets[1] - acTablesOffsets[0])]; // TODO: Using the offsets is fragile.. Use fixed length??
-//                    byte[][] acTables = new byte[acTablesOffsets.length][178];
-//                    System.err.println("acTables: " + acTables[0].length);
-                    for (int j = 0; j < acTables.length; j++) {
-                        imageInput.seek(acTablesOffsets[j]);
-                        imageInput.readFully(acTables[j]);
+                    // The JFIF header (SOF0, DQT, DHT and SOS) is the same for all tiles, and only created once per IFD
+                    if (oldJPEGHeaderIFD != currentIFD) {
+                        oldJPEGHeader = createJFIFHeader(rawType.getNumBands(), stripTileWidth, stripTileHeight);
+                        oldJPEGHeaderIFD = currentIFD;
                     }
 
                     // Read data
                     processImageStarted(imageIndex);
 
-                    for (int y = 0; y < tilesDown; y++) {
-                        int col = 0;
+                    for (int y = firstTileY; y <= lastTileY; y++) {
+                        int row = y * stripTileHeight;
                         int rowsInTile = Math.min(stripTileHeight, height - row);
 
-                        for (int x = 0; x < tilesAcross; x++) {
+                        for (int x = firstTileX; x <= lastTileX; x++) {
+                            int col = x * stripTileWidth;
                             int colsInTile = Math.min(stripTileWidth, width - col);
                             int i = y * tilesAcross + x;
 
-                            // Read only tiles that lies within region
-                            if (new Rectangle(col, row, colsInTile, rowsInTile).intersects(srcRegion)) {
-                                imageInput.seek(stripTileOffsets[i]);
-
-                                try (ImageInputStream stream = ImageIO.createImageInputStream(new SequenceInputStream(Collections.enumeration(
-                                        Arrays.asList(
-                                                createJFIFStream(destRaster, stripTileWidth, stripTileHeight, qTables, dcTables, acTables),
-                                                IIOUtil.createStreamAdapter(imageInput, stripTileByteCounts != null
-                                                                                        ? (int) stripTileByteCounts[i]
-                                                                                        : Short.MAX_VALUE),
-                                                new ByteArrayInputStream(new byte[] {(byte) 0xff, (byte) 0xd9}) // EOI
-                                        )
-                                )))) {
+                            // Read only the part of the tile that lies within region
+                            Rectangle region = computeStripTileRegion(srcRegion, xSub, ySub, col, row, colsInTile, rowsInTile);
+
+                            if (!region.isEmpty()) {
+                                byte[] jfif = readJFIFTile(oldJPEGHeader, stripTileOffsets[i], stripTileByteCounts != null
+                                                                                                ? (int) stripTileByteCounts[i]
+                                                                                                : Short.MAX_VALUE);
+
+                                try (ImageInputStream stream = new ByteArrayImageInputStream(jfif)) {
                                     jpegReader.setInput(stream);
-                                    jpegParam.setSourceRegion(new Rectangle(0, 0, colsInTile, rowsInTile));
-                                    jpegParam.setDestinationOffset(new Point(col - srcRegion.x, row - srcRegion.y));
-                                    jpegParam.setDestination(destination);
+                                    jpegParam.setSourceRegion(region);
+                                    jpegParam.setSourceSubsampling(xSub, ySub, 0, 0);
+
+                                    int dstCol = (col + region.x - srcRegion.x) / xSub;
+                                    int dstRow = (row + region.y - srcRegion.y) / ySub;
 
                                     if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR || interpretation == TIFFBaseline.PHOTOMETRIC_RGB) {
+                                        jpegParam.setDestinationOffset(new Point(dstRegion.x + dstCol, dstRegion.y + dstRow));
                                         jpegParam.setDestination(destination);
                                         jpegReader.read(0, jpegParam);
                                     }
@@ -1219,7 +1255,7 @@ public class TIFFImageReader extends ImageReaderBase {
                                         // Otherwise, it's likely CMYK or some other interpretation we don't need to convert.
                                         // We'll have to use readAsRaster and later apply color space conversion ourselves
                                         Raster raster = jpegReader.readRaster(0, jpegParam);
-                                        destination.getRaster().setDataElements(0, 0, raster);
+                                        destRaster.setDataElements(dstCol, dstRow, raster);
                                     }
                                 }
                             }
@@ -1227,18 +1263,14 @@ public class TIFFImageReader extends ImageReaderBase {
                             if (abortRequested()) {
                                 break;
                             }
-
-                            col += colsInTile;
                         }
 
-                        processImageProgress(100f * row / height);
+                        processImageProgress(100f * (y - firstTileY + 1) / (lastTileY - firstTileY + 1));
 
                         if (abortRequested()) {
                             processReadAborted();
                             break;
                         }
-
-                        row += rowsInTile;
                     }
                 }
 
@@ -1274,6 +1306,206 @@ public class TIFFImageReader extends ImageReaderBase {
         return destination;
     }
 
+    private DataInput createStripTileInput(final InputStream stream, final int compression, final int predictor,
+                                           final int interpretation, final int transferType,
+                                           final int stripTileWidth, final int numBands, final int colsInTile,
+                                           final int[] yCbCrSubsampling, final int yCbCrPos, final ByteOrder byteOrder)
+            throws IOException {
+        InputStream adapter = createDecompressorStream(compression, stripTileWidth, numBands, stream);
+        adapter = createUnpredictorStream(predictor, stripTileWidth, numBands, getBitsPerSample(), adapter, byteOrder);
+
+        if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && transferType == DataBuffer.TYPE_BYTE) {
+            adapter = new YCbCrUpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile);
+        }
+        else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR && transferType == DataBuffer.TYPE_USHORT) {
+            adapter = new YCbCr16UpsamplerStream(adapter, yCbCrSubsampling, yCbCrPos, colsInTile, byteOrder);
+        }
+        else if (interpretation == TIFFExtension.PHOTOMETRIC_YCBCR) {
+            // Handled in getRawImageType
+            throw new AssertionError();
+        }
+
+        // According to the spec, short/long/etc should follow order of containing stream
+        return byteOrder == ByteOrder.BIG_ENDIAN
+               ? new DataInputStream(adapter)
+               : new LittleEndianDataInputStream(adapter);
+    }
+
+    private void readStripTilesConcurrent(final Executor executor, final ImageTypeSpecifier rawType, final int[] sourceBands,
+                                          final Rectangle srcRegion, final int xSub, final int ySub, final WritableRaster destRaster,
+                                          final int compression, final int predictor, final int interpretation, final int numBands,
+                                          final int[] yCbCrSubsampling, final int yCbCrPos,
+                                          final int width, final int height, final int stripTileWidth, final int stripTileHeight,
+                                          final int tilesAcross, final int firstTileX, final int lastTileX, final int firstTileY, final int lastTileY,
+                                          final long[] stripTileOffsets, final long[] stripTileByteCounts) throws IOException {
+        // NOTE: The ImageInputStream is not thread safe, so all reading from the stream is done on the calling thread.
+        //       Only decompression, color normalization and copying into the (disjoint) destination area is done concurrently.
+        final ByteOrder byteOrder = imageInput.getByteOrder();
+
+        // Limit the number of strips/tiles kept in memory at any time
+        int maxPending = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+        Deque<StripTileTask> pending = new ArrayDeque<>(maxPending + 1);
+
+        try {
+            for (int y = firstTileY; y <= lastTileY; y++) {
+                final int row = y * stripTileHeight;
+                final int rowsInTile = Math.min(stripTileHeight, height - row);
+
+                for (int x = firstTileX; x <= lastTileX; x++) {
+                    final int col = x * stripTileWidth;
+                    final int colsInTile = Math.min(stripTileWidth, width - col);
+                    int i = y * tilesAcross + x;
+
+                    if (abortRequested()) {
+                        break;
+                    }
+
+                    final Rectangle region = computeStripTileRegion(srcRegion, xSub, ySub, col, row, colsInTile, rowsInTile);
+                    final byte[] data = region.isEmpty() ? null : readStripTileBytes(stripTileOffsets[i], stripTileByteCounts[i]);
+
+                    StripTileTask task = new StripTileTask(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            if (data == null) {
+                                return null; // Nothing within region
+                            }
+
+                            // Each strip/tile needs its own row buffer, as data is normalized in place
+                            WritableRaster rowRaster = rawType.createBufferedImage(stripTileWidth, 1).getRaster();
+
+                            DataInput input = createStripTileInput(new ByteArrayInputStream(data), compression, predictor,
+                                    interpretation, rowRaster.getTransferType(), stripTileWidth, numBands, colsInTile,
+                                    yCbCrSubsampling, yCbCrPos, byteOrder);
+
+                            readStripTileData(rowRaster, sourceBands, region, xSub, ySub, interpretation, destRaster,
+                                    (col + region.x - srcRegion.x) / xSub, (row + region.y - srcRegion.y) / ySub,
+                                    0, rowsInTile, input);
+
+                            return null;
+                        }
+                    }, x == lastTileX ? 100f * (y - firstTileY + 1) / (lastTileY - firstTileY + 1) : -1);
+
+                    executor.execute(task);
+                    pending.add(task);
+
+                    while (pending.size() > maxPending) {
+                        completeStripTile(pending.removeFirst());
+                    }
+                }
+
+                if (abortRequested()) {
+                    break;
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                completeStripTile(pending.removeFirst());
+            }
+
+            if (abortRequested()) {
+                processReadAborted();
+            }
+        }
+        finally {
+            // In case of exceptions, make sure no tasks are still writing to the destination when we return
+            FutureTasks.awaitQuietly(pending);
+        }
+    }
+
+    private static boolean canWriteStripTilesConcurrently(final WritableRaster destRaster, final Rectangle srcRegion, final int xSub, final int ySub,
+                                                          final int width, final int stripTileWidth, final int firstTileX, final int lastTileX) {
+        SampleModel sampleModel = destRaster.getSampleModel();
+
+        if (!(sampleModel instanceof MultiPixelPackedSampleModel)) {
+            return true;
+        }
+
+        // Packed pixels of horizontally neighbouring tiles may share a byte in the destination, unless each tile
+        // starts on a byte boundary, in which case writing the tiles concurrently would lose pixels
+        MultiPixelPackedSampleModel packedSampleModel = (MultiPixelPackedSampleModel) sampleModel;
+
+        for (int x = firstTileX + 1; x <= lastTileX; x++) {
+            int col = x * stripTileWidth;
+            Rectangle region = computeStripTileRegion(srcRegion, xSub, ySub, col, srcRegion.y, Math.min(stripTileWidth, width - col), 1);
+            int dstCol = (col + region.x - srcRegion.x) / xSub;
+
+            if (packedSampleModel.getBitOffset(dstCol - destRaster.getSampleModelTranslateX()) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean canBufferStripTiles(final int tilesAcross, final int firstTileX, final int lastTileX, final int firstTileY, final int lastTileY,
+                                        final long[] stripTileOffsets, final long[] stripTileByteCounts) throws IOException {
+        for (int y = firstTileY; y <= lastTileY; y++) {
+            for (int x = firstTileX; x <= lastTileX; x++) {
+                int i = y * tilesAcross + x;
+
+                if (getStripTileByteCount(stripTileOffsets[i], stripTileByteCounts[i]) > MAX_CONCURRENT_STRIP_TILE_BYTES) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private long getStripTileByteCount(final long offset, final long byteCount) throws IOException {
+        // The byte count may be corrupt, never read past the end of the stream, if known
+        long length = imageInput.length();
+
+        return length < 0 ? byteCount : Math.max(0, Math.min(byteCount, length - offset));
+    }
+
+    private byte[] readStripTileBytes(final long offset, final long byteCount) throws IOException {
+        imageInput.seek(offset);
+
+        // Byte count is known to be within MAX_CONCURRENT_STRIP_TILE_BYTES here
+        byte[] data = new byte[(int) getStripTileByteCount(offset, byteCount)];
+        int read = 0;
+
+        // Be lenient about truncated data, the decompressor should handle this as for the sequential case
+        while (read < data.length) {
+            int count = imageInput.read(data, read, data.length - read);
+
+            if (count < 0) {
+                return Arrays.copyOf(data, read);
+            }
+
+            read += count;
+        }
+
+        return data;
+    }
+
+    private void completeStripTile(final StripTileTask task) throws IOException {
+        FutureTasks.get(task, "decoding TIFF strip/tile");
+
+        // Progress is reported from the calling thread only, in order, when a row of strips/tiles is done
+        if (task.progress >= 0) {
+            processImageProgress(task.progress);
+        }
+    }
+
+    private static final class StripTileTask extends FutureTask<Void> {
+        final float progress;
+
+        StripTileTask(final Callable<Void> callable, final float progress) {
+            super(callable);
+            this.progress = progress;
+        }
+    }
+
+    private ImageReader getJPEGDelegate() throws IIOException {
+        if (jpegDelegate == null) {
+            jpegDelegate = createJPEGDelegate();
+        }
+
+        return jpegDelegate;
+    }
+
     private ImageReader createJPEGDelegate() throws IIOException {
         // TIFF is strictly ISO JPEG, so we should probably stick to the standard reader
         try {
@@ -1298,26 +1530,56 @@ public class TIFFImageReader extends ImageReaderBase {
         return readers.next();
     }
 
-    private static InputStream createJFIFStream(WritableRaster raster, int stripTileWidth, int stripTileHeight, byte[][] qTables, byte[][] dcTables, byte[][] acTables) throws IOException {
+    private byte[] createJFIFHeader(final int numComponents, final int stripTileWidth, final int stripTileHeight) throws IOException {
+        // TODO: If any of the q/dc/ac tables are equal (or have same offset, even if "spec" violation),
+        // use only the first occurrence, and update selectors in SOF0 and SOS
+
+        long[] qTablesOffsets = getValueAsLongArray(TIFF.TAG_OLD_JPEG_Q_TABLES, "JPEGQTables", true);
+        byte[][] qTables = new byte[qTablesOffsets.length][(int) (qTablesOffsets[1] - qTablesOffsets[0])]; // TODO: Using the offsets is fragile.. Use fixed length??
+//        byte[][] qTables = new byte[qTablesOffsets.length][64];
+//        System.err.println("qTables: " + qTables[0].length);
+        for (int j = 0; j < qTables.length; j++) {
+            imageInput.seek(qTablesOffsets[j]);
+            imageInput.readFully(qTables[j]);
+        }
+
+        long[] dcTablesOffsets = getValueAsLongArray(TIFF.TAG_OLD_JPEG_DC_TABLES, "JPEGDCTables", true);
+        byte[][] dcTables = new byte[dcTablesOffsets.length][(int) (dcTablesOffsets[1] - dcTablesOffsets[0])]; // TODO: Using the offsets is fragile.. Use fixed length??
+//        byte[][] dcTables = new byte[dcTablesOffsets.length][28];
+//        System.err.println("dcTables: " + dcTables[0].length);
+        for (int j = 0; j < dcTables.length; j++) {
+            imageInput.seek(dcTablesOffsets[j]);
+            imageInput.readFully(dcTables[j]);
+        }
+
+        long[] acTablesOffsets = getValueAsLongArray(TIFF.TAG_OLD_JPEG_AC_TABLES, "JPEGACTables", true);
+        byte[][] acTables = new byte[acTablesOffsets.length][(int) (acTablesOffsets[1] - acTablesOffsets[0])]; // TODO: Using the offsets is fragile.. Use fixed length??
+//        byte[][] acTables = new byte[acTablesOffsets.length][178];
+//        System.err.println("acTables: " + acTables[0].length);
+        for (int j = 0; j < acTables.length; j++) {
+            imageInput.seek(acTablesOffsets[j]);
+            imageInput.readFully(acTables[j]);
+        }
+
         FastByteArrayOutputStream stream = new FastByteArrayOutputStream(
-                2 + 2 + 2 + 6 + 3 * raster.getNumBands() +
+                2 + 2 + 2 + 6 + 3 * numComponents +
                         5 * qTables.length + qTables.length * qTables[0].length +
                         5 * dcTables.length + dcTables.length * dcTables[0].length +
                         5 * acTables.length + acTables.length * acTables[0].length +
-                        8 + 2 * raster.getNumBands()
+                        8 + 2 * numComponents
         );
 
         DataOutputStream out = new DataOutputStream(stream);
 
         out.writeShort(JPEG.SOI);
         out.writeShort(JPEG.SOF0);
-        out.writeShort(2 + 6 + 3 * raster.getNumBands()); // SOF0 len
+        out.writeShort(2 + 6 + 3 * numComponents); // SOF0 len
         out.writeByte(8); // bits TODO: Consult raster/transfer type or BitsPerSample for 12/16 bits support
         out.writeShort(stripTileHeight); // height
         out.writeShort(stripTileWidth); // width
-        out.writeByte(raster.getNumBands()); // Number of components
+        out.writeByte(numComponents); // Number of components
 
-        for (int comp = 0; comp < raster.getNumBands(); comp++) {
+        for (int comp = 0; comp < numComponents; comp++) {
             out.writeByte(comp); // Component id
             out.writeByte(comp == 0 ? 0x22 : 0x11); // h/v subsampling TODO: FixMe, consult YCbCrSubsampling
             out.writeByte(comp); // Q table selector TODO: Consider merging if tables are equal
@@ -1351,10 +1613,10 @@ public class TIFFImageReader extends ImageReaderBase {
         }
 
         out.writeShort(JPEG.SOS);
-        out.writeShort(6 + 2 * raster.getNumBands()); // SOS length
-        out.writeByte(raster.getNumBands()); // Num comp
+        out.writeShort(6 + 2 * numComponents); // SOS length
+        out.writeByte(numComponents); // Num comp
 
-        for (int component = 0; component < raster.getNumBands(); component++) {
+        for (int component = 0; component < numComponents; component++) {
             out.writeByte(component); // Comp id
             out.writeByte(component == 0 ? component : 0x10 + (component & 0xf)); // dc/ac selector
         }
@@ -1364,17 +1626,41 @@ public class TIFFImageReader extends ImageReaderBase {
         out.writeByte(0);
         out.writeByte(0);
 
-        return stream.createInputStream();
+        return stream.toByteArray();
     }
 
-    private Raster clipRowToRect(final Raster raster, final Rectangle rect, final int[] bands, final int xSub) {
-        if (rect.contains(raster.getMinX(), 0, raster.getWidth(), 1)
-                && xSub == 1
+    private byte[] readJFIFTile(final byte[] header, final long offset, final int length) throws IOException {
+        // Concatenate header, entropy coded data and EOI, to create a full JFIF stream for the tile
+        byte[] jfif = new byte[header.length + length + 2];
+        System.arraycopy(header, 0, jfif, 0, header.length);
+
+        imageInput.seek(offset);
+
+        int read = 0;
+        while (read < length) {
+            int count = imageInput.read(jfif, header.length + read, length - read);
+
+            if (count < 0) {
+                break; // Truncated data, let the JPEG reader handle it
+            }
+
+            read += count;
+        }
+
+        int end = header.length + read;
+        jfif[end] = (byte) 0xff;
+        jfif[end + 1] = (byte) 0xd9; // EOI
+
+        return read == length ? jfif : Arrays.copyOf(jfif, end + 2);
+    }
+
+    private Raster clipRowToRect(final Raster raster, final int x, final int width, final int[] bands) {
+        if (x == raster.getMinX() && width == raster.getWidth()
                 && bands == null /* TODO: Compare bands with that of raster */) {
             return raster;
         }
 
-        return raster.createChild(rect.x / xSub, 0, rect.width / xSub, 1, 0, 0, bands);
+        return raster.createChild(x, 0, width, 1, 0, 0, bands);
     }
 
     private WritableRaster clipToRect(final WritableRaster raster, final Rectangle rect, final int[] bands) {
@@ -1386,174 +1672,150 @@ public class TIFFImageReader extends ImageReaderBase {
         return raster.createWritableChild(rect.x, rect.y, rect.width, rect.height, 0, 0, bands);
     }
 
-    private void readStripTileData(final Raster tileRowRaster, final Rectangle srcRegion, final int xSub, final int ySub,
-                                   final int numBands, final int interpretation,
-                                   final WritableRaster raster, final int startCol, final int startRow,
-                                   final int colsInTile, final int rowsInTile, final DataInput input)
+    private void readStripTileData(final WritableRaster tileRowRaster, final int[] sourceBands, final Rectangle region,
+                                   final int xSub, final int ySub, final int interpretation,
+                                   final WritableRaster raster, final int dstCol, final int dstRow,
+                                   final int startRow, final int rowsInTile, final DataInput input)
             throws IOException {
 
         DataBuffer dataBuffer = tileRowRaster.getDataBuffer();
         int bands = dataBuffer.getNumBanks();
         boolean banded = bands > 1;
 
-        switch (tileRowRaster.getTransferType()) {
-            case DataBuffer.TYPE_BYTE:
-
-                for (int band = 0; band < bands; band++) {
-                    int bank = banded ? ((BandedSampleModel) tileRowRaster.getSampleModel()).getBankIndices()[band] : band;
-                    byte[] rowDataByte = ((DataBufferByte) dataBuffer).getData(bank);
-                    WritableRaster destChannel = banded
-                                                 ? raster.createWritableChild(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), 0, 0, new int[] {band})
-                                                 : raster;
-                    Raster srcChannel = banded
-                                        ? tileRowRaster.createChild(tileRowRaster.getMinX(), 0, tileRowRaster.getWidth(), 1, 0, 0, new int[] {band})
-                                        : tileRowRaster;
-
-                    for (int row = startRow; row < startRow + rowsInTile; row++) {
-                        if (row >= srcRegion.y + srcRegion.height) {
-                            break; // We're done with this tile
-                        }
-
-                        input.readFully(rowDataByte);
-
-                        if (row % ySub == 0 && row >= srcRegion.y) {
-                            if (!banded) {
-                                normalizeColor(interpretation, rowDataByte);
-                            }
-
-                            // Subsample horizontal
-                            if (xSub != 1) {
-                                for (int x = srcRegion.x / xSub * numBands; x < ((srcRegion.x + srcRegion.width) / xSub) * numBands; x += numBands) {
-                                    System.arraycopy(rowDataByte, x * xSub, rowDataByte, x, numBands);
-                                }
-                            }
-
-                            destChannel.setDataElements(startCol, (row - srcRegion.y) / ySub, srcChannel);
-                        }
-                        // Else skip data
-                    }
+        // Clip the strip/tile row to the region, after horizontal subsampling the samples are moved to the start of the row
+        int numCols = (region.width + xSub - 1) / xSub;
+        Raster clippedRow = clipRowToRect(tileRowRaster, xSub == 1 ? region.x : 0, numCols, sourceBands);
+
+        for (int band = 0; band < bands; band++) {
+            int bank = banded ? ((BandedSampleModel) tileRowRaster.getSampleModel()).getBankIndices()[band] : band;
+            Object rowData = getDataArray(dataBuffer, bank);
+
+            int dstBand = banded ? indexOf(sourceBands, band) : 0;
+            WritableRaster destChannel = banded && dstBand >= 0
+                                         ? raster.createWritableChild(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), 0, 0, new int[] {dstBand})
+                                         : raster;
+            Raster srcChannel = banded && dstBand >= 0
+                                ? clippedRow.createChild(clippedRow.getMinX(), 0, clippedRow.getWidth(), 1, 0, 0, new int[] {dstBand})
+                                : clippedRow;
+
+            // For planar data, the rows of the next band follows the rows of this band, so we can't stop early
+            int endRow = banded && band < bands - 1 ? rowsInTile : region.y + region.height;
+
+            for (int row = startRow; row < endRow; row++) {
+                switch (dataBuffer.getDataType()) {
+                    case DataBuffer.TYPE_BYTE:
+                        input.readFully((byte[]) rowData);
+                        break;
+                    case DataBuffer.TYPE_USHORT:
+                    case DataBuffer.TYPE_SHORT:
+                        readFully(input, (short[]) rowData);
+                        break;
+                    case DataBuffer.TYPE_INT:
+                        readFully(input, (int[]) rowData);
+                        break;
+                    case DataBuffer.TYPE_FLOAT:
+                        readFully(input, (float[]) rowData);
+                        break;
                 }
 
-//                if (banded) {
-//                    // TODO: Normalize colors for tile (need to know tile region and sample model)
-//                    // Unfortunately, this will disable acceleration...
-//                }
-
-                break;
-            case DataBuffer.TYPE_USHORT:
-            case DataBuffer.TYPE_SHORT:
-                for (int band = 0; band < bands; band++) {
-                    short[] rowDataShort = dataBuffer.getDataType() == DataBuffer.TYPE_USHORT
-                                           ? ((DataBufferUShort) dataBuffer).getData(band)
-                                           : ((DataBufferShort) dataBuffer).getData(band);
-
-                    WritableRaster destChannel = banded
-                                                 ? raster.createWritableChild(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), 0, 0, new int[] {band})
-                                                 : raster;
-                    Raster srcChannel = banded
-                                        ? tileRowRaster.createChild(tileRowRaster.getMinX(), 0, tileRowRaster.getWidth(), 1, 0, 0, new int[] {band})
-                                        : tileRowRaster;
-
-                    for (int row = startRow; row < startRow + rowsInTile; row++) {
-                        if (row >= srcRegion.y + srcRegion.height) {
-                            break; // We're done with this tile
-                        }
-
-                        readFully(input, rowDataShort);
-
-                        if (row >= srcRegion.y) {
-                            normalizeColor(interpretation, rowDataShort);
-
-                            // Subsample horizontal
-                            if (xSub != 1) {
-                                for (int x = srcRegion.x / xSub * numBands; x < ((srcRegion.x + srcRegion.width) / xSub) * numBands; x += numBands) {
-                                    System.arraycopy(rowDataShort, x * xSub, rowDataShort, x, numBands);
-                                }
-                            }
+                if (row < region.y || row >= region.y + region.height || (row - region.y) % ySub != 0 || dstBand < 0) {
+                    continue; // Skip data
+                }
 
-                            destChannel.setDataElements(startCol, row - srcRegion.y, srcChannel);
-                            // TODO: Possible speedup ~30%!:
-//                        raster.setDataElements(startCol, row - srcRegion.y, colsInTile, 1, rowDataShort);
+                switch (dataBuffer.getDataType()) {
+                    case DataBuffer.TYPE_BYTE:
+                        if (!banded) {
+                            // TODO: Normalize colors for banded (need to know tile region and sample model)
+                            normalizeColor(interpretation, (byte[]) rowData);
                         }
-                        // Else skip data
-                    }
+                        break;
+                    case DataBuffer.TYPE_USHORT:
+                    case DataBuffer.TYPE_SHORT:
+                        normalizeColor(interpretation, (short[]) rowData);
+                        break;
+                    case DataBuffer.TYPE_INT:
+                        normalizeColor(interpretation, (int[]) rowData);
+                        break;
+                    case DataBuffer.TYPE_FLOAT:
+                        // TODO: Allow param to decide tone mapping strategy, like in the HDRImageReader
+                        clamp((float[]) rowData);
+                        normalizeColor(interpretation, (float[]) rowData);
+                        break;
                 }
 
-                break;
-            case DataBuffer.TYPE_INT:
-                for (int band = 0; band < bands; band++) {
-                    int[] rowDataInt = ((DataBufferInt) dataBuffer).getData(band);
-
-                    WritableRaster destChannel = banded
-                                                 ? raster.createWritableChild(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), 0, 0, new int[] {band})
-                                                 : raster;
-                    Raster srcChannel = banded
-                                        ? tileRowRaster.createChild(tileRowRaster.getMinX(), 0, tileRowRaster.getWidth(), 1, 0, 0, new int[] {band})
-                                        : tileRowRaster;
-
-                    for (int row = startRow; row < startRow + rowsInTile; row++) {
-                        if (row >= srcRegion.y + srcRegion.height) {
-                            break; // We're done with this tile
-                        }
+                // Subsample horizontal
+                if (xSub != 1) {
+                    subsampleRow(tileRowRaster, rowData, region.x, numCols, xSub);
+                }
 
-                        readFully(input, rowDataInt);
+                destChannel.setDataElements(dstCol, dstRow + (row - region.y) / ySub, srcChannel);
+            }
+        }
+    }
 
-                        if (row >= srcRegion.y) {
-                            normalizeColor(interpretation, rowDataInt);
+    private static void subsampleRow(final WritableRaster rowRaster, final Object rowData, final int firstCol, final int numCols, final int xSub) {
+        // Moves every xSub'th pixel, starting at firstCol, to the start of the row (in place, as dest <= source)
+        SampleModel sampleModel = rowRaster.getSampleModel();
 
-                            // Subsample horizontal
-                            if (xSub != 1) {
-                                for (int x = srcRegion.x / xSub * numBands; x < ((srcRegion.x + srcRegion.width) / xSub) * numBands; x += numBands) {
-                                    System.arraycopy(rowDataInt, x * xSub, rowDataInt, x, numBands);
-                                }
-                            }
+        if (sampleModel instanceof ComponentSampleModel) {
+            int pixelStride = ((ComponentSampleModel) sampleModel).getPixelStride();
 
-                            destChannel.setDataElements(startCol, row - srcRegion.y, srcChannel);
-                        }
-                        // Else skip data
-                    }
-                }
+            for (int x = 0; x < numCols; x++) {
+                System.arraycopy(rowData, (firstCol + x * xSub) * pixelStride, rowData, x * pixelStride, pixelStride);
+            }
+        }
+        else {
+            // Packed samples, slower, but works for all sample models
+            Object pixel = null;
 
-                break;
+            for (int x = 0; x < numCols; x++) {
+                pixel = rowRaster.getDataElements(firstCol + x * xSub, 0, pixel);
+                rowRaster.setDataElements(x, 0, pixel);
+            }
+        }
+    }
 
+    private static Object getDataArray(final DataBuffer dataBuffer, final int bank) {
+        switch (dataBuffer.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                return ((DataBufferByte) dataBuffer).getData(bank);
+            case DataBuffer.TYPE_USHORT:
+                return ((DataBufferUShort) dataBuffer).getData(bank);
+            case DataBuffer.TYPE_SHORT:
+                return ((DataBufferShort) dataBuffer).getData(bank);
+            case DataBuffer.TYPE_INT:
+                return ((DataBufferInt) dataBuffer).getData(bank);
             case DataBuffer.TYPE_FLOAT:
-                for (int band = 0; band < bands; band++) {
-                    float[] rowDataFloat = ((DataBufferFloat) tileRowRaster.getDataBuffer()).getData(band);
-
-                    WritableRaster destChannel = banded
-                                                 ? raster.createWritableChild(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), 0, 0, new int[] {band})
-                                                 : raster;
-                    Raster srcChannel = banded
-                                        ? tileRowRaster.createChild(tileRowRaster.getMinX(), 0, tileRowRaster.getWidth(), 1, 0, 0, new int[] {band})
-                                        : tileRowRaster;
-
-                    for (int row = startRow; row < startRow + rowsInTile; row++) {
-                        if (row >= srcRegion.y + srcRegion.height) {
-                            break; // We're done with this tile
-                        }
+                return ((DataBufferFloat) dataBuffer).getData(bank);
+            default:
+                throw new AssertionError("Unsupported data type: " + dataBuffer.getDataType());
+        }
+    }
 
-                        readFully(input, rowDataFloat);
+    private static int indexOf(final int[] bands, final int band) {
+        if (bands == null) {
+            return band;
+        }
 
-                        if (row >= srcRegion.y) {
-                            // TODO: Allow param to decide tone mapping strategy, like in the HDRImageReader
-                            clamp(rowDataFloat);
-                            normalizeColor(interpretation, rowDataFloat);
+        for (int i = 0; i < bands.length; i++) {
+            if (bands[i] == band) {
+                return i;
+            }
+        }
 
-                            // Subsample horizontal
-                            if (xSub != 1) {
-                                for (int x = srcRegion.x / xSub * numBands; x < ((srcRegion.x + srcRegion.width) / xSub) * numBands; x += numBands) {
-                                    System.arraycopy(rowDataFloat, x * xSub, rowDataFloat, x, numBands);
-                                }
-                            }
+        return -1;
+    }
 
-                            destChannel.setDataElements(startCol, row - srcRegion.y, srcChannel);
-                        }
-                        // Else skip data
-                    }
-                }
+    static Rectangle computeStripTileRegion(final Rectangle srcRegion, final int xSub, final int ySub,
+                                            final int col, final int row, final int colsInTile, final int rowsInTile) {
+        // The part of the strip/tile at (col, row) that contributes to the destination, relative to the strip/tile.
+        // The first column/row is the first one within the region, that is not skipped by subsampling
+        int firstCol = srcRegion.x + (Math.max(col, srcRegion.x) - srcRegion.x + xSub - 1) / xSub * xSub;
+        int firstRow = srcRegion.y + (Math.max(row, srcRegion.y) - srcRegion.y + ySub - 1) / ySub * ySub;
+        int lastCol = Math.min(col + colsInTile, srcRegion.x + srcRegion.width);
+        int lastRow = Math.min(row + rowsInTile, srcRegion.y + srcRegion.height);
 
-                break;
-        }
+        return new Rectangle(firstCol - col, firstRow - row, Math.max(0, lastCol - firstCol), Math.max(0, lastRow - firstRow));
     }
 
     private void clamp(float[] rowDataFloat) {
@@ -1901,12 +2163,83 @@ public class TIFFImageReader extends ImageReaderBase {
         return null;
     }
 
-    // TODO: Tiling support
-    // isImageTiled
-    // getTileWidth
-    // getTileHeight
-    // readTile
-    // readTileRaster
+    /// Tiling support
+
+    @Override
+    public boolean isImageTiled(int imageIndex) throws IOException {
+        readIFD(imageIndex);
+
+        return currentIFD.getEntryById(TIFF.TAG_TILE_WIDTH) != null;
+    }
+
+    @Override
+    public int getTileWidth(int imageIndex) throws IOException {
+        // NOTE: We handle strips as tiles of tileWidth == width by tileHeight == rowsPerStrip
+        if (isImageTiled(imageIndex)) {
+            return getValueAsInt(TIFF.TAG_TILE_WIDTH, "TileWidth");
+        }
+
+        return getWidth(imageIndex);
+    }
+
+    @Override
+    public int getTileHeight(int imageIndex) throws IOException {
+        if (isImageTiled(imageIndex)) {
+            return getValueAsInt(TIFF.TAG_TILE_HEIGTH, "TileHeight");
+        }
+
+        int height = getHeight(imageIndex);
+        long rowsPerStrip = getValueAsLongWithDefault(TIFF.TAG_ROWS_PER_STRIP, (1l << 32) - 1);
+
+        return rowsPerStrip < height ? (int) rowsPerStrip : height;
+    }
+
+    @Override
+    public BufferedImage readTile(int imageIndex, int tileX, int tileY) throws IOException {
+        int width = getWidth(imageIndex);
+        int height = getHeight(imageIndex);
+        int tileWidth = getTileWidth(imageIndex);
+        int tileHeight = getTileHeight(imageIndex);
+
+        if (tileX < 0 || tileX >= (width + tileWidth - 1) / tileWidth) {
+            throw new IllegalArgumentException("tileX out of bounds: " + tileX);
+        }
+        if (tileY < 0 || tileY >= (height + tileHeight - 1) / tileHeight) {
+            throw new IllegalArgumentException("tileY out of bounds: " + tileY);
+        }
+
+        // Only the strip/tile intersecting the region is decoded
+        int x = tileX * tileWidth;
+        int y = tileY * tileHeight;
+
+        ImageReadParam param = getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, Math.min(tileWidth, width - x), Math.min(tileHeight, height - y)));
+
+        return read(imageIndex, param);
+    }
+
+    @Override
+    public RenderedImage readAsRenderedImage(int imageIndex, ImageReadParam param) throws IOException {
+        readIFD(imageIndex);
+
+        if (param != null && (param.getDestination() != null || param.getSourceRegion() != null
+                || param.getSourceXSubsampling() != 1 || param.getSourceYSubsampling() != 1
+                || param.getSourceBands() != null || param.getDestinationBands() != null
+                || param.getDestinationOffset().x != 0 || param.getDestinationOffset().y != 0)) {
+            // TODO: Support region/subsampling etc. for the tiled image too
+            return read(imageIndex, param);
+        }
+
+        ImageTypeSpecifier imageType = param != null && param.getDestinationType() != null
+                                       ? param.getDestinationType()
+                                       : getImageTypes(imageIndex).next();
+
+        TIFFImageReadParam tiffParam = param instanceof TIFFImageReadParam ? (TIFFImageReadParam) param : null;
+
+        return new TIFFRenderedImage(this, imageIndex, imageType,
+                tiffParam != null ? tiffParam.getExecutor() : null,
+                tiffParam != null ? tiffParam.getTileCacheSize() : TIFFImageReadParam.DEFAULT_TILE_CACHE_SIZE);
+    }
 
     // TODO: Thumbnail support
 
@@ -30,9 +30,23 @@ package com.twelvemonkeys.imageio.plugins.tiff;
 
 import javax.imageio.ImageWriteParam;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * TIFFImageWriteParam
+ * <p/>
+ * In addition to the standard write parameters, allows specifying an {@code Executor} used for
+ * compressing image data concurrently.
+ * If an executor is set, each page is written as multiple strips, that are compressed by the executor
+ * into memory buffers, and then written to the output stream in order, on the calling thread.
+ * The default is {@code null}, meaning each page is written as a single strip, compressed on the calling thread.
+ * <p/>
+ * Tiled output is supported, using the standard tiling API. Tile width and height must be multiples of 16.
+ * <p/>
+ * Also allows writing a pyramid of reduced resolution images along with each page,
+ * either as SubIFDs of the full resolution image, or as successive pages,
+ * with {@code NewSubfileType} set to {@code 1} (reduced resolution).
+ * Each level is half the width and height of the previous, and is computed from the previous level.
  *
  * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
  * @author last modified by $Author: haraldk$
@@ -44,7 +58,6 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
     // TODO: Support CCITT T.6 (4)
     // TODO: Support JBIG compression via ImageIO plugin/delegate?
     // TODO: Support JPEG2000 compression via ImageIO plugin/delegate?
-    // TODO: Support tiling
     // TODO: Support OPTIONAL predictor. See TIFF 6.0 Specification, Section 14: "Differencing Predictor", page 64.
 
     // DONE:
@@ -53,6 +66,13 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
     // Support PackBits compression (32773)
     // Support LZW compression (5)?
     // Support JPEG compression (7)
+    // Support tiling
+
+    static final int DEFAULT_TILE_SIZE = 256;
+
+    private Executor executor;
+    private int pyramidLevels;
+    private boolean pyramidSubIFDs;
 
     TIFFImageWriteParam() {
         this(Locale.getDefault());
@@ -71,6 +91,7 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
         };
         compressionType = compressionTypes[0];
         canWriteCompressed = true;
+        canWriteTiles = true;
     }
 
     @Override
@@ -91,6 +112,71 @@ public final class TIFFImageWriteParam extends ImageWriteParam {
         return null;
     }
 
+    /**
+     * Returns the executor used for compressing strips concurrently.
+     *
+     * @return the executor, or {@code null} if image data is compressed on the calling thread.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for compressing strips concurrently.
+     * The {@code write} and {@code writeToSequence} methods will not return until all strips of the page
+     * are compressed and written.
+     *
+     * @param executor the executor, or {@code null} to compress image data on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the number of reduced resolution images written for each page.
+     *
+     * @return the number of reduced resolution images.
+     */
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    /**
+     * Sets the number of reduced resolution images written for each page.
+     * Fewer levels are written if the image can't be reduced further (ie. is 1 x 1 pixel).
+     * The default value is {@code 0}, meaning only the full resolution image is written.
+     *
+     * @param pyramidLevels the number of reduced resolution images, must be {@code >= 0}.
+     * @throws IllegalArgumentException if {@code pyramidLevels < 0}.
+     */
+    public void setPyramidLevels(final int pyramidLevels) {
+        if (pyramidLevels < 0) {
+            throw new IllegalArgumentException("pyramidLevels must be >= 0: " + pyramidLevels);
+        }
+
+        this.pyramidLevels = pyramidLevels;
+    }
+
+    /**
+     * Returns whether reduced resolution images are written as SubIFDs, or as successive pages.
+     *
+     * @return {@code true} if reduced resolution images are written as SubIFDs.
+     */
+    public boolean isPyramidSubIFDs() {
+        return pyramidSubIFDs;
+    }
+
+    /**
+     * Sets whether reduced resolution images are written as SubIFDs of the full resolution image,
+     * or as successive pages following the full resolution image.
+     * The default is {@code false}, meaning successive pages.
+     *
+     * @param pyramidSubIFDs {@code true} if reduced resolution images should be written as SubIFDs.
+     */
+    public void setPyramidSubIFDs(final boolean pyramidSubIFDs) {
+        this.pyramidSubIFDs = pyramidSubIFDs;
+    }
+
     static int getCompressionType(final ImageWriteParam param) {
         // TODO: Support mode COPY_FROM_METADATA (when we have metadata...)
         if (param == null || param.getCompressionMode() != MODE_EXPLICIT || param.getCompressionType().equals("None")) {
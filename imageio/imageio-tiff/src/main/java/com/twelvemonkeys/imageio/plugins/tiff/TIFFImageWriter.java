@@ -29,6 +29,7 @@
 package com.twelvemonkeys.imageio.plugins.tiff;
 
 import com.twelvemonkeys.image.ImageUtil;
+import com.twelvemonkeys.image.ResampleOp;
 import com.twelvemonkeys.imageio.ImageWriterBase;
 import com.twelvemonkeys.imageio.metadata.AbstractEntry;
 import com.twelvemonkeys.imageio.metadata.Directory;
@@ -41,6 +42,7 @@ import com.twelvemonkeys.imageio.util.IIOUtil;
 import com.twelvemonkeys.io.enc.EncoderStream;
 import com.twelvemonkeys.io.enc.PackBitsEncoder;
 import com.twelvemonkeys.lang.Validate;
+import com.twelvemonkeys.util.FutureTasks;
 
 import javax.imageio.*;
 import javax.imageio.metadata.IIOInvalidTreeException;
@@ -49,6 +51,7 @@ import javax.imageio.metadata.IIOMetadataFormatImpl;
 import javax.imageio.spi.ImageWriterSpi;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.color.ICC_ColorSpace;
@@ -56,7 +59,11 @@ import java.awt.image.*;
 import java.io.*;
 import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -72,7 +79,6 @@ public final class TIFFImageWriter extends ImageWriterBase {
     // TODO: Support more of the ImageIO metadata (ie. compression from metadata, etc)
 
     // Long term
-    // TODO: Support tiling
     // TODO: Support thumbnails
     // TODO: Support CCITT Modified Huffman compression (2)
     // TODO: Full "Baseline TIFF" support (pending CCITT compression 2)
@@ -98,9 +104,18 @@ public final class TIFFImageWriter extends ImageWriterBase {
     // Support JPEG compression (7) - might need extra input to allow multiple images with single DQT
     // Use sensible defaults for compression based on input? None is sensible... :-)
     // Support resolution, resolution unit and software tags from ImageIO metadata
+    // Support tiling
+    // Support reduced resolution images (pyramids), as SubIFDs or pages
 
     public static final Rational STANDARD_DPI = new Rational(72);
 
+    /**
+     * Approximate size of uncompressed data per strip, when writing multiple strips.
+     * Larger than the 8K recommended by the TIFF spec, as each strip is compressed separately,
+     * and small strips compresses noticeably worse.
+     */
+    static final int STRIP_SIZE = 256 * 1024;
+
     /**
      * Flag for active sequence writing
      */
@@ -217,8 +232,7 @@ public final class TIFFImageWriter extends ImageWriterBase {
     private long writePage(IIOImage image, ImageWriteParam param, EXIFWriter exifWriter, long lastIFDPointer)
             throws IOException {
         RenderedImage renderedImage = image.getRenderedImage();
-        ColorModel colorModel = renderedImage.getColorModel();
-        int numComponents = colorModel.getNumComponents();
+        int numComponents = renderedImage.getColorModel().getNumComponents();
 
         TIFFImageMetadata metadata;
         if (image.getMetadata() != null) {
@@ -229,24 +243,88 @@ public final class TIFFImageWriter extends ImageWriterBase {
         }
 
         SampleModel sampleModel = renderedImage.getSampleModel();
+        int[] bandOffsets = getBandOffsets(sampleModel);
+        int[] bitOffsets = getBitOffsets(sampleModel);
 
-        int[] bandOffsets;
-        int[] bitOffsets;
-        if (sampleModel instanceof ComponentSampleModel) {
-            bandOffsets = ((ComponentSampleModel) sampleModel).getBandOffsets();
-            bitOffsets = null;
+        Map<Integer, Entry> entries = createEntries(renderedImage, image.getMetadata(), metadata, param);
+        int compression = (int) entries.get(TIFF.TAG_COMPRESSION).getValue();
+
+        TIFFImageWriteParam tiffParam = param instanceof TIFFImageWriteParam ? (TIFFImageWriteParam) param : null;
+        Dimension tileSize = getTileSize(param, metadata);
+
+        if (tileSize != null || tiffParam != null && (tiffParam.getExecutor() != null || tiffParam.getPyramidLevels() > 0)) {
+            return writePageStripsTiles(image, metadata, tiffParam, entries, tileSize, exifWriter, lastIFDPointer);
         }
-        else if (sampleModel instanceof SinglePixelPackedSampleModel) {
-            bitOffsets = ((SinglePixelPackedSampleModel) sampleModel).getBitOffsets();
-            bandOffsets = null;
+
+        // TODO: RowsPerStrip - can be entire image (or even 2^32 -1), but it's recommended to write "about 8K bytes" per strip
+        entries.put(TIFF.TAG_ROWS_PER_STRIP, new TIFFEntry(TIFF.TAG_ROWS_PER_STRIP, Integer.MAX_VALUE)); // TODO: Allowed but not recommended
+        // - StripByteCounts - for no compression, entire image data... (TODO: How to know the byte counts prior to writing data?)
+        TIFFEntry dummyStripByteCounts = new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, -1);
+        entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, dummyStripByteCounts); // Updated later
+        // - StripOffsets - can be offset to single strip only (TODO: but how large is the IFD data...???)
+        TIFFEntry dummyStripOffsets = new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, -1);
+        entries.put(TIFF.TAG_STRIP_OFFSETS, dummyStripOffsets); // Updated later
+
+        long nextIFDPointer = -1;
+        long stripOffset = -1;
+        long stripByteCount = 0;
+
+        if (compression == TIFFBaseline.COMPRESSION_NONE) {
+            int[] sampleSizes = renderedImage.getSampleModel().getSampleSize();
+            int pixelSize = 0;
+            for (int i = 0; i < sampleSizes.length; i++) {
+                pixelSize += sampleSizes[i];
+            }
+
+            long ifdOffset = exifWriter.computeIFDOffsetSize(entries.values());
+            long dataLength = ((long) Math.ceil(renderedImage.getWidth() * pixelSize / 8.0)) * renderedImage.getHeight();
+            long pointerPos = imageOutput.getStreamPosition() + dataLength + 4 + ifdOffset;
+            imageOutput.writeInt((int) pointerPos);
         }
-        else if (sampleModel instanceof MultiPixelPackedSampleModel) {
-            bitOffsets = null;
-            bandOffsets = new int[] {0};
+        else {
+            imageOutput.writeInt(0); // Update IFD Pointer later
+        }
+
+        stripOffset = imageOutput.getStreamPosition();
+        // TODO: Create compressor stream per Tile/Strip
+        if (compression == TIFFExtension.COMPRESSION_JPEG) {
+            writeJPEGData(renderedImage, new SubImageOutputStream(imageOutput));
         }
         else {
-            throw new IllegalArgumentException("Unknown bit/bandOffsets for sample model: " + sampleModel);
+            // Write image data
+            writeImageData(createCompressorStream(renderedImage, param, entries, imageOutput), renderedImage, numComponents, bandOffsets,
+                    bitOffsets, true);
         }
+        stripByteCount = imageOutput.getStreamPosition() - stripOffset;
+
+        // Update IFD0-pointer, and write IFD
+        if (compression != TIFFBaseline.COMPRESSION_NONE) {
+            entries.remove(dummyStripOffsets);
+            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, stripOffset));
+            entries.remove(dummyStripByteCounts);
+            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, stripByteCount));
+
+            nextIFDPointer = writeIFD(entries, exifWriter, lastIFDPointer);
+        }
+        else {
+            entries.remove(dummyStripOffsets);
+            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, stripOffset));
+            entries.remove(dummyStripByteCounts);
+            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, stripByteCount));
+
+            exifWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
+            nextIFDPointer = imageOutput.getStreamPosition();
+            imageOutput.flush();
+        }
+
+        return nextIFDPointer;
+    }
+
+    private Map<Integer, Entry> createEntries(final RenderedImage renderedImage, final IIOMetadata imageMetadata,
+                                              final TIFFImageMetadata metadata, final ImageWriteParam param) {
+        ColorModel colorModel = renderedImage.getColorModel();
+        int numComponents = colorModel.getNumComponents();
+        SampleModel sampleModel = renderedImage.getSampleModel();
 
         Map<Integer, Entry> entries = new LinkedHashMap<>();
         entries.put(TIFF.TAG_IMAGE_WIDTH, new TIFFEntry(TIFF.TAG_IMAGE_WIDTH, renderedImage.getWidth()));
@@ -269,7 +347,7 @@ public final class TIFFImageWriter extends ImageWriterBase {
         // Write compression field from param or metadata
         int compression;
         if ((param == null || param.getCompressionMode() == TIFFImageWriteParam.MODE_COPY_FROM_METADATA)
-                && image.getMetadata() != null && metadata.getIFD().getEntryById(TIFF.TAG_COMPRESSION) != null) {
+                && imageMetadata != null && metadata.getIFD().getEntryById(TIFF.TAG_COMPRESSION) != null) {
             compression = (int) metadata.getIFD().getEntryById(TIFF.TAG_COMPRESSION).getValue();
         }
         else {
@@ -369,92 +447,327 @@ public final class TIFFImageWriter extends ImageWriterBase {
         entries.put(TIFF.TAG_RESOLUTION_UNIT,
                 resUnit != null ? resUnit : new TIFFEntry(TIFF.TAG_RESOLUTION_UNIT, TIFFBaseline.RESOLUTION_UNIT_DPI));
 
-        // TODO: RowsPerStrip - can be entire image (or even 2^32 -1), but it's recommended to write "about 8K bytes" per strip
-        entries.put(TIFF.TAG_ROWS_PER_STRIP, new TIFFEntry(TIFF.TAG_ROWS_PER_STRIP, Integer.MAX_VALUE)); // TODO: Allowed but not recommended
-        // - StripByteCounts - for no compression, entire image data... (TODO: How to know the byte counts prior to writing data?)
-        TIFFEntry dummyStripByteCounts = new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, -1);
-        entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, dummyStripByteCounts); // Updated later
-        // - StripOffsets - can be offset to single strip only (TODO: but how large is the IFD data...???)
-        TIFFEntry dummyStripOffsets = new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, -1);
-        entries.put(TIFF.TAG_STRIP_OFFSETS, dummyStripOffsets); // Updated later
+        return entries;
+    }
 
-        // TODO: If tiled, write tile indexes etc
-        // Depending on param.getTilingMode
-        long nextIFDPointer = -1;
-        long stripOffset = -1;
-        long stripByteCount = 0;
+    private static int[] getBandOffsets(final SampleModel sampleModel) {
+        if (sampleModel instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) sampleModel).getBandOffsets();
+        }
+        else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            return null;
+        }
+        else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            return new int[] {0};
+        }
 
-        if (compression == TIFFBaseline.COMPRESSION_NONE) {
-            int[] sampleSizes = renderedImage.getSampleModel().getSampleSize();
-            int pixelSize = 0;
-            for (int i = 0; i < sampleSizes.length; i++) {
-                pixelSize += sampleSizes[i];
+        throw new IllegalArgumentException("Unknown bit/bandOffsets for sample model: " + sampleModel);
+    }
+
+    private static int[] getBitOffsets(final SampleModel sampleModel) {
+        return sampleModel instanceof SinglePixelPackedSampleModel
+               ? ((SinglePixelPackedSampleModel) sampleModel).getBitOffsets()
+               : null;
+    }
+
+    private long writePageStripsTiles(final IIOImage image, final TIFFImageMetadata metadata, final TIFFImageWriteParam param,
+                                      final Map<Integer, Entry> entries, final Dimension tileSize,
+                                      final EXIFWriter exifWriter, final long lastIFDPointer) throws IOException {
+        Executor executor = param != null ? param.getExecutor() : null;
+        int pyramidLevels = param != null ? param.getPyramidLevels() : 0;
+        boolean pyramidSubIFDs = param != null && param.isPyramidSubIFDs();
+
+        imageOutput.writeInt(0); // Update IFD Pointer later
+
+        processImageStarted(0);
+        RenderedImage level = image.getRenderedImage();
+        writeStripsTiles(executor, level, param, entries, tileSize, true);
+        processImageComplete();
+
+        if (pyramidSubIFDs && pyramidLevels > 0) {
+            // Write the reduced resolution images before the full resolution IFD, so it can point to them
+            long[] subIFDOffsets = new long[pyramidLevels];
+            int levels = 0;
+
+            while (levels < pyramidLevels && (level = createReducedResolution(level)) != null) {
+                Map<Integer, Entry> levelEntries = createReducedResolutionEntries(level, image.getMetadata(), metadata, param);
+                writeStripsTiles(executor, level, param, levelEntries, tileSize, false);
+
+                subIFDOffsets[levels++] = exifWriter.writeIFD(levelEntries.values(), imageOutput);
+                imageOutput.writeInt(0); // No next IFD
             }
 
-            long ifdOffset = exifWriter.computeIFDOffsetSize(entries.values());
-            long dataLength = ((long) Math.ceil(renderedImage.getWidth() * pixelSize / 8.0)) * renderedImage.getHeight();
-            long pointerPos = imageOutput.getStreamPosition() + dataLength + 4 + ifdOffset;
-            imageOutput.writeInt((int) pointerPos);
+            entries.put(TIFF.TAG_SUB_IFD, new TIFFEntry(TIFF.TAG_SUB_IFD, TIFF.TYPE_LONG, Arrays.copyOf(subIFDOffsets, levels)));
+        }
+
+        long nextIFDPointer = writeIFD(entries, exifWriter, lastIFDPointer);
+
+        if (!pyramidSubIFDs) {
+            // Write the reduced resolution images as successive pages
+            for (int i = 0; i < pyramidLevels && (level = createReducedResolution(level)) != null; i++) {
+                Map<Integer, Entry> levelEntries = createReducedResolutionEntries(level, image.getMetadata(), metadata, param);
+
+                imageOutput.writeInt(0); // Update IFD Pointer later
+                writeStripsTiles(executor, level, param, levelEntries, tileSize, false);
+
+                nextIFDPointer = writeIFD(levelEntries, exifWriter, nextIFDPointer);
+            }
+        }
+
+        return nextIFDPointer;
+    }
+
+    private long writeIFD(final Map<Integer, Entry> entries, final EXIFWriter exifWriter, final long lastIFDPointer) throws IOException {
+        // Update IFD-pointer, and write IFD
+        long idfOffset = exifWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
+        long nextIFDPointer = imageOutput.getStreamPosition();
+        imageOutput.seek(lastIFDPointer);
+        imageOutput.writeInt((int) idfOffset);
+        imageOutput.seek(nextIFDPointer);
+        imageOutput.flush();
+
+        return nextIFDPointer;
+    }
+
+    private Map<Integer, Entry> createReducedResolutionEntries(final RenderedImage level, final IIOMetadata imageMetadata,
+                                                               final TIFFImageMetadata metadata, final ImageWriteParam param) {
+        Map<Integer, Entry> entries = createEntries(level, imageMetadata, metadata, param);
+        entries.put(TIFF.TAG_SUBFILE_TYPE, new TIFFEntry(TIFF.TAG_SUBFILE_TYPE, TIFF.TYPE_LONG, TIFFBaseline.FILETYPE_REDUCEDIMAGE));
+
+        return entries;
+    }
+
+    static BufferedImage createReducedResolution(final RenderedImage image) {
+        if (image.getWidth() == 1 && image.getHeight() == 1) {
+            return null;
+        }
+
+        // Each level is half the size of the previous (rounded up), computed from the previous level
+        int width = (image.getWidth() + 1) / 2;
+        int height = (image.getHeight() + 1) / 2;
+
+        // Palette and bi-level images are subsampled, other images are interpolated
+        int filterType = image.getColorModel() instanceof IndexColorModel ? ResampleOp.FILTER_POINT : ResampleOp.FILTER_TRIANGLE;
+
+        // Keep the color model of the original, so the same compression is valid for all levels
+        BufferedImage source = ImageUtil.toBuffered(image);
+        ColorModel colorModel = source.getColorModel();
+        BufferedImage reduced = new BufferedImage(colorModel, source.getRaster().createCompatibleWritableRaster(width, height),
+                colorModel.isAlphaPremultiplied(), null);
+
+        return new ResampleOp(width, height, filterType).filter(source, reduced);
+    }
+
+    private static Dimension getTileSize(final ImageWriteParam param, final TIFFImageMetadata metadata) {
+        if (param == null || !param.canWriteTiles()) {
+            return null;
+        }
+
+        switch (param.getTilingMode()) {
+            case ImageWriteParam.MODE_EXPLICIT:
+                int tileWidth = param.getTileWidth();
+                int tileHeight = param.getTileHeight();
+
+                // TIFF 6.0 Specification, Section 15: "TileWidth must be a multiple of 16", same for TileLength
+                if (tileWidth <= 0 || tileWidth % 16 != 0 || tileHeight <= 0 || tileHeight % 16 != 0) {
+                    throw new IllegalArgumentException(String.format("Tile width and height must be multiples of 16: %dx%d", tileWidth, tileHeight));
+                }
+
+                return new Dimension(tileWidth, tileHeight);
+
+            case ImageWriteParam.MODE_DEFAULT:
+                return new Dimension(TIFFImageWriteParam.DEFAULT_TILE_SIZE, TIFFImageWriteParam.DEFAULT_TILE_SIZE);
+
+            case ImageWriteParam.MODE_COPY_FROM_METADATA:
+                Entry tileWidthEntry = metadata.getIFD().getEntryById(TIFF.TAG_TILE_WIDTH);
+                Entry tileHeightEntry = metadata.getIFD().getEntryById(TIFF.TAG_TILE_HEIGTH);
+
+                if (tileWidthEntry != null && tileHeightEntry != null) {
+                    int width = ((Number) tileWidthEntry.getValue()).intValue();
+                    int height = ((Number) tileHeightEntry.getValue()).intValue();
+
+                    // Ignore invalid values, and write strips instead
+                    if (width > 0 && width % 16 == 0 && height > 0 && height % 16 == 0) {
+                        return new Dimension(width, height);
+                    }
+                }
+
+                return null;
+
+            default:
+                return null;
+        }
+    }
+
+    private void writeStripsTiles(final Executor executor, final RenderedImage renderedImage, final ImageWriteParam param,
+                                  final Map<Integer, Entry> entries, final Dimension tileSize, final boolean reportProgress) throws IOException {
+        // NOTE: The ImageOutputStream is not thread safe, so all writing to the stream is done on the calling thread.
+        //       Only copying and compressing of each strip/tile into a memory buffer is done concurrently.
+        final int compression = (int) entries.get(TIFF.TAG_COMPRESSION).getValue();
+        final int numComponents = renderedImage.getColorModel().getNumComponents();
+        final int[] bandOffsets = getBandOffsets(renderedImage.getSampleModel());
+        final int[] bitOffsets = getBitOffsets(renderedImage.getSampleModel());
+        final ByteOrder byteOrder = imageOutput.getByteOrder();
+
+        final int width = renderedImage.getWidth();
+        final int height = renderedImage.getHeight();
+        final int stripTileWidth = tileSize != null ? tileSize.width : width;
+        final int stripTileHeight = tileSize != null
+                                    ? tileSize.height
+                                    : computeRowsPerStrip(renderedImage.getSampleModel(), width, height, compression);
+
+        int tilesAcross = (width + stripTileWidth - 1) / stripTileWidth;
+        int tilesDown = (height + stripTileHeight - 1) / stripTileHeight;
+        int[] stripTileOffsets = new int[tilesAcross * tilesDown];
+        int[] stripTileByteCounts = new int[stripTileOffsets.length];
+
+        // Limit the number of compressed strips/tiles kept in memory at any time
+        int maxPending = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+        Deque<FutureTask<byte[]>> pending = new ArrayDeque<>(maxPending + 1);
+        int written = 0;
+
+        try {
+            for (int y = 0; y < tilesDown; y++) {
+                final int row = y * stripTileHeight;
+                // Tiles are always full size (padded), while the last strip only contains the remaining rows
+                final int rowsInTile = tileSize != null ? stripTileHeight : Math.min(stripTileHeight, height - row);
+
+                for (int x = 0; x < tilesAcross; x++) {
+                    final int col = x * stripTileWidth;
+
+                    FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            RenderedImage stripTile = getStripTile(renderedImage, col, row, stripTileWidth, rowsInTile);
+                            return compressStripTile(stripTile, param, entries, compression, numComponents, bandOffsets, bitOffsets, byteOrder);
+                        }
+                    });
+
+                    if (executor != null) {
+                        executor.execute(task);
+                    }
+                    else {
+                        task.run();
+                    }
+
+                    pending.add(task);
+
+                    while (pending.size() > maxPending) {
+                        writeStripTile(pending.removeFirst(), written++, stripTileOffsets, stripTileByteCounts, reportProgress);
+                    }
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                writeStripTile(pending.removeFirst(), written++, stripTileOffsets, stripTileByteCounts, reportProgress);
+            }
+        }
+        finally {
+            // In case of exceptions, make sure no tasks are still reading the entries when we return
+            FutureTasks.awaitQuietly(pending);
+        }
+
+        if (tileSize != null) {
+            entries.put(TIFF.TAG_TILE_WIDTH, new TIFFEntry(TIFF.TAG_TILE_WIDTH, TIFF.TYPE_LONG, stripTileWidth));
+            entries.put(TIFF.TAG_TILE_HEIGTH, new TIFFEntry(TIFF.TAG_TILE_HEIGTH, TIFF.TYPE_LONG, stripTileHeight));
+            entries.put(TIFF.TAG_TILE_OFFSETS, new TIFFEntry(TIFF.TAG_TILE_OFFSETS, TIFF.TYPE_LONG, stripTileOffsets));
+            entries.put(TIFF.TAG_TILE_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_TILE_BYTE_COUNTS, TIFF.TYPE_LONG, stripTileByteCounts));
         }
         else {
-            imageOutput.writeInt(0); // Update IFD Pointer later
+            entries.put(TIFF.TAG_ROWS_PER_STRIP, new TIFFEntry(TIFF.TAG_ROWS_PER_STRIP, TIFF.TYPE_LONG, stripTileHeight));
+            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, TIFF.TYPE_LONG, stripTileOffsets));
+            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, TIFF.TYPE_LONG, stripTileByteCounts));
         }
+    }
+
+    static int computeRowsPerStrip(final SampleModel sampleModel, final int width, final int height, final int compression) {
+        int pixelSize = 0;
+        for (int sampleSize : sampleModel.getSampleSize()) {
+            pixelSize += sampleSize;
+        }
+
+        int bytesPerRow = (width * pixelSize + 7) / 8;
+        int rowsPerStrip = Math.max(1, STRIP_SIZE / Math.max(1, bytesPerRow));
 
-        stripOffset = imageOutput.getStreamPosition();
-        // TODO: Create compressor stream per Tile/Strip
         if (compression == TIFFExtension.COMPRESSION_JPEG) {
-            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
+            // Make sure each strip (except the last) consists of whole MCUs, for 2x2 chroma subsampling
+            rowsPerStrip = (rowsPerStrip + 15) / 16 * 16;
+        }
 
-            if (!writers.hasNext()) {
-                // This can only happen if someone deliberately uninstalled it
-                throw new IIOException("No JPEG ImageWriter found!");
-            }
+        return Math.min(rowsPerStrip, height);
+    }
 
-            ImageWriter jpegWriter = writers.next();
-            try {
-                jpegWriter.setOutput(new SubImageOutputStream(imageOutput));
-                jpegWriter.write(renderedImage);
+    private static RenderedImage getStripTile(final RenderedImage image, final int x, final int y, final int width, final int height) {
+        if (image instanceof BufferedImage && x + width <= image.getWidth() && y + height <= image.getHeight()) {
+            // Shares data with the original, no copying needed
+            return ((BufferedImage) image).getSubimage(x, y, width, height);
+        }
+
+        // Tiles at the right/bottom edge are padded with zeroes, as all tiles must be of the same size
+        ColorModel colorModel = image.getColorModel();
+        WritableRaster raster = Raster.createWritableRaster(image.getSampleModel().createCompatibleSampleModel(width, height), null);
+        image.copyData(raster.createWritableChild(0, 0, Math.min(width, image.getWidth() - x), Math.min(height, image.getHeight() - y),
+                image.getMinX() + x, image.getMinY() + y, null));
+
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+    }
+
+    private byte[] compressStripTile(final RenderedImage stripTile, final ImageWriteParam param, final Map<Integer, Entry> entries,
+                                     final int compression, final int numComponents, final int[] bandOffsets, final int[] bitOffsets,
+                                     final ByteOrder byteOrder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageOutputStream output = new MemoryCacheImageOutputStream(bytes);
+        output.setByteOrder(byteOrder);
+
+        try {
+            if (compression == TIFFExtension.COMPRESSION_JPEG) {
+                writeJPEGData(stripTile, output);
             }
-            finally {
-                jpegWriter.dispose();
+            else {
+                writeImageData(createCompressorStream(stripTile, param, entries, output), stripTile, numComponents, bandOffsets,
+                        bitOffsets, false);
             }
         }
-        else {
-            // Write image data
-            writeImageData(createCompressorStream(renderedImage, param, entries), renderedImage, numComponents, bandOffsets,
-                    bitOffsets);
+        finally {
+            output.close(); // Flushes the cached data to the byte stream
         }
-        stripByteCount = imageOutput.getStreamPosition() - stripOffset;
 
-        // Update IFD0-pointer, and write IFD
-        if (compression != TIFFBaseline.COMPRESSION_NONE) {
-            entries.remove(dummyStripOffsets);
-            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, stripOffset));
-            entries.remove(dummyStripByteCounts);
-            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, stripByteCount));
+        return bytes.toByteArray();
+    }
 
-            long idfOffset = exifWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
-            nextIFDPointer = imageOutput.getStreamPosition();
-            imageOutput.seek(lastIFDPointer);
-            imageOutput.writeInt((int) idfOffset);
-            imageOutput.seek(nextIFDPointer);
-            imageOutput.flush();
+    private void writeStripTile(final FutureTask<byte[]> task, final int index, final int[] stripTileOffsets,
+                                final int[] stripTileByteCounts, final boolean reportProgress) throws IOException {
+        byte[] data = FutureTasks.get(task, "compressing TIFF strip/tile");
+
+        stripTileOffsets[index] = (int) imageOutput.getStreamPosition();
+        stripTileByteCounts[index] = data.length;
+        imageOutput.write(data);
+
+        // Progress is reported from the calling thread only, in order
+        if (reportProgress) {
+            processImageProgress(100f * (index + 1) / stripTileOffsets.length);
         }
-        else {
-            entries.remove(dummyStripOffsets);
-            entries.put(TIFF.TAG_STRIP_OFFSETS, new TIFFEntry(TIFF.TAG_STRIP_OFFSETS, stripOffset));
-            entries.remove(dummyStripByteCounts);
-            entries.put(TIFF.TAG_STRIP_BYTE_COUNTS, new TIFFEntry(TIFF.TAG_STRIP_BYTE_COUNTS, stripByteCount));
+    }
 
-            exifWriter.writeIFD(entries.values(), imageOutput); // NOTE: Writer takes case of ordering tags
-            nextIFDPointer = imageOutput.getStreamPosition();
-            imageOutput.flush();
+    private void writeJPEGData(final RenderedImage image, final ImageOutputStream output) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
+
+        if (!writers.hasNext()) {
+            // This can only happen if someone deliberately uninstalled it
+            throw new IIOException("No JPEG ImageWriter found!");
         }
 
-        return nextIFDPointer;
+        ImageWriter jpegWriter = writers.next();
+        try {
+            jpegWriter.setOutput(output);
+            jpegWriter.write(image);
+        }
+        finally {
+            jpegWriter.dispose();
+        }
     }
 
-    private DataOutput createCompressorStream(RenderedImage image, ImageWriteParam param, Map<Integer, Entry> entries) {
+    private DataOutput createCompressorStream(RenderedImage image, ImageWriteParam param, Map<Integer, Entry> entries, ImageOutputStream output) {
         /*
         36 MB test data:
 
@@ -513,13 +826,13 @@ public final class TIFFImageWriter extends ImageWriterBase {
 
         switch (compression) {
             case TIFFBaseline.COMPRESSION_NONE:
-                return imageOutput;
+                return output;
             case TIFFBaseline.COMPRESSION_PACKBITS:
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = IIOUtil.createStreamAdapter(output);
                 stream = new EncoderStream(stream, new PackBitsEncoder(), true);
                 // NOTE: PackBits + Predictor is possible, but not generally supported, disable it by default
                 // (and probably not even allow it, see http://stackoverflow.com/questions/20337400/tiff-packbits-compression-with-predictor-step)
-//                stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), image.getTile(0, 0).getNumBands(), image.getColorModel().getComponentSize(0), imageOutput.getByteOrder());
+//                stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), image.getTile(0, 0).getNumBands(), image.getColorModel().getComponentSize(0), output.getByteOrder());
                 return new DataOutputStream(stream);
 
             case TIFFExtension.COMPRESSION_ZLIB:
@@ -543,18 +856,18 @@ public final class TIFFImageWriter extends ImageWriterBase {
                     deflateSetting = 9 - Math.round(8 * (param.getCompressionQuality())); // This seems more correct
                 }
 
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = IIOUtil.createStreamAdapter(output);
                 stream = new DeflaterOutputStream(stream, new Deflater(deflateSetting), 1024);
-                stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), image.getTile(0, 0).getNumBands(), image.getColorModel().getComponentSize(0), imageOutput.getByteOrder());
+                stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), image.getTile(0, 0).getNumBands(), image.getColorModel().getComponentSize(0), output.getByteOrder());
 
                 return new DataOutputStream(stream);
 
             case TIFFExtension.COMPRESSION_LZW:
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = IIOUtil.createStreamAdapter(output);
                 stream = new EncoderStream(stream, new LZWEncoder((image.getTileWidth() * image.getTileHeight()
                         * image.getTile(0, 0).getNumBands() * image.getColorModel().getComponentSize(0) + 7) / 8));
                 stream = new HorizontalDifferencingStream(stream, image.getTileWidth(), image.getTile(0, 0).getNumBands(),
-                        image.getColorModel().getComponentSize(0), imageOutput.getByteOrder());
+                        image.getColorModel().getComponentSize(0), output.getByteOrder());
 
                 return new DataOutputStream(stream);
             case TIFFBaseline.COMPRESSION_CCITT_MODIFIED_HUFFMAN_RLE:
@@ -570,7 +883,7 @@ public final class TIFFImageWriter extends ImageWriterBase {
                 int fillOrder = (int) (fillOrderEntry != null
                                        ? fillOrderEntry.getValue()
                                        : TIFFBaseline.FILL_LEFT_TO_RIGHT);
-                stream = IIOUtil.createStreamAdapter(imageOutput);
+                stream = IIOUtil.createStreamAdapter(output);
                 stream = new CCITTFaxEncoderStream(stream, image.getTileWidth(), image.getTileHeight(), compression, fillOrder, option);
 
                 return new DataOutputStream(stream);
@@ -640,14 +953,17 @@ public final class TIFFImageWriter extends ImageWriterBase {
         return shorts;
     }
 
-    private void writeImageData(DataOutput stream, RenderedImage renderedImage, int numComponents, int[] bandOffsets, int[] bitOffsets) throws IOException {
+    private void writeImageData(DataOutput stream, RenderedImage renderedImage, int numComponents, int[] bandOffsets, int[] bitOffsets,
+                                boolean reportProgress) throws IOException {
         // Store 3BYTE, 4BYTE as is (possibly need to re-arrange to RGB order)
         // Store INT_RGB as 3BYTE, INT_ARGB as 4BYTE?, INT_ABGR must be re-arranged
         // Store IndexColorModel as is
         // Store BYTE_GRAY as is
         // Store USHORT_GRAY as is
 
-        processImageStarted(0);
+        if (reportProgress) {
+            processImageStarted(0);
+        }
 
         final int minTileY = renderedImage.getMinTileY();
         final int maxYTiles = minTileY + renderedImage.getNumYTiles();
@@ -783,7 +1099,9 @@ public final class TIFFImageWriter extends ImageWriterBase {
             }
 
             // TODO: Report better progress
-            processImageProgress((100f * yTile) / maxYTiles);
+            if (reportProgress) {
+                processImageProgress((100f * yTile) / maxYTiles);
+            }
         }
 
         if (stream instanceof DataOutputStream) {
@@ -791,7 +1109,9 @@ public final class TIFFImageWriter extends ImageWriterBase {
             dataOutputStream.close();
         }
 
-        processImageComplete();
+        if (reportProgress) {
+            processImageComplete();
+        }
     }
 
     // TODO: Would be better to solve this on stream level... But writers would then have to explicitly flush the buffer before done.
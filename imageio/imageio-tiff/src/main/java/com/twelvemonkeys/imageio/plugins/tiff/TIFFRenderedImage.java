@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.tiff;
+
+import com.twelvemonkeys.lang.Validate;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@code RenderedImage} backed by a {@link TIFFImageReader}, that decodes TIFF tiles (or strips) lazily,
+ * as they are requested.
+ * <p/>
+ * The most recently used tiles are kept in a bounded cache, so the memory used is proportional to
+ * the area being accessed, rather than to the size of the image.
+ * <p/>
+ * Tiles are decoded using the reader that created the image, and the reader's input must not be changed,
+ * nor the reader disposed of, while the image is in use.
+ * The reader is locked while decoding a tile, so other reads using the same reader will block.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: TIFFRenderedImage.java,v 1.0 12.02.16 haraldk Exp$
+ */
+final class TIFFRenderedImage implements RenderedImage {
+    private final TIFFImageReader reader;
+    private final Object input;
+    private final int imageIndex;
+    private final ImageTypeSpecifier imageType;
+    private final Executor executor;
+
+    private final int width;
+    private final int height;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final SampleModel sampleModel;
+
+    private final Map<Point, Raster> tileCache;
+
+    TIFFRenderedImage(final TIFFImageReader reader, final int imageIndex, final ImageTypeSpecifier imageType,
+                      final Executor executor, final int tileCacheSize) throws IOException {
+        Validate.notNull(reader, "reader");
+        Validate.notNull(imageType, "imageType");
+        Validate.isTrue(tileCacheSize > 0, tileCacheSize, "tileCacheSize must be > 0: %s");
+
+        this.reader = reader;
+        this.input = reader.getInput();
+        this.imageIndex = imageIndex;
+        this.imageType = imageType;
+        this.executor = executor;
+
+        width = reader.getWidth(imageIndex);
+        height = reader.getHeight(imageIndex);
+        tileWidth = reader.getTileWidth(imageIndex);
+        tileHeight = reader.getTileHeight(imageIndex);
+        sampleModel = imageType.getSampleModel(tileWidth, tileHeight);
+
+        tileCache = new LinkedHashMap<Point, Raster>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Point, Raster> eldest) {
+                return size() > tileCacheSize;
+            }
+        };
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return imageType.getColorModel();
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return (width + tileWidth - 1) / tileWidth;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + tileHeight - 1) / tileHeight;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(final int tileX, final int tileY) {
+        if (tileX < 0 || tileX >= getNumXTiles() || tileY < 0 || tileY >= getNumYTiles()) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Tile index out of bounds: %d,%d", tileX, tileY));
+        }
+
+        Point index = new Point(tileX, tileY);
+
+        synchronized (tileCache) {
+            Raster tile = tileCache.get(index);
+
+            if (tile != null) {
+                return tile;
+            }
+        }
+
+        Raster tile = readTile(tileX, tileY);
+
+        synchronized (tileCache) {
+            tileCache.put(index, tile);
+        }
+
+        return tile;
+    }
+
+    private Raster readTile(final int tileX, final int tileY) {
+        int x = tileX * tileWidth;
+        int y = tileY * tileHeight;
+
+        TIFFImageReadParam param = new TIFFImageReadParam();
+        param.setSourceRegion(new Rectangle(x, y, Math.min(tileWidth, width - x), Math.min(tileHeight, height - y)));
+        param.setDestinationType(imageType);
+        param.setExecutor(executor);
+
+        BufferedImage image;
+
+        synchronized (reader) {
+            if (reader.getInput() != input) {
+                throw new IllegalStateException("Input changed, tiles can no longer be read");
+            }
+
+            try {
+                image = reader.read(imageIndex, param);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(String.format("Could not read TIFF tile %d,%d: %s", tileX, tileY, e.getMessage()), e);
+            }
+        }
+
+        if (image.getWidth() == tileWidth && image.getHeight() == tileHeight) {
+            return image.getRaster().createTranslatedChild(x, y);
+        }
+
+        // Tiles at the right/bottom edge are padded, so all tiles are of the same size
+        WritableRaster tile = Raster.createWritableRaster(sampleModel, new Point(x, y));
+        tile.setRect(image.getRaster().createTranslatedChild(x, y));
+
+        return tile;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(final Rectangle rect) {
+        WritableRaster raster = Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(rect.width, rect.height), rect.getLocation());
+
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(final WritableRaster raster) {
+        WritableRaster destination = raster != null
+                                     ? raster
+                                     : Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(width, height), null);
+
+        Rectangle bounds = destination.getBounds().intersection(new Rectangle(0, 0, width, height));
+
+        if (bounds.isEmpty()) {
+            return destination;
+        }
+
+        int firstTileX = bounds.x / tileWidth;
+        int lastTileX = (bounds.x + bounds.width - 1) / tileWidth;
+        int firstTileY = bounds.y / tileHeight;
+        int lastTileY = (bounds.y + bounds.height - 1) / tileHeight;
+
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                Raster tile = getTile(tileX, tileY);
+                Rectangle area = tile.getBounds().intersection(bounds);
+
+                destination.setDataElements(area.x, area.y, tile.createChild(area.x, area.y, area.width, area.height, 0, 0, null));
+            }
+        }
+
+        return destination;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TIFFRenderedImage: %dx%d, tiles: %dx%d (%dx%d) %s", width, height, tileWidth, tileHeight, getNumXTiles(), getNumYTiles(), imageType.getColorModel());
+    }
+}
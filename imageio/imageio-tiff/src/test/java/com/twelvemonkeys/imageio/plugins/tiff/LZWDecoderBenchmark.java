@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.imageio.plugins.tiff;
+
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
+import com.twelvemonkeys.io.FileUtil;
+import com.twelvemonkeys.io.enc.Decoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing the table based {@link LZWDecoder} with the previous, object based {@link LZWStringDecoder}.
+ * <p/>
+ * Run from the IDE, or using {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.twelvemonkeys.imageio.plugins.tiff.LZWDecoderBenchmark}.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: LZWDecoderBenchmark.java,v 1.0 15.02.16 haraldk Exp$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LZWDecoderBenchmark {
+
+    /** "long": Spec compliant stream (from file), "image": Spec compliant image-like data, "reversed": Old bit reversed stream (from file). */
+    @Param({"long", "image", "reversed"})
+    public String data;
+
+    private byte[] compressed;
+    private boolean reversed;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (data) {
+            case "long":
+                compressed = FileUtil.read(getClass().getResourceAsStream("/lzw/lzw-long.bin"));
+                break;
+            case "reversed":
+                compressed = FileUtil.read(getClass().getResourceAsStream("/lzw/lzw-short.bin"));
+                reversed = true;
+                break;
+            case "image":
+                compressed = createImageLikeData(1024 * 1024);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown data: " + data);
+        }
+
+        buffer = ByteBuffer.allocate(4096);
+    }
+
+    private static byte[] createImageLikeData(final int length) throws IOException {
+        // Smooth gradients with some noise, compresses somewhat like photographic data
+        byte[] bytes = new byte[length];
+        Random random = new Random(4711);
+
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (((i % 1024) >> 2) + random.nextInt(4));
+        }
+
+        FastByteArrayOutputStream stream = new FastByteArrayOutputStream(length);
+        new LZWEncoder(length).encode(stream, ByteBuffer.wrap(bytes));
+
+        return stream.toByteArray();
+    }
+
+    @Benchmark
+    public int tableDecoder() throws IOException {
+        return decodeAll(LZWDecoder.create(reversed));
+    }
+
+    @Benchmark
+    public int stringDecoder() throws IOException {
+        return decodeAll(LZWStringDecoder.create(reversed));
+    }
+
+    private int decodeAll(final Decoder decoder) throws IOException {
+        ByteArrayInputStream input = new ByteArrayInputStream(compressed);
+        int total = 0;
+
+        while (decoder.decode(input, buffer) > 0) {
+            total += buffer.position();
+            buffer.clear();
+        }
+
+        return total;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LZWDecoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
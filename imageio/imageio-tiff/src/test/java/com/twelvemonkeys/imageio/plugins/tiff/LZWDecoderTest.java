@@ -26,6 +26,7 @@ package com.twelvemonkeys.imageio.plugins.tiff;/*
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
 import com.twelvemonkeys.io.FileUtil;
 import com.twelvemonkeys.io.enc.Decoder;
 import com.twelvemonkeys.io.enc.DecoderAbstractTestCase;
@@ -38,6 +39,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -78,6 +80,38 @@ public class LZWDecoderTest extends DecoderAbstractTestCase {
         assertSameStreamContents(unpacked, stream);
     }
 
+    @Test
+    public void testSameAsStringDecoder() throws IOException {
+        // Verify the table based decoder against the previous, object based decoder
+        assertSameStreamContents(
+                new DecoderStream(getClass().getResourceAsStream("/lzw/lzw-long.bin"), LZWStringDecoder.create(false), 1024),
+                new DecoderStream(getClass().getResourceAsStream("/lzw/lzw-long.bin"), LZWDecoder.create(false), 1024)
+        );
+        assertSameStreamContents(
+                new DecoderStream(getClass().getResourceAsStream("/lzw/lzw-short.bin"), LZWStringDecoder.create(true), 128),
+                new DecoderStream(getClass().getResourceAsStream("/lzw/lzw-short.bin"), LZWDecoder.create(true), 128)
+        );
+
+        Random random = new Random(1234);
+        byte[] bytes = new byte[1024 * 64];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((i % 512) / 3 + random.nextInt(3));
+        }
+
+        FastByteArrayOutputStream stream = new FastByteArrayOutputStream(bytes.length);
+        new LZWEncoder(bytes.length).encode(stream, ByteBuffer.wrap(bytes));
+
+        assertSameStreamContents(
+                new DecoderStream(stream.createInputStream(), LZWStringDecoder.create(false), 1024),
+                new DecoderStream(stream.createInputStream(), LZWDecoder.create(false), 1024)
+        );
+        assertSameStreamContents(
+                new ByteArrayInputStream(bytes),
+                new DecoderStream(stream.createInputStream(), LZWDecoder.create(false), 1024)
+        );
+    }
+
     private void assertSameStreamContents(InputStream expected, InputStream actual) {
         int count = 0;
         int data;
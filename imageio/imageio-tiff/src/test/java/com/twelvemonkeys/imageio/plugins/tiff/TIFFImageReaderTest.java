@@ -26,7 +26,10 @@ package com.twelvemonkeys.imageio.plugins.tiff;/*
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.twelvemonkeys.imageio.metadata.exif.TIFF;
+import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
 import com.twelvemonkeys.imageio.util.ImageReaderAbstractTest;
+import com.twelvemonkeys.io.FileUtil;
 import org.junit.Test;
 
 import javax.imageio.ImageIO;
@@ -37,10 +40,20 @@ import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
@@ -182,6 +195,387 @@ public class TIFFImageReaderTest extends ImageReaderAbstractTest<TIFFImageReader
         );
     }
 
+    @Test
+    public void testReadConcurrentEqualSequential() throws IOException {
+        List<TestData> testData = Arrays.asList(
+                new TestData(getClassLoaderResource("/tiff/sm_colors_pb_tile.tif"), new Dimension(64, 64)), // RGB, PackBits compressed, tiled
+                new TestData(getClassLoaderResource("/tiff/quad-lzw.tif"), new Dimension(512, 384)), // RGB, Old spec (reversed) LZW compressed, tiled
+                new TestData(getClassLoaderResource("/tiff/marbles.tif"), new Dimension(1419, 1001)), // RGB, LZW compressed w/predictor
+                new TestData(getClassLoaderResource("/tiff/ycbcr-cat.tif"), new Dimension(250, 325)), // YCbCr, LZW compressed
+                new TestData(getClassLoaderResource("/tiff/depth/flower-rgb-planar-16.tif"), new Dimension(73, 43)) // RGB 16 bit/sample, planar
+        );
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            for (TestData data : testData) {
+                TIFFImageReader reader = createReader();
+
+                try (ImageInputStream stream = data.getInputStream()) {
+                    reader.setInput(stream);
+                    BufferedImage expected = reader.read(0, null);
+
+                    TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+                    param.setExecutor(executor);
+                    BufferedImage actual = reader.read(0, param);
+
+                    assertImageDataEquals(data.toString(), expected, actual);
+
+                    Rectangle region = new Rectangle(data.getDimension(0).width / 4, data.getDimension(0).height / 3, data.getDimension(0).width / 2, data.getDimension(0).height / 3);
+                    param.setSourceRegion(region);
+                    actual = reader.read(0, param);
+
+                    param.setExecutor(null);
+                    expected = reader.read(0, param);
+
+                    assertImageDataEquals(data.toString(), expected, actual);
+                }
+                finally {
+                    reader.dispose();
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadConcurrentCorruptByteCounts() throws IOException {
+        List<TestData> testData = Arrays.asList(
+                new TestData(getClassLoaderResource("/tiff/quad-lzw.tif"), new Dimension(512, 384)), // RGB, Old spec (reversed) LZW compressed, tiled
+                new TestData(getClassLoaderResource("/tiff/marbles.tif"), new Dimension(1419, 1001)) // RGB, LZW compressed w/predictor
+        );
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            for (TestData data : testData) {
+                TIFFImageReader reader = createReader();
+
+                try {
+                    byte[] bytes;
+                    try (InputStream stream = ((URL) data.getInput()).openStream()) {
+                        bytes = FileUtil.read(stream);
+                    }
+
+                    reader.setInput(new ByteArrayImageInputStream(bytes));
+                    BufferedImage expected = reader.read(0, null);
+
+                    // Byte counts larger than the file, should not be allocated up front
+                    setStripTileByteCounts(bytes, 0xffffffff);
+
+                    reader.setInput(new ByteArrayImageInputStream(bytes));
+                    TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+                    param.setExecutor(executor);
+                    BufferedImage actual = reader.read(0, param);
+
+                    assertImageDataEquals(data.toString(), expected, actual);
+                }
+                finally {
+                    reader.dispose();
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadConcurrentPackedSourceRegion() throws IOException {
+        // Bilevel tiles, where tiles are not byte aligned in the destination when reading with a source region
+        // or subsampling, and neighbouring tiles write to the same bytes
+        byte[] bytes = createTiledBilevelTIFF(1024, 512, 16);
+        Rectangle[] regions = {new Rectangle(3, 0, 1016, 512), new Rectangle(5, 5, 1000, 500), new Rectangle(8, 0, 1000, 512)};
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            TIFFImageReader reader = createReader();
+
+            try {
+                reader.setInput(new ByteArrayImageInputStream(bytes));
+
+                for (Rectangle region : regions) {
+                    for (int sub = 1; sub <= 3; sub++) {
+                        TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+                        param.setSourceRegion(region);
+                        param.setSourceSubsampling(sub, 1, 0, 0);
+                        BufferedImage expected = reader.read(0, param);
+
+                        param.setExecutor(executor);
+
+                        for (int i = 0; i < 5; i++) {
+                            assertImageDataEquals(region + ", subsampling " + sub, expected, reader.read(0, param));
+                        }
+                    }
+                }
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    // Creates an uncompressed, tiled, bilevel TIFF with random pixels
+    private static byte[] createTiledBilevelTIFF(final int width, final int height, final int tileSize) {
+        int tiles = ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+        int tileBytes = (tileSize + 7) / 8 * tileSize;
+
+        int entries = 10;
+        int offsets = 8 + 2 + entries * 12 + 4;
+        int byteCounts = offsets + tiles * 4;
+        int data = byteCounts + tiles * 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(data + tiles * tileBytes);
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+
+        buffer.putShort((short) entries);
+        putEntry(buffer, TIFF.TAG_IMAGE_WIDTH, TIFF.TYPE_SHORT, 1, width);
+        putEntry(buffer, TIFF.TAG_IMAGE_HEIGHT, TIFF.TYPE_SHORT, 1, height);
+        putEntry(buffer, TIFF.TAG_BITS_PER_SAMPLE, TIFF.TYPE_SHORT, 1, 1);
+        putEntry(buffer, TIFF.TAG_COMPRESSION, TIFF.TYPE_SHORT, 1, TIFFBaseline.COMPRESSION_NONE);
+        putEntry(buffer, TIFF.TAG_PHOTOMETRIC_INTERPRETATION, TIFF.TYPE_SHORT, 1, TIFFBaseline.PHOTOMETRIC_BLACK_IS_ZERO);
+        putEntry(buffer, TIFF.TAG_SAMPLES_PER_PIXEL, TIFF.TYPE_SHORT, 1, 1);
+        putEntry(buffer, TIFF.TAG_TILE_WIDTH, TIFF.TYPE_SHORT, 1, tileSize);
+        putEntry(buffer, TIFF.TAG_TILE_HEIGTH, TIFF.TYPE_SHORT, 1, tileSize);
+        putEntry(buffer, TIFF.TAG_TILE_OFFSETS, TIFF.TYPE_LONG, tiles, offsets);
+        putEntry(buffer, TIFF.TAG_TILE_BYTE_COUNTS, TIFF.TYPE_LONG, tiles, byteCounts);
+        buffer.putInt(0); // No more IFDs
+
+        for (int i = 0; i < tiles; i++) {
+            buffer.putInt(offsets + i * 4, data + i * tileBytes);
+            buffer.putInt(byteCounts + i * 4, tileBytes);
+        }
+
+        byte[] bytes = buffer.array();
+        byte[] pixels = new byte[tiles * tileBytes];
+        new Random(4711).nextBytes(pixels);
+        System.arraycopy(pixels, 0, bytes, data, pixels.length);
+
+        return bytes;
+    }
+
+    private static void putEntry(final ByteBuffer buffer, final int tag, final short type, final int count, final int value) {
+        buffer.putShort((short) tag).putShort(type).putInt(count);
+
+        if (type == TIFF.TYPE_SHORT && count == 1) {
+            buffer.putShort((short) value).putShort((short) 0);
+        }
+        else {
+            buffer.putInt(value);
+        }
+    }
+
+    // Sets all StripByteCounts/TileByteCounts (type LONG) in the first IFD to the given value
+    private static void setStripTileByteCounts(final byte[] bytes, final int value) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(bytes[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        int ifd = buffer.getInt(4);
+        int entries = buffer.getShort(ifd) & 0xffff;
+
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = buffer.getShort(entry) & 0xffff;
+
+            if (tag == TIFF.TAG_STRIP_BYTE_COUNTS || tag == TIFF.TAG_TILE_BYTE_COUNTS) {
+                assertEquals("Expected LONG byte counts", TIFF.TYPE_LONG, buffer.getShort(entry + 2));
+                int count = buffer.getInt(entry + 4);
+                int offset = count > 1 ? buffer.getInt(entry + 8) : entry + 8;
+
+                for (int j = 0; j < count; j++) {
+                    buffer.putInt(offset + j * 4, value);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadSourceRegionSubsampledEqualFull() throws IOException {
+        List<TestData> testData = Arrays.asList(
+                new TestData(getClassLoaderResource("/tiff/cramps-tile.tif"), new Dimension(800, 607)), // Gray, uncompressed, 4 x 3 tiles
+                new TestData(getClassLoaderResource("/tiff/sm_colors_pb_tile.tif"), new Dimension(64, 64)), // RGB, PackBits compressed, tiled
+                new TestData(getClassLoaderResource("/tiff/quad-jpeg.tif"), new Dimension(512, 384)), // YCbCr, JPEG compressed, striped
+                new TestData(getClassLoaderResource("/tiff/depth/flower-rgb-planar-16.tif"), new Dimension(73, 43)) // RGB 16 bit/sample, planar
+        );
+
+        for (TestData data : testData) {
+            TIFFImageReader reader = createReader();
+
+            try (ImageInputStream stream = data.getInputStream()) {
+                reader.setInput(stream);
+                BufferedImage full = reader.read(0, null);
+
+                Dimension size = data.getDimension(0);
+                Rectangle region = new Rectangle(size.width / 3 + 1, size.height / 4 + 1, size.width / 2, size.height / 2);
+
+                for (int sub = 1; sub <= 3; sub++) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(region);
+                    param.setSourceSubsampling(sub, 4 - sub, 0, 0);
+                    BufferedImage image = reader.read(0, param);
+
+                    int xSub = param.getSourceXSubsampling();
+                    int ySub = param.getSourceYSubsampling();
+                    assertEquals((region.width + xSub - 1) / xSub, image.getWidth());
+                    assertEquals((region.height + ySub - 1) / ySub, image.getHeight());
+
+                    for (int y = 0; y < image.getHeight(); y++) {
+                        for (int x = 0; x < image.getWidth(); x++) {
+                            assertEquals(String.format("%s: pixel differ @(%d,%d), subsampling %d/%d", data, x, y, xSub, ySub),
+                                    full.getRGB(region.x + x * xSub, region.y + y * ySub), image.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void testTileGeometry() throws IOException {
+        TIFFImageReader reader = createReader();
+
+        try (ImageInputStream stream = new TestData(getClassLoaderResource("/tiff/cramps-tile.tif"), new Dimension(800, 607)).getInputStream()) {
+            reader.setInput(stream);
+
+            assertTrue(reader.isImageTiled(0));
+            assertEquals(256, reader.getTileWidth(0));
+            assertEquals(256, reader.getTileHeight(0));
+        }
+
+        // Strips are exposed as tiles, but the image is not considered tiled
+        try (ImageInputStream stream = new TestData(getClassLoaderResource("/tiff/quad-jpeg.tif"), new Dimension(512, 384)).getInputStream()) {
+            reader.setInput(stream);
+
+            assertFalse(reader.isImageTiled(0));
+            assertEquals(512, reader.getTileWidth(0));
+            assertEquals(16, reader.getTileHeight(0));
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadTile() throws IOException {
+        TIFFImageReader reader = createReader();
+
+        try (ImageInputStream stream = new TestData(getClassLoaderResource("/tiff/cramps-tile.tif"), new Dimension(800, 607)).getInputStream()) {
+            reader.setInput(stream);
+            BufferedImage full = reader.read(0);
+
+            // Last tile is clipped to the image bounds
+            BufferedImage tile = reader.readTile(0, 3, 2);
+            assertEquals(800 - 3 * 256, tile.getWidth());
+            assertEquals(607 - 2 * 256, tile.getHeight());
+            assertImageDataEquals("Tile differs", full.getSubimage(3 * 256, 2 * 256, tile.getWidth(), tile.getHeight()), tile);
+
+            tile = reader.readTile(0, 1, 1);
+            assertImageDataEquals("Tile differs", full.getSubimage(256, 256, 256, 256), tile);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadTileJPEGRepeated() throws IOException {
+        // The JPEG delegate and tables are reused for all reads from the same IFD
+        List<TestData> testData = Arrays.asList(
+                new TestData(getClassLoaderResource("/tiff/quad-jpeg.tif"), new Dimension(512, 384)), // YCbCr, JPEG compressed, 24 strips
+                new TestData(getClassLoaderResource("/tiff/zackthecat.tif"), new Dimension(234, 213)) // YCbCr, Old-Style JPEG compressed (tables, no JFIF stream)
+        );
+
+        TIFFImageReader reader = createReader();
+
+        try {
+            for (TestData data : testData) {
+                try (ImageInputStream stream = data.getInputStream()) {
+                    reader.setInput(stream);
+                    BufferedImage full = reader.read(0);
+
+                    int tileWidth = reader.getTileWidth(0);
+                    int tileHeight = reader.getTileHeight(0);
+
+                    for (int tileY = 0; tileY * tileHeight < full.getHeight(); tileY++) {
+                        for (int tileX = 0; tileX * tileWidth < full.getWidth(); tileX++) {
+                            BufferedImage tile = reader.readTile(0, tileX, tileY);
+                            assertImageDataEquals(data.toString(), full.getSubimage(tileX * tileWidth, tileY * tileHeight, tile.getWidth(), tile.getHeight()), tile);
+                        }
+                    }
+
+                    assertImageDataEquals(data.toString(), full, reader.read(0));
+                }
+            }
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadTileOutOfBounds() throws IOException {
+        TIFFImageReader reader = createReader();
+
+        try (ImageInputStream stream = new TestData(getClassLoaderResource("/tiff/cramps-tile.tif"), new Dimension(800, 607)).getInputStream()) {
+            reader.setInput(stream);
+            reader.readTile(0, 4, 0);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadAsRenderedImageTiled() throws IOException {
+        List<TestData> testData = Arrays.asList(
+                new TestData(getClassLoaderResource("/tiff/cramps-tile.tif"), new Dimension(800, 607)), // Gray, uncompressed, 4 x 3 tiles
+                new TestData(getClassLoaderResource("/tiff/quad-jpeg.tif"), new Dimension(512, 384)) // YCbCr, JPEG compressed, 24 strips
+        );
+
+        for (TestData data : testData) {
+            TIFFImageReader reader = createReader();
+
+            try (ImageInputStream stream = data.getInputStream()) {
+                reader.setInput(stream);
+                BufferedImage full = reader.read(0);
+
+                TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+                param.setTileCacheSize(2);
+                RenderedImage image = reader.readAsRenderedImage(0, param);
+
+                assertFalse(image instanceof BufferedImage);
+                assertEquals(reader.getTileWidth(0), image.getTileWidth());
+                assertEquals(reader.getTileHeight(0), image.getTileHeight());
+
+                // All tiles have the same size, even at the edges
+                Raster tile = image.getTile(image.getNumXTiles() - 1, image.getNumYTiles() - 1);
+                assertEquals(image.getTileWidth(), tile.getWidth());
+                assertEquals(image.getTileHeight(), tile.getHeight());
+
+                // Tiles evicted from the cache are read again
+                WritableRaster raster = image.copyData(null);
+                assertImageDataEquals(data.toString(), full, new BufferedImage(image.getColorModel(), raster, image.getColorModel().isAlphaPremultiplied(), null));
+
+                Rectangle region = new Rectangle(full.getWidth() / 3, full.getHeight() / 3, full.getWidth() / 2, full.getHeight() / 2);
+                Raster regionData = image.getData(region);
+                assertEquals(region, regionData.getBounds());
+                assertImageDataEquals(data.toString(), full.getSubimage(region.x, region.y, region.width, region.height),
+                        new BufferedImage(image.getColorModel(), (WritableRaster) regionData.createTranslatedChild(0, 0), image.getColorModel().isAlphaPremultiplied(), null));
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
     // TODO: Test YCbCr colors
 
     @Test
@@ -51,6 +51,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.twelvemonkeys.imageio.plugins.tiff.TIFFImageMetadataTest.createTIFFFieldNode;
 import static org.junit.Assert.*;
@@ -338,6 +340,191 @@ public class TIFFImageWriterTest extends ImageWriterAbstractTestCase {
         }
     }
 
+    @Test
+    public void testWriteSequenceConcurrent() throws IOException {
+        // Large enough to be written as multiple strips
+        BufferedImage[] images = new BufferedImage[] {
+                new BufferedImage(1000, 600, BufferedImage.TYPE_3BYTE_BGR),
+                new BufferedImage(1000, 600, BufferedImage.TYPE_BYTE_GRAY),
+                new BufferedImage(1000, 600, BufferedImage.TYPE_INT_ARGB)
+        };
+
+        for (BufferedImage image : images) {
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setPaint(new GradientPaint(0, 0, Color.RED, 1000, 600, new Color(0x800000FF, true)));
+                g.fillRect(0, 0, 1000, 600);
+                g.setColor(Color.GREEN);
+                g.fillOval(200, 100, 500, 400);
+            }
+            finally {
+                g.dispose();
+            }
+        }
+
+        String[] compressionTypes = {"None", "PackBits", "LZW", "Deflate"};
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            try (ImageOutputStream stream = ImageIO.createImageOutputStream(buffer)) {
+                ImageWriter writer = createImageWriter();
+                writer.setOutput(stream);
+
+                TIFFImageWriteParam param = (TIFFImageWriteParam) writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setExecutor(executor);
+
+                writer.prepareWriteSequence(null);
+
+                for (String compressionType : compressionTypes) {
+                    param.setCompressionType(compressionType);
+
+                    for (BufferedImage image : images) {
+                        writer.writeToSequence(new IIOImage(image, null, null), param);
+                    }
+                }
+
+                writer.endWriteSequence();
+            }
+
+            ImageInputStream input = new ByteArrayImageInputStream(buffer.toByteArray());
+            ImageReader reader = new TIFFImageReader(new TIFFImageReaderSpi());
+            reader.setInput(input);
+
+            assertEquals(compressionTypes.length * images.length, reader.getNumImages(true));
+
+            for (int i = 0; i < reader.getNumImages(true); i++) {
+                TIFFImageMetadata metadata = (TIFFImageMetadata) reader.getImageMetadata(i);
+                Entry stripOffsets = metadata.getIFD().getEntryById(TIFF.TAG_STRIP_OFFSETS);
+                assertNotNull(stripOffsets);
+                assertTrue(stripOffsets.valueCount() > 1);
+
+                String message = String.format("Page %d, %s", i, compressionTypes[i / images.length]);
+                assertImageEquals(message, images[i % images.length], reader.read(i));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteTiledPyramidPages() throws IOException {
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.RED, 300, 200, Color.BLUE));
+            g.fillRect(0, 0, 300, 200);
+        }
+        finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(buffer)) {
+            ImageWriter writer = createImageWriter();
+            writer.setOutput(stream);
+
+            TIFFImageWriteParam param = (TIFFImageWriteParam) writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType("LZW");
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(64, 48, 0, 0);
+            param.setPyramidLevels(2);
+
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+
+        ImageReader reader = new TIFFImageReader(new TIFFImageReaderSpi());
+        reader.setInput(new ByteArrayImageInputStream(buffer.toByteArray()));
+
+        assertEquals(3, reader.getNumImages(true));
+
+        int[][] sizes = {{300, 200}, {150, 100}, {75, 50}};
+        for (int i = 0; i < sizes.length; i++) {
+            assertEquals(sizes[i][0], reader.getWidth(i));
+            assertEquals(sizes[i][1], reader.getHeight(i));
+            assertTrue(reader.isImageTiled(i));
+            assertEquals(64, reader.getTileWidth(i));
+            assertEquals(48, reader.getTileHeight(i));
+
+            TIFFImageMetadata metadata = (TIFFImageMetadata) reader.getImageMetadata(i);
+            Entry subfileType = metadata.getIFD().getEntryById(TIFF.TAG_SUBFILE_TYPE);
+
+            if (i == 0) {
+                assertNull(subfileType);
+            }
+            else {
+                assertNotNull(subfileType);
+                assertEquals(TIFFBaseline.FILETYPE_REDUCEDIMAGE, ((Number) subfileType.getValue()).intValue());
+            }
+        }
+
+        assertImageEquals("Tiled image differs", image, reader.read(0));
+        assertImageEquals("Reduced image differs", TIFFImageWriter.createReducedResolution(image), reader.read(1));
+    }
+
+    @Test
+    public void testWriteTiledPyramidSubIFDs() throws IOException {
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_GRAY);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(buffer)) {
+            ImageWriter writer = createImageWriter();
+            writer.setOutput(stream);
+
+            TIFFImageWriteParam param = (TIFFImageWriteParam) writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_DEFAULT);
+            param.setPyramidLevels(2);
+            param.setPyramidSubIFDs(true);
+
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+
+        ImageReader reader = new TIFFImageReader(new TIFFImageReaderSpi());
+        reader.setInput(new ByteArrayImageInputStream(buffer.toByteArray()));
+
+        assertEquals(1, reader.getNumImages(true));
+        assertEquals(TIFFImageWriteParam.DEFAULT_TILE_SIZE, reader.getTileWidth(0));
+        assertEquals(TIFFImageWriteParam.DEFAULT_TILE_SIZE, reader.getTileHeight(0));
+
+        Directory ifds = new EXIFReader().read(new ByteArrayImageInputStream(buffer.toByteArray()));
+        Entry subIFDs = ifds.getEntryById(TIFF.TAG_SUB_IFD);
+        assertNotNull(subIFDs);
+        assertEquals(2, subIFDs.valueCount());
+
+        Directory[] levels = (Directory[]) subIFDs.getValue();
+        assertEquals(150, ((Number) levels[0].getEntryById(TIFF.TAG_IMAGE_WIDTH).getValue()).intValue());
+        assertEquals(100, ((Number) levels[0].getEntryById(TIFF.TAG_IMAGE_HEIGHT).getValue()).intValue());
+        assertEquals(75, ((Number) levels[1].getEntryById(TIFF.TAG_IMAGE_WIDTH).getValue()).intValue());
+        assertEquals(50, ((Number) levels[1].getEntryById(TIFF.TAG_IMAGE_HEIGHT).getValue()).intValue());
+
+        for (Directory level : levels) {
+            assertEquals(TIFFBaseline.FILETYPE_REDUCEDIMAGE, ((Number) level.getEntryById(TIFF.TAG_SUBFILE_TYPE).getValue()).intValue());
+            assertNotNull(level.getEntryById(TIFF.TAG_TILE_OFFSETS));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteTiledInvalidTileSize() throws IOException {
+        ImageWriter writer = createImageWriter();
+
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(new ByteArrayOutputStream())) {
+            writer.setOutput(stream);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(100, 100, 0, 0); // Must be multiples of 16
+
+            writer.write(null, new IIOImage(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), null, null), param);
+        }
+    }
+
     @Test
     public void testWriteCropped() throws IOException, URISyntaxException {
         // TODO: Test 2, 4, 8 bit palette data + gray + ushort + float types?
@@ -85,12 +85,12 @@ public class CacheFilter extends GenericFilter {
         }
 
         // Default max mem cache size 10 MB
-        int memCacheSize = 10;
+        long memCacheSize = 10;
 
         String memCacheSizeStr = config.getInitParameter("memCacheSize");
         if (!StringUtil.isEmpty(memCacheSizeStr)) {
             try {
-                memCacheSize = Integer.parseInt(memCacheSizeStr);
+                memCacheSize = Long.parseLong(memCacheSizeStr);
             }
             catch (NumberFormatException e) {
                 throw new ServletConfigException("Could not parse memCacheSize: " + e.toString(), e);
@@ -103,7 +103,7 @@ public class CacheFilter extends GenericFilter {
             cache = new HTTPCache(
                     getTempFolder(),
                     expiryTime,
-                    memCacheSize * 1024 * 1024,
+                    memCacheSize * 1024L * 1024L,
                     maxCachedEntites,
                     deleteCacheOnExit,
                     new ServletContextLoggerAdapter(getFilterName(), getServletContext())
@@ -33,6 +33,7 @@ import com.twelvemonkeys.lang.Validate;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * CachedEntity
@@ -44,6 +45,10 @@ class CachedEntityImpl implements CachedEntity {
     private String cacheURI;
     private HTTPCache cache;
 
+    // Guards resolving, so that only one request at a time resolves the content of this entity
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long uncacheableUntil;
+
     CachedEntityImpl(String pCacheURI, HTTPCache pCache) {
         cacheURI = Validate.notNull(pCacheURI, "cacheURI");
         cache = pCache;
@@ -95,17 +100,42 @@ class CachedEntityImpl implements CachedEntity {
         }
 
         if (lastModified == -1L || (ifModifiedSince < (lastModified / 1000L) * 1000L)) {
-            pResponse.setStatus(cached.getStatus());
+            long length = cached.getContentLength();
+            long[] range = cached.getStatus() == HttpServletResponse.SC_OK ? getRange(pRequest, cached, length) : null;
+
+            if (range == null) {
+                pResponse.setStatus(cached.getStatus());
+            }
+            else if (range.length == 0) {
+                pResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+            else {
+                pResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            }
+
             cached.writeHeadersTo(pResponse);
+            pResponse.setHeader(HTTPCache.HEADER_ACCEPT_RANGES, "bytes");
+
             if (isStale(pRequest)) {
                 // Add warning header
                 // Warning: 110 <server>:<port> Content is stale
                 pResponse.addHeader(HTTPCache.HEADER_WARNING, "110 " + getHost(pRequest) + " Content is stale.");
             }
 
+            if (range != null) {
+                // Content-Range: bytes <first>-<last>/<length> or bytes */<length> if not satisfiable
+                pResponse.setHeader(HTTPCache.HEADER_CONTENT_RANGE, "bytes " + (range.length == 0 ? "*" : range[0] + "-" + range[1]) + "/" + length);
+                pResponse.setHeader(HTTPCache.HEADER_CONTENT_LENGTH, String.valueOf(range.length == 0 ? 0 : range[1] - range[0] + 1));
+            }
+
             // NOTE: At the moment we only ever try to cache HEAD and GET requests
             if (!"HEAD".equals(pRequest.getMethod())) {
-                cached.writeContentsTo(pResponse.getOutputStream());
+                if (range == null) {
+                    cached.writeContentsTo(pResponse.getOutputStream());
+                }
+                else if (range.length != 0) {
+                    cached.writeContentsTo(pResponse.getOutputStream(), range[0], range[1] - range[0] + 1);
+                }
             }
         }
         else {
@@ -119,6 +149,77 @@ class CachedEntityImpl implements CachedEntity {
         }
     }
 
+    /**
+     * Parses the byte range requested, if any.
+     * Only single ranges are supported, multiple ranges are ignored, and the full content is sent instead.
+     *
+     * @return the first and last byte position (inclusive) of the range, an empty array if the range can't be
+     * satisfied, or {@code null} if the full content should be sent
+     */
+    static long[] getRange(final CacheRequest pRequest, final CachedResponse pCached, final long pLength) {
+        List<String> ranges = pRequest.getHeaders().get(HTTPCache.HEADER_RANGE);
+        if (ranges == null || ranges.size() != 1) {
+            return null;
+        }
+
+        // If-Range: Only send the range if the entity is unchanged, otherwise send the full content
+        List<String> ifRange = pRequest.getHeaders().get(HTTPCache.HEADER_IF_RANGE);
+        if (ifRange != null && !ifRange.isEmpty()) {
+            String validator = ifRange.get(0);
+            if (!validator.equals(pCached.getHeaderValue(HTTPCache.HEADER_ETAG))
+                    && !validator.equals(pCached.getHeaderValue(HTTPCache.HEADER_LAST_MODIFIED))) {
+                return null;
+            }
+        }
+
+        String range = ranges.get(0).trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        long first;
+        long last;
+
+        try {
+            String firstStr = range.substring(6, dash).trim();
+            String lastStr = range.substring(dash + 1).trim();
+
+            if (firstStr.isEmpty()) {
+                // Suffix range: bytes=-<length>
+                long suffix = Long.parseLong(lastStr);
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+
+                first = Math.max(0, pLength - suffix);
+                last = pLength - 1;
+            }
+            else {
+                first = Long.parseLong(firstStr);
+                last = lastStr.isEmpty() ? pLength - 1 : Math.min(Long.parseLong(lastStr), pLength - 1);
+
+                if (first < 0 || (!lastStr.isEmpty() && Long.parseLong(lastStr) < first)) {
+                    // Syntactically invalid, ignore
+                    return null;
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (first >= pLength) {
+            return new long[0];
+        }
+
+        return new long[] {first, last};
+    }
+
     /* Utility method to get Host header */
     private static String getHost(CacheRequest pRequest) {
         return pRequest.getServerName() + ":" + pRequest.getServerPort();
@@ -150,6 +251,30 @@ class CachedEntityImpl implements CachedEntity {
         return cache.isContentStale(cacheURI, pRequest);
     }
 
+    /**
+     * Returns the lock that must be held while resolving the content of this entity.
+     *
+     * @return the resolve lock
+     */
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Tests if the last response resolved for this entity was not cacheable, and the time to live of
+     * that information has not yet passed.
+     * Requests for uncacheable entities are resolved concurrently, without waiting for the lock.
+     *
+     * @return {@code true} if the entity is known to be uncacheable
+     */
+    boolean isUncacheable() {
+        return uncacheableUntil > System.currentTimeMillis();
+    }
+
+    void setUncacheable(final boolean pUncacheable, final long pTimeToLive) {
+        uncacheableUntil = pUncacheable ? System.currentTimeMillis() + pTimeToLive : 0;
+    }
+
     public WritableCachedResponse createCachedResponse() {
         return new WritableCachedResponseImpl();
     }
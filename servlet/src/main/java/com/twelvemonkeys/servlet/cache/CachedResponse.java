@@ -53,6 +53,24 @@ interface CachedResponse {
      */
     void writeContentsTo(OutputStream pStream) throws IOException;
 
+    /**
+     * Writes a range of the cached content to the response
+     *
+     * @param pStream the response output stream
+     * @param pOffset the offset of the first byte to write
+     * @param pLength the number of bytes to write
+     * @throws IOException if an I/O exception occurs during write
+     * @throws IllegalArgumentException if the range is outside the content
+     */
+    void writeContentsTo(OutputStream pStream, long pOffset, long pLength) throws IOException;
+
+    /**
+     * Returns the length of the cached content in bytes.
+     *
+     * @return the content length
+     */
+    long getContentLength();
+
     int getStatus();
 
     // TODO: Map<String, List<String>> getHeaders()
@@ -87,7 +105,7 @@ interface CachedResponse {
     String getHeaderValue(String pHeaderName);
 
     /**
-     * Returns the size of this cached response in bytes.
+     * Returns the size of this cached response in memory, in bytes.
      *
      * @return the size
      */
@@ -31,6 +31,7 @@ package com.twelvemonkeys.servlet.cache;
 import com.twelvemonkeys.io.FastByteArrayOutputStream;
 import com.twelvemonkeys.lang.Validate;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -54,10 +55,15 @@ class CachedResponseImpl implements CachedResponse {
 
     // For use by HTTPCache, when recreating CachedResponses from disk cache
     CachedResponseImpl(final int pStatus, final LinkedHashMap<String, List<String>> pHeaders, final int pHeaderSize, final byte[] pContent) {
+        this(pStatus, pHeaders, pHeaderSize);
+        content = new FastByteArrayOutputStream(pContent);
+    }
+
+    // For use by subclasses that keep the content elsewhere
+    CachedResponseImpl(final int pStatus, final LinkedHashMap<String, List<String>> pHeaders, final int pHeaderSize) {
         status = pStatus;
         headers = Validate.notNull(pHeaders, "headers");
         headersSize = pHeaderSize;
-        content = new FastByteArrayOutputStream(pContent);
     }
 
     public int getStatus() {
@@ -109,6 +115,35 @@ class CachedResponseImpl implements CachedResponse {
         content.writeTo(pStream);
     }
 
+    public void writeContentsTo(final OutputStream pStream, final long pOffset, final long pLength) throws IOException {
+        if (content == null) {
+            throw new IOException("Cache is null, no content to write.");
+        }
+
+        Validate.isTrue(pOffset >= 0 && pLength >= 0 && pOffset + pLength <= content.size(), "Range outside content");
+
+        if (content instanceof FastByteArrayOutputStream) {
+            // Avoid copying the content
+            ByteArrayInputStream input = ((FastByteArrayOutputStream) content).createInputStream();
+            input.skip(pOffset);
+
+            byte[] buffer = new byte[(int) Math.min(pLength, 8192)];
+            long remaining = pLength;
+            while (remaining > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+                pStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        else {
+            pStream.write(content.toByteArray(), (int) pOffset, (int) pLength);
+        }
+    }
+
+    public long getContentLength() {
+        return content != null ? content.size() : 0;
+    }
+
     /**
      * Gets the header names of all headers set in this response.
      *
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.servlet.cache;
+
+import com.twelvemonkeys.lang.StringUtil;
+import com.twelvemonkeys.lang.Validate;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A {@code CachedResponse} backed by a single file in the disk cache.
+ * <p/>
+ * The file starts with a small index (a magic identifier and the length of the header block), followed by the
+ * headers, and then the content.
+ * Only the headers are kept in memory, the content is streamed from the file to the response when needed,
+ * using {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: FileCachedResponse.java,v 1.0 24.02.16 haraldk Exp$
+ */
+final class FileCachedResponse extends CachedResponseImpl {
+    /** Magic identifier for the cache file format, {@code "TMC1"}. */
+    static final int MAGIC = 'T' << 24 | 'M' << 16 | 'C' << 8 | '1';
+
+    /** Length of the index, in bytes: magic + header block length. */
+    static final int INDEX_LENGTH = 8;
+
+    private final File file;
+    private final long contentOffset;
+    private final long contentLength;
+
+    private FileCachedResponse(final File pFile, final LinkedHashMap<String, List<String>> pHeaders, final int pHeaderSize,
+                               final long pContentOffset, final long pContentLength) {
+        super(HttpServletResponse.SC_OK, pHeaders, pHeaderSize);
+
+        file = pFile;
+        contentOffset = pContentOffset;
+        contentLength = pContentLength;
+    }
+
+    /**
+     * Reads the headers from the given cache file.
+     *
+     * @param pFile the cache file
+     * @return a new {@code FileCachedResponse}, or {@code null} if the file is not in the expected format
+     * @throws IOException if an I/O exception occurs during read
+     */
+    static FileCachedResponse read(final File pFile) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(pFile, "r");
+
+        try {
+            long length = input.length();
+            if (length < INDEX_LENGTH || input.readInt() != MAGIC) {
+                return null;
+            }
+
+            int headerLength = input.readInt();
+            if (headerLength < 0 || INDEX_LENGTH + headerLength > length) {
+                return null;
+            }
+
+            byte[] headerBytes = new byte[headerLength];
+            input.readFully(headerBytes);
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(headerBytes), "UTF-8"));
+            LinkedHashMap<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colIdx = line.indexOf(':');
+                String name;
+                String value;
+                if (colIdx >= 0) {
+                    name = line.substring(0, colIdx);
+                    value = line.substring(colIdx + 2); // ": "
+                }
+                else {
+                    name = line;
+                    value = "";
+                }
+
+                headers.put(name, Arrays.asList(StringUtil.toStringArray(value, "\\")));
+            }
+
+            return new FileCachedResponse(pFile, headers, headerLength, INDEX_LENGTH + headerLength, length - INDEX_LENGTH - headerLength);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes the headers and content of the given response to the given cache file.
+     * The file is first written to a temporary file in the same directory, and then renamed,
+     * so that concurrent readers never see a partially written file.
+     *
+     * @param pFile the cache file
+     * @param pResponse the response to write
+     * @throws IOException if an I/O exception occurs during write
+     */
+    static void write(final File pFile, final CachedResponse pResponse) throws IOException {
+        // Write the headers (in pseudo-properties-format)
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(headerBytes, "UTF-8");
+
+        for (String name : pResponse.getHeaderNames()) {
+            String[] values = pResponse.getHeaderValues(name);
+
+            writer.write(name);
+            writer.write(": ");
+            writer.write(StringUtil.toCSVString(values, "\\"));
+            writer.write('\n');
+        }
+
+        writer.close();
+
+        File temp = File.createTempFile("cache-", ".tmp", pFile.getParentFile());
+
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            try {
+                output.writeInt(MAGIC);
+                output.writeInt(headerBytes.size());
+                headerBytes.writeTo(output);
+                pResponse.writeContentsTo(output);
+            }
+            finally {
+                output.close();
+            }
+
+            if (!temp.renameTo(pFile)) {
+                // Some platforms can't rename to an existing file
+                if (!pFile.delete() || !temp.renameTo(pFile)) {
+                    throw new IOException("Could not rename " + temp.getAbsolutePath() + " to " + pFile.getAbsolutePath());
+                }
+            }
+        }
+        finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    @Override
+    public void writeContentsTo(final OutputStream pStream) throws IOException {
+        writeContentsTo(pStream, 0, contentLength);
+    }
+
+    @Override
+    public void writeContentsTo(final OutputStream pStream, final long pOffset, final long pLength) throws IOException {
+        Validate.isTrue(pOffset >= 0 && pLength >= 0 && pOffset + pLength <= contentLength, "Range outside content");
+
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            FileChannel channel = input.getChannel();
+
+            // Sanity check, the file may have been replaced since we read the headers
+            if (channel.size() != contentOffset + contentLength) {
+                throw new IOException("Cache file modified: " + file.getAbsolutePath());
+            }
+
+            WritableByteChannel target = Channels.newChannel(pStream);
+            long position = contentOffset + pOffset;
+            long remaining = pLength;
+
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+
+                if (transferred <= 0) {
+                    throw new EOFException("Unexpected end of cache file: " + file.getAbsolutePath());
+                }
+
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public int size() {
+        // Only the headers are kept in memory
+        return headersSize;
+    }
+
+    @Override
+    public boolean equals(final Object pOther) {
+        return pOther instanceof FileCachedResponse && file.equals(((FileCachedResponse) pOther).file)
+                && contentLength == ((FileCachedResponse) pOther).contentLength && super.equals(pOther);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + file.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[file: " + file.getAbsolutePath() + ", content length: " + contentLength + "]";
+    }
+}
@@ -34,12 +34,13 @@ import com.twelvemonkeys.lang.Validate;
 import com.twelvemonkeys.net.MIMEUtil;
 import com.twelvemonkeys.net.HTTPUtil;
 import com.twelvemonkeys.util.LRUHashMap;
-import com.twelvemonkeys.util.NullMap;
+import com.twelvemonkeys.util.WeightedLRUCache;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -84,17 +85,27 @@ import java.util.logging.Logger;
  * -->
  * @todo TEST: Battle-testing using some URL-hammer tool and maybe a profiler
  * @todo ETag/Conditional (If-None-Match) support!
- * @todo Rewrite to use java.util.concurrent Locks (if possible) for performance
- *       Maybe use ConcurrentHashMap instead fo synchronized HashMap?
  * @todo Rewrite to use NIO for performance
  * @todo Allow no tempdir for in-memory only cache
  * @todo Specify max size of disk-cache
  */
 public class HTTPCache {
+    /**
+     * The HTTP header {@code "Accept-Ranges"}
+     */
+    protected static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
     /**
      * The HTTP header {@code "Cache-Control"}
      */
     protected static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    /**
+     * The HTTP header {@code "Content-Length"}
+     */
+    protected static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    /**
+     * The HTTP header {@code "Content-Range"}
+     */
+    protected static final String HEADER_CONTENT_RANGE = "Content-Range";
     /**
      * The HTTP header {@code "Content-Type"}
      */
@@ -119,6 +130,10 @@ public class HTTPCache {
      * The HTTP header {@code "If-None-Match"}
      */
     protected static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    /**
+     * The HTTP header {@code "If-Range"}
+     */
+    protected static final String HEADER_IF_RANGE = "If-Range";
     /**
      * The HTTP header {@code "Last-Modified"}
      */
@@ -127,6 +142,10 @@ public class HTTPCache {
      * The HTTP header {@code "Pragma"}
      */
     protected static final String HEADER_PRAGMA = "Pragma";
+    /**
+     * The HTTP header {@code "Range"}
+     */
+    protected static final String HEADER_RANGE = "Range";
     /**
      * The HTTP header {@code "Vary"}
      */
@@ -142,12 +161,22 @@ public class HTTPCache {
 
     /**
      * The file extension for header files ({@code ".headers"})
+     * @deprecated Headers are now stored in the content file, only used to clean up old caches.
      */
     protected static final String FILE_EXT_HEADERS = ".headers";
     /**
      * The file extension for varation-info files ({@code ".vary"})
      */
     protected static final String FILE_EXT_VARY = ".vary";
+    /**
+     * The file extension for temporary files, while writing to the disk cache ({@code ".tmp"})
+     */
+    static final String FILE_EXT_TEMP = ".tmp";
+
+    /**
+     * The number of independently locked segments of the entity cache
+     */
+    static final int ENTITY_CACHE_SEGMENTS = 16;
 
     /**
      * The directory used for the disk-based cache
@@ -161,13 +190,13 @@ public class HTTPCache {
     private boolean deleteCacheOnExit;
 
     /**
-     * In-memory content cache
+     * In-memory content cache, weighted by size in bytes
      */
-    private final Map<String, CachedResponse> contentCache;
+    private final WeightedLRUCache<String, CachedResponse> contentCache;
     /**
-     * In-memory enity cache
+     * In-memory enity cache, striped in segments to reduce lock contention
      */
-    private final Map<String, CachedEntity> entityCache;
+    private final Map<String, CachedEntityImpl>[] entityCache;
     /**
      * In-memory varyiation-info cache
      */
@@ -181,7 +210,7 @@ public class HTTPCache {
     protected HTTPCache(
             final File pTempFolder,
             final long pDefaultCacheExpiryTime,
-            final int pMaxMemCacheSize,
+            final long pMaxMemCacheSize,
             final int pMaxCachedEntites,
             final boolean pDeleteCacheOnExit,
             final Logger pLogger
@@ -191,21 +220,29 @@ public class HTTPCache {
         Validate.isTrue(pTempFolder.canRead() && pTempFolder.canWrite(), pTempFolder.getAbsolutePath(), "Must have read/write access to temp folder: %s");
 
         Validate.isTrue(pDefaultCacheExpiryTime >= 0, pDefaultCacheExpiryTime, "Negative expiry time: %d");
-        Validate.isTrue(pMaxMemCacheSize >= 0, pDefaultCacheExpiryTime, "Negative maximum memory cache size: %d");
-        Validate.isTrue(pMaxCachedEntites >= 0, pDefaultCacheExpiryTime, "Negative maximum number of cached entries: %d");
+        Validate.isTrue(pMaxMemCacheSize >= 0, pMaxMemCacheSize, "Negative maximum memory cache size: %d");
+        Validate.isTrue(pMaxCachedEntites >= 0, pMaxCachedEntites, "Negative maximum number of cached entries: %d");
 
         defaultExpiryTime = pDefaultCacheExpiryTime;
 
-        if (pMaxMemCacheSize > 0) {
-//            Map backing = new SizedLRUMap(pMaxMemCacheSize); // size in bytes
-//            contentCache = new TimeoutMap(backing, null, pDefaultCacheExpiryTime);
-            contentCache = new SizedLRUMap<String, CachedResponse>(pMaxMemCacheSize); // size in bytes
-        }
-        else {
-            contentCache = new NullMap<String, CachedResponse>();
-        }
+        // NOTE: A max size of 0 means nothing is admitted to the memory cache
+        contentCache = new WeightedLRUCache<String, CachedResponse>(
+                pMaxMemCacheSize, WeightedLRUCache.DEFAULT_SEGMENTS,
+                new WeightedLRUCache.Weigher<CachedResponse>() {
+                    public long weigh(final CachedResponse pValue) {
+                        return pValue.size(); // size in bytes
+                    }
+                },
+                new WeightedLRUCache.EvictionListener<String, CachedResponse>() {
+                    public void evicted(final String pKey, final CachedResponse pValue) {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.log(Level.FINE, "Evicted " + pKey + " (" + pValue.size() + " bytes) from memory cache");
+                        }
+                    }
+                }
+        );
 
-        entityCache = new LRUHashMap<String, CachedEntity>(pMaxCachedEntites);
+        entityCache = createEntityCache(pMaxCachedEntites);
         varyCache = new LRUHashMap<String, Properties>(pMaxCachedEntites);
 
         deleteCacheOnExit = pDeleteCacheOnExit;
@@ -237,7 +274,7 @@ public class HTTPCache {
      */
     public HTTPCache(final File pTempFolder,
                         final long pDefaultCacheExpiryTime,
-                        final int pMaxMemCacheSize, final int pMaxCachedEntites,
+                        final long pMaxMemCacheSize, final int pMaxCachedEntites,
                         final boolean pDeleteCacheOnExit) {
         this(pTempFolder, pDefaultCacheExpiryTime, pMaxMemCacheSize, pMaxCachedEntites, pDeleteCacheOnExit, null);
     }
@@ -264,7 +301,7 @@ public class HTTPCache {
      *                                  or if the directory as given in the context attribute
      *                                  {@code "javax.servlet.context.tempdir"} does not exist, and
      *                                  cannot be created.
-     * @deprecated Use {@link #HTTPCache(File, long, int, int, boolean)} instead.
+     * @deprecated Use {@link #HTTPCache(File, long, long, int, boolean)} instead.
      */
     public HTTPCache(final String pName, final ServletContext pContext,
             final int pDefaultCacheExpiryTime, final int pMaxMemCacheSize,
@@ -276,6 +313,55 @@ public class HTTPCache {
         );
     }
 
+    @SuppressWarnings("unchecked")
+    private static Map<String, CachedEntityImpl>[] createEntityCache(final int pMaxCachedEntities) {
+        Map<String, CachedEntityImpl>[] segments = new Map[ENTITY_CACHE_SEGMENTS];
+        // NOTE: LRUHashMap evicts entries when the size reaches max size, so we need at least 2 per segment
+        int maxSegmentSize = (pMaxCachedEntities + ENTITY_CACHE_SEGMENTS - 1) / ENTITY_CACHE_SEGMENTS + 1;
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new LRUHashMap<String, CachedEntityImpl>(maxSegmentSize);
+        }
+
+        return segments;
+    }
+
+    private Map<String, CachedEntityImpl> getEntitySegment(final String pCacheURI) {
+        // Spread the hash bits, as the URIs often only differ in the last few characters
+        int hash = pCacheURI.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+        return entityCache[hash & (ENTITY_CACHE_SEGMENTS - 1)];
+    }
+
+    private CachedEntityImpl getEntity(final String pCacheURI) {
+        Map<String, CachedEntityImpl> segment = getEntitySegment(pCacheURI);
+
+        synchronized (segment) {
+            CachedEntityImpl cached = segment.get(pCacheURI);
+
+            if (cached == null) {
+                cached = new CachedEntityImpl(pCacheURI, this);
+                segment.put(pCacheURI, cached);
+            }
+
+            return cached;
+        }
+    }
+
+    private int getEntityCount() {
+        int count = 0;
+
+        for (Map<String, CachedEntityImpl> segment : entityCache) {
+            synchronized (segment) {
+                count += segment.size();
+            }
+        }
+
+        return count;
+    }
+
     private static File getTempFolder(String pName, ServletContext pContext) {
         Validate.notNull(pName, "name");
         Validate.isTrue(!StringUtil.isEmpty(pName), pName, "empty name: '%s'");
@@ -301,18 +387,18 @@ public class HTTPCache {
             buf.append(" (persistent)");            
         }
         buf.append(", EntityCache: {");
-        buf.append(entityCache.size());
-        buf.append(" entries in a ");
-        buf.append(entityCache.getClass().getName());
+        buf.append(getEntityCount());
+        buf.append(" entries in ");
+        buf.append(ENTITY_CACHE_SEGMENTS);
+        buf.append(" segments of ");
+        buf.append(entityCache[0].getClass().getName());
         buf.append("}, VaryCache: {");
         buf.append(varyCache.size());
         buf.append(" entries in a ");
         buf.append(varyCache.getClass().getName());
-        buf.append("}, ContentCache: {");
-        buf.append(contentCache.size());
-        buf.append(" entries in a ");
-        buf.append(contentCache.getClass().getName());
-        buf.append("}]");
+        buf.append("}, ContentCache: ");
+        buf.append(contentCache);
+        buf.append("]");
 
         return buf.toString();
     }
@@ -346,63 +432,108 @@ public class HTTPCache {
 //             System.out.println(" ## HTTPCache ## Request Id (cacheURI): " + cacheURI);
 
             // Get/create cached entity
-            CachedEntity cached;
-            synchronized (entityCache) {
-                cached = entityCache.get(cacheURI);
-                if (cached == null) {
-                    cached = new CachedEntityImpl(cacheURI, this);
-                    entityCache.put(cacheURI, cached);
-                }
-            }
+            CachedEntityImpl cached = getEntity(cacheURI);
 
-            // else if (not cached || stale), resolve through wrapped (caching) response
+            // if (known to be uncachable), resolve concurrently, writing through to the response
+            // else if (not cached || stale), resolve through wrapped (caching) response, one request at a time
             // else render to response
+            boolean uncacheable = cached.isUncacheable();
 
-            // TODO: This is a bottleneck for uncachable resources. Should not
-            // synchronize, if we know (HOW?) the resource is not cachable.
-            synchronized (cached) {
-                if (cached.isStale(pRequest) /* TODO: NOT CACHED?! */) {
-                    // Go fetch...
-                    WritableCachedResponse cachedResponse = cached.createCachedResponse();
-                    pResolver.resolve(pRequest, cachedResponse);
-
-                    if (isCachable(cachedResponse)) {
-//                        System.out.println("Registering content: " + cachedResponse.getCachedResponse());
-                        registerContent(cacheURI, pRequest, cachedResponse.getCachedResponse());
-                    }
-                    else {
-                        // TODO: What about non-cachable responses? We need to either remove them from cache, or mark them as stale...
-                        // Best is probably to mark as non-cacheable for later, and NOT store content (performance)
-//                        System.out.println("Non-cacheable response: " + cachedResponse);
-
-                        // TODO: Write, but should really do this unbuffered.... And some resolver might be able to do just that?
-                        // Might need a resolver.isWriteThroughForUncachableResources() method...
-                        pResponse.setStatus(cachedResponse.getStatus());
-                        cachedResponse.writeHeadersTo(pResponse);
-                        cachedResponse.writeContentsTo(pResponse.getOutputStream());
+            if (!uncacheable && cached.isStale(pRequest)) {
+                ReentrantLock lock = cached.getLock();
+
+                if (!lock.tryLock()) {
+                    // Another request is resolving this entity, use the stale content if we have it,
+                    // otherwise wait for the fresh content
+                    if (getContent(cacheURI, pRequest) != null) {
+                        cached.render(pRequest, pResponse);
                         return;
                     }
+
+                    lock.lock();
                 }
+
+                try {
+                    uncacheable = cached.isUncacheable();
+
+                    // NOTE: Need to re-test, as the content might have been resolved while we were waiting
+                    if (!uncacheable && cached.isStale(pRequest)) {
+                        if (!resolve(cacheURI, cached, pRequest, pResponse, pResolver)) {
+                            return;
+                        }
+                    }
+                }
+                finally {
+                    // The lock is released early, if the response turned out to be uncacheable
+                    if (lock.isHeldByCurrentThread()) {
+                        lock.unlock();
+                    }
+                }
+            }
+
+            if (uncacheable && !resolve(cacheURI, cached, pRequest, pResponse, pResolver)) {
+                return;
             }
 
             cached.render(pRequest, pResponse);
         }
     }
 
+    /**
+     * Resolves the response, and registers the content, if it is cachable.
+     * Otherwise the response is written to {@code pResponse}, and the entity is marked as uncacheable.
+     *
+     * @return {@code true} if the content was registered, and should be rendered from the cache
+     */
+    private boolean resolve(final String pCacheURI, final CachedEntityImpl pCached, final CacheRequest pRequest,
+                            final CacheResponse pResponse, final ResponseResolver pResolver) throws IOException, CacheException {
+        // Go fetch...
+        WriteThroughCachedResponse cachedResponse = new WriteThroughCachedResponse(pCached.createCachedResponse(), pResponse, pCached, this);
+        pResolver.resolve(pRequest, cachedResponse);
+
+        if (!cachedResponse.isWriteThrough() && isCachable(cachedResponse)) {
+//            System.out.println("Registering content: " + cachedResponse.getCachedResponse());
+            registerContent(pCacheURI, pRequest, cachedResponse.getCachedResponse());
+            pCached.setUncacheable(false, 0);
+
+            return true;
+        }
+
+        // Mark as non-cacheable for later, so that subsequent requests are resolved
+        // concurrently, and NOT buffered (unless the content has already been written through)
+//        System.out.println("Non-cacheable response: " + cachedResponse);
+        markUncacheable(pCached);
+        cachedResponse.writeTo();
+
+        return false;
+    }
+
+    /**
+     * Marks the entity as uncacheable, and releases its lock, if held by the current thread.
+     * Requests waiting for the lock, and later requests, are then resolved concurrently, instead of waiting
+     * for the uncacheable content to be written to a (possibly slow) client.
+     *
+     * @param pCached the cached entity
+     */
+    void markUncacheable(final CachedEntityImpl pCached) {
+        pCached.setUncacheable(true, defaultExpiryTime);
+
+        ReentrantLock lock = pCached.getLock();
+        if (lock.isHeldByCurrentThread()) {
+            lock.unlock();
+        }
+    }
+
     protected void invalidate(CacheRequest pRequest) {
         // Generate cacheURI
         String cacheURI = generateCacheURI(pRequest);
 
-        // Get/create cached entity
-        CachedEntity cached;
-        synchronized (entityCache) {
-            cached = entityCache.get(cacheURI);
-            if (cached != null) {
-                // TODO; Remove all variants
-                entityCache.remove(cacheURI);
-            }
+        // Remove cached entity
+        Map<String, CachedEntityImpl> segment = getEntitySegment(cacheURI);
+        synchronized (segment) {
+            // TODO; Remove all variants
+            segment.remove(cacheURI);
         }
-
     }
 
     private boolean isCacheable(final CacheRequest pRequest) {
@@ -443,7 +574,7 @@ public class HTTPCache {
         return true;
     }
 
-    private boolean isCachable(final CacheResponse pResponse) {
+    boolean isCachable(final CacheResponse pResponse) {
         if (pResponse.getStatus() != HttpServletResponse.SC_OK) {
             return false;
         }
@@ -523,7 +654,8 @@ public class HTTPCache {
             public boolean accept(File pFile) {
                 return pFile.getAbsolutePath().startsWith(basePath)
                         && !pFile.getName().endsWith(FILE_EXT_HEADERS)
-                        && !pFile.getName().endsWith(FILE_EXT_VARY);
+                        && !pFile.getName().endsWith(FILE_EXT_VARY)
+                        && !pFile.getName().endsWith(FILE_EXT_TEMP);
             }
         });
 
@@ -752,16 +884,12 @@ public class HTTPCache {
             extension = "[NULL]";
         }
 
-        synchronized (contentCache) {
-            contentCache.put(pCacheURI + '.' + extension, pCachedResponse);
+        contentCache.put(pCacheURI + '.' + extension, pCachedResponse);
 
-            // This will be the default version
-            if (!contentCache.containsKey(pCacheURI)) {
-                contentCache.put(pCacheURI, pCachedResponse);
-            }
-        }
+        // This will be the default version
+        contentCache.putIfAbsent(pCacheURI, pCachedResponse);
 
-        // Write the cached content to disk
+        // Write the cached headers and content to disk
         File content = new File(tempDir, "./" + pCacheURI + '.' + extension);
         if (deleteCacheOnExit && !content.exists()) {
             content.deleteOnExit();
@@ -776,47 +904,12 @@ public class HTTPCache {
             return;
         }
 
-        OutputStream mContentStream = new BufferedOutputStream(new FileOutputStream(content));
+        FileCachedResponse.write(content, pCachedResponse);
 
-        try {
-            pCachedResponse.writeContentsTo(mContentStream);
-        }
-        finally {
-            try {
-                mContentStream.close();
-            }
-            catch (IOException e) {
-                log("Error closing content stream: " + e.getMessage(), e);
-            }
-        }
-
-        // Write the cached headers to disk (in pseudo-properties-format)
+        // Clean up headers from older cache format, if any
         File headers = new File(content.getAbsolutePath() + FILE_EXT_HEADERS);
-        if (deleteCacheOnExit && !headers.exists()) {
-            headers.deleteOnExit();
-        }
-
-        FileWriter writer = new FileWriter(headers);
-        PrintWriter headerWriter = new PrintWriter(writer);
-        try {
-            String[] names = pCachedResponse.getHeaderNames();
-
-            for (String name : names) {
-                String[] values = pCachedResponse.getHeaderValues(name);
-
-                headerWriter.print(name);
-                headerWriter.print(": ");
-                headerWriter.println(StringUtil.toCSVString(values, "\\"));
-            }
-        }
-        finally {
-            headerWriter.flush();
-            try {
-                writer.close();
-            }
-            catch (IOException e) {
-                log("Error closing header stream: " + e.getMessage(), e);
-            }
+        if (headers.exists() && !headers.delete()) {
+            log("Could not delete " + headers.getAbsolutePath());
         }
 
         // TODO: Make this more robust, if some weird entity is not
@@ -855,31 +948,29 @@ public class HTTPCache {
         String extension = getVaryExtension(pCacheURI, pRequest);
 
         CachedResponse response;
-        synchronized (contentCache) {
-//             System.out.println(" ## HTTPCache ## Looking up content with ext: \"" + extension + "\" from memory cache (" + contentCache /*.size()*/ + " entries)...");
-            if ("ANY".equals(extension)) {
-                response = contentCache.get(pCacheURI);
-            }
-            else {
-                response = contentCache.get(pCacheURI + '.' + extension);
-            }
+//         System.out.println(" ## HTTPCache ## Looking up content with ext: \"" + extension + "\" from memory cache (" + contentCache /*.size()*/ + " entries)...");
+        if ("ANY".equals(extension)) {
+            response = contentCache.get(pCacheURI);
+        }
+        else {
+            response = contentCache.get(pCacheURI + '.' + extension);
+        }
 
-            if (response == null) {
-//                 System.out.println(" ## HTTPCache ## Content not found in memory cache.");
+        if (response == null) {
+//             System.out.println(" ## HTTPCache ## Content not found in memory cache.");
 //
-//                 System.out.println(" ## HTTPCache ## Looking up content from disk cache...");
-                // Read from disk-cache
-                response = readFromDiskCache(pCacheURI, pRequest);
-            }
-
-//            if (response == null) {
-//                System.out.println(" ## HTTPCache ## Content not found in disk cache.");
-//            }
-//            else {
-//                System.out.println(" ## HTTPCache ## Content for " + pCacheURI + " found: " + response);
-//            }
+//             System.out.println(" ## HTTPCache ## Looking up content from disk cache...");
+            // Read from disk-cache
+            response = readFromDiskCache(pCacheURI, pRequest);
         }
 
+//        if (response == null) {
+//            System.out.println(" ## HTTPCache ## Content not found in disk cache.");
+//        }
+//        else {
+//            System.out.println(" ## HTTPCache ## Content for " + pCacheURI + " found: " + response);
+//        }
+
         return response;
     }
 
@@ -888,34 +979,13 @@ public class HTTPCache {
         try {
             File content = getCachedFile(pCacheURI, pRequest);
             if (content != null && content.exists()) {
-                // Read contents
-                byte[] contents = FileUtil.read(content);
-
-                // Read headers
-                File headers = new File(content.getAbsolutePath() + FILE_EXT_HEADERS);
-                int headerSize = (int) headers.length();
-
-                BufferedReader reader = new BufferedReader(new FileReader(headers));
-                LinkedHashMap<String, List<String>> headerMap = new LinkedHashMap<String, List<String>>();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    int colIdx = line.indexOf(':');
-                    String name;
-                    String value;
-                    if (colIdx >= 0) {
-                        name = line.substring(0, colIdx);
-                        value = line.substring(colIdx + 2); // ": "
-                    }
-                    else {
-                        name = line;
-                        value = "";
-                    }
+                // Read headers only, the contents are streamed from disk when needed
+                // NOTE: Files in older cache format are ignored, and will be replaced when resolved
+                response = FileCachedResponse.read(content);
 
-                    headerMap.put(name, Arrays.asList(StringUtil.toStringArray(value, "\\")));
+                if (response != null) {
+                    contentCache.put(pCacheURI + '.' + FileUtil.getExtension(content), response);
                 }
-
-                response = new CachedResponseImpl(HttpServletResponse.SC_OK, headerMap, headerSize, contents);
-                contentCache.put(pCacheURI + '.' + FileUtil.getExtension(content), response);
             }
         }
         catch (IOException e) {
@@ -1086,65 +1156,4 @@ public class HTTPCache {
         }
         return date;
     }
-
-    // TODO: Extract and make public?
-    final static class SizedLRUMap<K, V> extends LRUHashMap<K, V> {
-        int currentSize;
-        int maxSize;
-
-        public SizedLRUMap(int pMaxSize) {
-            //super(true);
-            super(); // Note: super.maxSize doesn't count...
-            maxSize = pMaxSize;
-        }
-
-
-        // In super (LRUMap?) this could just return 1...
-        protected int sizeOf(Object pValue) {
-            // HACK: As this is used as a backing for a TimeoutMap, the values
-            // will themselves be Entries...
-            while (pValue instanceof Map.Entry) {
-                pValue = ((Map.Entry) pValue).getValue();
-            }
-
-            CachedResponse cached = (CachedResponse) pValue;
-            return (cached != null ? cached.size() : 0);
-        }
-
-        @Override
-        public V put(K pKey, V pValue) {
-            currentSize += sizeOf(pValue);
-
-            V old = super.put(pKey, pValue);
-            if (old != null) {
-                currentSize -= sizeOf(old);
-            }
-            return old;
-        }
-
-        @Override
-        public V remove(Object pKey) {
-            V old = super.remove(pKey);
-            if (old != null) {
-                currentSize -= sizeOf(old);
-            }
-            return old;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> pEldest) {
-            if (maxSize <= currentSize) { // NOTE: maxSize here is mem size
-                removeLRU();
-            }
-            return false;
-        }
-
-        @Override
-        public void removeLRU() {
-            while (maxSize <= currentSize) { // NOTE: maxSize here is mem size
-                super.removeLRU();
-            }
-        }
-    }
-
 }
\ No newline at end of file
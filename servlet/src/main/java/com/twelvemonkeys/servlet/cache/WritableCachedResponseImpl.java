@@ -156,6 +156,14 @@ class WritableCachedResponseImpl implements WritableCachedResponse {
         cachedResponse.writeContentsTo(pStream);
     }
 
+    public void writeContentsTo(OutputStream pStream, long pOffset, long pLength) throws IOException {
+        cachedResponse.writeContentsTo(pStream, pOffset, pLength);
+    }
+
+    public long getContentLength() {
+        return cachedResponse.getContentLength();
+    }
+
     public String[] getHeaderNames() {
         return cachedResponse.getHeaderNames();
     }
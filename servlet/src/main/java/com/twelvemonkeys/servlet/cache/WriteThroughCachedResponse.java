@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.twelvemonkeys.servlet.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code WritableCachedResponse} that captures the response for the cache, as long as it is cacheable.
+ * <p/>
+ * The decision is deferred until the first bytes of content are written. If the response is not cacheable at
+ * that point, the status and headers are copied to the client response, and the content is written
+ * directly to the client response, without buffering.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: WriteThroughCachedResponse.java,v 1.0 22.02.16 haraldk Exp$
+ */
+final class WriteThroughCachedResponse implements WritableCachedResponse {
+    private final WritableCachedResponse captured;
+    private final CacheResponse response;
+    private final CachedEntityImpl entity;
+    private final HTTPCache cache;
+
+    private OutputStream stream;
+    private OutputStream target;
+    private boolean writeThrough;
+
+    WriteThroughCachedResponse(final WritableCachedResponse pCaptured, final CacheResponse pResponse,
+                               final CachedEntityImpl pEntity, final HTTPCache pCache) {
+        captured = pCaptured;
+        response = pResponse;
+        entity = pEntity;
+        cache = pCache;
+    }
+
+    /**
+     * Returns {@code true} if the content was written directly to the client response.
+     *
+     * @return {@code true} if the content was written directly to the client response
+     */
+    boolean isWriteThrough() {
+        return writeThrough;
+    }
+
+    /**
+     * Writes the captured status, headers and content (if any) to the client response.
+     * Does nothing, if the content was already written directly to the client response.
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeTo() throws IOException {
+        if (!writeThrough) {
+            response.setStatus(captured.getStatus());
+            captured.writeHeadersTo(response);
+
+            if (target != null) {
+                captured.writeContentsTo(response.getOutputStream());
+            }
+        }
+    }
+
+    private OutputStream getTarget() throws IOException {
+        if (target == null) {
+            if (cache.isCachable(captured)) {
+                target = captured.getOutputStream();
+            }
+            else {
+                writeThrough = true;
+
+                // Don't keep other requests for the entity waiting, while writing to the client
+                cache.markUncacheable(entity);
+
+                response.setStatus(captured.getStatus());
+                captured.writeHeadersTo(response);
+
+                target = response.getOutputStream();
+            }
+        }
+
+        return target;
+    }
+
+    public OutputStream getOutputStream() {
+        if (stream == null) {
+            stream = new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    getTarget().write(b);
+                }
+
+                @Override
+                public void write(final byte[] bytes, final int off, final int len) throws IOException {
+                    getTarget().write(bytes, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (target != null) {
+                        target.flush();
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // Never close the client response stream, it's owned by the container
+                    flush();
+                }
+            };
+        }
+
+        return stream;
+    }
+
+    public void setStatus(final int pStatusCode) {
+        captured.setStatus(pStatusCode);
+    }
+
+    public int getStatus() {
+        return captured.getStatus();
+    }
+
+    public void setHeader(final String pName, final String pValue) {
+        captured.setHeader(pName, pValue);
+
+        if (writeThrough) {
+            response.setHeader(pName, pValue);
+        }
+    }
+
+    public void addHeader(final String pName, final String pValue) {
+        captured.addHeader(pName, pValue);
+
+        if (writeThrough) {
+            response.addHeader(pName, pValue);
+        }
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return captured.getHeaders();
+    }
+
+    public CachedResponse getCachedResponse() {
+        return captured.getCachedResponse();
+    }
+
+    public void writeHeadersTo(final CacheResponse pResponse) {
+        captured.writeHeadersTo(pResponse);
+    }
+
+    public void writeContentsTo(final OutputStream pStream) throws IOException {
+        captured.writeContentsTo(pStream);
+    }
+
+    public void writeContentsTo(final OutputStream pStream, final long pOffset, final long pLength) throws IOException {
+        captured.writeContentsTo(pStream, pOffset, pLength);
+    }
+
+    public long getContentLength() {
+        return captured.getContentLength();
+    }
+
+    public String[] getHeaderNames() {
+        return captured.getHeaderNames();
+    }
+
+    public String[] getHeaderValues(final String pHeaderName) {
+        return captured.getHeaderValues(pHeaderName);
+    }
+
+    public String getHeaderValue(final String pHeaderName) {
+        return captured.getHeaderValue(pHeaderName);
+    }
+
+    public int size() {
+        return captured.size();
+    }
+}
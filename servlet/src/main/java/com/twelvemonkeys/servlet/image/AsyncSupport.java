@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Access to Servlet 3.0 asynchronous processing, while compiling against the Servlet 2.4 API.
+ * <p/>
+ * The methods are looked up on the {@code ServletRequest} and {@code AsyncContext} interfaces, and are only
+ * available when running in a Servlet 3.0 (or later) container. In older containers, {@link #startAsync}
+ * always returns {@code null}, and requests are processed synchronously.
+ * <p/>
+ * The methods are not static, to allow tests to replace the container's asynchronous processing with a stub.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: AsyncSupport.java,v 1.0 25.02.16 haraldk Exp$
+ */
+class AsyncSupport {
+    /** The asynchronous processing of the container, if any. */
+    static final AsyncSupport CONTAINER = new AsyncSupport();
+
+    private static final Method IS_ASYNC_SUPPORTED;
+    private static final Method START_ASYNC;
+    private static final Method SET_TIMEOUT;
+    private static final Method COMPLETE;
+
+    static {
+        Method isAsyncSupported = null;
+        Method startAsync = null;
+        Method setTimeout = null;
+        Method complete = null;
+
+        try {
+            isAsyncSupported = ServletRequest.class.getMethod("isAsyncSupported");
+            startAsync = ServletRequest.class.getMethod("startAsync", ServletRequest.class, ServletResponse.class);
+
+            Class<?> asyncContext = startAsync.getReturnType();
+            setTimeout = asyncContext.getMethod("setTimeout", long.class);
+            complete = asyncContext.getMethod("complete");
+        }
+        catch (NoSuchMethodException ignore) {
+            // Servlet 2.x container, no async support
+            isAsyncSupported = startAsync = setTimeout = complete = null;
+        }
+
+        IS_ASYNC_SUPPORTED = isAsyncSupported;
+        START_ASYNC = startAsync;
+        SET_TIMEOUT = setTimeout;
+        COMPLETE = complete;
+    }
+
+    AsyncSupport() {}
+
+    /**
+     * Tests if the container supports asynchronous processing.
+     *
+     * @return {@code true} if running in a Servlet 3.0 (or later) container
+     */
+    boolean isAvailable() {
+        return START_ASYNC != null;
+    }
+
+    /**
+     * Puts the request into asynchronous mode, if supported by the container and all filters and servlets
+     * in the chain. The request thread may return to the container, once the request is in asynchronous mode.
+     * The asynchronous processing must always be ended by invoking {@link #complete(Object)}.
+     *
+     * @param pRequest the servlet request
+     * @param pResponse the servlet response
+     * @return the {@code AsyncContext}, or {@code null} if the request can't be processed asynchronously
+     */
+    Object startAsync(final ServletRequest pRequest, final ServletResponse pResponse) {
+        if (!isAvailable()) {
+            return null;
+        }
+
+        try {
+            if (!(Boolean) IS_ASYNC_SUPPORTED.invoke(pRequest)) {
+                return null;
+            }
+
+            Object asyncContext = START_ASYNC.invoke(pRequest, pRequest, pResponse);
+
+            // No timeout, the processing is bounded by the decode timeout and the request will always be completed
+            SET_TIMEOUT.invoke(asyncContext, 0L);
+
+            return asyncContext;
+        }
+        catch (InvocationTargetException e) {
+            // IllegalStateException if the request is already in asynchronous mode, or the response is closed
+            return null;
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Completes the asynchronous processing, and closes the response.
+     *
+     * @param pAsyncContext the {@code AsyncContext} returned from {@link #startAsync}
+     */
+    void complete(final Object pAsyncContext) {
+        try {
+            COMPLETE.invoke(pAsyncContext);
+        }
+        catch (InvocationTargetException e) {
+            // IllegalStateException if the request already timed out, or was completed
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -132,14 +132,15 @@ public class ContentNegotiationFilter extends ImageFilter {
     */
 
     protected void doFilterImpl(ServletRequest pRequest, ServletResponse pResponse, FilterChain pChain) throws IOException, ServletException {
-        // NOTE: super invokes trigger() and image specific doFilter() if needed
-        super.doFilterImpl(pRequest, pResponse, pChain);
-
+        // NOTE: The header must be set before the response is committed, possibly asynchronously
         if (pResponse instanceof HttpServletResponse) {
             // Update the Vary HTTP header field
             ((HttpServletResponse) pResponse).addHeader(HTTP_HEADER_VARY, HTTP_HEADER_ACCEPT);
             //((HttpServletResponse) pResponse).addHeader(HTTP_HEADER_VARY, HTTP_HEADER_USER_AGENT);
         }
+
+        // NOTE: super invokes trigger() and image specific doFilter() if needed
+        super.doFilterImpl(pRequest, pResponse, pChain);
     }
 
     /**
@@ -175,6 +176,13 @@ public class ContentNegotiationFilter extends ImageFilter {
         return pRequest.getHeader(HTTP_HEADER_ACCEPT);
     }
 
+    @Override
+    protected String getDerivedImageKey(final ServletRequest pRequest) {
+        // Output format depends on the Accept header
+        String accept = pRequest instanceof HttpServletRequest ? getAcceptedFormats((HttpServletRequest) pRequest) : null;
+        return super.getDerivedImageKey(pRequest) + ";" + HTTP_HEADER_ACCEPT + "=" + accept;
+    }
+
     /*
     private String getAcceptedFormats(HttpServletRequest pRequest) {
         String accept = pRequest.getHeader(HTTP_HEADER_ACCEPT);
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import javax.imageio.IIOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memory-aware admission control for image decoding.
+ * <p/>
+ * Each decode must {@link #acquire(long) acquire} a permit for the estimated size of the decoded image, before
+ * decoding. Permits are granted as long as the total size of the images being decoded or processed stays
+ * within the memory limit, otherwise the request waits until enough memory is released, or the timeout expires.
+ * Small images are admitted whenever they fit, and are not queued behind large images waiting for memory.
+ * An image larger than the memory limit is admitted only when no other image is being processed.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: DecodeScheduler.java,v 1.0 24.02.16 haraldk Exp$
+ */
+final class DecodeScheduler {
+    /** The default memory limit, one fourth of the maximum heap size. */
+    static final long DEFAULT_MEMORY_LIMIT = Runtime.getRuntime().maxMemory() / 4;
+
+    /** The default timeout, 30 seconds. */
+    static final long DEFAULT_TIMEOUT = 30000;
+
+    private final long memoryLimit;
+    private final long timeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    // All guarded by lock
+    private long usedMemory;
+    private long peakMemory;
+    private int active;
+    private int waiting;
+    private long admitted;
+    private long rejected;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    /**
+     * Creates a {@code DecodeScheduler}.
+     *
+     * @param pMemoryLimit the maximum total size of images being decoded or processed, in bytes
+     * @param pTimeout the maximum time to wait for a permit, in milliseconds
+     */
+    DecodeScheduler(final long pMemoryLimit, final long pTimeout) {
+        if (pMemoryLimit <= 0) {
+            throw new IllegalArgumentException("memoryLimit <= 0: " + pMemoryLimit);
+        }
+        if (pTimeout < 0) {
+            throw new IllegalArgumentException("timeout < 0: " + pTimeout);
+        }
+
+        memoryLimit = pMemoryLimit;
+        timeout = pTimeout;
+    }
+
+    /**
+     * Acquires a permit for decoding an image of the given size.
+     * The permit must be released, using {@link Permit#release()}, when the image is no longer needed.
+     *
+     * @param pSize the estimated size of the decoded image, in bytes
+     * @return a permit
+     *
+     * @throws RejectedException if no permit could be acquired before the timeout expired
+     * @throws InterruptedIOException if the current thread was interrupted while waiting
+     */
+    Permit acquire(final long pSize) throws RejectedException, InterruptedIOException {
+        long size = Math.min(Math.max(pSize, 0), memoryLimit);
+        long start = System.nanoTime();
+
+        lock.lock();
+        try {
+            if (usedMemory + size > memoryLimit) {
+                waiting++;
+
+                try {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+                    while (usedMemory + size > memoryLimit) {
+                        if (remaining <= 0) {
+                            rejected++;
+                            throw new RejectedException(String.format(
+                                    "Timed out waiting %d ms for %d bytes of decode memory (%d of %d bytes in use)",
+                                    timeout, pSize, usedMemory, memoryLimit
+                            ));
+                        }
+
+                        remaining = released.awaitNanos(remaining);
+                    }
+                }
+                catch (InterruptedException e) {
+                    rejected++;
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for decode memory");
+                }
+                finally {
+                    waiting--;
+                }
+            }
+
+            long wait = System.nanoTime() - start;
+            totalWaitNanos += wait;
+            maxWaitNanos = Math.max(maxWaitNanos, wait);
+
+            usedMemory += size;
+            peakMemory = Math.max(peakMemory, usedMemory);
+            active++;
+            admitted++;
+
+            return new Permit(size);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(final long pSize) {
+        lock.lock();
+        try {
+            usedMemory -= pSize;
+            active--;
+
+            released.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    long getUsedMemory() {
+        lock.lock();
+        try {
+            return usedMemory;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int getActiveCount() {
+        lock.lock();
+        try {
+            return active;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admitted;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format(
+                    "%s[memory: %d/%d bytes (peak %d), active: %d, waiting: %d, admitted: %d, rejected: %d, wait: %d ms avg/%d ms max]",
+                    getClass().getSimpleName(), usedMemory, memoryLimit, peakMemory, active, waiting, admitted, rejected,
+                    admitted > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / admitted) : 0,
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)
+            );
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Permit to decode and process an image.
+     */
+    final class Permit {
+        private final long size;
+        private boolean released;
+
+        private Permit(final long pSize) {
+            size = pSize;
+        }
+
+        /**
+         * Releases this permit. Invoking this method more than once has no effect.
+         */
+        void release() {
+            if (!released) {
+                released = true;
+                DecodeScheduler.this.release(size);
+            }
+        }
+    }
+
+    /**
+     * Thrown if an image could not be admitted for decoding, before the timeout expired.
+     */
+    static final class RejectedException extends IIOException {
+        RejectedException(final String pMessage) {
+            super(pMessage);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
+import com.twelvemonkeys.lang.StringUtil;
+import com.twelvemonkeys.util.WeightedLRUCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A memory cache of encoded, derived (filtered) images.
+ * <p/>
+ * Derived images are keyed by the validator (ETag or Last-Modified) of the source image, the request URI and
+ * query string, and the keys contributed by each {@link ImageFilter} in the chain.
+ * As the key changes whenever the source image or the filter parameters change, it is also used to create
+ * a strong, deterministic ETag for the derived image.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: DerivedImageCache.java,v 1.0 23.02.16 haraldk Exp$
+ */
+final class DerivedImageCache {
+    /** The default maximum size of the cache (16 MB). */
+    static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final WeightedLRUCache<String, Entry> cache;
+    private final int maxEntrySize;
+
+    /**
+     * Creates a {@code DerivedImageCache}.
+     *
+     * @param pMaxSize the maximum size of the cache, in bytes
+     */
+    DerivedImageCache(final long pMaxSize) {
+        cache = new WeightedLRUCache<String, Entry>(pMaxSize, new WeightedLRUCache.Weigher<Entry>() {
+            public long weigh(final Entry pValue) {
+                return pValue.data.length;
+            }
+        });
+
+        // Don't capture entries larger than a sixteenth of the cache, to keep a single image from evicting most of it
+        maxEntrySize = (int) Math.min(Integer.MAX_VALUE, pMaxSize / WeightedLRUCache.DEFAULT_SEGMENTS);
+    }
+
+    Entry get(final String pKey) {
+        return cache.get(pKey);
+    }
+
+    /**
+     * Creates a new capture for the encoded image, that may later be {@link #put(String, Capture) put} in the cache.
+     *
+     * @return a new capture, limited to the maximum size of an entry in this cache
+     */
+    Capture createCapture() {
+        return new Capture(maxEntrySize);
+    }
+
+    /**
+     * Puts the captured image in the cache, unless the capture is empty or exceeded the maximum entry size.
+     *
+     * @param pKey the key
+     * @param pContentType the content type of the encoded image
+     * @param pCapture the captured image data
+     */
+    void put(final String pKey, final String pContentType, final Capture pCapture) {
+        byte[] data = pCapture.toByteArray();
+
+        if (data != null && data.length > 0 && pContentType != null) {
+            cache.put(pKey, new Entry(pContentType, data));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + cache + "]";
+    }
+
+    /**
+     * Creates a strong ETag from the given key.
+     *
+     * @param pKey the derived image key
+     * @return a quoted, strong ETag
+     */
+    static String createETag(final String pKey) {
+        return '"' + digest(pKey) + '"';
+    }
+
+    /**
+     * Creates a SHA-1 digest of the given value.
+     *
+     * @param pValue the value
+     * @return the digest, as a string of hexadecimal digits
+     */
+    static String digest(final String pValue) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(pValue.getBytes(UTF8));
+
+            char[] hex = new char[digest.length * 2];
+
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+
+            return new String(hex);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required to be supported by all Java platforms
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Tests if the value of an {@code If-None-Match} header matches the given ETag, using weak comparison.
+     *
+     * @param pIfNoneMatch the {@code If-None-Match} header value, may be {@code null}
+     * @param pETag the quoted ETag
+     * @return {@code true} if the header matches the ETag
+     */
+    static boolean matches(final String pIfNoneMatch, final String pETag) {
+        if (pIfNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : StringUtil.toStringArray(pIfNoneMatch, ",")) {
+            tag = tag.trim();
+
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+
+            if ("*".equals(tag) || pETag.equals(tag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A cached, encoded image.
+     */
+    static final class Entry {
+        final String contentType;
+        final byte[] data;
+
+        Entry(final String pContentType, final byte[] pData) {
+            contentType = pContentType;
+            data = pData;
+        }
+    }
+
+    /**
+     * Captures a copy of the encoded image, while it is written to the response.
+     * Data is discarded, once the maximum size is exceeded.
+     */
+    static final class Capture extends OutputStream {
+        private final int maxSize;
+        private FastByteArrayOutputStream buffer = new FastByteArrayOutputStream(1024);
+
+        private Capture(final int pMaxSize) {
+            maxSize = pMaxSize;
+        }
+
+        @Override
+        public void write(final int pByte) throws IOException {
+            if (ensureCapacity(1)) {
+                buffer.write(pByte);
+            }
+        }
+
+        @Override
+        public void write(final byte[] pBytes, final int pOffset, final int pLength) throws IOException {
+            if (ensureCapacity(pLength)) {
+                buffer.write(pBytes, pOffset, pLength);
+            }
+        }
+
+        private boolean ensureCapacity(final int pLength) {
+            if (buffer != null && buffer.size() + (long) pLength > maxSize) {
+                buffer = null;
+            }
+
+            return buffer != null;
+        }
+
+        /**
+         * Returns the captured data.
+         *
+         * @return the captured data, or {@code null} if the maximum size was exceeded.
+         */
+        byte[] toByteArray() {
+            return buffer != null ? buffer.toByteArray() : null;
+        }
+    }
+}
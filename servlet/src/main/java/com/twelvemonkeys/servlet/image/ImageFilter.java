@@ -37,6 +37,13 @@ import javax.servlet.http.HttpServletResponse;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for image filters. Automatically decoding and encoding of
@@ -56,6 +63,57 @@ public abstract class ImageFilter extends GenericFilter {
 
     protected String[] triggerParams = null;
 
+    private int memoryThreshold = ImageServletResponseImpl.DEFAULT_MEMORY_THRESHOLD;
+    private DerivedImageCache derivedCache = new DerivedImageCache(DerivedImageCache.DEFAULT_MAX_SIZE);
+
+    private long decodeMemoryLimit = DecodeScheduler.DEFAULT_MEMORY_LIMIT;
+    private long decodeTimeout = DecodeScheduler.DEFAULT_TIMEOUT;
+    private DecodeScheduler decodeScheduler = new DecodeScheduler(decodeMemoryLimit, decodeTimeout);
+
+    // Number of requests served by each decode path
+    private final ConcurrentMap<String, AtomicLong> decodePaths = new ConcurrentHashMap<String, AtomicLong>();
+
+    private ThreadPoolExecutor asyncExecutor;
+    private AsyncSupport asyncSupport = AsyncSupport.CONTAINER;
+
+    // Digest of the init-parameters, part of the default derived image key
+    private String configDigest;
+
+    /**
+     * Initializes the filter, and creates a digest of the init-parameters for use in the
+     * {@link #getDerivedImageKey(ServletRequest) derived image key}.
+     *
+     * @param pConfig the filter config
+     * @throws ServletException if an error occurs during init
+     */
+    @Override
+    public void init(final FilterConfig pConfig) throws ServletException {
+        super.init(pConfig);
+
+        configDigest = digestInitParameters(pConfig);
+    }
+
+    private static String digestInitParameters(final FilterConfig pConfig) {
+        // Sorted by name, as the order of the parameters is unspecified
+        Map<String, String> parameters = new TreeMap<String, String>();
+
+        for (Enumeration names = pConfig.getInitParameterNames(); names != null && names.hasMoreElements();) {
+            String name = (String) names.nextElement();
+            parameters.put(name, pConfig.getInitParameter(name));
+        }
+
+        if (parameters.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder config = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            config.append(parameter.getKey()).append('=').append(parameter.getValue()).append('\n');
+        }
+
+        return DerivedImageCache.digest(config.toString());
+    }
+
     /**
      * The {@code doFilterImpl} method is called once, or each time a
      * request/response pair is passed through the chain, depending on the
@@ -90,51 +148,223 @@ public abstract class ImageFilter extends GenericFilter {
             // For images, we do post filtering only and need to wrap the response
             ImageServletResponse imageResponse = createImageServletResponse(pRequest, pResponse);
 
-            //System.out.println("Passing request on to next in chain...");
-            // Pass the request on
-            pChain.doFilter(pRequest, imageResponse);
+            if (imageResponse instanceof ImageServletResponseImpl) {
+                ImageServletResponseImpl response = (ImageServletResponseImpl) imageResponse;
 
-            //System.out.println("Post filtering...");
+                if (encode) {
+                    response.setDerivedImageCache(derivedCache);
+                    response.setDecodeScheduler(decodeScheduler);
+                    response.setSizeStrategies(getSizeStrategies());
+                }
 
-            // Get image
-            //System.out.println("Getting image from ImageServletResponse...");
-            // Get the image from the wrapped response
-            RenderedImage image = imageResponse.getImage();
-            //System.out.println("Got image: " + image);
+                response.appendDerivedImageKey(getDerivedImageKey(pRequest));
+            }
 
-            // Note: Image will be null if this is a HEAD request, the
-            // If-Modified-Since header is present, or similar.
-            if (image != null) {
-                // Do the image filtering
-                //System.out.println("Filtering image (" + getFilterName() + ")...");
-                image = doFilter(ImageUtil.toBuffered(image), pRequest, imageResponse);
-                //System.out.println("Done filtering.");
-
-                //System.out.println("Making image available...");
-                // Make image available to other filters (avoid unnecessary serializing/deserializing)
-                imageResponse.setImage(image);
-                //System.out.println("Done.");
+            boolean async = false;
+
+            try {
+                async = doFilterImage(pRequest, pResponse, pChain, imageResponse, encode);
+            }
+            catch (DecodeScheduler.RejectedException e) {
+                // Only the outermost filter may send the error, and only for HTTP responses
+                if (!encode || !(pResponse instanceof HttpServletResponse)) {
+                    throw e;
+                }
+
+                log(e.getMessage() + ": " + decodeScheduler);
+                ((HttpServletResponse) pResponse).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             }
+            finally {
+                // Make sure the buffered original response is released, even if filtering or encoding failed
+                // (when processed asynchronously, the response is released when done)
+                if (encode && !async && imageResponse instanceof ImageServletResponseImpl) {
+                    ((ImageServletResponseImpl) imageResponse).dispose();
+                }
+            }
+        }
+        //System.out.println("Filtering done.");
+    }
+
+    // Returns true if the image is processed asynchronously, and the request thread may return
+    private boolean doFilterImage(final ServletRequest pRequest, final ServletResponse pResponse, final FilterChain pChain,
+                                  final ImageServletResponse imageResponse, final boolean encode)
+            throws IOException, ServletException {
+        //System.out.println("Passing request on to next in chain...");
+        // Pass the request on
+        pChain.doFilter(pRequest, imageResponse);
+
+        // If the client has the derived image, or it's cached, there's no need to decode or filter
+        if (imageResponse instanceof ImageServletResponseImpl && ((ImageServletResponseImpl) imageResponse).isDerivedImageAvailable()) {
             if (encode) {
-                //System.out.println("Encoding image...");
-                // Encode image to original response
-                if (image != null) {
-                    // TODO: Be smarter than this...
-                    // TODO: Make sure ETag is same, if image content is the same...
-                    // Use ETag of original response (or derived from)
-                    // Use last modified of original response? Or keep original resource's, don't set at all?
-                    // TODO: Why weak ETag?
-                    String etag = "W/\"" + Integer.toHexString(hashCode()) + "-" + Integer.toHexString(image.hashCode()) + "\"";
+                ((ImageServletResponseImpl) imageResponse).writeDerivedImage();
+            }
+
+            return false;
+        }
+
+        // Leave decoding and filtering to the outermost filter, so that all steps are done in the same thread,
+        // asynchronously if possible, instead of decoding in the request thread here
+        if (!encode && imageResponse instanceof ImageServletResponseImpl) {
+            ((ImageServletResponseImpl) imageResponse).deferFilterStep(new ImageServletResponseImpl.FilterStep() {
+                public void filter() throws IOException {
+                    processImage(pRequest, pResponse, imageResponse, false);
+                }
+            });
+
+            return false;
+        }
+
+        // The original response is now buffered, let the async executor decode, filter and encode the image,
+        // and release the request thread
+        if (encode && asyncExecutor != null && imageResponse instanceof ImageServletResponseImpl) {
+            Object asyncContext = asyncSupport.startAsync(pRequest, pResponse);
+
+            if (asyncContext != null) {
+                processImageAsync(pRequest, pResponse, imageResponse, asyncContext);
+                return true;
+            }
+        }
+
+        processImage(pRequest, pResponse, imageResponse, encode);
+
+        return false;
+    }
+
+    private void processImageAsync(final ServletRequest pRequest, final ServletResponse pResponse,
+                                   final ImageServletResponse imageResponse, final Object asyncContext) {
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    processImage(pRequest, pResponse, imageResponse, true);
+                }
+                catch (DecodeScheduler.RejectedException e) {
+                    sendErrorAsync(pResponse, e, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+                catch (Exception e) {
+                    sendErrorAsync(pResponse, e, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+                finally {
+                    try {
+                        ((ImageServletResponseImpl) imageResponse).dispose();
+                    }
+                    finally {
+                        asyncSupport.complete(asyncContext);
+                    }
+                }
+            }
+        };
+
+        try {
+            asyncExecutor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            // The executor is saturated (or shut down), process in the request thread instead
+            task.run();
+        }
+    }
+
+    private void sendErrorAsync(final ServletResponse pResponse, final Exception pException, final int pStatus) {
+        // There's no container to handle the exception, once the request thread has returned
+        log("Could not process image: " + pException.getMessage() + ": " + decodeScheduler, pException);
+
+        if (pResponse instanceof HttpServletResponse && !pResponse.isCommitted()) {
+            try {
+                ((HttpServletResponse) pResponse).sendError(pStatus);
+            }
+            catch (IOException ignore) {
+                // Most likely the client is gone
+            }
+        }
+    }
+
+    private void processImage(final ServletRequest pRequest, final ServletResponse pResponse,
+                              final ImageServletResponse imageResponse, final boolean encode) throws IOException {
+        //System.out.println("Post filtering...");
+
+        // Run the steps of the filters later in the chain first
+        if (encode && imageResponse instanceof ImageServletResponseImpl) {
+            ((ImageServletResponseImpl) imageResponse).runDeferredFilterSteps();
+        }
+
+        // Get image
+        //System.out.println("Getting image from ImageServletResponse...");
+        // Get the image from the wrapped response
+        RenderedImage image = imageResponse.getImage();
+        //System.out.println("Got image: " + image);
+
+        // Note: Image will be null if this is a HEAD request, the
+        // If-Modified-Since header is present, or similar.
+        if (image != null) {
+            // Do the image filtering
+            //System.out.println("Filtering image (" + getFilterName() + ")...");
+            image = doFilter(ImageUtil.toBuffered(image), pRequest, imageResponse);
+            //System.out.println("Done filtering.");
+
+            //System.out.println("Making image available...");
+            // Make image available to other filters (avoid unnecessary serializing/deserializing)
+            imageResponse.setImage(image);
+            //System.out.println("Done.");
+        }
+        if (encode) {
+            //System.out.println("Encoding image...");
+            // Encode image to original response
+            if (image != null) {
+                if (imageResponse instanceof ImageServletResponseImpl && ((ImageServletResponseImpl) imageResponse).getDerivedImageETag() != null) {
+                    // Strong ETag derived from the original response's validator and the filter parameters,
+                    // and Last-Modified of the original response
+                    ((ImageServletResponseImpl) imageResponse).setDerivedImageHeaders();
+                }
+                else {
+                    // No validator in original response
                     // TODO: This breaks for wrapped instances, need to either unwrap or test for HttpSR...
-                    ((HttpServletResponse) pResponse).setHeader("ETag", etag);
                     ((HttpServletResponse) pResponse).setDateHeader("Last-Modified", (System.currentTimeMillis() / 1000) * 1000);
                 }
+            }
 
-                imageResponse.flush();
-                //System.out.println("Done encoding.");
+            imageResponse.flush();
+            //System.out.println("Done encoding.");
+
+            if (imageResponse instanceof ImageServletResponseImpl) {
+                countDecodePath(((ImageServletResponseImpl) imageResponse).getDecodePath());
             }
         }
-        //System.out.println("Filtering done.");
+    }
+
+    private void countDecodePath(final String pPath) {
+        if (pPath != null) {
+            AtomicLong count = decodePaths.get(pPath);
+
+            if (count == null) {
+                AtomicLong existing = decodePaths.putIfAbsent(pPath, count = new AtomicLong());
+                count = existing != null ? existing : count;
+            }
+
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of requests served by each decode path.
+     *
+     * @param pPath the decode path
+     * @return the number of requests served by the decode path
+     * @see ImageServletResponse#ATTRIB_DECODE_PATH
+     */
+    long getDecodePathCount(final String pPath) {
+        AtomicLong count = decodePaths.get(pPath);
+        return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public void destroy() {
+        log("decode paths: " + decodePaths + ", " + decodeScheduler);
+
+        if (asyncExecutor != null) {
+            // Let requests in progress complete
+            asyncExecutor.shutdown();
+        }
+
+        super.destroy();
     }
 
     /**
@@ -153,7 +383,7 @@ public abstract class ImageFilter extends GenericFilter {
             return response;
         }
 
-        return new ImageServletResponseImpl(pRequest, pResponse, getServletContext());
+        return new ImageServletResponseImpl(pRequest, pResponse, getServletContext(), memoryThreshold);
     }
 
     /**
@@ -203,6 +433,140 @@ public abstract class ImageFilter extends GenericFilter {
         triggerParams = StringUtil.toStringArray(pTriggerParams);
     }
 
+    /**
+     * Sets the maximum number of bytes of the original (unfiltered) response to buffer in memory.
+     * Larger responses are buffered in a temporary file, to reduce heap usage.
+     * Defaults to 1 MB.
+     *
+     * @param pMemoryThreshold the maximum number of bytes to buffer in memory
+     */
+    public void setMemoryThreshold(final int pMemoryThreshold) {
+        memoryThreshold = pMemoryThreshold;
+    }
+
+    /**
+     * Sets the maximum size of the cache of derived (filtered and encoded) images, in bytes.
+     * A size of {@code 0} disables the cache.
+     * Defaults to 16 MB.
+     *
+     * @param pCacheSize the maximum size of the derived image cache
+     */
+    public void setCacheSize(final long pCacheSize) {
+        derivedCache = pCacheSize > 0 ? new DerivedImageCache(pCacheSize) : null;
+    }
+
+    /**
+     * Sets the maximum total size of the images being decoded and processed at any time, in bytes.
+     * The size of an image is estimated from its width, height and pixel size, before decoding.
+     * Requests for images that would exceed the limit wait for memory to be released by other requests,
+     * while smaller images may still be processed.
+     * A limit of {@code 0} disables the limit.
+     * Defaults to one fourth of the maximum heap size.
+     *
+     * @param pDecodeMemoryLimit the maximum size of images being decoded, in bytes
+     */
+    public void setDecodeMemoryLimit(final long pDecodeMemoryLimit) {
+        decodeMemoryLimit = pDecodeMemoryLimit;
+        decodeScheduler = createDecodeScheduler();
+    }
+
+    /**
+     * Sets the maximum time to wait for memory to decode an image, in milliseconds.
+     * If the timeout expires, the request is rejected with status {@code 503 (Service Unavailable)}.
+     * Defaults to 30 seconds.
+     *
+     * @param pDecodeTimeout the maximum time to wait for memory to decode an image, in milliseconds
+     */
+    public void setDecodeTimeout(final long pDecodeTimeout) {
+        decodeTimeout = pDecodeTimeout;
+        decodeScheduler = createDecodeScheduler();
+    }
+
+    private DecodeScheduler createDecodeScheduler() {
+        return decodeMemoryLimit > 0 ? new DecodeScheduler(decodeMemoryLimit, decodeTimeout) : null;
+    }
+
+    /**
+     * Sets the number of threads used for processing images asynchronously.
+     * When running in a Servlet 3.0 (or later) container, and the filter and all filters and servlets in the
+     * chain support asynchronous processing, the request thread is released as soon as the original response is
+     * buffered. The image is then decoded, filtered and encoded by one of these threads, instead of the request
+     * thread. This includes the filtering done by any image filters later in the chain.
+     * If all threads are busy, and the queue of waiting requests is full, or asynchronous processing is not
+     * supported, the image is processed in the request thread.
+     * A value of {@code 0} disables asynchronous processing.
+     * Defaults to {@code 0}.
+     *
+     * @param pAsyncThreads the number of threads used for processing images asynchronously
+     */
+    public void setAsyncThreads(final int pAsyncThreads) {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+
+        asyncExecutor = pAsyncThreads > 0 ? createAsyncExecutor(pAsyncThreads) : null;
+    }
+
+    private static ThreadPoolExecutor createAsyncExecutor(final int pThreads) {
+        // Bounded queue, to push back on the request threads when saturated
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(pThreads, pThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(pThreads * 16), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "TwelveMonkeys-ImageFilter-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    // For testing only, replaces the container's asynchronous processing
+    void setAsyncSupport(final AsyncSupport pAsyncSupport) {
+        asyncSupport = pAsyncSupport;
+    }
+
+    // For testing only
+    DecodeScheduler getDecodeScheduler() {
+        return decodeScheduler;
+    }
+
+    /**
+     * Returns the strategies used for reading a lower resolution version of the image, like an embedded thumbnail,
+     * when the image is requested in a smaller size.
+     * The strategies are tried in order, before decoding the full image.
+     * <p/>
+     * This default implementation returns strategies reading embedded thumbnails (like EXIF/JFIF thumbnails in JPEG,
+     * or PSD thumbnail resources), and reduced resolution images (like TIFF reduced resolution IFDs, or the
+     * nearest size in ICO/ICNS). Override this method to use other strategies, or return an empty list to always
+     * decode the full image.
+     *
+     * @return the size strategies
+     */
+    protected List<SizeStrategy> getSizeStrategies() {
+        return SizeStrategies.DEFAULT;
+    }
+
+    /**
+     * Returns the key identifying the processing done by this filter, used for caching derived images, and
+     * creating their ETags.
+     * The key is combined with the validator of the original response, the request URI and query string, and the
+     * keys of the other filters in the chain.
+     * <p/>
+     * This default implementation returns the filter name, and a digest of the filter's init-parameters.
+     * Filters configured by other means than init-parameters, or where the result depends on other parts of
+     * the request, like request headers, must override this method to include these values in the key.
+     *
+     * @param pRequest the servlet request
+     * @return the key for this filter
+     */
+    protected String getDerivedImageKey(final ServletRequest pRequest) {
+        return configDigest != null ? getFilterName() + ";" + configDigest : getFilterName();
+    }
+
     /**
      * Filters the image for this request.
      *
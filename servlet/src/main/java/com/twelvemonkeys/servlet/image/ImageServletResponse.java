@@ -142,6 +142,15 @@ public interface ImageServletResponse extends ServletResponse {
      */
     String ATTRIB_IMAGE_RESAMPLE_ALGORITHM = "com.twelvemonkeys.servlet.image.ImageServletResponse.IMAGE_RESAMPLE_ALGORITHM";
 
+    /**
+     * Request attribute of type {@link String}, set by the response when the
+     * image is decoded, recording how the image was read.
+     * The value is the {@link SizeStrategy#getName() name} of the size strategy
+     * that served the request, like {@code "thumbnail"}, or one of
+     * {@code "render-size"}, {@code "subsampling"} or {@code "full"}.
+     */
+    String ATTRIB_DECODE_PATH = "com.twelvemonkeys.servlet.image.ImageServletResponse.DECODE_PATH";
+
     /**
      * Gets the image format for this response, such as "image/gif" or "image/jpeg".
      * If not set, the default format is that of the original image.
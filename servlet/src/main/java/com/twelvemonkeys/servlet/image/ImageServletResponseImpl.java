@@ -29,14 +29,15 @@
 package com.twelvemonkeys.servlet.image;
 
 import com.twelvemonkeys.image.ImageUtil;
-import com.twelvemonkeys.io.FastByteArrayOutputStream;
 import com.twelvemonkeys.lang.StringUtil;
+import com.twelvemonkeys.net.HTTPUtil;
 import com.twelvemonkeys.servlet.ServletResponseStreamDelegate;
 import com.twelvemonkeys.servlet.ServletUtil;
 
 import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
@@ -48,13 +49,16 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * This {@link ImageServletResponse} implementation can be used with image
@@ -63,6 +67,10 @@ import java.util.Iterator;
  * The response also automatically handles writing the image back to the underlying response stream
  * in the preferred format, when the response is flushed.
  * <p>
+ * The original response body is buffered in memory, up to a given threshold, and spilled to a temporary file
+ * when the threshold is exceeded. The image is decoded directly from the buffer, and the encoded image is written
+ * directly to the underlying response stream.
+ * <p>
  * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
  * @version $Id: ImageServletResponseImpl.java#10 $
  */
@@ -76,7 +84,23 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
     private final ServletContext context;
     private final ServletResponseStreamDelegate streamDelegate;
 
-    private FastByteArrayOutputStream bufferedOut;
+    /** The default maximum size of the original response body buffered in memory (1 MB). */
+    static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+
+    /** The request attributes that affect the derived image. */
+    private static final String[] DERIVED_IMAGE_ATTRIBUTES = {
+            ATTRIB_SIZE, ATTRIB_SIZE_UNIFORM, ATTRIB_SIZE_PERCENT,
+            ATTRIB_AOI, ATTRIB_AOI_UNIFORM, ATTRIB_AOI_PERCENT,
+            ATTRIB_BG_COLOR, ATTRIB_OUTPUT_QUALITY, ATTRIB_READ_SUBSAMPLING_FACTOR, ATTRIB_IMAGE_RESAMPLE_ALGORITHM
+    };
+
+    private SpillOutputStream bufferedOut;
+
+    private DecodeScheduler decodeScheduler;
+    private DecodeScheduler.Permit decodePermit;
+
+    private List<SizeStrategy> sizeStrategies = SizeStrategies.DEFAULT;
+    private String decodePath;
 
     private RenderedImage image;
     private String outputContentType;
@@ -84,6 +108,19 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
     private String originalContentType;
     private int originalContentLength = -1;
 
+    private int originalStatus = SC_OK;
+    private String originalETag;
+    private String originalLastModified;
+
+    private DerivedImageCache derivedCache;
+    private final StringBuilder derivedKey = new StringBuilder();
+    private boolean derivedResolved;
+    private String derivedETag;
+    private DerivedImageCache.Entry derivedEntry;
+    private boolean notModified;
+
+    private final List<FilterStep> deferredSteps = new ArrayList<>();
+
     /**
      * Creates an {@code ImageServletResponseImpl}.
      *
@@ -92,17 +129,26 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
      * @param pContext the servlet context
      */
     public ImageServletResponseImpl(final HttpServletRequest pRequest, final HttpServletResponse pResponse, final ServletContext pContext) {
+        this(pRequest, pResponse, pContext, DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Creates an {@code ImageServletResponseImpl}.
+     *
+     * @param pRequest the request
+     * @param pResponse the response
+     * @param pContext the servlet context
+     * @param pMemoryThreshold the maximum number of bytes of the original response body to buffer in memory,
+     *        larger responses are buffered in a temporary file
+     */
+    public ImageServletResponseImpl(final HttpServletRequest pRequest, final HttpServletResponse pResponse, final ServletContext pContext, final int pMemoryThreshold) {
         super(pResponse);
         originalRequest = pRequest;
         streamDelegate = new ServletResponseStreamDelegate(pResponse) {
             @Override
             protected OutputStream createOutputStream() throws IOException {
-                if (originalContentLength >= 0) {
-                    bufferedOut = new FastByteArrayOutputStream(originalContentLength);
-                }
-                else {
-                    bufferedOut = new FastByteArrayOutputStream(0);
-                }
+                File tempDir = (File) context.getAttribute("javax.servlet.context.tempdir");
+                bufferedOut = new SpillOutputStream(originalContentLength >= 0 ? originalContentLength : 0, pMemoryThreshold, tempDir);
 
                 return bufferedOut;
             }
@@ -125,6 +171,22 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
         this((HttpServletRequest) pRequest, (HttpServletResponse) pResponse, pContext);
     }
 
+    /**
+     * Creates an {@code ImageServletResponseImpl}.
+     *
+     * @param pRequest the request
+     * @param pResponse the response
+     * @param pContext the servlet context
+     * @param pMemoryThreshold the maximum number of bytes of the original response body to buffer in memory,
+     *        larger responses are buffered in a temporary file
+     *
+     * @throws ClassCastException if {@code pRequest} is not an {@link javax.servlet.http.HttpServletRequest} or
+     *         {@code pResponse} is not an {@link javax.servlet.http.HttpServletResponse}.
+     */
+    public ImageServletResponseImpl(final ServletRequest pRequest, final ServletResponse pResponse, final ServletContext pContext, final int pMemoryThreshold) {
+        this((HttpServletRequest) pRequest, (HttpServletResponse) pResponse, pContext, pMemoryThreshold);
+    }
+
     /**
      * Called by the container, do not invoke.
      *
@@ -182,10 +244,205 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
             setContentType(value);
         }
         else {
+            recordValidator(name, value);
             super.setHeader(name, value);
         }
     }
 
+    @Override
+    public void addHeader(final String name, final String value) {
+        recordValidator(name, value);
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public void setDateHeader(final String name, final long date) {
+        recordValidator(name, HTTPUtil.formatHTTPDate(date));
+        super.setDateHeader(name, date);
+    }
+
+    @Override
+    public void addDateHeader(final String name, final long date) {
+        recordValidator(name, HTTPUtil.formatHTTPDate(date));
+        super.addDateHeader(name, date);
+    }
+
+    private void recordValidator(final String name, final String value) {
+        if ("ETag".equalsIgnoreCase(name)) {
+            originalETag = value;
+        }
+        else if ("Last-Modified".equalsIgnoreCase(name)) {
+            originalLastModified = value;
+        }
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        originalStatus = sc;
+        super.setStatus(sc);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setStatus(final int sc, final String sm) {
+        originalStatus = sc;
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+        originalStatus = sc;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+        originalStatus = sc;
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(final String location) throws IOException {
+        originalStatus = SC_MOVED_TEMPORARILY;
+        super.sendRedirect(location);
+    }
+
+    /**
+     * Sets the cache used for derived images.
+     *
+     * @param pCache the derived image cache, may be {@code null}
+     */
+    void setDerivedImageCache(final DerivedImageCache pCache) {
+        derivedCache = pCache;
+    }
+
+    /**
+     * Appends the key of a filter in the chain to the derived image key.
+     * Must be invoked before the response is written.
+     *
+     * @param pKey the key of the filter
+     */
+    void appendDerivedImageKey(final String pKey) {
+        derivedKey.append('\n').append(pKey);
+    }
+
+    /**
+     * Returns the strong ETag of the derived image.
+     * The ETag is created from the validator of the original response (ETag, or Last-Modified if no ETag),
+     * the request URI and query string, and the keys appended by the filters in the chain.
+     *
+     * @return the ETag of the derived image, or {@code null} if the original response is not a successful response
+     *         with a validator
+     */
+    String getDerivedImageETag() {
+        resolveDerivedImage();
+        return derivedETag;
+    }
+
+    /**
+     * Tests if the derived image is not modified since the client's request, or is available from the cache.
+     * If so, the derived image should be written using {@link #writeDerivedImage()}, and decoding and filtering
+     * can be skipped.
+     *
+     * @return {@code true} if the derived image is available without decoding
+     */
+    boolean isDerivedImageAvailable() {
+        resolveDerivedImage();
+        return notModified || derivedEntry != null;
+    }
+
+    // NOTE: Resolved only once, to make sure all filters in the chain agree
+    private void resolveDerivedImage() {
+        if (derivedResolved) {
+            return;
+        }
+
+        derivedResolved = true;
+
+        String key = getDerivedImageKey();
+
+        if (key != null) {
+            derivedETag = DerivedImageCache.createETag(key);
+            notModified = originalRequest instanceof HttpServletRequest
+                    && DerivedImageCache.matches(((HttpServletRequest) originalRequest).getHeader("If-None-Match"), derivedETag);
+            derivedEntry = derivedCache != null ? derivedCache.get(key) : null;
+        }
+    }
+
+    private String getDerivedImageKey() {
+        String validator = originalETag != null ? originalETag : originalLastModified;
+
+        if (originalStatus != SC_OK || validator == null || !(originalRequest instanceof HttpServletRequest)) {
+            return null;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) originalRequest;
+        String query = request.getQueryString();
+
+        StringBuilder key = new StringBuilder(validator)
+                .append('\n').append(request.getRequestURI()).append(query != null ? "?" + query : "");
+
+        // Attributes may also be set by other means than the filters in the chain
+        for (String attribute : DERIVED_IMAGE_ATTRIBUTES) {
+            Object value = request.getAttribute(attribute);
+
+            if (value != null) {
+                key.append('\n').append(attribute).append('=').append(value);
+            }
+        }
+
+        return key.append(derivedKey).toString();
+    }
+
+    /**
+     * Writes the derived image headers, that is the ETag and the Last-Modified date of the original response.
+     */
+    void setDerivedImageHeaders() {
+        resolveDerivedImage();
+
+        if (derivedETag != null) {
+            super.setHeader("ETag", derivedETag);
+
+            if (originalLastModified != null) {
+                super.setHeader("Last-Modified", originalLastModified);
+            }
+        }
+    }
+
+    /**
+     * Writes a {@code 304 Not Modified} response, or the cached derived image, to the original response.
+     *
+     * @throws IOException if an I/O exception occurs during writing
+     * @throws IllegalStateException if the derived image is not available
+     */
+    void writeDerivedImage() throws IOException {
+        if (!isDerivedImageAvailable()) {
+            throw new IllegalStateException("Derived image not available");
+        }
+
+        // Free resources, the original image is not needed
+        disposeBuffer();
+
+        setDerivedImageHeaders();
+
+        if (notModified) {
+            super.setStatus(SC_NOT_MODIFIED);
+        }
+        else {
+            super.setContentType(derivedEntry.contentType);
+            super.setContentLength(derivedEntry.data.length);
+
+            ServletOutputStream out = super.getOutputStream();
+
+            try {
+                out.write(derivedEntry.data);
+            }
+            finally {
+                out.flush();
+            }
+        }
+    }
+
     /**
      * Writes the image to the original {@code ServletOutputStream}.
      * If no format is set in this response, the image is encoded in the same
@@ -194,6 +451,25 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
      * @throws IOException if an I/O exception occurs during writing
      */
     public void flush() throws IOException {
+        try {
+            // Capture the encoded image, if it can be cached
+            DerivedImageCache.Capture capture = null;
+            if (derivedCache != null && getDerivedImageETag() != null) {
+                capture = derivedCache.createCapture();
+            }
+
+            flushImpl(capture);
+
+            if (capture != null && image != null) {
+                derivedCache.put(getDerivedImageKey(), getOutputContentType(), capture);
+            }
+        }
+        finally {
+            dispose();
+        }
+    }
+
+    private void flushImpl(final OutputStream pCapture) throws IOException {
         String outputType = getOutputContentType();
 
         // Force transcoding, if no other filtering is done
@@ -205,7 +481,7 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
             Iterator writers = ImageIO.getImageWritersByMIMEType(outputType);
             if (writers.hasNext()) {
                 super.setContentType(outputType);
-                OutputStream out = super.getOutputStream();
+                OutputStream out = pCapture != null ? new CapturingOutputStream(super.getOutputStream(), pCapture) : super.getOutputStream();
                 try {
                     ImageWriter writer = (ImageWriter) writers.next();
                     try {
@@ -244,7 +520,8 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
                             );
                         }
     //////////////////
-                        ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+                        // Write directly to the response, instead of the (file) cached stream created by ImageIO
+                        ImageOutputStream stream = new MemoryCacheImageOutputStream(out);
 
                         writer.setOutput(stream);
                         try {
@@ -283,6 +560,171 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
         }
     }
 
+    /**
+     * Releases the buffered original response body, and deletes the temporary file, if any.
+     * Also releases the decode permit, if the image was decoded.
+     * Invoking this method more than once has no effect.
+     */
+    void dispose() {
+        disposeBuffer();
+        releaseDecodePermit();
+    }
+
+    /**
+     * Defers a filtering step, until the image is processed by the filter that encodes the response.
+     * This allows all decoding and filtering to be done by a single thread, possibly asynchronously.
+     *
+     * @param pStep the filtering step
+     * @see #runDeferredFilterSteps()
+     */
+    void deferFilterStep(final FilterStep pStep) {
+        deferredSteps.add(pStep);
+    }
+
+    /**
+     * Runs the deferred filtering steps, in the order they were deferred, in the calling thread.
+     *
+     * @throws IOException if a filtering step fails
+     */
+    void runDeferredFilterSteps() throws IOException {
+        // The innermost filter defers its step first, which is also the order the steps must run in
+        while (!deferredSteps.isEmpty()) {
+            deferredSteps.remove(0).filter();
+        }
+    }
+
+    private void disposeBuffer() {
+        if (bufferedOut != null) {
+            bufferedOut.dispose();
+            bufferedOut = null;
+        }
+    }
+
+    /**
+     * Sets the scheduler used to limit the memory used for decoding images.
+     *
+     * @param pScheduler the decode scheduler, may be {@code null}
+     */
+    void setDecodeScheduler(final DecodeScheduler pScheduler) {
+        decodeScheduler = pScheduler;
+    }
+
+    private void acquireDecodePermit(final ImageReader pReader, final ImageReadParam pParam, final int pWidth, final int pHeight) throws IOException {
+        if (decodeScheduler != null && decodePermit == null) {
+            decodePermit = decodeScheduler.acquire(estimateDecodedSize(pReader, pParam, pWidth, pHeight));
+        }
+    }
+
+    private void releaseDecodePermit() {
+        if (decodePermit != null) {
+            decodePermit.release();
+            decodePermit = null;
+        }
+    }
+
+    /**
+     * Sets the strategies used for reading a lower resolution version of the image, when the image is
+     * requested in a smaller size.
+     *
+     * @param pStrategies the size strategies, in order
+     */
+    void setSizeStrategies(final List<SizeStrategy> pStrategies) {
+        sizeStrategies = pStrategies;
+    }
+
+    /**
+     * Returns the name of the path used to decode the image.
+     *
+     * @return the decode path, or {@code null} if the image is not decoded
+     * @see ImageServletResponse#ATTRIB_DECODE_PATH
+     */
+    String getDecodePath() {
+        return decodePath;
+    }
+
+    private BufferedImage readImage(final ImageReader pReader, final ImageReadParam pParam, final Dimension pSize, final double pSubsamplingFactor) throws IOException {
+        // Readers supporting source render size (ie. vector formats) are already as cheap as it gets
+        if (pSize != null && sizeStrategies != null && !pParam.canSetSourceRenderSize()) {
+            for (SizeStrategy strategy : sizeStrategies) {
+                BufferedImage image;
+
+                try {
+                    image = strategy.read(pReader, pParam, pSize, pSubsamplingFactor);
+                }
+                catch (IIOException e) {
+                    // Broken thumbnail or similar, just read the full image
+                    context.log("WARN: Size strategy " + strategy.getName() + " failed: " + e.getMessage());
+                    continue;
+                }
+
+                if (image != null) {
+                    setDecodePath(strategy.getName());
+                    return image;
+                }
+            }
+        }
+
+        if (pSize != null && pParam.canSetSourceRenderSize()) {
+            setDecodePath(SizeStrategies.PATH_RENDER_SIZE);
+        }
+        else if (pParam.getSourceXSubsampling() > 1 || pParam.getSourceYSubsampling() > 1) {
+            setDecodePath(SizeStrategies.PATH_SUBSAMPLING);
+        }
+        else {
+            setDecodePath(SizeStrategies.PATH_FULL);
+        }
+
+        return pReader.read(0, pParam);
+    }
+
+    private void setDecodePath(final String pPath) {
+        decodePath = pPath;
+        originalRequest.setAttribute(ATTRIB_DECODE_PATH, pPath);
+    }
+
+    /**
+     * Estimates the size of the decoded image, from the width and height, and the size of the pixels of the
+     * reader's raw image type, taking source render size or subsampling into account.
+     */
+    static long estimateDecodedSize(final ImageReader pReader, final ImageReadParam pParam, final int pWidth, final int pHeight) throws IOException {
+        long width = pWidth;
+        long height = pHeight;
+
+        Dimension renderSize = pParam.canSetSourceRenderSize() ? pParam.getSourceRenderSize() : null;
+
+        if (renderSize != null) {
+            width = renderSize.width;
+            height = renderSize.height;
+        }
+        else {
+            int subX = pParam.getSourceXSubsampling();
+            int subY = pParam.getSourceYSubsampling();
+            width = (width + subX - 1) / subX;
+            height = (height + subY - 1) / subY;
+        }
+
+        ImageTypeSpecifier type = pReader.getRawImageType(0);
+
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = pReader.getImageTypes(0);
+            type = types.hasNext() ? types.next() : null;
+        }
+
+        // Assume 4 bytes (ie. packed ARGB) per pixel, if unknown
+        int bytesPerPixel = 4;
+
+        if (type != null) {
+            int bits = 0;
+            for (int sampleSize : type.getSampleModel().getSampleSize()) {
+                bits += sampleSize;
+            }
+
+            bytesPerPixel = Math.max(1, (bits + 7) / 8);
+        }
+
+        return width * height * bytesPerPixel;
+    }
+
     private boolean isNonAlphaFormat(String outputType) {
         return "image/jpeg".equals(outputType) || "image/jpg".equals(outputType) ||
                 "image/bmp".equals(outputType) || "image/x-bmp".equals(outputType);
@@ -331,11 +773,10 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
                 return null;
             }
 
-            // Read from the byte buffer
-            InputStream byteStream = bufferedOut.createInputStream();
+            // Read directly from the buffer (memory or temporary file)
             ImageInputStream input = null;
             try {
-                input = ImageIO.createImageInputStream(byteStream);
+                input = bufferedOut.createImageInputStream();
                 Iterator readers = ImageIO.getImageReaders(input);
                 if (readers.hasNext()) {
                     // Get the correct reader
@@ -385,8 +826,11 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
 
 /////////////////////
 
-                        // Finally, read the image using the supplied parameter
-                        BufferedImage image = reader.read(0, param);
+                        // Wait for enough memory, before reading the image
+                        acquireDecodePermit(reader, param, originalWidth, originalHeight);
+
+                        // Finally, read the image using the supplied parameter, or a smaller version if available
+                        BufferedImage image = readImage(reader, param, size, readSubSamplingFactor);
 
                         // TODO: If we sub-sampled, it would be a good idea to blur before resampling,
                         // to avoid jagged lines artifacts
@@ -402,6 +846,11 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
                     }
                     finally {
                         reader.dispose();
+
+                        // Decoding failed, free memory for others
+                        if (this.image == null) {
+                            releaseDecodePermit();
+                        }
                     }
                 }
                 else {
@@ -410,15 +859,15 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
 
                     throw new IIOException("Unable to transcode image: No suitable image reader found (content-type: " + originalContentType + ").");
                 }
-
-                // Free resources, as the image is now either read, or unreadable
-                bufferedOut = null;
             }
             finally {
                 if (input != null) {
                     input.close();
                 }
             }
+
+            // Free resources, as the image is now either read, or unreadable
+            disposeBuffer();
         }
 
         // Image is usually a BufferedImage, but may also be a RenderedImage
@@ -797,4 +1246,35 @@ class ImageServletResponseImpl extends HttpServletResponseWrapper implements Ima
 
         return new Rectangle(pX, pY, pWidth, pHeight);
     }
+
+    /**
+     * Writes to the response stream, while capturing a copy of the data.
+     */
+    private static final class CapturingOutputStream extends FilterOutputStream {
+        private final OutputStream capture;
+
+        CapturingOutputStream(final OutputStream pOut, final OutputStream pCapture) {
+            super(pOut);
+            capture = pCapture;
+        }
+
+        @Override
+        public void write(final int pByte) throws IOException {
+            out.write(pByte);
+            capture.write(pByte);
+        }
+
+        @Override
+        public void write(final byte[] pBytes, final int pOffset, final int pLength) throws IOException {
+            out.write(pBytes, pOffset, pLength);
+            capture.write(pBytes, pOffset, pLength);
+        }
+    }
+
+    /**
+     * A filtering step, deferred until the image is processed.
+     */
+    interface FilterStep {
+        void filter() throws IOException;
+    }
 }
\ No newline at end of file
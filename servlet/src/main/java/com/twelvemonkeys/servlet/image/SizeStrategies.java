@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The default {@link SizeStrategy} implementations, and the names of the decode paths.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: SizeStrategies.java,v 1.0 25.02.16 haraldk Exp$
+ */
+final class SizeStrategies {
+    /** Decode path for images read at the requested size, by readers supporting source render size. */
+    static final String PATH_RENDER_SIZE = "render-size";
+    /** Decode path for images read using subsampling. */
+    static final String PATH_SUBSAMPLING = "subsampling";
+    /** Decode path for images read in full. */
+    static final String PATH_FULL = "full";
+
+    /** Reads embedded thumbnails, like EXIF/JFIF thumbnails in JPEG, or PSD thumbnail resources. */
+    static final SizeStrategy THUMBNAIL = new ThumbnailStrategy();
+
+    /** Reads reduced resolution images, like TIFF reduced resolution IFDs, or the different sizes in ICO/ICNS. */
+    static final SizeStrategy REDUCED_RESOLUTION = new ReducedResolutionStrategy();
+
+    /** The default strategies, in order. */
+    static final List<SizeStrategy> DEFAULT = Collections.unmodifiableList(Arrays.asList(THUMBNAIL, REDUCED_RESOLUTION));
+
+    // Number of the TIFF NewSubfileType tag, and the reduced resolution flag
+    private static final String TIFF_TAG_NEW_SUBFILE_TYPE = "254";
+    private static final long TIFF_FILETYPE_REDUCEDIMAGE = 1;
+
+    private SizeStrategies() {}
+
+    /**
+     * Tests if a candidate of the given size is an acceptable replacement for the original.
+     * The candidate must have the same aspect ratio as the original, and either be exactly the requested size, or
+     * at least the requested size multiplied by the subsampling factor.
+     */
+    static boolean isAcceptable(final int pWidth, final int pHeight, final int pCandidateWidth, final int pCandidateHeight,
+                                final Dimension pSize, final double pSubsamplingFactor) {
+        if (pCandidateWidth <= 0 || pCandidateHeight <= 0) {
+            return false;
+        }
+
+        // Allow rounding errors of one pixel in either direction
+        double aspect = pWidth / (double) pHeight;
+        if (Math.abs(pCandidateWidth - pCandidateHeight * aspect) > 1 && Math.abs(pCandidateHeight - pCandidateWidth / aspect) > 1) {
+            return false;
+        }
+
+        return pCandidateWidth == pSize.width && pCandidateHeight == pSize.height
+                || pCandidateWidth >= pSize.width * pSubsamplingFactor && pCandidateHeight >= pSize.height * pSubsamplingFactor;
+    }
+
+    private static final class ThumbnailStrategy implements SizeStrategy {
+        public String getName() {
+            return "thumbnail";
+        }
+
+        public BufferedImage read(final ImageReader pReader, final ImageReadParam pParam, final Dimension pSize, final double pSubsamplingFactor) throws IOException {
+            if (pParam.getSourceRegion() != null || !pReader.readerSupportsThumbnails()) {
+                return null;
+            }
+
+            int thumbnails = pReader.getNumThumbnails(0);
+            if (thumbnails <= 0) {
+                return null;
+            }
+
+            int width = pReader.getWidth(0);
+            int height = pReader.getHeight(0);
+
+            int best = -1;
+            long bestArea = (long) width * height;
+
+            for (int i = 0; i < thumbnails; i++) {
+                int thumbnailWidth = pReader.getThumbnailWidth(0, i);
+                int thumbnailHeight = pReader.getThumbnailHeight(0, i);
+                long area = (long) thumbnailWidth * thumbnailHeight;
+
+                if (area < bestArea && isAcceptable(width, height, thumbnailWidth, thumbnailHeight, pSize, pSubsamplingFactor)) {
+                    best = i;
+                    bestArea = area;
+                }
+            }
+
+            return best >= 0 ? pReader.readThumbnail(0, best) : null;
+        }
+    }
+
+    private static final class ReducedResolutionStrategy implements SizeStrategy {
+        public String getName() {
+            return "reduced-resolution";
+        }
+
+        public BufferedImage read(final ImageReader pReader, final ImageReadParam pParam, final Dimension pSize, final double pSubsamplingFactor) throws IOException {
+            if (pParam.getSourceRegion() != null) {
+                return null;
+            }
+
+            // Only formats where the other images are known to be versions of the same image,
+            // as for other formats, like multi-page TIFF or animated GIF, the images are different
+            String format = pReader.getFormatName();
+            boolean icon = "ico".equalsIgnoreCase(format) || "icns".equalsIgnoreCase(format);
+            boolean tiff = "tiff".equalsIgnoreCase(format) || "tif".equalsIgnoreCase(format);
+
+            if (!icon && !tiff) {
+                return null;
+            }
+
+            int images = pReader.getNumImages(true);
+            int width = pReader.getWidth(0);
+            int height = pReader.getHeight(0);
+
+            // Candidates must be smaller than the first image, unless the first image is not acceptable (icons only)
+            boolean firstAcceptable = isAcceptable(width, height, width, height, pSize, pSubsamplingFactor);
+
+            int best = -1;
+            long bestArea = firstAcceptable ? (long) width * height : Long.MAX_VALUE;
+
+            // For icons, use the largest size if no size is acceptable, rather than upscaling the first
+            int largest = -1;
+            long largestArea = (long) width * height;
+
+            for (int i = 1; i < images; i++) {
+                if (tiff && !isTIFFReducedResolution(pReader.getImageMetadata(i))) {
+                    continue;
+                }
+
+                int candidateWidth = pReader.getWidth(i);
+                int candidateHeight = pReader.getHeight(i);
+                long area = (long) candidateWidth * candidateHeight;
+
+                if (area < bestArea && isAcceptable(width, height, candidateWidth, candidateHeight, pSize, pSubsamplingFactor)) {
+                    best = i;
+                    bestArea = area;
+                }
+                else if (icon && area > largestArea) {
+                    largest = i;
+                    largestArea = area;
+                }
+            }
+
+            if (best < 0 && icon && !firstAcceptable) {
+                best = largest;
+            }
+
+            return best > 0 ? pReader.read(best) : null;
+        }
+
+        private static boolean isTIFFReducedResolution(final IIOMetadata pMetadata) {
+            String formatName = pMetadata != null ? pMetadata.getNativeMetadataFormatName() : null;
+
+            if (formatName == null) {
+                return false;
+            }
+
+            Node field = findField(pMetadata.getAsTree(formatName), TIFF_TAG_NEW_SUBFILE_TYPE);
+            Node value = field != null ? findValue(field) : null;
+
+            try {
+                return value != null && (Long.parseLong(value.getNodeValue()) & TIFF_FILETYPE_REDUCEDIMAGE) != 0;
+            }
+            catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private static Node findField(final Node pNode, final String pNumber) {
+            if ("TIFFField".equals(pNode.getNodeName())) {
+                NamedNodeMap attributes = pNode.getAttributes();
+                Node number = attributes != null ? attributes.getNamedItem("number") : null;
+
+                return number != null && pNumber.equals(number.getNodeValue()) ? pNode : null;
+            }
+
+            for (Node child = pNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+                Node field = findField(child, pNumber);
+
+                if (field != null) {
+                    return field;
+                }
+            }
+
+            return null;
+        }
+
+        private static Node findValue(final Node pNode) {
+            NamedNodeMap attributes = pNode.getAttributes();
+            Node value = attributes != null ? attributes.getNamedItem("value") : null;
+
+            if (value != null) {
+                return value;
+            }
+
+            for (Node child = pNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+                value = findValue(child);
+
+                if (value != null) {
+                    return value;
+                }
+            }
+
+            return null;
+        }
+    }
+}
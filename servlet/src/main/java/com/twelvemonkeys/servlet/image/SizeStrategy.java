@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Strategy for reading a lower resolution version of an image, like an embedded thumbnail or a reduced resolution
+ * image, when the image is requested in a smaller size.
+ * Reading a smaller source image is usually much cheaper than decoding the full image, before resampling.
+ * <p/>
+ * The strategies are tried in order, before falling back to decoding the full image, possibly using subsampling.
+ * The image read by a strategy is resampled to the requested size, if needed.
+ *
+ * @see ImageFilter#getSizeStrategies()
+ * @see ImageServletResponse#ATTRIB_DECODE_PATH
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: SizeStrategy.java,v 1.0 25.02.16 haraldk Exp$
+ */
+public interface SizeStrategy {
+    /**
+     * Returns the name of this strategy, used for recording which path served the request.
+     *
+     * @return the name of this strategy
+     */
+    String getName();
+
+    /**
+     * Reads a lower resolution version of the first image of the reader, if a suitable version is available.
+     * Implementations should only return an image of the same aspect ratio, and at least the requested size,
+     * or the requested size multiplied by the subsampling factor.
+     *
+     * @param pReader the image reader, with its input set
+     * @param pParam the read param, implementations should return {@code null} if a source region is set,
+     *        unless the region can be honored
+     * @param pSize the requested size
+     * @param pSubsamplingFactor the read subsampling factor
+     *
+     * @return the image, or {@code null} if no suitable lower resolution version is available
+     *
+     * @throws IOException if an I/O exception occurs during reading
+     */
+    BufferedImage read(ImageReader pReader, ImageReadParam pParam, Dimension pSize, double pSubsamplingFactor) throws IOException;
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import com.twelvemonkeys.io.FastByteArrayOutputStream;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An output stream that buffers its content in memory, up to a given threshold, and spills the content to a
+ * temporary file once the threshold is exceeded.
+ * <p/>
+ * The buffered content may be read back as a seekable {@code ImageInputStream}, reading the memory buffer or the
+ * temporary file in place, without copying. Invoke {@link #dispose()} when done, to delete the temporary file.
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: SpillOutputStream.java,v 1.0 22.02.16 haraldk Exp$
+ */
+final class SpillOutputStream extends OutputStream {
+    private final int threshold;
+    private final File tempDir;
+
+    private FastByteArrayOutputStream memory;
+    private File file;
+    private OutputStream fileOut;
+    private long size;
+
+    /**
+     * Creates a {@code SpillOutputStream}.
+     *
+     * @param pInitialSize the initial size of the memory buffer, will be clamped to {@code pThreshold}
+     * @param pThreshold the maximum number of bytes to keep in memory
+     * @param pTempDir the directory for the temporary file, or {@code null} to use the default temporary directory
+     */
+    SpillOutputStream(final int pInitialSize, final int pThreshold, final File pTempDir) {
+        if (pThreshold < 0) {
+            throw new IllegalArgumentException("threshold < 0: " + pThreshold);
+        }
+
+        threshold = pThreshold;
+        tempDir = pTempDir;
+        memory = new FastByteArrayOutputStream(Math.max(0, Math.min(pInitialSize, pThreshold)));
+    }
+
+    @Override
+    public void write(final int pByte) throws IOException {
+        if (memory != null && memory.size() + 1 > threshold) {
+            spill();
+        }
+
+        if (memory != null) {
+            memory.write(pByte);
+        }
+        else {
+            fileOut().write(pByte);
+        }
+
+        size++;
+    }
+
+    @Override
+    public void write(final byte[] pBytes, final int pOffset, final int pLength) throws IOException {
+        if (memory != null && memory.size() + (long) pLength > threshold) {
+            spill();
+        }
+
+        if (memory != null) {
+            memory.write(pBytes, pOffset, pLength);
+        }
+        else {
+            fileOut().write(pBytes, pOffset, pLength);
+        }
+
+        size += pLength;
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("imageservlet", ".tmp", tempDir);
+        fileOut = new BufferedOutputStream(new FileOutputStream(file));
+
+        memory.writeTo(fileOut);
+        memory = null;
+    }
+
+    private OutputStream fileOut() throws IOException {
+        if (fileOut == null) {
+            throw new IOException("Stream disposed");
+        }
+
+        return fileOut;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    /**
+     * Flushes any buffered data, but keeps the stream open, as the content is still needed for reading.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void finish() throws IOException {
+        if (fileOut != null) {
+            fileOut.close();
+            fileOut = null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to this stream.
+     *
+     * @return the number of bytes written
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Tests whether the content of this stream is spilled to a temporary file.
+     *
+     * @return {@code true} if the content is stored in a temporary file
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Creates a seekable {@code ImageInputStream} reading the content written to this stream.
+     * No more data may be written to this stream after invoking this method.
+     *
+     * @return a new {@code ImageInputStream}
+     * @throws IOException if an I/O exception occurs
+     */
+    ImageInputStream createImageInputStream() throws IOException {
+        finish();
+
+        if (memory != null) {
+            return new ByteArrayImageInputStream(memory.createInputStream(), memory.size());
+        }
+        else if (file != null) {
+            return new FileImageInputStream(file);
+        }
+
+        throw new IOException("Stream disposed");
+    }
+
+    /**
+     * Writes the content written to this stream to the given output stream.
+     * No more data may be written to this stream after invoking this method.
+     *
+     * @param pOut the output stream
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeTo(final OutputStream pOut) throws IOException {
+        finish();
+
+        if (memory != null) {
+            memory.writeTo(pOut);
+        }
+        else if (file != null) {
+            FileInputStream in = new FileInputStream(file);
+
+            try {
+                FileChannel channel = in.getChannel();
+                WritableByteChannel target = Channels.newChannel(pOut);
+
+                long position = 0;
+                long length = channel.size();
+
+                while (position < length) {
+                    position += channel.transferTo(position, length - position, target);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        else {
+            throw new IOException("Stream disposed");
+        }
+    }
+
+    /**
+     * Releases the memory buffer, and deletes the temporary file, if any.
+     * Invoking this method more than once has no effect.
+     */
+    void dispose() {
+        memory = null;
+
+        try {
+            finish();
+        }
+        catch (IOException ignore) {
+            // We're deleting the file anyway
+        }
+
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+
+            file = null;
+        }
+    }
+
+    /**
+     * {@code ImageInputStream} reading directly from the memory buffer.
+     * Unlike the {@code ImageInputStream}s created by {@code ImageIO}, the content is not copied to a cache.
+     */
+    private static final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+        private final ByteArrayInputStream input;
+        private final long length;
+
+        ByteArrayImageInputStream(final ByteArrayInputStream pInput, final long pLength) {
+            input = pInput;
+            length = pLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+
+            int read = input.read();
+
+            if (read != -1) {
+                streamPos++;
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] pBytes, final int pOffset, final int pLength) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+
+            int read = input.read(pBytes, pOffset, pLength);
+
+            if (read > 0) {
+                streamPos += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public void seek(final long pPosition) throws IOException {
+            super.seek(pPosition);
+
+            input.reset();
+            input.skip(pPosition);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+    }
+}
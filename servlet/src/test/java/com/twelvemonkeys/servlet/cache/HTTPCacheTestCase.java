@@ -17,6 +17,12 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -321,6 +327,89 @@ public class HTTPCacheTestCase {
         verify(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
     }
 
+    @Test
+    public void testCacheableRangeRequest() throws IOException, CacheException {
+        HTTPCache cache = new HTTPCache(getTempRoot(), 60000, 1024 * 1024, 10, true);
+        assertRangeRequest(cache);
+    }
+
+    @Test
+    public void testCacheableRangeRequestFromDisk() throws IOException, CacheException {
+        // No memory cache, content is always served from disk
+        HTTPCache cache = new HTTPCache(getTempRoot(), 60000, 0, 10, true);
+        assertRangeRequest(cache);
+    }
+
+    private void assertRangeRequest(final HTTPCache cache) throws IOException, CacheException {
+        CacheRequest request = configureRequest(mock(CacheRequest.class), createRequestURI());
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        CacheResponse response = mock(CacheResponse.class);
+        when(response.getOutputStream()).thenReturn(result);
+
+        final byte[] value = "foobar".getBytes("UTF-8");
+
+        ResponseResolver resolver = mock(ResponseResolver.class);
+        doAnswer(new ResolveAnswer(value)).when(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+
+        // Populate cache
+        cache.doCached(request, response, resolver);
+
+        assertTrue(Arrays.equals(value, result.toByteArray()));
+        verify(response).setHeader(HTTPCache.HEADER_ACCEPT_RANGES, "bytes");
+
+        // Request a range
+        result.reset();
+        reset(response);
+        when(response.getOutputStream()).thenReturn(result);
+
+        request = configureRequest(request, "GET", createRequestURI(), null, Collections.singletonMap(HTTPCache.HEADER_RANGE, Collections.singletonList("bytes=1-3")));
+        cache.doCached(request, response, resolver);
+
+        assertEquals("oob", new String(result.toByteArray(), "UTF-8"));
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setHeader(HTTPCache.HEADER_CONTENT_RANGE, "bytes 1-3/6");
+        verify(response).setHeader(HTTPCache.HEADER_CONTENT_LENGTH, "3");
+
+        // Request a suffix range
+        result.reset();
+        reset(response);
+        when(response.getOutputStream()).thenReturn(result);
+
+        request = configureRequest(request, "GET", createRequestURI(), null, Collections.singletonMap(HTTPCache.HEADER_RANGE, Collections.singletonList("bytes=-2")));
+        cache.doCached(request, response, resolver);
+
+        assertEquals("ar", new String(result.toByteArray(), "UTF-8"));
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setHeader(HTTPCache.HEADER_CONTENT_RANGE, "bytes 4-5/6");
+
+        // Request a range outside the content
+        result.reset();
+        reset(response);
+        when(response.getOutputStream()).thenReturn(result);
+
+        request = configureRequest(request, "GET", createRequestURI(), null, Collections.singletonMap(HTTPCache.HEADER_RANGE, Collections.singletonList("bytes=6-")));
+        cache.doCached(request, response, resolver);
+
+        assertEquals(0, result.size());
+        verify(response).setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        verify(response).setHeader(HTTPCache.HEADER_CONTENT_RANGE, "bytes */6");
+
+        // Multiple ranges are not supported, should get full content
+        result.reset();
+        reset(response);
+        when(response.getOutputStream()).thenReturn(result);
+
+        request = configureRequest(request, "GET", createRequestURI(), null, Collections.singletonMap(HTTPCache.HEADER_RANGE, Collections.singletonList("bytes=0-1,3-4")));
+        cache.doCached(request, response, resolver);
+
+        assertTrue(Arrays.equals(value, result.toByteArray()));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+
+        // Resolved only once
+        verify(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+    }
+
     @Test
     public void testNonCacheableRequestHeader() throws Exception {
         HTTPCache cache = new HTTPCache(getTempRoot(), 60000, 1024 * 1024, 10, true);
@@ -584,6 +673,166 @@ public class HTTPCacheTestCase {
         verify(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
     }
 
+    @Test
+    public void testNonCacheableResponseWrittenThrough() throws Exception {
+        HTTPCache cache = new HTTPCache(getTempRoot(), 60000, 1024 * 1024, 10, true);
+
+        // Custom setup
+        CacheRequest request = configureRequest(mock(CacheRequest.class), createRequestURI());
+
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        CacheResponse response = mock(CacheResponse.class);
+        when(response.getOutputStream()).thenReturn(result);
+
+        final byte[] value = "foobar".getBytes("UTF-8");
+
+        ResponseResolver resolver = mock(ResponseResolver.class);
+        doAnswer(new ResolveAnswer(HttpServletResponse.SC_OK, value, Collections.singletonMap("Cache-Control", Collections.singletonList("no-store"))) {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                super.answer(invocation);
+
+                // Content should be written to the response while resolving, not buffered
+                assertEquals(value.length, result.size());
+
+                return null;
+            }
+        }).when(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+
+        // Do the invocation
+        cache.doCached(request, response, resolver);
+
+        // Verify that response is ok
+        assertTrue(Arrays.equals(value, result.toByteArray()));
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response, atLeastOnce()).setHeader(eq("Cache-Control"), eq("no-store"));
+        verify(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+    }
+
+    @Test
+    public void testCacheableConcurrentRequestsResolvedOnce() throws Exception {
+        final HTTPCache cache = new HTTPCache(getTempRoot(), 60000, 1024 * 1024, 10, true);
+
+        // Custom setup
+        final CacheRequest request = configureRequest(mock(CacheRequest.class), createRequestURI());
+
+        final byte[] value = "foobar".getBytes("UTF-8");
+
+        final ResponseResolver resolver = mock(ResponseResolver.class);
+        doAnswer(new ResolveAnswer(value) {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                // Slow resolve, to make sure the other requests have to wait
+                Thread.sleep(100);
+
+                return super.answer(invocation);
+            }
+        }).when(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        ByteArrayOutputStream result = new ByteArrayOutputStream();
+                        CacheResponse response = mock(CacheResponse.class);
+                        when(response.getOutputStream()).thenReturn(result);
+
+                        cache.doCached(request, response, resolver);
+
+                        return result.toByteArray();
+                    }
+                }));
+            }
+
+            // Verify that all responses are ok
+            for (Future<byte[]> result : results) {
+                assertTrue(Arrays.equals(value, result.get()));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // Verify that resolve is executed exactly once
+        verify(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+    }
+
+    @Test
+    public void testNonCacheableConcurrentRequestsNotBlocked() throws Exception {
+        final HTTPCache cache = new HTTPCache(getTempRoot(), 60000, 1024 * 1024, 10, true);
+
+        // Custom setup
+        final CacheRequest request = configureRequest(mock(CacheRequest.class), createRequestURI());
+
+        final byte[] value = "foobar".getBytes("UTF-8");
+
+        final CountDownLatch resolving = new CountDownLatch(1);
+        final CountDownLatch clientDone = new CountDownLatch(1);
+
+        final ResponseResolver resolver = mock(ResponseResolver.class);
+        doAnswer(new ResolveAnswer(HttpServletResponse.SC_OK, value, Collections.singletonMap("Cache-Control", Collections.singletonList("no-store"))) {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (resolving.getCount() == 0) {
+                    return super.answer(invocation);
+                }
+
+                resolving.countDown();
+
+                // Make sure the other request is waiting for the first response
+                Thread.sleep(100);
+
+                super.answer(invocation);
+
+                // Slow client, the other request should not have to wait for this
+                clientDone.await(10, TimeUnit.SECONDS);
+
+                return null;
+            }
+        }).when(resolver).resolve(any(CacheRequest.class), any(CacheResponse.class));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Callable<byte[]> task = new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    CacheResponse response = mock(CacheResponse.class);
+                    when(response.getOutputStream()).thenReturn(result);
+
+                    cache.doCached(request, response, resolver);
+
+                    return result.toByteArray();
+                }
+            };
+
+            Future<byte[]> first = executor.submit(task);
+            assertTrue(resolving.await(10, TimeUnit.SECONDS));
+
+            Future<byte[]> second = executor.submit(task);
+
+            try {
+                // Should complete, while the first response is still being written
+                assertTrue(Arrays.equals(value, second.get(5, TimeUnit.SECONDS)));
+            }
+            finally {
+                clientDone.countDown();
+            }
+
+            assertTrue(Arrays.equals(value, first.get()));
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        verify(resolver, times(2)).resolve(any(CacheRequest.class), any(CacheResponse.class));
+    }
+
     // Test that request headers are forwarded to resolver...
     @Test
     public void testRequestHeadersForwarded() throws Exception {
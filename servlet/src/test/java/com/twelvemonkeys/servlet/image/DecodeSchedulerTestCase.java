@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * DecodeSchedulerTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: DecodeSchedulerTestCase.java,v 1.0 24.02.16 haraldk Exp$
+ */
+public class DecodeSchedulerTestCase {
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateZeroLimit() {
+        new DecodeScheduler(0, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNegativeTimeout() {
+        new DecodeScheduler(100, -1);
+    }
+
+    @Test
+    public void testAcquireWithinLimit() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(100, 0);
+
+        DecodeScheduler.Permit first = scheduler.acquire(60);
+        DecodeScheduler.Permit second = scheduler.acquire(40);
+
+        assertEquals(100, scheduler.getUsedMemory());
+        assertEquals(2, scheduler.getActiveCount());
+        assertEquals(2, scheduler.getAdmittedCount());
+
+        first.release();
+        second.release();
+
+        assertEquals(0, scheduler.getUsedMemory());
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void testReleaseTwice() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(100, 0);
+
+        DecodeScheduler.Permit permit = scheduler.acquire(60);
+        DecodeScheduler.Permit other = scheduler.acquire(20);
+        permit.release();
+        permit.release();
+
+        assertEquals(20, scheduler.getUsedMemory());
+        assertEquals(1, scheduler.getActiveCount());
+
+        other.release();
+    }
+
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(100, 10);
+
+        DecodeScheduler.Permit permit = scheduler.acquire(60);
+
+        try {
+            scheduler.acquire(60);
+            fail("Expected RejectedException");
+        }
+        catch (DecodeScheduler.RejectedException expected) {
+        }
+
+        assertEquals(1, scheduler.getRejectedCount());
+        assertEquals(0, scheduler.getWaitingCount());
+        assertEquals(60, scheduler.getUsedMemory());
+
+        permit.release();
+    }
+
+    @Test
+    public void testAcquireLargerThanLimitWhenIdle() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(100, 0);
+
+        DecodeScheduler.Permit permit = scheduler.acquire(1000);
+        assertEquals(100, scheduler.getUsedMemory());
+
+        try {
+            scheduler.acquire(1);
+            fail("Expected RejectedException");
+        }
+        catch (DecodeScheduler.RejectedException expected) {
+        }
+
+        permit.release();
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitForRelease() throws Exception {
+        final DecodeScheduler scheduler = new DecodeScheduler(100, 10000);
+
+        DecodeScheduler.Permit permit = scheduler.acquire(80);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(80).release();
+                    acquired.countDown();
+                }
+                catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        waiter.start();
+
+        while (scheduler.getWaitingCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        // Small images are still admitted, while the large image waits
+        scheduler.acquire(20).release();
+        assertEquals(1, acquired.getCount());
+
+        permit.release();
+
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+
+        assertNull(failure.get());
+        assertEquals(0, scheduler.getUsedMemory());
+        assertEquals(3, scheduler.getAdmittedCount());
+        assertEquals(0, scheduler.getRejectedCount());
+    }
+}
@@ -32,6 +32,7 @@ import com.twelvemonkeys.io.FileUtil;
 import com.twelvemonkeys.servlet.OutputStreamAdapter;
 import com.twelvemonkeys.util.StringTokenIterator;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
@@ -44,7 +45,10 @@ import java.awt.image.RenderedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
@@ -497,6 +501,351 @@ public class ImageFilterTestCase {
         verify(out, atLeastOnce()).flush();
    }
 
+    @Test
+    public void derivedImageCached() throws ServletException, IOException {
+        CountingFilter filter = createCountingFilter();
+        FilterChain chain = createChain("\"4711\"");
+
+        // First request, decode, filter and encode
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        HttpServletRequest request = createRequest(null);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(stream));
+
+        filter.doFilter(request, response, chain);
+
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(response, atLeastOnce()).setHeader(eq("ETag"), etag.capture());
+        assertTrue("Expected strong ETag: " + etag.getValue(), etag.getValue().startsWith("\""));
+        assertEquals(1, filter.count.get());
+
+        // Second request, served from cache, with the same ETag
+        ByteArrayOutputStream cachedStream = new ByteArrayOutputStream();
+        HttpServletResponse cachedResponse = mock(HttpServletResponse.class);
+        when(cachedResponse.getOutputStream()).thenReturn(new OutputStreamAdapter(cachedStream));
+
+        filter.doFilter(createRequest(null), cachedResponse, chain);
+
+        verify(cachedResponse).setHeader("ETag", etag.getValue());
+        verify(cachedResponse).setContentType("image/png");
+        assertEquals(1, filter.count.get());
+        assertArrayEquals(stream.toByteArray(), cachedStream.toByteArray());
+    }
+
+    @Test
+    public void derivedImageNotModified() throws ServletException, IOException {
+        CountingFilter filter = createCountingFilter();
+        filter.setCacheSize(0); // No cache, only validation
+        FilterChain chain = createChain("\"4711\"");
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(new ByteArrayOutputStream()));
+
+        filter.doFilter(createRequest(null), response, chain);
+
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(response, atLeastOnce()).setHeader(eq("ETag"), etag.capture());
+        assertEquals(1, filter.count.get());
+
+        // Conditional request, with the derived ETag
+        HttpServletResponse notModified = mock(HttpServletResponse.class);
+        filter.doFilter(createRequest(etag.getValue()), notModified, chain);
+
+        verify(notModified).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(notModified).setHeader("ETag", etag.getValue());
+        verify(notModified, never()).getOutputStream();
+        assertEquals(1, filter.count.get());
+
+        // Modified original, the derived image must be filtered again
+        HttpServletResponse modified = mock(HttpServletResponse.class);
+        when(modified.getOutputStream()).thenReturn(new OutputStreamAdapter(new ByteArrayOutputStream()));
+
+        filter.doFilter(createRequest(etag.getValue()), modified, createChain("\"4712\""));
+
+        verify(modified, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(modified, never()).setHeader("ETag", etag.getValue());
+        assertEquals(2, filter.count.get());
+    }
+
+    @Test
+    public void derivedImageKeyIncludesInitParameters() throws ServletException {
+        ServletRequest request = createRequest(null);
+
+        String key = createFilter("width", "100", "height", "50").getDerivedImageKey(request);
+        assertTrue(key, key.startsWith("dummy;"));
+
+        // Same parameters, in any order, gives the same key
+        assertEquals(key, createFilter("height", "50", "width", "100").getDerivedImageKey(request));
+
+        // Different parameters gives a different key
+        assertFalse(key.equals(createFilter("width", "200", "height", "50").getDerivedImageKey(request)));
+
+        // No parameters, only the filter name
+        assertEquals("dummy", createFilter().getDerivedImageKey(request));
+    }
+
+    @Test
+    public void asyncFallbackToRequestThread() throws ServletException, IOException {
+        CountingFilter filter = createCountingFilter();
+        filter.setAsyncThreads(2);
+
+        try {
+            // No async support in the Servlet 2.4 API, image must be processed before the filter returns
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(stream));
+
+            filter.doFilter(createRequest(null), response, createChain("\"4711\""));
+
+            assertEquals(1, filter.count.get());
+            assertTrue("Response not written", stream.size() > 0);
+            verify(response).setContentType("image/png");
+        }
+        finally {
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void asyncProcessImage() throws ServletException, IOException, InterruptedException {
+        CountingFilter filter = createCountingFilter();
+        StubAsyncSupport async = new StubAsyncSupport();
+        filter.setAsyncSupport(async);
+        filter.setAsyncThreads(2);
+
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(stream));
+
+            filter.doFilter(createRequest(null), response, createChain("\"4711\""));
+
+            assertTrue("Async processing not completed", async.completed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, async.started.get());
+            assertTrue(async.thread.get().getName(), async.thread.get().getName().startsWith("TwelveMonkeys-ImageFilter-"));
+
+            assertEquals(1, filter.count.get());
+            assertTrue("Response not written", stream.size() > 0);
+            verify(response).setContentType("image/png");
+            verify(response, never()).sendError(anyInt());
+
+            assertDecodeMemoryReleased(filter.getDecodeScheduler(), 1);
+        }
+        finally {
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void asyncProcessImageChained() throws ServletException, IOException, InterruptedException {
+        CountingFilter outer = createCountingFilter();
+        StubAsyncSupport async = new StubAsyncSupport();
+        outer.setAsyncSupport(async);
+        outer.setAsyncThreads(2);
+
+        final CountingFilter inner = createCountingFilter();
+        final FilterChain chain = createChain("\"4711\"");
+
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(stream));
+
+            outer.doFilter(createRequest(null), response, new FilterChain() {
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                    inner.doFilter(request, response, chain);
+                }
+            });
+
+            assertTrue("Async processing not completed", async.completed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, async.started.get());
+
+            // Both filters should decode and filter in the async thread, not in the request thread
+            assertEquals(1, inner.count.get());
+            assertEquals(1, outer.count.get());
+            assertTrue(inner.thread.get().getName(), inner.thread.get().getName().startsWith("TwelveMonkeys-ImageFilter-"));
+            assertSame(async.thread.get(), inner.thread.get());
+            assertSame(async.thread.get(), outer.thread.get());
+
+            assertTrue("Response not written", stream.size() > 0);
+            verify(response, never()).sendError(anyInt());
+
+            assertDecodeMemoryReleased(outer.getDecodeScheduler(), 1);
+        }
+        finally {
+            inner.destroy();
+            outer.destroy();
+        }
+    }
+
+    @Test
+    public void asyncProcessImageError() throws ServletException, IOException, InterruptedException {
+        FailingFilter filter = new FailingFilter();
+        filter.init(createFilterConfig());
+        StubAsyncSupport async = new StubAsyncSupport();
+        filter.setAsyncSupport(async);
+        filter.setAsyncThreads(2);
+
+        try {
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(new ByteArrayOutputStream()));
+
+            filter.doFilter(createRequest(null), response, createChain("\"4711\""));
+
+            assertTrue("Async processing not completed", async.completed.await(10, TimeUnit.SECONDS));
+            verify(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+
+            assertDecodeMemoryReleased(filter.getDecodeScheduler(), 1);
+        }
+        finally {
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void asyncProcessImageRejected() throws ServletException, IOException, InterruptedException {
+        CountingFilter filter = createCountingFilter();
+        filter.setDecodeTimeout(1);
+        StubAsyncSupport async = new StubAsyncSupport();
+        filter.setAsyncSupport(async);
+        filter.setAsyncThreads(2);
+
+        // Hold all the decode memory, so that the request is rejected
+        DecodeScheduler scheduler = filter.getDecodeScheduler();
+        DecodeScheduler.Permit permit = scheduler.acquire(scheduler.getMemoryLimit());
+
+        try {
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(new ByteArrayOutputStream()));
+
+            filter.doFilter(createRequest(null), response, createChain("\"4711\""));
+
+            assertTrue("Async processing not completed", async.completed.await(10, TimeUnit.SECONDS));
+            verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            assertEquals(0, filter.count.get());
+            assertEquals(1, scheduler.getRejectedCount());
+        }
+        finally {
+            permit.release();
+            filter.destroy();
+        }
+
+        assertDecodeMemoryReleased(scheduler, 1);
+    }
+
+    private static void assertDecodeMemoryReleased(final DecodeScheduler scheduler, final long admitted) {
+        assertEquals(admitted, scheduler.getAdmittedCount());
+        assertEquals(0, scheduler.getActiveCount());
+        assertEquals(0, scheduler.getUsedMemory());
+    }
+
+    private CountingFilter createCountingFilter() throws ServletException {
+        CountingFilter filter = new CountingFilter();
+        filter.init(createFilterConfig());
+
+        return filter;
+    }
+
+    private FilterConfig createFilterConfig() {
+        ServletContext context = mock(ServletContext.class);
+
+        FilterConfig filterConfig = mock(FilterConfig.class);
+        when(filterConfig.getFilterName()).thenReturn("dummy");
+        when(filterConfig.getServletContext()).thenReturn(context);
+        when(filterConfig.getInitParameterNames()).thenReturn(new StringTokenIterator("foo, bar"));
+
+        return filterConfig;
+    }
+
+    private DummyFilter createFilter(final String... parameters) throws ServletException {
+        final FilterConfig filterConfig = mock(FilterConfig.class);
+        when(filterConfig.getFilterName()).thenReturn("dummy");
+        when(filterConfig.getServletContext()).thenReturn(mock(ServletContext.class));
+
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < parameters.length; i += 2) {
+            names.append(parameters[i]).append(',');
+            when(filterConfig.getInitParameter(parameters[i])).thenReturn(parameters[i + 1]);
+        }
+
+        final String parameterNames = names.toString();
+        when(filterConfig.getInitParameterNames()).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return new StringTokenIterator(parameterNames, ",");
+            }
+        });
+
+        DummyFilter filter = new DummyFilter();
+        filter.init(filterConfig);
+
+        return filter;
+    }
+
+    private HttpServletRequest createRequest(final String ifNoneMatch) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/com/twelvemonkeys/servlet/image/12monkeys-splash.png");
+        when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+
+        return request;
+    }
+
+    private FilterChain createChain(final String etag) throws IOException, ServletException {
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                HttpServletResponse response = (HttpServletResponse) invocation.getArguments()[1];
+
+                response.setContentType("image/png");
+                response.setHeader("ETag", etag);
+                InputStream stream = getClass().getResourceAsStream("/com/twelvemonkeys/servlet/image/12monkeys-splash.png");
+                assertNotNull("Missing test resource", stream);
+                FileUtil.copy(stream, response.getOutputStream());
+
+                return null;
+            }
+        }).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        return chain;
+    }
+
+    private static class CountingFilter extends ImageFilter {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+
+        @Override
+        protected RenderedImage doFilter(BufferedImage image, ServletRequest request, ImageServletResponse response) throws IOException {
+            thread.set(Thread.currentThread());
+            count.incrementAndGet();
+            return image;
+        }
+    }
+
+    private static class FailingFilter extends ImageFilter {
+        @Override
+        protected RenderedImage doFilter(BufferedImage image, ServletRequest request, ImageServletResponse response) throws IOException {
+            throw new IOException("I've just picked up a fault in the AE35 unit.");
+        }
+    }
+
+    private static class StubAsyncSupport extends AsyncSupport {
+        final AtomicInteger started = new AtomicInteger();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+
+        @Override
+        Object startAsync(final ServletRequest pRequest, final ServletResponse pResponse) {
+            started.incrementAndGet();
+            return this;
+        }
+
+        @Override
+        void complete(final Object pAsyncContext) {
+            assertSame(this, pAsyncContext);
+            thread.set(Thread.currentThread());
+            completed.countDown();
+        }
+    }
+
     private static class DummyFilter extends ImageFilter {
         @Override
         protected RenderedImage doFilter(BufferedImage image, ServletRequest request, ImageServletResponse response) throws IOException {
@@ -168,6 +168,58 @@ public class ImageServletResponseImplTestCase {
         verify(response).getOutputStream();
     }
 
+    // Same as above, but with the original response buffered in a temporary file
+    @Test
+    public void testNoOpResponseTempFile() throws IOException {
+        FastByteArrayOutputStream out = new FastByteArrayOutputStream(STREAM_DEFAULT_SIZE);
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(out));
+
+        ImageServletResponseImpl imageResponse = new ImageServletResponseImpl(request, response, context, 0);
+        fakeResponse(request, imageResponse);
+
+        // Flush image to wrapped response
+        imageResponse.flush();
+
+        // Test that image data is untouched
+        assertTrue("Data differs", Arrays.equals(FileUtil.read(getClass().getResourceAsStream(IMAGE_NAME_PNG)), out.toByteArray()));
+
+        verify(response).setContentType(CONTENT_TYPE_PNG);
+        verify(response).getOutputStream();
+    }
+
+    @Test
+    public void testReadFromTempFile() throws IOException {
+        FastByteArrayOutputStream out = new FastByteArrayOutputStream(STREAM_DEFAULT_SIZE);
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new OutputStreamAdapter(out));
+
+        ImageServletResponseImpl imageResponse = new ImageServletResponseImpl(request, response, context, 1024);
+        fakeResponse(request, imageResponse);
+
+        // Make sure image is correctly loaded
+        BufferedImage image = imageResponse.getImage();
+        assertNotNull(image);
+        assertEquals(IMAGE_DIMENSION_PNG.width, image.getWidth());
+        assertEquals(IMAGE_DIMENSION_PNG.height, image.getHeight());
+
+        // Flush image to wrapped response
+        imageResponse.flush();
+
+        assertTrue("Content has no data", out.size() > 0);
+
+        // Test that image data is still readable
+        BufferedImage outImage = ImageIO.read(out.createInputStream());
+        assertNotNull(outImage);
+        assertEquals(image.getWidth(), outImage.getWidth());
+        assertEquals(image.getHeight(), outImage.getHeight());
+
+        verify(response).setContentType(CONTENT_TYPE_PNG);
+        verify(response).getOutputStream();
+    }
+
     // Transcode original PNG to JPEG with no other changes
     @Test
     public void testTranscodeResponsePNGToJPEG() throws IOException {
@@ -860,6 +912,37 @@ public class ImageServletResponseImplTestCase {
         verify(response).setContentType(CONTENT_TYPE_PNG);
     }
 
+    @Test
+    public void testReadDecodePathFull() throws IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+
+        ImageServletResponseImpl imageResponse = new ImageServletResponseImpl(request, response, context);
+        fakeResponse(request, imageResponse);
+
+        assertNotNull(imageResponse.getImage());
+        assertEquals("full", imageResponse.getDecodePath());
+        verify(request).setAttribute(ImageServletResponse.ATTRIB_DECODE_PATH, "full");
+    }
+
+    @Test
+    public void testReadDecodePathSubsampling() throws IOException {
+        // Custom setup
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getAttribute(ImageServletResponse.ATTRIB_SIZE)).thenReturn(new Dimension(30, 41));
+        when(request.getContextPath()).thenReturn("/ape");
+        when(request.getRequestURI()).thenReturn("/ape/" + IMAGE_NAME_PNG);
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+
+        ImageServletResponseImpl imageResponse = new ImageServletResponseImpl(request, response, context);
+        fakeResponse(request, imageResponse);
+
+        // PNG has no thumbnails or reduced resolution images
+        assertNotNull(imageResponse.getImage());
+        assertEquals("subsampling", imageResponse.getDecodePath());
+        verify(request).setAttribute(ImageServletResponse.ATTRIB_DECODE_PATH, "subsampling");
+    }
+
     @Test
     public void testReadWithResize() throws IOException {
         Dimension size = new Dimension(100, 120);
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016, Harald Kuhr
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name "TwelveMonkeys" nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.twelvemonkeys.servlet.image;
+
+import org.junit.Test;
+
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * SizeStrategiesTestCase
+ *
+ * @author <a href="mailto:harald.kuhr@gmail.com">Harald Kuhr</a>
+ * @author last modified by $Author: haraldk$
+ * @version $Id: SizeStrategiesTestCase.java,v 1.0 25.02.16 haraldk Exp$
+ */
+public class SizeStrategiesTestCase {
+    @Test
+    public void testAcceptableExactSize() {
+        assertTrue(SizeStrategies.isAcceptable(1600, 1200, 160, 120, new Dimension(160, 120), 2.0));
+    }
+
+    @Test
+    public void testAcceptableLargerThanSubsampled() {
+        assertTrue(SizeStrategies.isAcceptable(1600, 1200, 320, 240, new Dimension(100, 75), 2.0));
+        assertTrue(SizeStrategies.isAcceptable(1600, 1200, 200, 150, new Dimension(100, 75), 2.0));
+    }
+
+    @Test
+    public void testAcceptableRoundingErrors() {
+        assertTrue(SizeStrategies.isAcceptable(1001, 667, 501, 334, new Dimension(100, 67), 2.0));
+    }
+
+    @Test
+    public void testNotAcceptableTooSmall() {
+        assertFalse(SizeStrategies.isAcceptable(1600, 1200, 160, 120, new Dimension(100, 75), 2.0));
+        assertFalse(SizeStrategies.isAcceptable(1600, 1200, 160, 120, new Dimension(320, 240), 1.0));
+    }
+
+    @Test
+    public void testNotAcceptableAspectRatio() {
+        // Thumbnail letterboxed to 4:3, for a 16:9 image
+        assertFalse(SizeStrategies.isAcceptable(1920, 1080, 160, 120, new Dimension(64, 36), 2.0));
+    }
+
+    @Test
+    public void testNotAcceptableEmpty() {
+        assertFalse(SizeStrategies.isAcceptable(1600, 1200, 0, 0, new Dimension(100, 75), 2.0));
+    }
+
+    @Test
+    public void testThumbnail() throws IOException {
+        ImageReader reader = createReader(createJPEGWithThumbnail(800, 600, 160, 120));
+
+        try {
+            BufferedImage thumbnail = SizeStrategies.THUMBNAIL.read(reader, reader.getDefaultReadParam(), new Dimension(80, 60), 2.0);
+
+            assertNotNull(thumbnail);
+            assertEquals(160, thumbnail.getWidth());
+            assertEquals(120, thumbnail.getHeight());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testThumbnailTooSmall() throws IOException {
+        ImageReader reader = createReader(createJPEGWithThumbnail(800, 600, 160, 120));
+
+        try {
+            assertNull(SizeStrategies.THUMBNAIL.read(reader, reader.getDefaultReadParam(), new Dimension(400, 300), 2.0));
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testThumbnailSourceRegion() throws IOException {
+        ImageReader reader = createReader(createJPEGWithThumbnail(800, 600, 160, 120));
+
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, 0, 400, 300));
+
+            assertNull(SizeStrategies.THUMBNAIL.read(reader, param, new Dimension(40, 30), 2.0));
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReducedResolutionOtherFormat() throws IOException {
+        ImageReader reader = createReader(createJPEGWithThumbnail(800, 600, 160, 120));
+
+        try {
+            assertNull(SizeStrategies.REDUCED_RESOLUTION.read(reader, reader.getDefaultReadParam(), new Dimension(80, 60), 2.0));
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    private static byte[] createJPEGWithThumbnail(final int width, final int height, final int thumbnailWidth, final int thumbnailHeight) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("JPEG").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageOutputStream output = ImageIO.createImageOutputStream(bytes);
+
+        try {
+            writer.setOutput(output);
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_3BYTE_BGR);
+
+            writer.write(new IIOImage(image, Collections.singletonList(thumbnail), null));
+        }
+        finally {
+            output.close();
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static ImageReader createReader(final byte[] data) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+        ImageReader reader = ImageIO.getImageReaders(input).next();
+        reader.setInput(input);
+
+        return reader;
+    }
+}